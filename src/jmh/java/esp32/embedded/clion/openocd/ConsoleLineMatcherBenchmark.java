@@ -0,0 +1,92 @@
+package esp32.embedded.clion.openocd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Classification of a recorded OpenOCD console session. Every line is classified twice, once by the console
+ * filter and once by the download follower, like it happens at runtime. Both strategies of the matcher run with
+ * the built-in patterns alone and with additional user defined patterns, to check
+ * {@link ConsoleLineMatcher#SCAN_LIMIT}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConsoleLineMatcherBenchmark {
+
+    private static final String[] FAIL_STRINGS = {
+            "** Programming Failed **", "communication failure", "** OpenOCD init failed **"};
+    private static final String[] IGNORED_STRINGS = {
+            "clearing lockup after double fault", "LIB_USB_NOT_SUPPORTED"};
+    private static final String FLASH_SUCCESS_TEXT = "** Program Flash Complete! **";
+
+    @Param({"0", "8", "24"})
+    public int userPatterns;
+
+    @Param({"false", "true"})
+    public boolean automaton;
+
+    private ConsoleLineMatcher matcher;
+    private String[] lines;
+
+    @Setup
+    public void setUp() {
+        lines = BenchmarkData.CONSOLE_OUTPUT.toArray(new String[0]);
+        List<ConsoleLineMatcher.Pattern> patterns = new ArrayList<>();
+        for (String failString : FAIL_STRINGS) {
+            patterns.add(ConsoleLineMatcher.Pattern.contains(failString, ConsoleLineMatcher.FAILURE));
+        }
+        for (String ignoredString : IGNORED_STRINGS) {
+            patterns.add(ConsoleLineMatcher.Pattern.contains(ignoredString, ConsoleLineMatcher.IGNORED));
+        }
+        patterns.add(ConsoleLineMatcher.Pattern.contains(FLASH_SUCCESS_TEXT, ConsoleLineMatcher.SUCCESS));
+        patterns.add(ConsoleLineMatcher.Pattern.prefix("adapter speed", ConsoleLineMatcher.ADAPTER_SPEED));
+        patterns.add(ConsoleLineMatcher.Pattern.prefix("Error: ", ConsoleLineMatcher.ERROR));
+        for (int i = 0; i < userPatterns; i++) {
+            patterns.add(ConsoleLineMatcher.Pattern.contains("user pattern " + i, ConsoleLineMatcher.FAILURE));
+        }
+        matcher = new ConsoleLineMatcher(patterns, automaton);
+    }
+
+    @Benchmark
+    public void classify(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(matcher.classify(line));
+            blackhole.consume(matcher.classify(line));
+        }
+    }
+
+    /**
+     * The separate {@code String.contains} loops used before the matcher with the built-in patterns, as
+     * reference.
+     */
+    @Benchmark
+    public void containsLoops(Blackhole blackhole) {
+        for (String line : lines) {
+            String text = line.trim();
+            blackhole.consume(containsOneOf(text, FAIL_STRINGS));
+            blackhole.consume(containsOneOf(text, FAIL_STRINGS) || text.startsWith("adapter speed")
+                              || text.contains(FLASH_SUCCESS_TEXT)
+                              || text.startsWith("Error: ") && !containsOneOf(text, IGNORED_STRINGS));
+        }
+    }
+
+    private static boolean containsOneOf(String text, String[] parts) {
+        for (String part : parts) {
+            if (text.contains(part)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
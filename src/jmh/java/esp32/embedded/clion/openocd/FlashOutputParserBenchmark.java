@@ -0,0 +1,29 @@
+package esp32.embedded.clion.openocd;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Following the flash progress of a recorded OpenOCD console session.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FlashOutputParserBenchmark {
+
+    private static final long EXPECTED_BYTES = 36864 + 263136;
+
+    @Benchmark
+    public double parse() {
+        FlashOutputParser parser = new FlashOutputParser(EXPECTED_BYTES, true);
+        for (String line : BenchmarkData.CONSOLE_OUTPUT) {
+            parser.parse(line);
+        }
+        return parser.getFraction();
+    }
+}
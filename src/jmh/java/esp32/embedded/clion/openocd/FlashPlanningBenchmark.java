@@ -0,0 +1,74 @@
+package esp32.embedded.clion.openocd;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Planning a download: finding changed sectors, merging the regions of all images and hashing the images to
+ * compare them with the flash history.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FlashPlanningBenchmark {
+
+    private static final int BOOTLOADER_SIZE = 26 * 1024;
+    private static final int PARTITION_TABLE_SIZE = 3 * 1024;
+    private static final long BOOTLOADER_OFFSET = 0x1000;
+    private static final long PARTITION_TABLE_OFFSET = 0x8000;
+    private static final long APPLICATION_OFFSET = 0x10000;
+
+    @Param({"262144", "1048576", "4194304"})
+    public int imageSize;
+
+    private byte[] shadow;
+    private byte[] image;
+    private List<FlashPlanner.Segment> segments;
+    private Path imageFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        shadow = BenchmarkData.image(imageSize);
+        int sectors = imageSize / DeltaFlashPlanner.SECTOR_SIZE;
+        image = BenchmarkData.changeSectors(shadow, 0, 1, sectors / 2, sectors - 1);
+        segments = new ArrayList<>();
+        segments.add(new FlashPlanner.Segment(APPLICATION_OFFSET, image));
+        segments.add(new FlashPlanner.Segment(PARTITION_TABLE_OFFSET, BenchmarkData.image(PARTITION_TABLE_SIZE)));
+        segments.add(new FlashPlanner.Segment(BOOTLOADER_OFFSET, BenchmarkData.image(BOOTLOADER_SIZE)));
+        imageFile = Files.createTempFile("openocd-benchmark", ".bin");
+        Files.write(imageFile, image);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(imageFile);
+    }
+
+    @Benchmark
+    public List<DeltaFlashPlanner.Range> changedRanges() {
+        return DeltaFlashPlanner.changedRanges(shadow, image);
+    }
+
+    @Benchmark
+    public List<FlashPlanner.Segment> coalesce() {
+        return FlashPlanner.coalesce(segments, DeltaFlashPlanner.SECTOR_SIZE);
+    }
+
+    @Benchmark
+    public String sha256() throws IOException {
+        return ContentDigest.sha256(imageFile);
+    }
+}
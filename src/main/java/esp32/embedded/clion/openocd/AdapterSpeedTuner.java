@@ -0,0 +1,358 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.process.CapturingProcessAdapter;
+import com.intellij.execution.process.OSProcessHandler;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.options.ConfigurationException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.text.StringUtil;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Finds the highest adapter clock a board works reliably with. OpenOCD is started at the speed of the board
+ * script, then the speed is bisected between that and {@link #MAX_SPEED_KHZ}: a speed counts as stable if
+ * repeated reads of target ROM return the same words as at the default speed and, on known chips, a pattern
+ * written to RAM reads back unchanged. The result is confirmed with a longer run before it is reported.
+ */
+final class AdapterSpeedTuner {
+
+    private static final Logger LOG = Logger.getInstance(AdapterSpeedTuner.class);
+    private static final int MAX_SPEED_KHZ = 40_000;
+    private static final int RESOLUTION_KHZ = 500;
+    private static final int CHECK_ROUNDS = 8;
+    private static final int CONFIRM_ROUNDS = 32;
+    private static final int MEASURE_ROUNDS = 16;
+    private static final int BLOCK_WORDS = 256;
+    private static final long START_TIMEOUT_MS = 15_000;
+    private static final long COMMAND_TIMEOUT_MS = 10_000;
+    private static final long POLL_MS = 200;
+    private static final Pattern SPEED = Pattern.compile("(\\d+)\\s*kHz");
+    private static final Pattern HEX = Pattern.compile("0x[0-9a-fA-F]+");
+    /**
+     * Data RAM which neither the ROM nor OpenOCD use while the target is halted after reset.
+     */
+    private static final Map<String, Long> SCRATCH_RAM = Map.of(
+            "esp32", 0x3FFB0000L,
+            "esp32s2", 0x3FFB0000L,
+            "esp32s3", 0x3FC88000L,
+            "esp32c2", 0x3FCA0000L,
+            "esp32c3", 0x3FC88000L,
+            "esp32c6", 0x40810000L,
+            "esp32h2", 0x40810000L);
+
+    private final OpenOcdTclService tcl;
+    private final int port;
+    private final ProgressIndicator indicator;
+    private final long scratchAddress;
+    private int defaultSpeed;
+    private long readAddress;
+    private long[] reference;
+
+    private AdapterSpeedTuner(OpenOcdTclService tcl, int port, ProgressIndicator indicator, long scratchAddress) {
+        this.tcl = tcl;
+        this.port = port;
+        this.indicator = indicator;
+        this.scratchAddress = scratchAddress;
+    }
+
+    /**
+     * Tunes the adapter of a configuration. The OpenOCD process of the adapter is stopped first, because the
+     * adapter can only be used by one process.
+     */
+    @NotNull
+    static Result tune(@NotNull OpenOcdConfiguration config, @NotNull ProgressIndicator indicator)
+            throws ConfigurationException, ExecutionException {
+        OpenOcdComponent component = config.getProject().getService(OpenOcdComponent.class);
+        component.stopOpenOcd(config);
+        PortAllocator.Ports ports = component.allocatePorts(config);
+        GeneralCommandLine commandLine = OpenOcdComponent.createOcdBaseCommandLine(config, ports, false, true);
+        commandLine.addParameters("-c", "init", "-c", "reset halt");
+        OSProcessHandler process = new OSProcessHandler(commandLine);
+        CapturingProcessAdapter output = new CapturingProcessAdapter();
+        process.addProcessListener(output);
+        process.startNotify();
+        int port = ports.getTclPort();
+        OpenOcdTclService tcl = OpenOcdTclService.getInstance(config.getProject());
+        try {
+            indicator.setText2("Starting OpenOCD");
+            waitForServer(tcl, port, process, output, indicator);
+            return new AdapterSpeedTuner(tcl, port, indicator, findScratchAddress(config)).run();
+        } catch (IOException e) {
+            throw new ExecutionException("Adapter speed tuning failed: " + e.getMessage(), e);
+        } finally {
+            tcl.disconnect(port);
+            process.destroyProcess();
+            process.waitFor(1000);
+        }
+    }
+
+    private static void waitForServer(OpenOcdTclService tcl, int port, OSProcessHandler process,
+                                      CapturingProcessAdapter output, ProgressIndicator indicator)
+            throws ExecutionException, IOException {
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            indicator.checkCanceled();
+            if (process.isProcessTerminated()) {
+                throw new ExecutionException("OpenOCD stopped: " + lastLines(output.getOutput().getStderr()));
+            }
+            try {
+                tcl.execute(port, "version", POLL_MS).get();
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (java.util.concurrent.ExecutionException e) {
+                sleep(POLL_MS);
+            }
+        }
+        throw new ExecutionException("OpenOCD did not open its TCL port " + port + " within "
+                                     + START_TIMEOUT_MS / 1000 + " s");
+    }
+
+    @NotNull
+    private static String lastLines(@NotNull String text) {
+        String[] lines = StringUtil.splitByLines(text);
+        return String.join("\n", Arrays.copyOfRange(lines, Math.max(0, lines.length - 3), lines.length));
+    }
+
+    /**
+     * @return free RAM of the chip the board script selects, or {@code -1} if the chip is unknown
+     */
+    private static long findScratchAddress(@NotNull OpenOcdConfiguration config) {
+        String openOcdHome = config.getProject().getService(OpenOcdSettingsState.class).openOcdHome;
+        if (openOcdHome == null || config.getBoardConfigFile() == null) {
+            return -1;
+        }
+        try {
+            OpenOcdScriptCatalog.Catalog catalog = OpenOcdScriptCatalog.getInstance().getCatalog(openOcdHome)
+                    .get(COMMAND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            OpenOcdScriptCatalog.Script board = catalog.getScript(config.getBoardConfigFile());
+            String chip = board == null ? null : catalog.findChip(board);
+            return chip == null ? -1 : SCRATCH_RAM.getOrDefault(chip.toLowerCase(), -1L);
+        } catch (Exception e) {
+            LOG.info("Cannot find the chip of " + config.getBoardConfigFile(), e);
+            return -1;
+        }
+    }
+
+    @NotNull
+    private Result run() throws IOException {
+        indicator.setText2("Checking the default speed");
+        defaultSpeed = setSpeed(0);
+        if (defaultSpeed <= 0) {
+            throw new IOException("the adapter does not report a fixed clock");
+        }
+        readAddress = findReadAddress();
+        reference = readBlock();
+        if (!isStable(defaultSpeed, CHECK_ROUNDS)) {
+            throw new IOException("the board is not stable at its default speed of " + defaultSpeed + " kHz");
+        }
+        double defaultRate = measure();
+
+        int low = defaultSpeed;
+        int high = MAX_SPEED_KHZ;
+        while (high - low > RESOLUTION_KHZ) {
+            int speed = (low + high) / 2 / RESOLUTION_KHZ * RESOLUTION_KHZ;
+            if (speed <= low) {
+                speed = low + RESOLUTION_KHZ;
+            }
+            indicator.setText2("Trying " + speed + " kHz, stable up to " + low + " kHz");
+            indicator.setFraction((double) (low - defaultSpeed) / (MAX_SPEED_KHZ - defaultSpeed));
+            if (isStable(speed, CHECK_ROUNDS)) {
+                int actual = setSpeed(0);
+                if (actual < speed) {
+                    // the adapter does not go faster than this, no point in trying higher speeds
+                    low = actual;
+                    break;
+                }
+                low = speed;
+            } else {
+                high = speed;
+            }
+        }
+
+        int tuned = low;
+        indicator.setText2("Confirming " + tuned + " kHz");
+        while (tuned > defaultSpeed && !isStable(tuned, CONFIRM_ROUNDS)) {
+            tuned = Math.max(defaultSpeed, tuned - RESOLUTION_KHZ);
+            indicator.setText2("Confirming " + tuned + " kHz");
+        }
+        int actual = setSpeed(tuned);
+        Result result = new Result(defaultSpeed, actual, defaultRate, measure());
+        LOG.info("Adapter speed tuned: " + result);
+        return result;
+    }
+
+    /**
+     * @param speed the clock in kHz, {@code 0} to only query it
+     * @return the clock the adapter actually runs at, which may be lower than requested
+     */
+    private int setSpeed(int speed) throws IOException {
+        String reply = call(speed > 0 ? "adapter speed " + speed + "; adapter speed" : "adapter speed");
+        Matcher matcher = SPEED.matcher(reply);
+        int actual = -1;
+        while (matcher.find()) {
+            actual = Integer.parseInt(matcher.group(1));
+        }
+        return actual;
+    }
+
+    /**
+     * The program counter points to the reset vector in ROM after {@code reset halt}, which has the same content
+     * on every read.
+     */
+    private long findReadAddress() throws IOException {
+        Matcher matcher = HEX.matcher(call("reg pc"));
+        String last = null;
+        while (matcher.find()) {
+            last = matcher.group();
+        }
+        if (last == null) {
+            if (scratchAddress < 0) {
+                throw new IOException("cannot read the program counter");
+            }
+            return scratchAddress;
+        }
+        return Long.decode(last) & ~3L;
+    }
+
+    private boolean isStable(int speed, int rounds) throws IOException {
+        try {
+            setSpeed(speed);
+            for (int round = 0; round < rounds; round++) {
+                indicator.checkCanceled();
+                if (!Arrays.equals(reference, readBlock()) || scratchAddress >= 0 && !writeReadBack(round)) {
+                    LOG.info("Adapter speed " + speed + " kHz: data mismatch in round " + round);
+                    recover();
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            if (e instanceof InterruptedIOException) {
+                throw e;
+            }
+            LOG.info("Adapter speed " + speed + " kHz: " + e.getMessage());
+            recover();
+            return false;
+        }
+    }
+
+    /**
+     * Goes back to the default speed and resets the target, as JTAG errors may leave it in an unknown state.
+     */
+    private void recover() throws IOException {
+        setSpeed(defaultSpeed);
+        call("catch {reset halt}");
+    }
+
+    private boolean writeReadBack(int round) throws IOException {
+        long[] original = readMemory(scratchAddress);
+        long[] pattern = new long[BLOCK_WORDS];
+        for (int i = 0; i < pattern.length; i++) {
+            // alternating bits, shifted every word and round so stuck or crossed lines show up
+            pattern[i] = (round % 2 == 0 ? 0xA5A5A5A5L : 0x5A5A5A5AL) ^ (i * 0x01010101L + round) & 0xFFFFFFFFL;
+        }
+        writeBlock(pattern);
+        long[] readBack = readMemory(scratchAddress);
+        writeBlock(original);
+        return Arrays.equals(pattern, readBack);
+    }
+
+    private void writeBlock(long[] words) throws IOException {
+        StringBuilder command = new StringBuilder("write_memory 0x").append(Long.toHexString(scratchAddress))
+                .append(" 32 {");
+        for (long word : words) {
+            command.append(" 0x").append(Long.toHexString(word));
+        }
+        call(command.append(" }").toString());
+    }
+
+    @NotNull
+    private long[] readBlock() throws IOException {
+        return readMemory(readAddress);
+    }
+
+    @NotNull
+    private long[] readMemory(long address) throws IOException {
+        return await(tcl.readMemory(port, address, BLOCK_WORDS, COMMAND_TIMEOUT_MS));
+    }
+
+    /**
+     * @return the read throughput in KiB/s at the current speed
+     */
+    private double measure() throws IOException {
+        long startNanos = System.nanoTime();
+        for (int round = 0; round < MEASURE_ROUNDS; round++) {
+            readBlock();
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return MEASURE_ROUNDS * BLOCK_WORDS * 4 / 1024.0 / seconds;
+    }
+
+    @NotNull
+    private String call(@NotNull String command) throws IOException {
+        return await(tcl.executeChecked(port, command, COMMAND_TIMEOUT_MS));
+    }
+
+    private static <T> T await(@NotNull CompletableFuture<T> reply) throws IOException {
+        try {
+            return reply.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (java.util.concurrent.ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Default and tuned speed with the read throughput measured at each.
+     */
+    static final class Result {
+        private final int defaultSpeed;
+        private final int tunedSpeed;
+        private final double defaultKibPerSecond;
+        private final double tunedKibPerSecond;
+
+        Result(int defaultSpeed, int tunedSpeed, double defaultKibPerSecond, double tunedKibPerSecond) {
+            this.defaultSpeed = defaultSpeed;
+            this.tunedSpeed = tunedSpeed;
+            this.defaultKibPerSecond = defaultKibPerSecond;
+            this.tunedKibPerSecond = tunedKibPerSecond;
+        }
+
+        int getDefaultSpeed() {
+            return defaultSpeed;
+        }
+
+        int getTunedSpeed() {
+            return tunedSpeed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d kHz (%.1f KiB/s) -> %d kHz (%.1f KiB/s)", defaultSpeed, defaultKibPerSecond,
+                    tunedSpeed, tunedKibPerSecond);
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Builds the ESP application image directly from the ELF, so the image that gets flashed always matches the ELF
+ * that gets debugged, even if the build did not regenerate the {@code .bin}. The layout follows
+ * {@code esptool elf2image}: sections are merged where adjacent, segments mapped from flash are placed at the
+ * file offsets the MMU needs with RAM segments or padding in between, followed by the checksum and the SHA-256
+ * trailer. Flash mode, size and frequency and the chip come from the header of the {@code .bin} of the build,
+ * which the ELF does not contain.
+ * <p>
+ * The ELF is memory mapped and the image is streamed to disk without copying section data. Images are cached by
+ * ELF digest. A rebuild whose loadable segments are all unchanged reuses the previous image, which is therefore
+ * still recognized as flashed.
+ */
+final class AppImageBuilder {
+
+    private static final Logger LOG = Logger.getInstance(AppImageBuilder.class);
+    private static final String IMAGES_DIR = "openocd-esp32/images";
+    private static final int MAX_CACHED_IMAGES = 8;
+    private static final int ELF_MAGIC = 0x464C457F;
+    private static final int ELF_CLASS_32 = 1;
+    private static final int ELF_DATA_LSB = 1;
+    private static final int[] LOADED_SECTION_TYPES = {1, 14, 15, 16};
+    private static final int HEADER_LENGTH = 24;
+    private static final int SEGMENT_HEADER_LENGTH = 8;
+    private static final int IMAGE_MAGIC = 0xE9;
+    private static final int HASH_APPENDED_OFFSET = 23;
+    private static final int CHIP_ID_OFFSET = 12;
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MMU_PAGE = 0x10000;
+    private static final int MMU_PAGE_TAIL = 0x24;
+    private static final int ESP32_CHIP_ID = 0;
+    private static final int CHECKSUM_SEED = 0xEF;
+    private static final int APP_DESC_MAGIC = 0xABCD5432;
+    private static final int ELF_SHA256_OFFSET = 0xB0;
+    /**
+     * Address ranges mapped from flash by chip id of the image header.
+     */
+    private static final Map<Integer, long[][]> FLASH_RANGES = Map.of(
+            0, new long[][]{{0x3F400000L, 0x3F800000L}, {0x400D0000L, 0x40400000L}},
+            2, new long[][]{{0x3F000000L, 0x3F400000L}, {0x40080000L, 0x40B80000L}},
+            5, new long[][]{{0x3C000000L, 0x3C800000L}, {0x42000000L, 0x42800000L}},
+            9, new long[][]{{0x3C000000L, 0x3E000000L}, {0x42000000L, 0x44000000L}},
+            12, new long[][]{{0x3C000000L, 0x3C400000L}, {0x42000000L, 0x42400000L}},
+            13, new long[][]{{0x42000000L, 0x43000000L}},
+            16, new long[][]{{0x42000000L, 0x43000000L}});
+
+    private static final Map<String, Build> LAST_BUILDS = new ConcurrentHashMap<>();
+
+    private AppImageBuilder() {
+    }
+
+    /**
+     * @param elf      the ELF of the application
+     * @param template the image of the build, for its header
+     * @return the image built from the ELF, possibly cached
+     * @throws IOException if the ELF or the template cannot be read or the image layout is not supported
+     */
+    @NotNull
+    static synchronized File build(@NotNull File elf, @NotNull File template) throws IOException {
+        String elfDigest = FlashHistory.digest(elf);
+        if (elfDigest == null) {
+            throw new IOException("Cannot read " + elf);
+        }
+        byte[] header = readHeader(template);
+        String key = elf.getAbsolutePath();
+        Build last = LAST_BUILDS.get(key);
+        if (last != null && !Arrays.equals(last.header, header)) {
+            // flash settings changed, nothing of the last build can be reused
+            last = null;
+        }
+        if (last != null && last.elfDigest.equals(elfDigest) && last.image.isFile()) {
+            return last.image;
+        }
+        long startNanos = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(elf.toPath(), StandardOpenOption.READ)) {
+            // a mapping keeps the file locked on Windows until it is collected, which would break the next link
+            ByteBuffer mapped = SystemInfo.isWindows ? ByteBuffer.wrap(Files.readAllBytes(elf.toPath()))
+                    : channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            long[][] flashRanges = FLASH_RANGES.get(readChipId(header));
+            if (flashRanges == null) {
+                throw new IOException("Unknown chip id " + readChipId(header) + " in " + template);
+            }
+            List<Segment> segments = readSegments(mapped, flashRanges);
+            Map<Long, String> segmentDigests = digestSegments(segments);
+            if (last != null && last.segmentDigests.equals(segmentDigests) && last.entry == entry(mapped)
+                && last.image.isFile()) {
+                LOG.info("No loadable segment of " + elf + " changed, keeping " + last.image);
+                LAST_BUILDS.put(key, new Build(elfDigest, header, last.image, segmentDigests, last.entry));
+                return last.image;
+            }
+            if (last != null) {
+                reportChanges(elf, last.segmentDigests, segmentDigests);
+            }
+            File image = new File(PathManager.getSystemPath(), IMAGES_DIR + "/" + elfDigest + "-"
+                                                               + HexFormat.of().formatHex(header) + ".bin");
+            if (!image.isFile()) {
+                List<Segment> layout = layout(segments, readChipId(header));
+                write(image, header, entry(mapped), layout,
+                        hasAppDescription(layout, flashRanges) ? HexFormat.of().parseHex(elfDigest) : null);
+                pruneCache(image);
+            }
+            LOG.info("Built " + image + " from " + elf + " in " + (System.nanoTime() - startNanos) / 1_000_000
+                     + " ms");
+            LAST_BUILDS.put(key, new Build(elfDigest, header, image, segmentDigests, entry(mapped)));
+            return image;
+        } catch (RuntimeException e) {
+            // malformed ELF files show up as buffer underflows or index errors
+            throw new IOException("Cannot parse " + elf + ": " + e, e);
+        }
+    }
+
+    @NotNull
+    private static byte[] readHeader(@NotNull File template) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        try (FileChannel channel = FileChannel.open(template.toPath(), StandardOpenOption.READ)) {
+            if (channel.read(ByteBuffer.wrap(header)) != HEADER_LENGTH || (header[0] & 0xFF) != IMAGE_MAGIC) {
+                throw new IOException(template + " is not an ESP image");
+            }
+        }
+        return header;
+    }
+
+    /**
+     * @return the chip id in the header of an ESP image
+     * @throws IOException if the file cannot be read or is no ESP image
+     */
+    static int readChipId(@NotNull File image) throws IOException {
+        return readChipId(readHeader(image));
+    }
+
+    /**
+     * @return the address ranges mapped from flash on a chip or {@code null} if the chip id is unknown
+     */
+    @Nullable
+    static long[][] getFlashRanges(int chipId) {
+        return FLASH_RANGES.get(chipId);
+    }
+
+    private static int readChipId(@NotNull byte[] header) {
+        return (header[CHIP_ID_OFFSET] & 0xFF) | (header[CHIP_ID_OFFSET + 1] & 0xFF) << 8;
+    }
+
+    private static long entry(@NotNull ByteBuffer elf) {
+        return Integer.toUnsignedLong(elf.getInt(24));
+    }
+
+    /**
+     * @return the allocated sections with content, sorted by address like esptool does and merged where they are
+     * adjacent and of the same kind of memory
+     */
+    @NotNull
+    private static List<Segment> readSegments(@NotNull ByteBuffer elf, long[][] flashRanges) throws IOException {
+        if (elf.getInt(0) != ELF_MAGIC || elf.get(4) != ELF_CLASS_32 || elf.get(5) != ELF_DATA_LSB) {
+            throw new IOException("not a 32-bit little endian ELF file");
+        }
+        int sectionOffset = elf.getInt(32);
+        int sectionSize = Short.toUnsignedInt(elf.getShort(46));
+        int sectionCount = Short.toUnsignedInt(elf.getShort(48));
+        List<Segment> sections = new ArrayList<>();
+        for (int i = 0; i < sectionCount; i++) {
+            int section = sectionOffset + i * sectionSize;
+            int type = elf.getInt(section + 4);
+            long address = Integer.toUnsignedLong(elf.getInt(section + 12));
+            int offset = elf.getInt(section + 16);
+            int size = elf.getInt(section + 20);
+            if (Arrays.stream(LOADED_SECTION_TYPES).noneMatch(loaded -> loaded == type) || address == 0
+                || size <= 0) {
+                continue;
+            }
+            Segment segment = new Segment(address, isFlash(address, flashRanges));
+            segment.append(elf.slice(offset, size));
+            segment.padTo(4);
+            sections.add(segment);
+        }
+        // the linker does not have to emit sections in address order, adjacent ones are only found once sorted
+        sections.sort(Comparator.comparingLong(segment -> segment.address));
+        List<Segment> segments = new ArrayList<>();
+        for (Segment segment : sections) {
+            Segment previous = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (previous != null && previous.flash == segment.flash
+                && previous.address + previous.length == segment.address) {
+                previous.chunks.addAll(segment.chunks);
+                previous.length += segment.length;
+            } else {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    static boolean isFlash(long address, long[][] flashRanges) {
+        for (long[] range : flashRanges) {
+            if (address >= range[0] && address < range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Orders the segments like esptool: segments mapped from flash first, each starting at a file offset with the
+     * same position in its 64 KiB MMU page as its address; the gaps are filled with the start of RAM segments or
+     * with padding. The remaining RAM segments follow.
+     */
+    @NotNull
+    private static List<Segment> layout(@NotNull List<Segment> segments, int chipId) throws IOException {
+        List<Segment> flash = new ArrayList<>();
+        List<Segment> ram = new ArrayList<>();
+        for (Segment segment : segments) {
+            (segment.flash ? flash : ram).add(segment);
+        }
+        flash.sort(Comparator.comparingLong(segment -> segment.address));
+        ram.sort(Comparator.comparingLong(segment -> segment.address));
+        for (int i = 1; i < flash.size(); i++) {
+            if (flash.get(i).address / MMU_PAGE == flash.get(i - 1).address / MMU_PAGE) {
+                throw new IOException(String.format("segments at 0x%08x and 0x%08x share a flash page",
+                        flash.get(i - 1).address, flash.get(i).address));
+            }
+        }
+        List<Segment> layout = new ArrayList<>();
+        long position = HEADER_LENGTH;
+        while (!flash.isEmpty()) {
+            Segment segment = flash.get(0);
+            long padding = alignmentPadding(position, segment.address);
+            Segment written;
+            if (padding > 0) {
+                if (!ram.isEmpty() && padding > SEGMENT_HEADER_LENGTH) {
+                    written = ram.get(0).split(Math.min(padding, ram.get(0).length));
+                    if (ram.get(0).length == 0) {
+                        ram.remove(0);
+                    }
+                } else {
+                    written = new Segment(0, false);
+                    written.append(ByteBuffer.allocate((int) padding));
+                }
+            } else {
+                written = flash.remove(0);
+                long tail = (position + SEGMENT_HEADER_LENGTH + written.length) % MMU_PAGE;
+                if (chipId == ESP32_CHIP_ID && tail < MMU_PAGE_TAIL) {
+                    // older ESP32 bootloaders do not map the last page if a segment ends just past its start
+                    written.append(ByteBuffer.allocate((int) (MMU_PAGE_TAIL - tail)));
+                }
+            }
+            layout.add(written);
+            position += SEGMENT_HEADER_LENGTH + written.length;
+        }
+        layout.addAll(ram);
+        if (layout.size() > MAX_SEGMENTS) {
+            throw new IOException(layout.size() + " segments, the bootloader supports " + MAX_SEGMENTS);
+        }
+        return layout;
+    }
+
+    /**
+     * @return whether the image starts with the app description, which holds the SHA-256 of the ELF
+     */
+    private static boolean hasAppDescription(@NotNull List<Segment> layout, long[][] flashRanges) {
+        if (layout.isEmpty() || !isFlash(layout.get(0).address, flashRanges)
+            || HEADER_LENGTH + SEGMENT_HEADER_LENGTH + layout.get(0).length < ELF_SHA256_OFFSET + 32) {
+            return false;
+        }
+        ByteBuffer first = layout.get(0).chunks.get(0);
+        return first.remaining() >= 4
+               && first.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(first.position()) == APP_DESC_MAGIC;
+    }
+
+    private static long alignmentPadding(long position, long address) {
+        long alignPast = address % MMU_PAGE - SEGMENT_HEADER_LENGTH;
+        long padding = MMU_PAGE - position % MMU_PAGE + alignPast;
+        if (padding == 0 || padding == MMU_PAGE) {
+            return 0;
+        }
+        padding -= SEGMENT_HEADER_LENGTH;
+        return padding < 0 ? padding + MMU_PAGE : padding;
+    }
+
+    private static void write(@NotNull File image, @NotNull byte[] template, long entry,
+                              @NotNull List<Segment> layout, @Nullable byte[] elfSha256) throws IOException {
+        byte[] header = template.clone();
+        header[1] = (byte) layout.size();
+        ByteBuffer.wrap(header, 4, 4).order(ByteOrder.LITTLE_ENDIAN).putInt((int) entry);
+        boolean hashAppended = header[HASH_APPENDED_OFFSET] == 1;
+        FileUtil.createParentDirs(image);
+        File temp = new File(image.getPath() + ".tmp");
+        MessageDigest sha256 = sha256();
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             OutputStream output = Channels.newOutputStream(channel)) {
+            ImageWriter writer = new ImageWriter(output, sha256);
+            writer.write(ByteBuffer.wrap(header), false);
+            for (Segment segment : layout) {
+                ByteBuffer segmentHeader = ByteBuffer.allocate(SEGMENT_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+                segmentHeader.putInt((int) segment.address).putInt((int) segment.length).flip();
+                writer.write(segmentHeader, false);
+                for (ByteBuffer chunk : segment.chunks) {
+                    writer.write(writer.patchElfSha256(chunk.duplicate(), elfSha256), true);
+                }
+            }
+            writer.write(ByteBuffer.allocate((int) (15 - writer.position % 16)), false);
+            writer.write(ByteBuffer.wrap(new byte[]{(byte) writer.checksum}), false);
+            if (hashAppended) {
+                output.write(sha256.digest());
+            }
+        }
+        Files.move(temp.toPath(), image.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @NotNull
+    private static Map<Long, String> digestSegments(@NotNull List<Segment> segments) {
+        Map<Long, String> digests = new LinkedHashMap<>();
+        for (Segment segment : segments) {
+            MessageDigest sha256 = sha256();
+            for (ByteBuffer chunk : segment.chunks) {
+                sha256.update(chunk.duplicate());
+            }
+            digests.put(segment.address, HexFormat.of().formatHex(sha256.digest()));
+        }
+        return digests;
+    }
+
+    private static void reportChanges(@NotNull File elf, @NotNull Map<Long, String> before,
+                                      @NotNull Map<Long, String> after) {
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<Long, String> segment : after.entrySet()) {
+            if (!segment.getValue().equals(before.get(segment.getKey()))) {
+                changed.add(String.format("0x%08x", segment.getKey()));
+            }
+        }
+        for (Long address : before.keySet()) {
+            if (!after.containsKey(address)) {
+                changed.add(String.format("0x%08x (removed)", address));
+            }
+        }
+        LOG.info(changed.size() + " of " + after.size() + " loadable segments of " + elf + " changed: " + changed);
+    }
+
+    /**
+     * Keeps the newest images, an older one is only needed again if a build is reverted.
+     */
+    private static void pruneCache(@NotNull File keep) {
+        File[] images = keep.getParentFile().listFiles((dir, name) -> name.endsWith(".bin"));
+        if (images == null || images.length <= MAX_CACHED_IMAGES) {
+            return;
+        }
+        Arrays.sort(images, Comparator.comparingLong(File::lastModified).reversed());
+        for (int i = MAX_CACHED_IMAGES; i < images.length; i++) {
+            if (!images[i].equals(keep) && !isInUse(images[i])) {
+                FileUtil.delete(images[i]);
+            }
+        }
+    }
+
+    private static boolean isInUse(@NotNull File image) {
+        for (Build build : LAST_BUILDS.values()) {
+            if (build.image.equals(image)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NotNull
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Contiguous data loaded to one address, kept as slices of the mapped ELF.
+     */
+    private static final class Segment {
+        private long address;
+        private final boolean flash;
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private long length;
+
+        Segment(long address, boolean flash) {
+            this.address = address;
+            this.flash = flash;
+        }
+
+        void append(@NotNull ByteBuffer chunk) {
+            chunks.add(chunk);
+            length += chunk.remaining();
+        }
+
+        void padTo(int alignment) {
+            long padding = (alignment - length % alignment) % alignment;
+            if (padding > 0) {
+                append(ByteBuffer.allocate((int) padding));
+            }
+        }
+
+        /**
+         * Moves the first bytes to a new segment, this one keeps the rest.
+         */
+        @NotNull
+        Segment split(long count) {
+            Segment head = new Segment(address, flash);
+            while (head.length < count) {
+                ByteBuffer chunk = chunks.get(0);
+                int needed = (int) (count - head.length);
+                if (chunk.remaining() <= needed) {
+                    head.append(chunks.remove(0));
+                } else {
+                    head.append(chunk.slice(chunk.position(), needed));
+                    chunks.set(0, chunk.slice(chunk.position() + needed, chunk.remaining() - needed));
+                }
+            }
+            address += count;
+            length -= count;
+            return head;
+        }
+    }
+
+    /**
+     * Writes the image while keeping the file position, the segment data checksum and the SHA-256 of all bytes.
+     */
+    private static final class ImageWriter {
+        private final OutputStream output;
+        private final MessageDigest sha256;
+        private long position;
+        private int checksum = CHECKSUM_SEED;
+
+        ImageWriter(OutputStream output, MessageDigest sha256) {
+            this.output = output;
+            this.sha256 = sha256;
+        }
+
+        void write(@NotNull ByteBuffer data, boolean segmentData) throws IOException {
+            byte[] buffer = new byte[Math.min(data.remaining(), 64 * 1024)];
+            while (data.hasRemaining()) {
+                int count = Math.min(buffer.length, data.remaining());
+                data.get(buffer, 0, count);
+                output.write(buffer, 0, count);
+                sha256.update(buffer, 0, count);
+                if (segmentData) {
+                    for (int i = 0; i < count; i++) {
+                        checksum ^= buffer[i] & 0xFF;
+                    }
+                }
+                position += count;
+            }
+        }
+
+        /**
+         * @return the chunk with the bytes at {@link #ELF_SHA256_OFFSET} replaced by the SHA-256 of the ELF
+         */
+        @NotNull
+        ByteBuffer patchElfSha256(@NotNull ByteBuffer chunk, @Nullable byte[] elfSha256) {
+            if (elfSha256 == null) {
+                return chunk;
+            }
+            long from = Math.max(position, ELF_SHA256_OFFSET);
+            long to = Math.min(position + chunk.remaining(), ELF_SHA256_OFFSET + elfSha256.length);
+            if (from >= to) {
+                return chunk;
+            }
+            ByteBuffer patched = ByteBuffer.allocate(chunk.remaining());
+            patched.put(chunk.duplicate()).flip();
+            for (long i = from; i < to; i++) {
+                patched.put((int) (i - position), elfSha256[(int) (i - ELF_SHA256_OFFSET)]);
+            }
+            return patched;
+        }
+    }
+
+    private static final class Build {
+        private final String elfDigest;
+        private final byte[] header;
+        private final File image;
+        private final Map<Long, String> segmentDigests;
+        private final long entry;
+
+        Build(String elfDigest, byte[] header, File image, Map<Long, String> segmentDigests, long entry) {
+            this.elfDigest = Objects.requireNonNull(elfDigest);
+            this.header = header;
+            this.image = image;
+            this.segmentDigests = segmentDigests;
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.options.ConfigurationException;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Receives the application trace of an ESP target through the running OpenOCD. OpenOCD polls the trace buffer of
+ * the target and sends the data to a local socket, {@code esp apptrace start tcp://...}; the application writes
+ * its log there e.g. with {@code esp_log_set_vprintf(esp_apptrace_vprintf)}.
+ * <p>
+ * One thread reads the socket into a bounded queue of chunks, another one decodes them into lines which are
+ * passed on as process output. If the lines are not taken fast enough the reader stops reading, so TCP flow
+ * control holds OpenOCD back, which leaves the data in the trace buffer of the target instead of dropping it. The
+ * apptrace console takes them as fast as it writes its log file.
+ */
+final class ApptraceReceiver extends ProcessHandler {
+
+    private static final Logger LOG = Logger.getInstance(ApptraceReceiver.class);
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int QUEUED_CHUNKS = 64;
+    private static final int ACCEPT_TIMEOUT_MS = 10_000;
+    private static final long TCL_TIMEOUT_MS = 5_000;
+    private static final int POLL_PERIOD_MS = 1;
+    private static final byte[] END = new byte[0];
+
+    private final OpenOcdConfiguration config;
+    private final int tclPort;
+    private final ServerSocket serverSocket;
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final long startNanos = System.nanoTime();
+    private volatile long receivedBytes;
+    @Nullable
+    private volatile Socket socket;
+
+    ApptraceReceiver(@NotNull OpenOcdConfiguration config, int tclPort, @NotNull ServerSocket serverSocket) {
+        this.config = config;
+        this.tclPort = tclPort;
+        this.serverSocket = serverSocket;
+    }
+
+    /**
+     * Starts the trace on the OpenOCD server of the configuration. The data is received once {@link #startNotify()}
+     * is called, after the listeners were added.
+     *
+     * @throws ConfigurationException if the server is not running or the trace cannot be started
+     */
+    @NotNull
+    static ApptraceReceiver start(@NotNull OpenOcdConfiguration config) throws ConfigurationException {
+        OpenOcdComponent component = config.getProject().getService(OpenOcdComponent.class);
+        PortAllocator.Ports ports = component.getServerPorts(config);
+        if (ports == null) {
+            throw new ConfigurationException("OpenOCD is not running for " + config.getName()
+                                             + ". Start a debug session first.", "OpenOCD Apptrace Error");
+        }
+        if (!OpenOcdComponent.usesTclPort(config)) {
+            throw new ConfigurationException("The trace is started through the TCL port, which OpenOCD only opens "
+                                             + "if it is kept running between debug sessions or uses automatic "
+                                             + "ports. Enable one of them for " + config.getName() + ".",
+                    "OpenOCD Apptrace Error");
+        }
+        ServerSocket serverSocket;
+        try {
+            serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            serverSocket.setSoTimeout(ACCEPT_TIMEOUT_MS);
+        } catch (IOException e) {
+            throw new ConfigurationException("Cannot open a local port for the trace: " + e.getMessage(),
+                    "OpenOCD Apptrace Error");
+        }
+        ApptraceReceiver receiver = new ApptraceReceiver(config, ports.getTclPort(), serverSocket);
+        String command = String.format("esp apptrace start tcp://%s:%d %d -1 -1 0 0",
+                serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort(), POLL_PERIOD_MS);
+        try {
+            OpenOcdTclService.getInstance(config.getProject())
+                    .executeChecked(ports.getTclPort(), command, TCL_TIMEOUT_MS).join();
+        } catch (RuntimeException e) {
+            receiver.closeSockets();
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new ConfigurationException("OpenOCD cannot start the trace: " + cause.getMessage(),
+                    "OpenOCD Apptrace Error");
+        }
+        return receiver;
+    }
+
+    @Override
+    public void startNotify() {
+        super.startNotify();
+        AppExecutorUtil.getAppExecutorService().execute(this::receive);
+        AppExecutorUtil.getAppExecutorService().execute(this::decode);
+    }
+
+    private void receive() {
+        try (Socket accepted = serverSocket.accept()) {
+            socket = accepted;
+            InputStream input = accepted.getInputStream();
+            while (!stopped.get()) {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                int length = input.readNBytes(buffer, 0, 1);
+                if (length <= 0) {
+                    break;
+                }
+                // take what else is already there without waiting for more
+                length += input.read(buffer, 1, Math.min(input.available(), CHUNK_SIZE - 1));
+                receivedBytes += length;
+                chunks.put(length == CHUNK_SIZE ? buffer : Arrays.copyOf(buffer, length));
+            }
+        } catch (SocketTimeoutException e) {
+            notifyTextAvailable("OpenOCD did not connect to the trace port\n", ProcessOutputTypes.SYSTEM);
+        } catch (IOException e) {
+            if (!stopped.get()) {
+                LOG.info("Apptrace connection closed", e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                chunks.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Decodes the chunks as UTF-8, also characters split between chunks, and passes complete lines on.
+     */
+    private void decode() {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE + 8);
+        CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE + 8);
+        StringBuilder line = new StringBuilder();
+        try {
+            while (true) {
+                byte[] chunk = chunks.take();
+                if (chunk == END) {
+                    break;
+                }
+                bytes.put(chunk).flip();
+                decoder.decode(bytes, chars, false);
+                bytes.compact();
+                chars.flip();
+                while (chars.hasRemaining()) {
+                    char c = chars.get();
+                    line.append(c);
+                    if (c == '\n' || line.length() >= CHUNK_SIZE) {
+                        notifyTextAvailable(line.toString(), ProcessOutputTypes.STDOUT);
+                        line.setLength(0);
+                    }
+                }
+                chars.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!line.isEmpty()) {
+            notifyTextAvailable(line + "\n", ProcessOutputTypes.STDOUT);
+        }
+        stop();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        notifyTextAvailable(String.format("Apptrace stopped, %d KiB received in %.1f s (%.1f KiB/s)\n",
+                receivedBytes / 1024, seconds, receivedBytes / 1024.0 / seconds), ProcessOutputTypes.SYSTEM);
+        notifyProcessTerminated(0);
+    }
+
+    /**
+     * Stops the trace in OpenOCD and closes the connection. The decoder passes on what it already received and
+     * then terminates.
+     */
+    private void stop() {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
+        OpenOcdTclService.getInstance(config.getProject())
+                .execute(tclPort, "esp apptrace stop", TCL_TIMEOUT_MS)
+                .whenComplete((reply, error) -> closeSockets());
+    }
+
+    private void closeSockets() {
+        try {
+            serverSocket.close();
+            Socket accepted = socket;
+            if (accepted != null) {
+                accepted.close();
+            }
+        } catch (IOException e) {
+            LOG.info("Cannot close the apptrace sockets", e);
+        }
+    }
+
+    @Override
+    protected void destroyProcessImpl() {
+        stop();
+    }
+
+    @Override
+    protected void detachProcessImpl() {
+        stop();
+    }
+
+    @Override
+    public boolean detachIsDefault() {
+        return false;
+    }
+
+    @Nullable
+    @Override
+    public OutputStream getProcessInput() {
+        return null;
+    }
+}
@@ -0,0 +1,69 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.options.ConfigurationException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.MessageType;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Captures the SystemView trace of the boards of the selected run configurations until the capture is cancelled,
+ * then opens it in the SystemView tool window.
+ */
+public class CaptureSysviewAction extends AnAction {
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        e.getPresentation().setEnabled(project != null && !findRunning(project).isEmpty());
+    }
+
+    @NotNull
+    @Override
+    public ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+        List<OpenOcdConfiguration> configs = FlashAllAction.chooseConfigurations(project, "Capture SystemView",
+                "Run configurations of the boards to capture:");
+        for (OpenOcdConfiguration config : configs) {
+            new Task.Backgroundable(project, "Capturing SystemView of " + config.getName() + " (cancel to stop)",
+                    true) {
+                @Override
+                public void run(@NotNull ProgressIndicator indicator) {
+                    indicator.setIndeterminate(true);
+                    try {
+                        File capture = SysviewCapture.capture(config, indicator);
+                        ApplicationManager.getApplication().invokeLater(
+                                () -> SysviewToolWindowFactory.show(project, capture), project.getDisposed());
+                    } catch (ConfigurationException exception) {
+                        Informational.showPluginError(project, exception);
+                    } catch (IOException exception) {
+                        Informational.showMessage(project, MessageType.ERROR,
+                                "SystemView capture failed: " + exception.getMessage());
+                    }
+                }
+            }.queue();
+        }
+    }
+
+    @NotNull
+    private static List<OpenOcdConfiguration> findRunning(@NotNull Project project) {
+        OpenOcdComponent component = project.getService(OpenOcdComponent.class);
+        return FlashAllAction.findConfigurations(project).stream().filter(component::isServerRunning).toList();
+    }
+}
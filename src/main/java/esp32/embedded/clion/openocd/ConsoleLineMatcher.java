@@ -0,0 +1,259 @@
+package esp32.embedded.clion.openocd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Classifies OpenOCD output lines against all known patterns in one pass using an Aho-Corasick automaton.
+ * <p>
+ * The result is a bit mask of the matched kinds. The automaton is a plain transition table, so a line costs one
+ * array lookup per character however many patterns there are. For the few built-in patterns, separate
+ * {@link String#contains} calls are faster because the JIT vectorizes them, so the automaton is only used once
+ * user defined patterns make the set large enough.
+ */
+public final class ConsoleLineMatcher {
+
+    public static final int FAILURE = 1;
+    public static final int SUCCESS = 1 << 1;
+    public static final int CUSTOM_SUCCESS = 1 << 2;
+    public static final int IGNORED = 1 << 3;
+    public static final int ADAPTER_SPEED = 1 << 4;
+    public static final int ERROR = 1 << 5;
+
+    private static final int ASCII = 128;
+    /**
+     * Pattern count up to which scanning for every pattern beats the automaton, see
+     * {@code ConsoleLineMatcherBenchmark}.
+     */
+    static final int SCAN_LIMIT = 16;
+
+    @Nullable
+    private final Pattern[] scanPatterns;
+
+    /**
+     * Maps characters to columns of the transition table: ASCII directly, other characters used in patterns
+     * after that. Characters not used in any pattern lead back to the root state.
+     */
+    private final Map<Character, Integer> extraColumns = new HashMap<>();
+    private final int columns;
+    /**
+     * Complete transition table, {@code transitions[state * columns + column]}.
+     */
+    private final int[] transitions;
+    /**
+     * Kinds of unanchored patterns ending in a state, including those reachable through failure links.
+     */
+    private final int[] output;
+    /**
+     * Kinds of patterns which only match at the start of a line and end in a state.
+     */
+    private final int[] prefixOutput;
+    private final int[] depth;
+
+    public ConsoleLineMatcher(@NotNull List<Pattern> patterns) {
+        this(patterns, patterns.size() > SCAN_LIMIT);
+    }
+
+    ConsoleLineMatcher(@NotNull List<Pattern> patterns, boolean useAutomaton) {
+        scanPatterns = useAutomaton ? null : patterns.toArray(new Pattern[0]);
+        for (Pattern pattern : patterns) {
+            for (char c : pattern.text.toCharArray()) {
+                if (c >= ASCII && !extraColumns.containsKey(c)) {
+                    extraColumns.put(c, ASCII + extraColumns.size());
+                }
+            }
+        }
+        columns = ASCII + extraColumns.size();
+
+        List<int[]> trie = new ArrayList<>();
+        List<Integer> stateDepth = new ArrayList<>();
+        List<Integer> stateOutput = new ArrayList<>();
+        List<Integer> statePrefixOutput = new ArrayList<>();
+        addState(trie, stateDepth, stateOutput, statePrefixOutput, 0);
+        for (Pattern pattern : patterns) {
+            if (pattern.text.isEmpty()) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < pattern.text.length(); i++) {
+                int column = column(pattern.text.charAt(i));
+                int next = trie.get(state)[column];
+                if (next < 0) {
+                    next = addState(trie, stateDepth, stateOutput, statePrefixOutput, stateDepth.get(state) + 1);
+                    trie.get(state)[column] = next;
+                }
+                state = next;
+            }
+            if (pattern.prefix) {
+                statePrefixOutput.set(state, statePrefixOutput.get(state) | pattern.kind);
+            } else {
+                stateOutput.set(state, stateOutput.get(state) | pattern.kind);
+            }
+        }
+
+        int states = trie.size();
+        transitions = new int[states * columns];
+        output = new int[states];
+        prefixOutput = new int[states];
+        depth = new int[states];
+        for (int state = 0; state < states; state++) {
+            output[state] = stateOutput.get(state);
+            prefixOutput[state] = statePrefixOutput.get(state);
+            depth[state] = stateDepth.get(state);
+        }
+        buildTransitions(trie);
+    }
+
+    private int addState(List<int[]> trie, List<Integer> stateDepth, List<Integer> stateOutput,
+                         List<Integer> statePrefixOutput, int newDepth) {
+        int[] edges = new int[columns];
+        Arrays.fill(edges, -1);
+        trie.add(edges);
+        stateDepth.add(newDepth);
+        stateOutput.add(0);
+        statePrefixOutput.add(0);
+        return trie.size() - 1;
+    }
+
+    /**
+     * Turns the trie into a complete automaton: a missing edge continues where the failure link of the state
+     * would, so matching needs exactly one table lookup per character.
+     */
+    private void buildTransitions(List<int[]> trie) {
+        int[] failure = new int[trie.size()];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int column = 0; column < columns; column++) {
+            int child = trie.get(0)[column];
+            transitions[column] = Math.max(child, 0);
+            if (child > 0) {
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            output[state] |= output[failure[state]];
+            for (int column = 0; column < columns; column++) {
+                int child = trie.get(state)[column];
+                int fallback = transitions[failure[state] * columns + column];
+                if (child < 0) {
+                    transitions[state * columns + column] = fallback;
+                } else {
+                    transitions[state * columns + column] = child;
+                    failure[child] = fallback;
+                    queue.add(child);
+                }
+            }
+        }
+    }
+
+    private int column(char c) {
+        if (c < ASCII) {
+            return c;
+        }
+        Integer column = extraColumns.get(c);
+        return column == null ? -1 : column;
+    }
+
+    /**
+     * @return the bit mask of all pattern kinds found in the trimmed line
+     */
+    public int classify(@Nullable String line) {
+        if (line == null) {
+            return 0;
+        }
+        int start = 0;
+        int end = line.length();
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (scanPatterns != null) {
+            return scan(line.substring(start, end));
+        }
+        int[] table = transitions;
+        int width = columns;
+        int kinds = 0;
+        int state = 0;
+        int i = start;
+        // While the line start is still followed, anchored patterns can match as well
+        for (; i < end; i++) {
+            int column = column(line.charAt(i));
+            state = column < 0 ? 0 : table[state * width + column];
+            if (depth[state] != i - start + 1) {
+                kinds |= output[state];
+                i++;
+                break;
+            }
+            kinds |= output[state] | prefixOutput[state];
+        }
+        for (; i < end; i++) {
+            char c = line.charAt(i);
+            int column = c < ASCII ? c : column(c);
+            state = column < 0 ? 0 : table[state * width + column];
+            kinds |= output[state];
+        }
+        return kinds;
+    }
+
+    private int scan(@NotNull String text) {
+        int kinds = 0;
+        for (Pattern pattern : scanPatterns) {
+            if (!pattern.text.isEmpty()
+                && (pattern.prefix ? text.startsWith(pattern.text) : text.contains(pattern.text))) {
+                kinds |= pattern.kind;
+            }
+        }
+        return kinds;
+    }
+
+    public static boolean is(int kinds, int kind) {
+        return (kinds & kind) != 0;
+    }
+
+    /**
+     * Splits a {@code ;} separated list of user defined patterns.
+     */
+    @NotNull
+    public static List<Pattern> parsePatterns(@Nullable String patterns, int kind) {
+        List<Pattern> result = new ArrayList<>();
+        if (patterns != null) {
+            for (String pattern : patterns.split(";")) {
+                if (!pattern.isBlank()) {
+                    result.add(Pattern.contains(pattern.trim(), kind));
+                }
+            }
+        }
+        return result;
+    }
+
+    public static final class Pattern {
+        private final String text;
+        private final int kind;
+        private final boolean prefix;
+
+        private Pattern(@NotNull String text, int kind, boolean prefix) {
+            this.text = text;
+            this.kind = kind;
+            this.prefix = prefix;
+        }
+
+        @NotNull
+        public static Pattern contains(@NotNull String text, int kind) {
+            return new Pattern(text, kind, false);
+        }
+
+        @NotNull
+        public static Pattern prefix(@NotNull String text, int kind) {
+            return new Pattern(text, kind, true);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package esp32.embedded.clion.openocd;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps the latest output of a process in a fixed amount of native memory. Every chunk of text is stored as a
+ * record of its kind, its length and its UTF-8 bytes; new records overwrite the oldest ones. Positions count
+ * all bytes ever appended, so readers following the stream at their own pace can tell how much they missed.
+ */
+final class ConsoleRingBuffer {
+
+    private static final int RECORD_HEADER = 5;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    /**
+     * Position of the next record.
+     */
+    private long head;
+    /**
+     * Position of the oldest record still in the buffer.
+     */
+    private long tail;
+
+    ConsoleRingBuffer(int capacity) {
+        this.capacity = capacity;
+        buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Appends a chunk, of which only the end is kept if it is larger than a quarter of the buffer.
+     */
+    synchronized void append(int kind, @NotNull String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int maxLength = capacity / 4 - RECORD_HEADER;
+        if (bytes.length > maxLength) {
+            bytes = Arrays.copyOfRange(bytes, bytes.length - maxLength, bytes.length);
+        }
+        long end = head + RECORD_HEADER + bytes.length;
+        while (end - tail > capacity) {
+            tail += RECORD_HEADER + readInt(tail + 1);
+        }
+        buffer.put(index(head), (byte) kind);
+        writeInt(head + 1, bytes.length);
+        copy(head + RECORD_HEADER, bytes, true);
+        head = end;
+    }
+
+    synchronized long getHead() {
+        return head;
+    }
+
+    /**
+     * @return how many bytes after the position were overwritten before they were read
+     */
+    synchronized long lostSince(long position) {
+        return Math.max(0, tail - position);
+    }
+
+    /**
+     * @return the position of the oldest record among the newest ones taking at most the given number of bytes
+     */
+    synchronized long findRecent(long bytes) {
+        long position = tail;
+        while (head - position > bytes) {
+            position += RECORD_HEADER + readInt(position + 1);
+        }
+        return position;
+    }
+
+    /**
+     * Passes the records from the position on, or from the oldest one if it was overwritten, until at least
+     * {@code maxBytes} were read.
+     *
+     * @return the position after the last record read
+     */
+    synchronized long read(long position, long maxBytes, @NotNull RecordConsumer consumer) {
+        long start = Math.max(position, tail);
+        long next = start;
+        while (next < head && next - start < maxBytes) {
+            int kind = buffer.get(index(next));
+            byte[] bytes = new byte[readInt(next + 1)];
+            copy(next + RECORD_HEADER, bytes, false);
+            consumer.accept(kind, new String(bytes, StandardCharsets.UTF_8));
+            next += RECORD_HEADER + bytes.length;
+        }
+        return next;
+    }
+
+    private int index(long position) {
+        return (int) (position % capacity);
+    }
+
+    private int readInt(long position) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value |= (buffer.get(index(position + i)) & 0xFF) << (8 * i);
+        }
+        return value;
+    }
+
+    private void writeInt(long position, int value) {
+        for (int i = 0; i < 4; i++) {
+            buffer.put(index(position + i), (byte) (value >>> (8 * i)));
+        }
+    }
+
+    private void copy(long position, byte[] bytes, boolean toBuffer) {
+        int start = index(position);
+        int first = Math.min(bytes.length, capacity - start);
+        if (toBuffer) {
+            buffer.put(start, bytes, 0, first);
+            buffer.put(0, bytes, first, bytes.length - first);
+        } else {
+            buffer.get(start, bytes, 0, first);
+            buffer.get(0, bytes, first, bytes.length - first);
+        }
+    }
+
+    interface RecordConsumer {
+        void accept(int kind, @NotNull String text);
+    }
+}
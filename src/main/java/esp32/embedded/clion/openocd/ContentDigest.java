@@ -0,0 +1,36 @@
+package esp32.embedded.clion.openocd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * SHA-256 of image files, streamed so large images are not loaded completely.
+ */
+final class ContentDigest {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ContentDigest() {
+    }
+
+    @NotNull
+    static String sha256(@NotNull Path file) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                sha256.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(sha256.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.xdebugger.XDebugSession;
+import com.intellij.xdebugger.XDebugSessionListener;
+import com.jetbrains.cidr.execution.debugger.CidrDebugProcess;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Waits for debugger state changes without occupying a thread. Suspension is reported by session events; the
+ * connection state has no event of its own and is checked on the shared scheduler at a low rate. All waits time
+ * out and are cancelled when the session stops.
+ */
+final class DebuggerStateWaiter {
+
+    static final long CONNECT_TIMEOUT_MS = 60_000;
+    static final long SUSPEND_TIMEOUT_MS = 10_000;
+    private static final Logger LOG = Logger.getInstance(DebuggerStateWaiter.class);
+    private static final String CONNECTED_STATE = "Connected";
+    private static final long CONNECT_POLL_MS = 20;
+
+    private DebuggerStateWaiter() {
+    }
+
+    /**
+     * Completes with the connect latency in milliseconds once GDB reports the connection to OpenOCD.
+     */
+    @NotNull
+    static CompletableFuture<Long> whenConnected(@NotNull CidrDebugProcess debugProcess) {
+        CompletableFuture<Long> connected = new CompletableFuture<>();
+        long startNanos = System.nanoTime();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        AtomicLong waitCpuNanos = new AtomicLong();
+        ScheduledFuture<?> poll = AppExecutorUtil.getAppScheduledExecutorService().scheduleWithFixedDelay(() -> {
+            long cpuStart = threads.getCurrentThreadCpuTime();
+            if (CONNECTED_STATE.equals(debugProcess.getCurrentStateMessage())) {
+                connected.complete(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            }
+            waitCpuNanos.addAndGet(threads.getCurrentThreadCpuTime() - cpuStart);
+        }, 0, CONNECT_POLL_MS, TimeUnit.MILLISECONDS);
+        cancelOnStop(debugProcess.getSession(), connected);
+        connected.orTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS).whenComplete((latency, error) -> {
+            poll.cancel(false);
+            if (latency != null) {
+                LOG.info(String.format("GDB connected after %d ms; waiting used %.2f ms CPU time where busy "
+                                       + "waiting used about %d ms", latency,
+                        waitCpuNanos.get() / 1_000_000.0, latency));
+            }
+        });
+        return connected;
+    }
+
+    /**
+     * Completes once the session is suspended, immediately if it already is.
+     */
+    @NotNull
+    static CompletableFuture<Void> whenSuspended(@NotNull XDebugSession session) {
+        CompletableFuture<Void> suspended = new CompletableFuture<>();
+        XDebugSessionListener listener = new XDebugSessionListener() {
+            @Override
+            public void sessionPaused() {
+                suspended.complete(null);
+            }
+
+            @Override
+            public void sessionStopped() {
+                suspended.completeExceptionally(new CancellationException("Debug session stopped"));
+            }
+        };
+        session.addSessionListener(listener);
+        if (session.isSuspended()) {
+            suspended.complete(null);
+        }
+        suspended.orTimeout(SUSPEND_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete((ignored, error) -> session.removeSessionListener(listener));
+        return suspended;
+    }
+
+    /**
+     * Completes at the next suspension, e.g. the first breakpoint hit after a resume, ignoring the current state.
+     */
+    @NotNull
+    static CompletableFuture<Void> whenNextSuspended(@NotNull XDebugSession session, long timeoutMs) {
+        CompletableFuture<Void> suspended = new CompletableFuture<>();
+        XDebugSessionListener listener = new XDebugSessionListener() {
+            @Override
+            public void sessionPaused() {
+                suspended.complete(null);
+            }
+        };
+        session.addSessionListener(listener);
+        cancelOnStop(session, suspended);
+        suspended.orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .whenComplete((ignored, error) -> session.removeSessionListener(listener));
+        return suspended;
+    }
+
+    private static void cancelOnStop(@NotNull XDebugSession session, @NotNull CompletableFuture<?> future) {
+        XDebugSessionListener listener = new XDebugSessionListener() {
+            @Override
+            public void sessionStopped() {
+                future.completeExceptionally(new CancellationException("Debug session stopped"));
+            }
+        };
+        session.addSessionListener(listener);
+        future.whenComplete((ignored, error) -> session.removeSessionListener(listener));
+    }
+}
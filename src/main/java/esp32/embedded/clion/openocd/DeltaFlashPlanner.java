@@ -0,0 +1,78 @@
+package esp32.embedded.clion.openocd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Compares a new flash image with the copy that was last written to the device and finds the sectors that
+ * actually have to be erased and written again.
+ */
+public final class DeltaFlashPlanner {
+
+    public static final int SECTOR_SIZE = 4096;
+
+    private DeltaFlashPlanner() {
+    }
+
+    /**
+     * @param shadow the image last flashed at the same offset
+     * @param image  the image to flash now
+     * @return changed byte ranges of {@code image}, sector aligned, with neighbouring sectors merged
+     */
+    @NotNull
+    public static List<Range> changedRanges(@NotNull byte[] shadow, @NotNull byte[] image) {
+        List<Range> ranges = new ArrayList<>();
+        int rangeStart = -1;
+        for (int start = 0; start < image.length; start += SECTOR_SIZE) {
+            int end = Math.min(start + SECTOR_SIZE, image.length);
+            if (sectorDiffers(shadow, image, start, end)) {
+                if (rangeStart < 0) {
+                    rangeStart = start;
+                }
+            } else if (rangeStart >= 0) {
+                ranges.add(new Range(rangeStart, start));
+                rangeStart = -1;
+            }
+        }
+        if (rangeStart >= 0) {
+            ranges.add(new Range(rangeStart, image.length));
+        }
+        return ranges;
+    }
+
+    private static boolean sectorDiffers(byte[] shadow, byte[] image, int start, int end) {
+        if (shadow.length < end) {
+            return true;
+        }
+        return !Arrays.equals(shadow, start, end, image, start, end);
+    }
+
+    public static final class Range {
+        private final int start;
+        private final int end;
+
+        public Range(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public int getLength() {
+            return end - start;
+        }
+
+        @Override
+        public String toString() {
+            return "[0x" + Integer.toHexString(start) + ", 0x" + Integer.toHexString(end) + ")";
+        }
+    }
+}
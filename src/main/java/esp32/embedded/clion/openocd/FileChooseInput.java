@@ -1,20 +1,29 @@
 package esp32.embedded.clion.openocd;
 
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.CustomShortcutSet;
 import com.intellij.openapi.fileChooser.FileChooser;
 import com.intellij.openapi.fileChooser.FileChooserDescriptor;
 import com.intellij.openapi.fileChooser.FileChooserDescriptorFactory;
 import com.intellij.openapi.options.ConfigurationException;
+import com.intellij.openapi.project.DumbAwareAction;
 import com.intellij.openapi.ui.TextFieldWithBrowseButton;
+import com.intellij.openapi.ui.popup.JBPopupFactory;
 import com.intellij.openapi.util.InvalidDataException;
 import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.ui.ColoredListCellRenderer;
+import com.intellij.ui.SimpleTextAttributes;
 import com.intellij.ui.components.JBTextField;
 import com.intellij.ui.components.fields.valueEditors.TextFieldValueEditor;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Supplier;
+import javax.swing.JList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -32,24 +41,106 @@ public abstract class FileChooseInput extends TextFieldWithBrowseButton {
 
         editor = new FileTextFieldValueEditor(valueName, defValue);
         fileDescriptor = createFileChooserDescriptor().withFileFilter(this::validateFile);
-        installPathCompletion(fileDescriptor);
-        addActionListener(e -> {
-            VirtualFile virtualFile = null;
-            String text = getTextField().getText();
-            if (text != null && !text.isEmpty())
-                try {
-                    virtualFile = parseTextToFile(text);
-                } catch (InvalidDataException ignored) {
-                    virtualFile = LocalFileSystem.getInstance().findFileByPath(text);
-                }
-            if (virtualFile == null) {
-                virtualFile = getDefaultLocation();
+        if (usePathCompletion()) {
+            installPathCompletion(fileDescriptor);
+        }
+        addActionListener(e -> browse());
+    }
+
+    protected boolean usePathCompletion() {
+        return true;
+    }
+
+    protected void browse() {
+        browseFiles();
+    }
+
+    protected final void browseFiles() {
+        VirtualFile virtualFile = null;
+        String text = getTextField().getText();
+        if (text != null && !text.isEmpty())
+            try {
+                virtualFile = parseTextToFile(text);
+            } catch (InvalidDataException ignored) {
+                virtualFile = LocalFileSystem.getInstance().findFileByPath(text);
             }
-            VirtualFile chosenFile = FileChooser.chooseFile(fileDescriptor, null, virtualFile);
-            if (chosenFile != null) {
-                getTextField().setText(fileToTextValue(chosenFile));
+        if (virtualFile == null) {
+            virtualFile = getDefaultLocation();
+        }
+        VirtualFile chosenFile = FileChooser.chooseFile(fileDescriptor, null, virtualFile);
+        if (chosenFile != null) {
+            getTextField().setText(fileToTextValue(chosenFile));
+        }
+    }
+
+    /**
+     * Shows the scripts of a folder from the {@link OpenOcdScriptCatalog}, filtered by the text typed so far and
+     * searchable by path, chip and transport. Ctrl+Space in the text field opens it as well. Falls back to the
+     * file chooser while the catalog is not indexed yet.
+     */
+    protected void installScriptCompletion(@NotNull String folder, @NotNull Supplier<String> ocdHome) {
+        new DumbAwareAction() {
+            @Override
+            public void actionPerformed(@NotNull AnActionEvent e) {
+                chooseScript(folder, ocdHome);
+            }
+        }.registerCustomShortcutSet(CustomShortcutSet.fromString("control SPACE"), getTextField());
+    }
+
+    protected void chooseScript(@NotNull String folder, @NotNull Supplier<String> ocdHome) {
+        OpenOcdScriptCatalog.Catalog catalog = ocdHome.get() == null ? null
+                : OpenOcdScriptCatalog.getInstance().getCatalogNow(ocdHome.get());
+        if (catalog == null) {
+            browseFiles();
+            return;
+        }
+        String typed = getTextField().getText().trim();
+        List<OpenOcdScriptCatalog.Script> scripts = new ArrayList<>();
+        for (OpenOcdScriptCatalog.Script script : catalog.getScripts(folder)) {
+            if (typed.isEmpty() || catalog.contains(typed) || script.matches(typed)) {
+                scripts.add(script);
             }
-        });
+        }
+        if (scripts.isEmpty()) {
+            scripts = catalog.getScripts(folder);
+        }
+        JBPopupFactory.getInstance().createPopupChooserBuilder(scripts)
+                .setTitle(getValueName())
+                .setRenderer(new ColoredListCellRenderer<>() {
+                    @Override
+                    protected void customizeCellRenderer(@NotNull JList<? extends OpenOcdScriptCatalog.Script> list,
+                                                         OpenOcdScriptCatalog.Script script, int index,
+                                                         boolean selected, boolean hasFocus) {
+                        append(script.getPath());
+                        String details = describe(catalog, script);
+                        if (!details.isEmpty()) {
+                            append("  " + details, SimpleTextAttributes.GRAYED_ATTRIBUTES);
+                        }
+                        if (!script.getDescription().isEmpty()) {
+                            append("  " + script.getDescription(), SimpleTextAttributes.GRAYED_ITALIC_ATTRIBUTES);
+                        }
+                    }
+                })
+                .setNamerForFiltering(script -> script.getPath() + " " + describe(catalog, script))
+                .setAdText("Chip and transport come from the script and the scripts it sources")
+                .setItemChosenCallback(script -> getTextField().setText(script.getPath()))
+                .createPopup()
+                .showUnderneathOf(this);
+    }
+
+    @NotNull
+    private static String describe(@NotNull OpenOcdScriptCatalog.Catalog catalog,
+                                   @NotNull OpenOcdScriptCatalog.Script script) {
+        List<String> details = new ArrayList<>();
+        String chip = catalog.findChip(script);
+        if (chip != null) {
+            details.add(chip);
+        }
+        String transport = catalog.findTransport(script);
+        if (transport != null) {
+            details.add(transport);
+        }
+        return String.join(", ", details);
     }
 
     protected VirtualFile getDefaultLocation() {
@@ -89,6 +180,17 @@ public abstract class FileChooseInput extends TextFieldWithBrowseButton {
         public BoardCfg(String valueName, VirtualFile defValue, Supplier<String> ocdHome) {
             super(valueName, defValue);
             this.ocdHome = ocdHome;
+            installScriptCompletion(BOARD_FOLDER, ocdHome);
+        }
+
+        @Override
+        protected boolean usePathCompletion() {
+            return false;
+        }
+
+        @Override
+        protected void browse() {
+            chooseScript(BOARD_FOLDER, ocdHome);
         }
 
         @Override
@@ -165,6 +267,17 @@ public abstract class FileChooseInput extends TextFieldWithBrowseButton {
         public InterfaceCfg(String valueName, VirtualFile defValue, Supplier<String> ocdHome) {
             super(valueName, defValue);
             this.ocdHome = ocdHome;
+            installScriptCompletion(INTERFACE_FOLDER, ocdHome);
+        }
+
+        @Override
+        protected boolean usePathCompletion() {
+            return false;
+        }
+
+        @Override
+        protected void browse() {
+            chooseScript(INTERFACE_FOLDER, ocdHome);
         }
 
         @Override
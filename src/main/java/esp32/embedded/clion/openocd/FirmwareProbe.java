@@ -0,0 +1,172 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.process.CapturingProcessHandler;
+import com.intellij.execution.process.ProcessOutput;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.options.ConfigurationException;
+import com.intellij.openapi.util.io.FileUtil;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reads back small, identifying parts of every image from target flash and compares them with the local build.
+ * <p>
+ * ESP images start with the image header, the first segment header and the {@code esp_app_desc_t}, which holds
+ * the SHA-256 of the ELF. With {@code hash_appended} set, the last 32 bytes are a SHA-256 over the whole image.
+ * Matching head and tail therefore means the device already runs this firmware. Small images like the
+ * partition table are compared completely.
+ */
+final class FirmwareProbe {
+
+    private static final Logger LOG = Logger.getInstance(FirmwareProbe.class);
+    private static final int ESP_IMAGE_MAGIC = 0xE9;
+    private static final int HASH_APPENDED_OFFSET = 23;
+    private static final int HEAD_LENGTH = 24 + 8 + 256;
+    private static final int HASH_LENGTH = 32;
+    private static final int FULL_COMPARE_LIMIT = 4096;
+    private static final int PROBE_TIMEOUT_MS = 30_000;
+
+    private FirmwareProbe() {
+    }
+
+    /**
+     * Probes all images and records the result in {@link FlashHistory}: matching images are marked as flashed,
+     * all others are forgotten.
+     *
+     * @return whether every image is already present on the device
+     */
+    static boolean check(OpenOcdComponent component, OpenOcdConfiguration config, PortAllocator.Ports ports,
+                         File runFile) {
+        List<FlashImage> images = FlashImage.collect(config, runFile);
+        String deviceKey = OpenOcdComponent.createDeviceKey(config);
+        List<Region> regions = new ArrayList<>();
+        for (FlashImage image : images) {
+            try {
+                regions.addAll(probeRegions(deviceKey, image));
+            } catch (IOException e) {
+                LOG.info("Cannot probe " + image, e);
+                return recordResult(config, images, List.of());
+            }
+        }
+        if (regions.isEmpty() || !readRegions(component, config, ports, regions)) {
+            return recordResult(config, images, List.of());
+        }
+        List<FlashImage> matching = new ArrayList<>(images);
+        for (Region region : regions) {
+            if (!region.matches()) {
+                LOG.info("Device content differs for " + region.image);
+                matching.remove(region.image);
+            }
+        }
+        return recordResult(config, images, matching);
+    }
+
+    private static boolean recordResult(OpenOcdConfiguration config, List<FlashImage> images,
+                                        List<FlashImage> matching) {
+        String deviceKey = OpenOcdComponent.createDeviceKey(config);
+        FlashHistory history = FlashHistory.getInstance();
+        for (FlashImage image : images) {
+            if (matching.contains(image)) {
+                history.recordFlashed(deviceKey, List.of(image));
+            } else {
+                history.forget(deviceKey, image);
+            }
+        }
+        return matching.size() == images.size();
+    }
+
+    @NotNull
+    private static List<Region> probeRegions(String deviceKey, FlashImage image) throws IOException {
+        long offset = image.getOffsetValue();
+        if (offset < 0) {
+            throw new IOException("Invalid offset " + image.getOffset());
+        }
+        byte[] content = Files.readAllBytes(image.getFile().toPath());
+        List<Region> regions = new ArrayList<>();
+        if (content.length <= FULL_COMPARE_LIMIT) {
+            regions.add(new Region(deviceKey, image, content, offset, 0, content.length));
+            return regions;
+        }
+        regions.add(new Region(deviceKey, image, content, offset, 0, HEAD_LENGTH));
+        boolean hashAppended = (content[0] & 0xFF) == ESP_IMAGE_MAGIC && content[HASH_APPENDED_OFFSET] == 1;
+        if (hashAppended) {
+            regions.add(new Region(deviceKey, image, content, offset, content.length - HASH_LENGTH,
+                    content.length));
+        }
+        return regions;
+    }
+
+    private static boolean readRegions(OpenOcdComponent component, OpenOcdConfiguration config,
+                                       PortAllocator.Ports ports, List<Region> regions) {
+        List<String> commands = new ArrayList<>();
+        for (Region region : regions) {
+            FileUtil.delete(region.readBack);
+            commands.add("flash read_bank " + config.getFlashBank() + " "
+                         + region.readBack.getAbsolutePath().replace(File.separatorChar, '/')
+                         + " 0x" + Long.toHexString(region.address) + " " + region.expected.length);
+        }
+        PortAllocator.Ports running = component.getServerPorts(config);
+        if (config.getPersistentServer() && running != null) {
+            // flash drivers run on the target, which therefore has to be halted like in the launch below
+            commands.add(0, "halt");
+            try {
+                OpenOcdTclService.getInstance(config.getProject())
+                        .executeChecked(running.getTclPort(), String.join("; ", commands), PROBE_TIMEOUT_MS)
+                        .get();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (java.util.concurrent.ExecutionException e) {
+                LOG.info("Cannot probe firmware through the running OpenOCD", e);
+                return false;
+            }
+        }
+        try {
+            GeneralCommandLine commandLine = OpenOcdComponent.createOcdBaseCommandLine(config, ports);
+            commandLine.addParameters("-c", "init", "-c", "reset halt");
+            for (String command : commands) {
+                commandLine.addParameters("-c", command);
+            }
+            commandLine.addParameters("-c", "shutdown");
+            ProcessOutput output = new CapturingProcessHandler(commandLine).runProcess(PROBE_TIMEOUT_MS);
+            if (output.isTimeout() || output.getExitCode() != 0) {
+                LOG.info("Firmware probe failed: " + output.getStderr());
+                return false;
+            }
+            return true;
+        } catch (ConfigurationException | ExecutionException e) {
+            LOG.info("Cannot start OpenOCD for firmware probe", e);
+            return false;
+        }
+    }
+
+    private static final class Region {
+        private final FlashImage image;
+        private final byte[] expected;
+        private final long address;
+        private final File readBack;
+
+        private Region(String deviceKey, FlashImage image, byte[] content, long imageOffset, int start, int end) {
+            this.image = image;
+            this.expected = Arrays.copyOfRange(content, start, end);
+            this.address = imageOffset + start;
+            this.readBack = ShadowImageStore.scratchFile("probe", deviceKey, address);
+        }
+
+        private boolean matches() {
+            try {
+                return readBack.isFile() && Arrays.equals(expected, Files.readAllBytes(readBack.toPath()));
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
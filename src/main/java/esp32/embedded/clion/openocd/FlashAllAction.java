@@ -0,0 +1,246 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.ExecutionTargetManager;
+import com.intellij.execution.RunManager;
+import com.intellij.execution.RunnerAndConfigurationSettings;
+import com.intellij.ide.util.ChooseElementsDialog;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.options.ConfigurationException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.MessageType;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.swing.Icon;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Programs several boards at once. Every selected run configuration gets the OpenOCD process of its adapter, so
+ * the configurations need different adapter serials, and different ports unless they use automatic ports. The
+ * images last built for the active build profile are written; nothing is built.
+ */
+public class FlashAllAction extends AnAction {
+
+    private static final Logger LOG = Logger.getInstance(FlashAllAction.class);
+    private static final long PROGRESS_UPDATE_MS = 100;
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        e.getPresentation().setEnabled(project != null && !findConfigurations(project).isEmpty());
+    }
+
+    @NotNull
+    @Override
+    public ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+        List<OpenOcdConfiguration> configs = chooseConfigurations(project, "Flash All Boards",
+                "Run configurations to program concurrently:");
+        if (configs.isEmpty()) {
+            return;
+        }
+        try {
+            checkAdapters(configs);
+        } catch (ConfigurationException exception) {
+            Informational.showPluginError(project, exception);
+            return;
+        }
+        String targetProfileName = ExecutionTargetManager.getActiveTarget(project).getDisplayName();
+        new Task.Backgroundable(project, "Flashing " + configs.size() + " Boards", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                flashAll(project, configs, targetProfileName, indicator);
+            }
+        }.queue();
+    }
+
+    @NotNull
+    static List<OpenOcdConfiguration> chooseConfigurations(@NotNull Project project, @NotNull String title,
+                                                           @NotNull String message) {
+        ChooseElementsDialog<OpenOcdConfiguration> dialog = new ChooseElementsDialog<>(project,
+                findConfigurations(project), title, message, true) {
+            @Override
+            protected String getItemText(OpenOcdConfiguration item) {
+                String serial = item.getAdapterSerial();
+                return serial.isEmpty() ? item.getName() : item.getName() + " (" + serial + ")";
+            }
+
+            @Nullable
+            @Override
+            protected Icon getItemIcon(OpenOcdConfiguration item) {
+                return OpenOcdConfigurationType.ICON.getValue();
+            }
+        };
+        return dialog.showAndGetResult();
+    }
+
+    @NotNull
+    static List<OpenOcdConfiguration> findConfigurations(@NotNull Project project) {
+        List<OpenOcdConfiguration> configs = new ArrayList<>();
+        for (RunnerAndConfigurationSettings settings : RunManager.getInstance(project).getAllSettings()) {
+            if (settings.getConfiguration() instanceof OpenOcdConfiguration config) {
+                configs.add(config);
+            }
+        }
+        return configs;
+    }
+
+    /**
+     * Boards programmed at the same time need their own adapter, otherwise OpenOCD takes the same one twice.
+     */
+    private static void checkAdapters(@NotNull List<OpenOcdConfiguration> configs) throws ConfigurationException {
+        Set<String> serials = new HashSet<>();
+        for (OpenOcdConfiguration config : configs) {
+            if (!serials.add(config.getAdapterSerial())) {
+                throw new ConfigurationException("More than one selected run configuration uses the adapter '"
+                                                 + config.getAdapterSerial() + "'. Set a different adapter serial "
+                                                 + "for each board.", "OpenOCD Config Error");
+            }
+        }
+    }
+
+    private static void flashAll(@NotNull Project project, @NotNull List<OpenOcdConfiguration> configs,
+                                 @NotNull String targetProfileName, @NotNull ProgressIndicator indicator) {
+        OpenOcdComponent component = project.getService(OpenOcdComponent.class);
+        long startNanos = System.nanoTime();
+        List<Board> boards = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        try {
+            for (OpenOcdConfiguration config : configs) {
+                try {
+                    File runFile = OpenOcdLauncher.findRunFile(config, targetProfileName);
+                    component.stopOpenOcd(config);
+                    PortAllocator.Ports ports = component.allocatePorts(config);
+                    FlashOutputParser outputParser = OpenOcdComponent.createOutputParser(config, runFile);
+                    boards.add(new Board(config, outputParser,
+                            component.startOpenOcd(config, ports, runFile, outputParser)));
+                } catch (ExecutionException | ConfigurationException e) {
+                    LOG.warn("Cannot flash " + config.getName(), e);
+                    failures.add(config.getName() + ": " + e.getMessage());
+                }
+            }
+            waitForBoards(boards, indicator);
+        } finally {
+            for (Board board : boards) {
+                board.result.cancel(true);
+                if (!board.config.getPersistentServer()) {
+                    component.stopOpenOcd(board.config);
+                }
+            }
+        }
+        reportFlashAll(project, boards, failures, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    private static void waitForBoards(@NotNull List<Board> boards, @NotNull ProgressIndicator indicator) {
+        indicator.setIndeterminate(false);
+        while (true) {
+            int done = 0;
+            double fraction = 0;
+            for (Board board : boards) {
+                if (board.poll()) {
+                    done++;
+                    fraction += 1;
+                } else {
+                    fraction += Math.max(0, board.outputParser.getFraction());
+                }
+            }
+            indicator.setFraction(boards.isEmpty() ? 1 : fraction / boards.size());
+            indicator.setText2(done + " of " + boards.size() + " boards done");
+            if (done == boards.size()) {
+                return;
+            }
+            indicator.checkCanceled();
+            try {
+                Thread.sleep(PROGRESS_UPDATE_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Shows the result of every board and the throughput of all adapters together, which is the data written
+     * by all boards over the time until the last one finished.
+     */
+    private static void reportFlashAll(@NotNull Project project, @NotNull List<Board> boards,
+                                       @NotNull List<String> failures, long millis) {
+        long totalBytes = 0;
+        int succeeded = 0;
+        List<String> lines = new ArrayList<>();
+        for (Board board : boards) {
+            FlashReport report = board.report;
+            if (report == null || report.getStatus() == OpenOcdComponent.Status.FLASH_ERROR) {
+                failures.add(board.config.getName() + ": download failed");
+                continue;
+            }
+            succeeded++;
+            totalBytes += report.getWrittenBytes();
+            lines.add(String.format("%s: %d KiB in %.1f s", board.config.getName(), report.getWrittenBytes() / 1024,
+                    report.getTotalMillis() / 1000.0));
+        }
+        double seconds = millis / 1000.0;
+        String message = String.format("Flashed %d of %d boards in %.1f s, %d KiB at %.1f KiB/s aggregate",
+                succeeded, succeeded + failures.size(), seconds, totalBytes / 1024,
+                seconds > 0 ? totalBytes / 1024.0 / seconds : 0);
+        LOG.info(message + ": " + lines + ", failed: " + failures);
+        lines.addAll(failures);
+        Informational.showMessage(project, failures.isEmpty() ? MessageType.INFO : MessageType.WARNING,
+                message + "<br>" + String.join("<br>", lines));
+    }
+
+    private static final class Board {
+        private final OpenOcdConfiguration config;
+        private final FlashOutputParser outputParser;
+        private final Future<FlashReport> result;
+        @Nullable
+        private FlashReport report;
+
+        Board(OpenOcdConfiguration config, FlashOutputParser outputParser, Future<FlashReport> result) {
+            this.config = config;
+            this.outputParser = outputParser;
+            this.result = result;
+        }
+
+        /**
+         * @return whether the download finished, successfully or not
+         */
+        boolean poll() {
+            if (report != null) {
+                return true;
+            }
+            try {
+                report = result.get(0, TimeUnit.MILLISECONDS);
+                if (report == null) {
+                    report = FlashReport.of(OpenOcdComponent.Status.FLASH_ERROR);
+                }
+                return true;
+            } catch (TimeoutException e) {
+                return false;
+            } catch (Exception e) {
+                report = FlashReport.of(OpenOcdComponent.Status.FLASH_ERROR);
+                return true;
+            }
+        }
+    }
+}
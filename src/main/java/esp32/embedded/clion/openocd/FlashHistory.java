@@ -0,0 +1,124 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.openapi.components.StoragePathMacros;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Remembers the content digest of every image last flashed to a device, so unchanged images are skipped even
+ * after an IDE restart or a rebuild that produced identical binaries.
+ */
+@Service(Service.Level.APP)
+@State(name = "esp32.OpenOcdFlashHistory", storages = @Storage(StoragePathMacros.NON_ROAMABLE_FILE))
+public final class FlashHistory implements PersistentStateComponent<FlashHistory> {
+
+    private static final Logger LOG = Logger.getInstance(FlashHistory.class);
+    private static final Map<String, CachedDigest> DIGEST_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Image digests by {@code deviceKey@offset}.
+     */
+    public Map<String, String> flashedDigests = new ConcurrentHashMap<>();
+
+    public static FlashHistory getInstance() {
+        return ApplicationManager.getApplication().getService(FlashHistory.class);
+    }
+
+    @NotNull
+    @Override
+    public FlashHistory getState() {
+        return this;
+    }
+
+    @Override
+    public void loadState(@NotNull FlashHistory state) {
+        flashedDigests = new ConcurrentHashMap<>(state.flashedDigests);
+    }
+
+    public boolean isFlashed(@NotNull String deviceKey, @NotNull FlashImage image) {
+        String digest = digest(image.getFile());
+        return digest != null && digest.equals(flashedDigests.get(historyKey(deviceKey, image)));
+    }
+
+    public boolean areFlashed(@NotNull String deviceKey, @NotNull List<FlashImage> images) {
+        for (FlashImage image : images) {
+            if (!isFlashed(deviceKey, image)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void recordFlashed(@NotNull String deviceKey, @NotNull List<FlashImage> images) {
+        for (FlashImage image : images) {
+            String digest = digest(image.getFile());
+            if (digest != null) {
+                flashedDigests.put(historyKey(deviceKey, image), digest);
+            } else {
+                flashedDigests.remove(historyKey(deviceKey, image));
+            }
+        }
+    }
+
+    public void forget(@NotNull String deviceKey, @NotNull FlashImage image) {
+        flashedDigests.remove(historyKey(deviceKey, image));
+    }
+
+    public void forget(@NotNull String deviceKey) {
+        flashedDigests.keySet().removeIf(key -> key.startsWith(deviceKey + "@"));
+    }
+
+    @NotNull
+    private static String historyKey(@NotNull String deviceKey, @NotNull FlashImage image) {
+        return deviceKey + "@" + image.getOffsetValue();
+    }
+
+    /**
+     * @return SHA-256 of the file content or {@code null} if it cannot be read. Digests are cached as long as
+     * size and modification time of the file stay the same.
+     */
+    @Nullable
+    public static String digest(@NotNull File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        long length = file.length();
+        long lastModified = file.lastModified();
+        CachedDigest cached = DIGEST_CACHE.get(file.getAbsolutePath());
+        if (cached != null && cached.length == length && cached.lastModified == lastModified) {
+            return cached.digest;
+        }
+        try {
+            String digest = ContentDigest.sha256(file.toPath());
+            DIGEST_CACHE.put(file.getAbsolutePath(), new CachedDigest(length, lastModified, digest));
+            return digest;
+        } catch (IOException e) {
+            LOG.warn("Cannot compute digest of " + file, e);
+            return null;
+        }
+    }
+
+    private static final class CachedDigest {
+        private final long length;
+        private final long lastModified;
+        private final String digest;
+
+        private CachedDigest(long length, long lastModified, String digest) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.digest = Objects.requireNonNull(digest);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A binary that gets written to target flash at a fixed offset.
+ */
+public final class FlashImage {
+
+    private static final Logger LOG = Logger.getInstance(FlashImage.class);
+
+    private final String name;
+    private final File file;
+    private final String offset;
+
+    public FlashImage(@NotNull String name, @NotNull String path, @Nullable String basePath, @NotNull String offset) {
+        this.name = name;
+        this.file = FileUtil.isAbsolute(path) || basePath == null ? new File(path) : new File(basePath, path);
+        this.offset = offset;
+    }
+
+    /**
+     * Collects bootloader, partition table and application images in the order they are programmed.
+     */
+    @NotNull
+    public static List<FlashImage> collect(OpenOcdConfiguration config, @Nullable File fileToLoad) {
+        List<FlashImage> images = new ArrayList<>();
+        String basePath = config.getProject().getBasePath();
+        if (!StringUtil.isEmpty(config.getBootBinPath())) {
+            images.add(new FlashImage("bootloader", config.getBootBinPath(), basePath,
+                    StringUtil.notNullize(config.getBootOffset())));
+        }
+        if (!StringUtil.isEmpty(config.getPartitionBinPath())) {
+            images.add(new FlashImage("partition table", config.getPartitionBinPath(), basePath,
+                    StringUtil.notNullize(config.getPartitionOffset())));
+        }
+        if (fileToLoad != null) {
+            String appBin = findApplicationImage(config, fileToLoad);
+            images.add(new FlashImage("application", appBin, basePath, StringUtil.notNullize(config.getOffset())));
+        }
+        return images;
+    }
+
+    /**
+     * @return the image built from the ELF if enabled and possible, otherwise the {@code .bin} next to the ELF
+     */
+    @NotNull
+    private static String findApplicationImage(OpenOcdConfiguration config, File elf) {
+        File buildImage = getBuildImage(elf);
+        if (config.getBuildAppImage()) {
+            try {
+                File image = AppImageBuilder.build(elf, buildImage);
+                if (config.getCompress()) {
+                    // computed in the background, the first download of a new image does not wait for it
+                    ImageCompression.getInstance().prepare(image);
+                }
+                return image.getAbsolutePath().replace(File.separatorChar, '/');
+            } catch (IOException e) {
+                LOG.warn("Cannot build the application image from " + elf + ", using " + buildImage, e);
+            }
+        }
+        if (buildImage.lastModified() < elf.lastModified()) {
+            LOG.warn(buildImage + " is older than " + elf + ", the application may be out of date");
+        }
+        return buildImage.getAbsolutePath().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @return the {@code .bin} the build writes next to the ELF, which may not exist
+     */
+    @NotNull
+    static File getBuildImage(@NotNull File elf) {
+        return new File(elf.getAbsolutePath().replace(".elf", ".bin"));
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    @NotNull
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the offset exactly as configured by the user
+     */
+    @NotNull
+    public String getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the numeric offset or {@code -1} if the configured value is not a number
+     */
+    public long getOffsetValue() {
+        try {
+            return Long.decode(offset.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the absolute path as it is passed to OpenOCD, which resolves relative paths from its own folder
+     */
+    @NotNull
+    public String getOcdPath() {
+        return file.getAbsolutePath().replace(File.separatorChar, '/');
+    }
+
+    @Override
+    public String toString() {
+        return name + " @ " + offset;
+    }
+}
@@ -0,0 +1,244 @@
+package esp32.embedded.clion.openocd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Follows the flash related output of OpenOCD: erase times, the {@code wrote N bytes ... (X KiB/s)} summaries of
+ * {@code program}, {@code program_esp} and {@code flash write_image}, the {@code downloaded N bytes} summary of
+ * {@code load_image} and the verify results.
+ * <p>
+ * The progress is the share of the expected bytes which were erased, written and verified so far. OpenOCD
+ * reports each step only once it is complete, so the progress advances step by step.
+ */
+public final class FlashOutputParser {
+
+    private static final Pattern LOG_PREFIX = Pattern.compile("^(Info|Warn|Debug) ?: ");
+    private static final Pattern WROTE = Pattern.compile(
+            "wrote (\\d+) bytes from file (.+?)(?: to flash bank \\d+ at offset 0x\\p{XDigit}+)? in ([\\d.]+)s "
+            + "\\(([\\d.]+) KiB/s\\)");
+    private static final Pattern ESP_ERASED = Pattern.compile("PROF: Erased (\\d+) bytes in ([\\d.]+) ms");
+    private static final Pattern ERASED_SECTORS = Pattern.compile(
+            "erased sectors \\d+ through \\d+ on flash bank \\d+ in ([\\d.]+)s");
+    private static final Pattern ESP_TRANSFERRED = Pattern.compile(
+            "PROF: Data transferred in ([\\d.]+) ms @ ([\\d.]+) KB/s");
+    private static final Pattern DOWNLOADED = Pattern.compile(
+            "downloaded (\\d+) bytes in ([\\d.]+)s \\(([\\d.]+) KiB/s\\)");
+    private static final Pattern VERIFIED = Pattern.compile("verified (\\d+) bytes .*?\\(([\\d.]+) KiB/s\\)");
+    private static final String PROGRAMMING_STARTED = "** Programming Started **";
+    static final String RAM_LOAD_STARTED = "** RAM Load Started **";
+    static final String RAM_IMAGE = "RAM";
+    static final String VERIFY_STARTED = "** Verify Started **";
+    static final String VERIFIED_OK = "** Verified OK **";
+    static final String VERIFY_FAILED_TEXT = "** Verify Failed **";
+    private static final String[] VERIFY_FAILED = {VERIFY_FAILED_TEXT, "checksum mismatch", "contents differ"};
+    private static final double ERASE_WEIGHT = 0.2;
+    private static final double WRITE_WEIGHT = 0.6;
+    private static final double VERIFY_WEIGHT = 0.2;
+
+    private final long expectedBytes;
+    private final boolean verify;
+    private final List<FlashReport.ImageResult> results = new ArrayList<>();
+
+    private Phase phase = Phase.CONNECTING;
+    private long erasedBytes;
+    private long writtenBytes;
+    private long verifiedBytes;
+    private double lastKibPerSecond;
+
+    @Nullable
+    private PendingImage current;
+    @Nullable
+    private Consumer<String> phaseListener;
+
+    /**
+     * @param expectedBytes the amount of data OpenOCD is going to write, {@code 0} if nothing gets written
+     * @param verify        whether the written data gets verified
+     */
+    public FlashOutputParser(long expectedBytes, boolean verify) {
+        this.expectedBytes = expectedBytes;
+        this.verify = verify;
+    }
+
+    /**
+     * @param phaseListener gets the name of every step OpenOCD enters, starting with the current one
+     */
+    public synchronized void setPhaseListener(@Nullable Consumer<String> phaseListener) {
+        this.phaseListener = phaseListener;
+        if (phaseListener != null) {
+            phaseListener.accept(phase.getText());
+        }
+    }
+
+    public synchronized void parse(@Nullable String line) {
+        if (line == null) {
+            return;
+        }
+        String text = LOG_PREFIX.matcher(line.trim()).replaceFirst("");
+        Matcher matcher;
+        if (text.startsWith(PROGRAMMING_STARTED)) {
+            finishImage();
+            current = new PendingImage();
+            enter(Phase.ERASING);
+        } else if ((matcher = ESP_ERASED.matcher(text)).find()) {
+            pending().eraseMillis = Math.round(Double.parseDouble(matcher.group(2)));
+            erasedBytes += Long.parseLong(matcher.group(1));
+            enter(Phase.WRITING);
+        } else if ((matcher = ERASED_SECTORS.matcher(text)).find()) {
+            pending().eraseMillis = Math.round(Double.parseDouble(matcher.group(1)) * 1000);
+            enter(Phase.WRITING);
+        } else if ((matcher = ESP_TRANSFERRED.matcher(text)).find()) {
+            lastKibPerSecond = Double.parseDouble(matcher.group(2));
+        } else if ((matcher = WROTE.matcher(text)).find()) {
+            if (current != null && current.file != null) {
+                finishImage();
+            }
+            PendingImage image = pending();
+            image.bytes = Long.parseLong(matcher.group(1));
+            image.file = matcher.group(2);
+            image.writeSeconds = Double.parseDouble(matcher.group(3));
+            image.kibPerSecond = Double.parseDouble(matcher.group(4));
+            lastKibPerSecond = image.kibPerSecond;
+            writtenBytes += image.bytes;
+            erasedBytes = Math.max(erasedBytes, writtenBytes);
+            enter(verify ? Phase.VERIFYING : Phase.WRITING);
+        } else if (text.startsWith(RAM_LOAD_STARTED)) {
+            finishImage();
+            current = new PendingImage();
+            enter(Phase.LOADING);
+        } else if ((matcher = DOWNLOADED.matcher(text)).find()) {
+            PendingImage image = pending();
+            image.bytes = Long.parseLong(matcher.group(1));
+            image.file = RAM_IMAGE;
+            image.writeSeconds = Double.parseDouble(matcher.group(2));
+            image.kibPerSecond = Double.parseDouble(matcher.group(3));
+            lastKibPerSecond = image.kibPerSecond;
+            writtenBytes += image.bytes;
+            // nothing gets erased
+            erasedBytes = Math.max(erasedBytes, writtenBytes);
+        } else if (text.startsWith(VERIFY_STARTED)) {
+            enter(Phase.VERIFYING);
+        } else if ((matcher = VERIFIED.matcher(text)).find()) {
+            verifiedBytes += Long.parseLong(matcher.group(1));
+            pending().verified = Boolean.TRUE;
+        } else if (text.startsWith(VERIFIED_OK)) {
+            PendingImage image = pending();
+            if (image.verified == null) {
+                verifiedBytes += image.bytes;
+            }
+            image.verified = Boolean.TRUE;
+        } else if (containsOneOf(text, VERIFY_FAILED)) {
+            pending().verified = Boolean.FALSE;
+        }
+    }
+
+    private void enter(@NotNull Phase next) {
+        if (phase != next) {
+            phase = next;
+            if (phaseListener != null) {
+                phaseListener.accept(next.getText());
+            }
+        }
+    }
+
+    @NotNull
+    private PendingImage pending() {
+        if (current == null) {
+            current = new PendingImage();
+        }
+        return current;
+    }
+
+    private void finishImage() {
+        if (current != null && current.file != null) {
+            results.add(current.toResult());
+        }
+        current = null;
+    }
+
+    private static boolean containsOneOf(String text, String[] parts) {
+        for (String part : parts) {
+            if (text.contains(part)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the progress between {@code 0} and {@code 1} or {@code -1} if nothing is expected to be written
+     */
+    public synchronized double getFraction() {
+        if (expectedBytes <= 0) {
+            return -1;
+        }
+        double total = expectedBytes * (ERASE_WEIGHT + WRITE_WEIGHT + (verify ? VERIFY_WEIGHT : 0));
+        double done = Math.min(erasedBytes, expectedBytes) * ERASE_WEIGHT
+                      + Math.min(writtenBytes, expectedBytes) * WRITE_WEIGHT
+                      + (verify ? Math.min(verifiedBytes, expectedBytes) * VERIFY_WEIGHT : 0);
+        return Math.min(1, done / total);
+    }
+
+    @NotNull
+    public synchronized String getProgressText() {
+        String text = phase.getText();
+        if (expectedBytes > 0 && phase != Phase.CONNECTING) {
+            text += String.format(" (%d of %d KiB", Math.min(writtenBytes, expectedBytes) / 1024,
+                    expectedBytes / 1024);
+            if (lastKibPerSecond > 0) {
+                text += String.format(", %.1f KiB/s", lastKibPerSecond);
+            }
+            text += ")";
+        }
+        return text;
+    }
+
+    @NotNull
+    public synchronized FlashReport createReport(@NotNull OpenOcdComponent.Status status, long totalMillis) {
+        List<FlashReport.ImageResult> images = new ArrayList<>(results);
+        if (current != null && current.file != null) {
+            images.add(current.toResult());
+        }
+        return new FlashReport(status, images, totalMillis);
+    }
+
+    private enum Phase {
+        CONNECTING("Connecting to target"),
+        ERASING("Erasing flash"),
+        WRITING("Writing flash"),
+        VERIFYING("Verifying flash"),
+        LOADING("Loading into RAM");
+
+        private final String text;
+
+        Phase(String text) {
+            this.text = text;
+        }
+
+        String getText() {
+            return text;
+        }
+    }
+
+    private static final class PendingImage {
+        @Nullable
+        private String file;
+        private long bytes;
+        private double writeSeconds;
+        private double kibPerSecond;
+        private long eraseMillis = -1;
+        @Nullable
+        private Boolean verified;
+
+        @NotNull
+        private FlashReport.ImageResult toResult() {
+            return new FlashReport.ImageResult(String.valueOf(file), bytes, writeSeconds, kibPerSecond, eraseMillis,
+                    verified);
+        }
+    }
+}
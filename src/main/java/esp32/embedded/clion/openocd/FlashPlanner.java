@@ -0,0 +1,88 @@
+package esp32.embedded.clion.openocd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Merges the data to be written into as few flash regions as possible, so all of it can be erased, written and
+ * verified in a single OpenOCD pass.
+ */
+public final class FlashPlanner {
+
+    private static final byte ERASED = (byte) 0xFF;
+
+    private FlashPlanner() {
+    }
+
+    /**
+     * Sorts segments by address and merges those which touch or share a flash sector. Gaps inside a shared sector
+     * are filled with the erased value, which is what a separate erase of that sector would leave there anyway.
+     */
+    @NotNull
+    public static List<Segment> coalesce(@NotNull List<Segment> segments, int sectorSize) {
+        List<Segment> sorted = new ArrayList<>(segments);
+        sorted.sort(Comparator.comparingLong(Segment::getAddress));
+        List<Segment> merged = new ArrayList<>();
+        Segment current = null;
+        for (Segment segment : sorted) {
+            if (current != null && segment.getAddress() <= alignUp(current.getEnd(), sectorSize)) {
+                current = merge(current, segment);
+            } else {
+                if (current != null) {
+                    merged.add(current);
+                }
+                current = segment;
+            }
+        }
+        if (current != null) {
+            merged.add(current);
+        }
+        return merged;
+    }
+
+    @NotNull
+    private static Segment merge(@NotNull Segment first, @NotNull Segment second) {
+        long end = Math.max(first.getEnd(), second.getEnd());
+        byte[] data = new byte[Math.toIntExact(end - first.getAddress())];
+        Arrays.fill(data, ERASED);
+        System.arraycopy(first.getData(), 0, data, 0, first.getData().length);
+        System.arraycopy(second.getData(), 0, data, Math.toIntExact(second.getAddress() - first.getAddress()),
+                second.getData().length);
+        return new Segment(first.getAddress(), data);
+    }
+
+    private static long alignUp(long value, int alignment) {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+
+    public static final class Segment {
+        private final long address;
+        private final byte[] data;
+
+        public Segment(long address, @NotNull byte[] data) {
+            this.address = address;
+            this.data = data;
+        }
+
+        public long getAddress() {
+            return address;
+        }
+
+        public long getEnd() {
+            return address + data.length;
+        }
+
+        @NotNull
+        public byte[] getData() {
+            return data;
+        }
+
+        @Override
+        public String toString() {
+            return "0x" + Long.toHexString(address) + " (" + data.length + " bytes)";
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package esp32.embedded.clion.openocd;
+
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Outcome of starting OpenOCD: the overall status and, for every file OpenOCD reported writing, the amount of
+ * data, the time it took and whether it was verified.
+ */
+public final class FlashReport {
+
+    private final OpenOcdComponent.Status status;
+    private final List<ImageResult> images;
+    private final long totalMillis;
+
+    public FlashReport(@NotNull OpenOcdComponent.Status status, @NotNull List<ImageResult> images, long totalMillis) {
+        this.status = status;
+        this.images = List.copyOf(images);
+        this.totalMillis = totalMillis;
+    }
+
+    @NotNull
+    public static FlashReport of(@NotNull OpenOcdComponent.Status status) {
+        return new FlashReport(status, List.of(), 0);
+    }
+
+    @NotNull
+    public OpenOcdComponent.Status getStatus() {
+        return status;
+    }
+
+    @NotNull
+    public List<ImageResult> getImages() {
+        return images;
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    public long getWrittenBytes() {
+        long bytes = 0;
+        for (ImageResult image : images) {
+            bytes += image.getBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the write throughput over all images in KiB/s or {@code 0} if nothing was written
+     */
+    public double getWriteKibPerSecond() {
+        double seconds = 0;
+        for (ImageResult image : images) {
+            seconds += image.getWriteSeconds();
+        }
+        return seconds > 0 ? getWrittenBytes() / 1024.0 / seconds : 0;
+    }
+
+    @Override
+    public String toString() {
+        return status + " in " + totalMillis + " ms " + images;
+    }
+
+    public static final class ImageResult {
+        private final String file;
+        private final long bytes;
+        private final double writeSeconds;
+        private final double kibPerSecond;
+        private final long eraseMillis;
+        @Nullable
+        private final Boolean verified;
+
+        public ImageResult(@NotNull String file, long bytes, double writeSeconds, double kibPerSecond,
+                           long eraseMillis, @Nullable Boolean verified) {
+            this.file = file;
+            this.bytes = bytes;
+            this.writeSeconds = writeSeconds;
+            this.kibPerSecond = kibPerSecond;
+            this.eraseMillis = eraseMillis;
+            this.verified = verified;
+        }
+
+        @NotNull
+        public String getFile() {
+            return file;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public double getWriteSeconds() {
+            return writeSeconds;
+        }
+
+        public double getKibPerSecond() {
+            return kibPerSecond;
+        }
+
+        /**
+         * @return the erase time if OpenOCD reported it, {@code -1} otherwise
+         */
+        public long getEraseMillis() {
+            return eraseMillis;
+        }
+
+        /**
+         * @return the verify result or {@code null} if the image was not verified
+         */
+        @Nullable
+        public Boolean getVerified() {
+            return verified;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d bytes in %.2f s (%.1f KiB/s)%s", file, bytes, writeSeconds, kibPerSecond,
+                    verified == null ? "" : verified ? ", verified" : ", verify failed");
+        }
+    }
+}
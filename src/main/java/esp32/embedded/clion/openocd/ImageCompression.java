@@ -0,0 +1,166 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Decides which images are worth sending compressed. The ESP flasher stub inflates on the target, which only
+ * pays off if deflate shrinks the image noticeably, as it does for mostly empty SPIFFS, FAT or NVS partitions;
+ * code images barely shrink. The ratio of every image is computed on a pooled thread by deflating it like OpenOCD
+ * does and cached by content digest. Application images are prepared as soon as {@link AppImageBuilder} outputs
+ * them, other images when they are first downloaded; until their ratio is known they are sent compressed.
+ */
+@Service(Service.Level.APP)
+public final class ImageCompression implements Disposable {
+
+    /**
+     * Images compressed to more than this part of their size are sent as they are.
+     */
+    static final double WORTHWHILE_RATIO = 0.9;
+    private static final Logger LOG = Logger.getInstance(ImageCompression.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_CACHED = 256;
+
+    private final Map<String, Double> ratiosByDigest = new ConcurrentHashMap<>();
+    private final Map<String, Prepared> preparedFiles = new ConcurrentHashMap<>();
+
+    public static ImageCompression getInstance() {
+        return ApplicationManager.getApplication().getService(ImageCompression.class);
+    }
+
+    /**
+     * Computes the ratio of the file unless it is known for its current content. Digest and ratio are both
+     * computed on a pooled thread, the caller never waits for them.
+     *
+     * @return the compressed size divided by the original size
+     */
+    @NotNull
+    public CompletableFuture<Double> prepare(@NotNull File file) {
+        String path = file.getAbsolutePath();
+        long length = file.length();
+        long modified = file.lastModified();
+        if (preparedFiles.size() >= MAX_CACHED) {
+            // content-named application images get a new path with every build
+            preparedFiles.clear();
+        }
+        Prepared prepared = preparedFiles.compute(path, (key, existing) -> {
+            if (existing != null && existing.isCurrent(length, modified)) {
+                return existing;
+            }
+            return new Prepared(length, modified, CompletableFuture.supplyAsync(() -> computeRatio(file),
+                    AppExecutorUtil.getAppExecutorService()));
+        });
+        prepared.ratio.whenComplete((ratio, error) -> {
+            if (error != null) {
+                preparedFiles.remove(path, prepared);
+            }
+        });
+        return prepared.ratio;
+    }
+
+    private double computeRatio(@NotNull File file) {
+        String digest = FlashHistory.digest(file);
+        if (digest == null) {
+            throw new CompletionException(new IOException("Cannot read " + file));
+        }
+        Double cached = ratiosByDigest.get(digest);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            long startNanos = System.nanoTime();
+            double ratio = deflateRatio(file);
+            LOG.info(String.format("%s compresses to %.0f%% in %d ms", file, ratio * 100,
+                    (System.nanoTime() - startNanos) / 1_000_000));
+            if (ratiosByDigest.size() >= MAX_CACHED) {
+                ratiosByDigest.clear();
+            }
+            ratiosByDigest.put(digest, ratio);
+            return ratio;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * @return whether the file shrinks enough to be sent compressed. Does not wait for the ratio: files whose
+     * ratio is not known yet, or which cannot be read, are sent compressed, which is what OpenOCD would do by
+     * itself. Their ratio is prepared for the next download.
+     */
+    public boolean isWorthwhile(@NotNull File file) {
+        CompletableFuture<Double> ratio = prepare(file);
+        Double known = ratio.isDone() && !ratio.isCompletedExceptionally() ? ratio.join() : null;
+        if (known == null) {
+            LOG.info("Compression ratio of " + file + " is not known yet, sending it compressed");
+            return true;
+        }
+        return known <= WORTHWHILE_RATIO;
+    }
+
+    static double deflateRatio(@NotNull File file) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try (InputStream input = Files.newInputStream(file.toPath());
+             DeflaterOutputStream output = new DeflaterOutputStream(counter, deflater, BUFFER_SIZE)) {
+            input.transferTo(output);
+        } finally {
+            deflater.end();
+        }
+        long length = file.length();
+        return length == 0 ? 1 : (double) counter.count / length;
+    }
+
+    @Override
+    public void dispose() {
+        ratiosByDigest.clear();
+        preparedFiles.clear();
+    }
+
+    /**
+     * The ratio of a file as it was when it was prepared.
+     */
+    private static final class Prepared {
+        private final long length;
+        private final long modified;
+        private final CompletableFuture<Double> ratio;
+
+        private Prepared(long length, long modified, @NotNull CompletableFuture<Double> ratio) {
+            this.length = length;
+            this.modified = modified;
+            this.ratio = ratio;
+        }
+
+        private boolean isCurrent(long length, long modified) {
+            return this.length == length && this.modified == modified;
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte @NotNull [] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package esp32.embedded.clion.openocd;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Timing of the phases of one debug launch. Phases running on the calling thread are measured with wall and CPU
+ * time, phases only known from outside (OpenOCD output, GDB state) with wall time only.
+ */
+public final class LaunchTrace {
+
+    /**
+     * Records nothing, used when no launch is traced.
+     */
+    static final LaunchTrace DISABLED = new LaunchTrace("", null);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final String name;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final List<Span> spans = new ArrayList<>();
+    @Nullable
+    private final Runnable changeListener;
+    private volatile long endNanos = -1;
+
+    LaunchTrace(@NotNull String name, @Nullable Runnable changeListener) {
+        this.name = name;
+        this.changeListener = changeListener;
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public boolean isFinished() {
+        return endNanos >= 0;
+    }
+
+    /**
+     * @return the launch duration so far, or until it finished. Phases still ending on other threads after the
+     * launch finished extend it.
+     */
+    public long getDurationNanos() {
+        long duration = (isFinished() ? endNanos : System.nanoTime()) - startNanos;
+        for (Span span : getSpans()) {
+            duration = Math.max(duration, span.startNanos + span.durationNanos);
+        }
+        return duration;
+    }
+
+    @NotNull
+    public List<Span> getSpans() {
+        synchronized (spans) {
+            return new ArrayList<>(spans);
+        }
+    }
+
+    /**
+     * Measures a phase running on the calling thread until the returned scope is closed.
+     */
+    @NotNull
+    public Scope span(@NotNull String spanName) {
+        return new Scope(spanName);
+    }
+
+    /**
+     * Starts a phase which ends on another thread or is not running on any thread of the IDE.
+     */
+    @NotNull
+    public AsyncSpan begin(@NotNull String spanName) {
+        return new AsyncSpan(spanName);
+    }
+
+    public void finish() {
+        if (this != DISABLED && !isFinished()) {
+            endNanos = System.nanoTime();
+            fireChanged();
+        }
+    }
+
+    private void add(@NotNull Span span) {
+        if (this == DISABLED) {
+            return;
+        }
+        synchronized (spans) {
+            spans.add(span);
+        }
+        fireChanged();
+    }
+
+    private void fireChanged() {
+        if (changeListener != null) {
+            changeListener.run();
+        }
+    }
+
+    /**
+     * Writes the traces in the Chrome trace event format, which can be opened in {@code chrome://tracing} or
+     * Perfetto. Each launch becomes a process, each IDE thread a thread of it.
+     */
+    public static void writeChromeTrace(@NotNull List<LaunchTrace> traces, @NotNull Writer writer)
+            throws IOException {
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        boolean first = true;
+        for (int pid = 0; pid < traces.size(); pid++) {
+            LaunchTrace trace = traces.get(pid);
+            long traceMicros = trace.startMillis * 1000;
+            writer.write(first ? "\n" : ",\n");
+            first = false;
+            writer.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":" + pid + ",\"args\":{\"name\":"
+                         + quote(trace.name) + "}}");
+            Map<String, Integer> threadIds = new HashMap<>();
+            for (Span span : trace.getSpans()) {
+                Integer tid = threadIds.get(span.thread);
+                if (tid == null) {
+                    tid = threadIds.size();
+                    threadIds.put(span.thread, tid);
+                    writer.write(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":" + pid + ",\"tid\":" + tid
+                                 + ",\"args\":{\"name\":" + quote(span.thread) + "}}");
+                }
+                writer.write(",\n{\"name\":" + quote(span.name)
+                             + ",\"cat\":\"launch\",\"ph\":\"X\",\"pid\":" + pid
+                             + ",\"tid\":" + tid
+                             + ",\"ts\":" + (traceMicros + span.startNanos / 1000)
+                             + ",\"dur\":" + span.durationNanos / 1000
+                             + ",\"args\":{" + (span.cpuNanos >= 0 ? "\"cpuMs\":" + span.cpuNanos / 1_000_000.0 : "")
+                             + "}}");
+            }
+        }
+        writer.write("\n]}\n");
+    }
+
+    @NotNull
+    private static String quote(@NotNull String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            switch (c) {
+            case '"' -> quoted.append("\\\"");
+            case '\\' -> quoted.append("\\\\");
+            case '\n' -> quoted.append("\\n");
+            default -> {
+                if (c < ' ') {
+                    quoted.append(String.format("\\u%04x", (int) c));
+                } else {
+                    quoted.append(c);
+                }
+            }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static long currentThreadCpuNanos() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    public final class Scope implements AutoCloseable {
+        private final String spanName;
+        private final long spanStartNanos = System.nanoTime();
+        private final long cpuStartNanos = currentThreadCpuNanos();
+
+        private Scope(@NotNull String spanName) {
+            this.spanName = spanName;
+        }
+
+        @Override
+        public void close() {
+            long cpuNanos = cpuStartNanos < 0 ? -1 : currentThreadCpuNanos() - cpuStartNanos;
+            add(new Span(spanName, Thread.currentThread().getName(), spanStartNanos - startNanos,
+                    System.nanoTime() - spanStartNanos, cpuNanos));
+        }
+    }
+
+    public final class AsyncSpan {
+        private final String spanName;
+        private final long spanStartNanos = System.nanoTime();
+        private boolean ended;
+
+        private AsyncSpan(@NotNull String spanName) {
+            this.spanName = spanName;
+        }
+
+        public synchronized void end() {
+            if (!ended) {
+                ended = true;
+                add(new Span(spanName, "async", spanStartNanos - startNanos, System.nanoTime() - spanStartNanos,
+                        -1));
+            }
+        }
+    }
+
+    public static final class Span {
+        private final String name;
+        private final String thread;
+        private final long startNanos;
+        private final long durationNanos;
+        private final long cpuNanos;
+
+        Span(@NotNull String name, @NotNull String thread, long startNanos, long durationNanos, long cpuNanos) {
+            this.name = name;
+            this.thread = thread;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.cpuNanos = cpuNanos;
+        }
+
+        @NotNull
+        public String getName() {
+            return name;
+        }
+
+        @NotNull
+        public String getThread() {
+            return thread;
+        }
+
+        /**
+         * @return the start relative to the start of the launch
+         */
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * @return the CPU time of the measuring thread or {@code -1} if the phase did not run on an IDE thread
+         */
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.1f ms", name, durationNanos / 1_000_000.0);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.actionSystem.ActionManager;
+import com.intellij.openapi.actionSystem.ActionToolbar;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.DefaultActionGroup;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.fileChooser.FileSaverDialog;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.MessageType;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.ColoredListCellRenderer;
+import com.intellij.ui.JBColor;
+import com.intellij.ui.JBSplitter;
+import com.intellij.ui.SimpleTextAttributes;
+import com.intellij.ui.components.JBList;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import com.intellij.util.ui.JBUI;
+import com.intellij.util.ui.UIUtil;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import javax.swing.DefaultListModel;
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.ListSelectionModel;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Shows the recorded launch traces of a project as a timeline and exports them as Chrome trace.
+ */
+public class LaunchTraceToolWindowFactory implements ToolWindowFactory, DumbAware {
+
+    @Override
+    public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
+        LaunchTracer tracer = LaunchTracer.getInstance(project);
+        DefaultListModel<LaunchTrace> model = new DefaultListModel<>();
+        JBList<LaunchTrace> traceList = new JBList<>(model);
+        traceList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        traceList.setCellRenderer(new TraceRenderer());
+        TimelinePanel timeline = new TimelinePanel();
+        traceList.addListSelectionListener(e -> timeline.setTrace(traceList.getSelectedValue()));
+
+        JBSplitter splitter = new JBSplitter(false, 0.25f);
+        splitter.setFirstComponent(new JBScrollPane(traceList));
+        splitter.setSecondComponent(new JBScrollPane(timeline));
+
+        DefaultActionGroup actions = new DefaultActionGroup();
+        actions.add(new AnAction("Export Chrome Trace", "Save all launch traces in Chrome trace event format",
+                AllIcons.ToolbarDecorator.Export) {
+            @Override
+            public void actionPerformed(@NotNull AnActionEvent e) {
+                exportTraces(project, tracer.getTraces());
+            }
+        });
+        actions.add(new AnAction("Clear", "Remove all launch traces", AllIcons.Actions.GC) {
+            @Override
+            public void actionPerformed(@NotNull AnActionEvent e) {
+                tracer.clear();
+            }
+        });
+        ActionToolbar toolbar = ActionManager.getInstance().createActionToolbar("OpenOcdLaunchTrace", actions, false);
+        JPanel panel = new JPanel(new BorderLayout());
+        toolbar.setTargetComponent(panel);
+        panel.add(toolbar.getComponent(), BorderLayout.WEST);
+        panel.add(splitter, BorderLayout.CENTER);
+
+        Content content = ContentFactory.getInstance().createContent(panel, "", false);
+        toolWindow.getContentManager().addContent(content);
+
+        Runnable refresh = () -> ApplicationManager.getApplication().invokeLater(() -> {
+            LaunchTrace selected = traceList.getSelectedValue();
+            model.clear();
+            List<LaunchTrace> traces = tracer.getTraces();
+            for (int i = traces.size() - 1; i >= 0; i--) {
+                model.addElement(traces.get(i));
+            }
+            if (selected != null && model.contains(selected)) {
+                traceList.setSelectedValue(selected, false);
+            } else if (!model.isEmpty()) {
+                traceList.setSelectedIndex(0);
+            }
+            timeline.setTrace(traceList.getSelectedValue());
+        }, project.getDisposed());
+        tracer.addChangeListener(refresh, content);
+        refresh.run();
+    }
+
+    private static void exportTraces(@NotNull Project project, @NotNull List<LaunchTrace> traces) {
+        FileSaverDialog dialog = FileChooserFactory.getInstance().createSaveFileDialog(
+                new FileSaverDescriptor("Export Launch Traces", "Chrome trace event JSON", "json"), project);
+        VirtualFileWrapper target = dialog.save("openocd-launch-trace.json");
+        if (target == null) {
+            return;
+        }
+        try (Writer writer = Files.newBufferedWriter(target.getFile().toPath(), StandardCharsets.UTF_8)) {
+            LaunchTrace.writeChromeTrace(traces, writer);
+        } catch (IOException e) {
+            Informational.showMessage(project, MessageType.ERROR, "Cannot export launch traces: " + e.getMessage());
+        }
+    }
+
+    private static class TraceRenderer extends ColoredListCellRenderer<LaunchTrace> {
+        @Override
+        protected void customizeCellRenderer(@NotNull JList<? extends LaunchTrace> list, LaunchTrace trace,
+                                             int index, boolean selected, boolean hasFocus) {
+            append(trace.getName());
+            append(" " + new SimpleDateFormat("HH:mm:ss").format(new Date(trace.getStartMillis())),
+                    SimpleTextAttributes.GRAYED_ATTRIBUTES);
+            append(trace.isFinished()
+                            ? String.format(" %.2f s", trace.getDurationNanos() / 1e9)
+                            : " running",
+                    SimpleTextAttributes.GRAYED_ATTRIBUTES);
+        }
+    }
+
+    /**
+     * One bar per span, positioned by its start and length relative to the whole launch.
+     */
+    private static class TimelinePanel extends JComponent {
+        private static final int ROW_HEIGHT = 22;
+        private static final int LABEL_WIDTH = 220;
+        private static final Color WALL_COLOR = new JBColor(new Color(0x6A9FD8), new Color(0x3E6A99));
+        private static final Color CPU_COLOR = new JBColor(new Color(0xE0A040), new Color(0xB07820));
+
+        @Nullable
+        private LaunchTrace trace;
+
+        void setTrace(@Nullable LaunchTrace trace) {
+            this.trace = trace;
+            revalidate();
+            repaint();
+        }
+
+        @Override
+        public Dimension getPreferredSize() {
+            int rows = trace == null ? 0 : trace.getSpans().size();
+            return new Dimension(JBUI.scale(LABEL_WIDTH * 3), JBUI.scale(ROW_HEIGHT) * (rows + 1));
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            g.setColor(UIUtil.getPanelBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+            if (trace == null) {
+                return;
+            }
+            List<LaunchTrace.Span> spans = trace.getSpans();
+            long total = Math.max(1, trace.getDurationNanos());
+            int rowHeight = JBUI.scale(ROW_HEIGHT);
+            int labelWidth = JBUI.scale(LABEL_WIDTH);
+            int barsWidth = Math.max(1, getWidth() - labelWidth - JBUI.scale(8));
+            FontMetrics metrics = g.getFontMetrics();
+            int textOffset = (rowHeight + metrics.getAscent() - metrics.getDescent()) / 2;
+            for (int row = 0; row < spans.size(); row++) {
+                LaunchTrace.Span span = spans.get(row);
+                int y = row * rowHeight;
+                int x = labelWidth + (int) (barsWidth * span.getStartNanos() / total);
+                int width = Math.max(1, (int) (barsWidth * span.getDurationNanos() / total));
+                g.setColor(WALL_COLOR);
+                g.fillRect(x, y + 3, width, rowHeight - 6);
+                if (span.getCpuNanos() > 0) {
+                    int cpuWidth = Math.max(1, (int) (barsWidth * span.getCpuNanos() / total));
+                    g.setColor(CPU_COLOR);
+                    g.fillRect(x, y + rowHeight - 7, Math.min(cpuWidth, width), 4);
+                }
+                g.setColor(UIUtil.getLabelForeground());
+                String label = String.format("%s  %.1f ms", span.getName(), span.getDurationNanos() / 1e6);
+                if (span.getCpuNanos() >= 0) {
+                    label += String.format(" (%.1f ms CPU)", span.getCpuNanos() / 1e6);
+                }
+                g.drawString(label, JBUI.scale(4), y + textOffset);
+            }
+            g.setColor(UIUtil.getLabelDisabledForeground());
+            g.drawString(String.format("Total %.1f ms", total / 1e6), JBUI.scale(4),
+                    spans.size() * rowHeight + textOffset);
+        }
+    }
+}
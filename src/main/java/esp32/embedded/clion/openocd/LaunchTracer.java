@@ -0,0 +1,97 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps the traces of the last debug launches of a project.
+ */
+@Service(Service.Level.PROJECT)
+public final class LaunchTracer {
+
+    static final int HISTORY_SIZE = 20;
+    private static final Logger LOG = Logger.getInstance(LaunchTracer.class);
+
+    private final Deque<LaunchTrace> traces = new ArrayDeque<>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    public static LaunchTracer getInstance(@NotNull Project project) {
+        return project.getService(LaunchTracer.class);
+    }
+
+    /**
+     * Starts tracing a launch. The oldest trace is dropped once the history is full.
+     */
+    @NotNull
+    public LaunchTrace startTrace(@NotNull String name) {
+        LaunchTrace trace = new LaunchTrace(name, this::fireChanged);
+        synchronized (traces) {
+            traces.addLast(trace);
+            while (traces.size() > HISTORY_SIZE) {
+                LaunchTrace dropped = traces.removeFirst();
+                dropped.finish();
+            }
+        }
+        fireChanged();
+        return trace;
+    }
+
+    /**
+     * @return the launch being traced right now, {@link LaunchTrace#DISABLED} if there is none
+     */
+    @NotNull
+    public LaunchTrace current() {
+        synchronized (traces) {
+            LaunchTrace last = traces.peekLast();
+            return last == null || last.isFinished() ? LaunchTrace.DISABLED : last;
+        }
+    }
+
+    /**
+     * @return the traces from oldest to newest
+     */
+    @NotNull
+    public List<LaunchTrace> getTraces() {
+        synchronized (traces) {
+            return new ArrayList<>(traces);
+        }
+    }
+
+    public void clear() {
+        synchronized (traces) {
+            traces.clear();
+        }
+        fireChanged();
+    }
+
+    /**
+     * Logs the phases of a finished launch.
+     */
+    static void log(@NotNull LaunchTrace trace) {
+        if (trace == LaunchTrace.DISABLED) {
+            return;
+        }
+        LOG.info(String.format("Launch '%s' took %.1f ms: %s", trace.getName(),
+                trace.getDurationNanos() / 1_000_000.0, trace.getSpans()));
+    }
+
+    public void addChangeListener(@NotNull Runnable listener, @NotNull Disposable parent) {
+        listeners.add(listener);
+        Disposer.register(parent, () -> listeners.remove(listener));
+    }
+
+    private void fireChanged() {
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+}
@@ -1,16 +1,15 @@
 package esp32.embedded.clion.openocd;
 
 import com.intellij.execution.ExecutionException;
-import com.intellij.execution.RunContentExecutor;
 import com.intellij.execution.configurations.GeneralCommandLine;
 import com.intellij.execution.configurations.PtyCommandLine;
 import com.intellij.execution.filters.Filter;
 import com.intellij.execution.process.OSProcessHandler;
+import com.intellij.execution.process.ProcessAdapter;
 import com.intellij.execution.process.ProcessEvent;
 import com.intellij.execution.process.ProcessListener;
 import com.intellij.execution.ui.ConsoleViewContentType;
 import com.intellij.execution.util.ExecutionErrorDialog;
-import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.colors.EditorColorsManager;
@@ -19,15 +18,24 @@ import com.intellij.openapi.editor.markup.HighlighterLayer;
 import com.intellij.openapi.options.ConfigurationException;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.MessageType;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.jdesktop.swingx.util.OS;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -39,33 +47,73 @@ public final class OpenOcdComponent {
     public static final String SCRIPTS_PATH_MEDIUM = "openocd/" + SCRIPTS_PATH_SHORT;
     public static final String SCRIPTS_PATH_LONG = "share/openocd/" + SCRIPTS_PATH_SHORT;
     public static final String BIN_OPENOCD;
-    private static final Key<Long> UPLOAD_LOAD_COUNT_KEY = new Key<>(OpenOcdConfiguration.class.getName() +
-                                                                     "#LAST_DOWNLOAD_MOD_COUNT");
     private static final String ERROR_PREFIX = "Error: ";
     private static final String[] IGNORED_STRINGS = {
             "clearing lockup after double fault",
             "LIB_USB_NOT_SUPPORTED"};
 
+    private static final String PROGRAMMING_FAILED = "** Programming Failed **";
     private final static String[] FAIL_STRINGS = {
-            "** Programming Failed **", "communication failure", "** OpenOCD init failed **"};
+            PROGRAMMING_FAILED, "communication failure", "** OpenOCD init failed **"};
     private static final String FLASH_SUCCESS_TEXT = "** Program Flash Complete! **";
     private static final Logger LOG = Logger.getInstance(OpenOcdComponent.class);
     private static final String ADAPTER_SPEED = "adapter speed";
+    private static final int TCL_TIMEOUT_MS = 120_000;
+    private static final double SLOW_DOWNLOAD_RATIO = 0.7;
+    private static final String RAM_MODE = "into RAM";
+    private static final String SINGLE_PASS_MODE = "in a single pass";
+    private static final String PER_IMAGE_MODE = "with one command per image";
+    private static final String[] DOWNLOAD_MODES = {RAM_MODE, SINGLE_PASS_MODE, PER_IMAGE_MODE};
 
     static {
         BIN_OPENOCD = "bin/openocd" + (OS.isWindows() ? ".exe" : "");
     }
 
     private final EditorColorsScheme myColorsScheme;
-    private OSProcessHandler process;
+    private final Map<String, Server> servers = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastDownloadMillis = new ConcurrentHashMap<>();
+    private final Map<String, Double> lastWriteKibPerSecond = new ConcurrentHashMap<>();
 
     public OpenOcdComponent() {
         myColorsScheme = EditorColorsManager.getInstance().getGlobalScheme();
     }
 
     @NotNull
-    public static GeneralCommandLine createOcdCommandLine(OpenOcdConfiguration config, File fileToLoad,
-                                                          @Nullable String additionalCommand, boolean shutdown) throws ConfigurationException {
+    public static GeneralCommandLine createOcdCommandLine(OpenOcdConfiguration config, PortAllocator.Ports ports,
+                                                          File fileToLoad, @Nullable String additionalCommand,
+                                                          boolean shutdown) throws ConfigurationException {
+        GeneralCommandLine commandLine = createOcdBaseCommandLine(config, ports);
+
+        for (String command : createOcdSessionCommands(config, fileToLoad, additionalCommand)) {
+            commandLine.addParameters("-c", command);
+        }
+
+        commandLine.addParameters("-c", "echo \"" + FLASH_SUCCESS_TEXT + "\"");
+
+        if (shutdown) {
+            commandLine.addParameters("-c", "shutdown");
+        }
+        return commandLine;
+    }
+
+    /**
+     * OpenOCD binary, scripts, ports, interface and board. No commands touching the target are added.
+     */
+    @NotNull
+    public static GeneralCommandLine createOcdBaseCommandLine(OpenOcdConfiguration config, PortAllocator.Ports ports)
+            throws ConfigurationException {
+        return createOcdBaseCommandLine(config, ports, true, usesTclPort(config));
+    }
+
+    /**
+     * @param ports             the ports of this launch, see {@link #allocatePorts}
+     * @param applyAdapterSpeed whether to override the adapter clock of the board script with the configured one
+     * @param openTclPort       whether to serve TCL RPC, which accepts any command from local processes
+     */
+    @NotNull
+    static GeneralCommandLine createOcdBaseCommandLine(OpenOcdConfiguration config, PortAllocator.Ports ports,
+                                                       boolean applyAdapterSpeed, boolean openTclPort)
+            throws ConfigurationException {
         Project project = config.getProject();
         OpenOcdSettingsState ocdSettings = project.getService(OpenOcdSettingsState.class);
         if (StringUtil.isEmpty(config.getBoardConfigFile())) {
@@ -77,16 +125,19 @@ public final class OpenOcdComponent {
         GeneralCommandLine commandLine = new PtyCommandLine()
                 .withWorkDirectory(ocdBinaryIo.getParentFile())
                 .withParentEnvironmentType(GeneralCommandLine.ParentEnvironmentType.CONSOLE)
-                .withParameters("-c", "tcl_port disabled")
+                .withParameters("-c", "tcl_port " + (openTclPort ? ports.getTclPort() : "disabled"))
                 .withExePath(ocdBinaryIo.getAbsolutePath());
 
         VirtualFile ocdScripts = require(OpenOcdSettingsState.findOcdScripts(ocdHome));
         commandLine.addParameters("-s", VfsUtil.virtualToIoFile(ocdScripts).getAbsolutePath());
-        if (config.getGdbPort() != OpenOcdConfiguration.DEF_GDB_PORT) {
-            commandLine.addParameters("-c", "gdb_port " + config.getGdbPort());
+        if (!config.getAdapterSerial().isEmpty()) {
+            commandLine.addParameters("-c", "adapter serial " + config.getAdapterSerial());
         }
-        if (config.getTelnetPort() != OpenOcdConfiguration.DEF_TELNET_PORT) {
-            commandLine.addParameters("-c", "telnet_port " + config.getTelnetPort());
+        if (ports.getGdbPort() != OpenOcdConfiguration.DEF_GDB_PORT) {
+            commandLine.addParameters("-c", "gdb_port " + ports.getGdbPort());
+        }
+        if (ports.getTelnetPort() != OpenOcdConfiguration.DEF_TELNET_PORT) {
+            commandLine.addParameters("-c", "telnet_port " + ports.getTelnetPort());
         }
 
         if (!StringUtil.isEmpty(config.getInterfaceConfigFile())) {
@@ -94,52 +145,402 @@ public final class OpenOcdComponent {
         }
 
         commandLine.addParameters("-f", config.getBoardConfigFile());
+        if (applyAdapterSpeed && config.getAdapterSpeed() > 0) {
+            commandLine.addParameters("-c", "adapter speed " + config.getAdapterSpeed());
+        }
+        return commandLine;
+    }
+
+    /**
+     * Commands that program and reset the target. They are passed as {@code -c} arguments to a fresh OpenOCD
+     * process or sent to an already running server.
+     */
+    @NotNull
+    static List<String> createOcdSessionCommands(OpenOcdConfiguration config, @Nullable File fileToLoad,
+                                                 @Nullable String additionalCommand) {
+        List<String> commands = new ArrayList<>();
+        if (isRamLoad(config, fileToLoad)) {
+            // a reset would wipe the loaded application, so it is started at its entry point instead
+            addRamLoadCommands(commands, fileToLoad, additionalCommand != null || !config.getResetType().needsInit());
+            return commands;
+        }
+        String shadowKey = createShadowKey(config);
+        List<FlashImage> images = selectImages(config, fileToLoad);
+
+        String notCoalesced = config.getCoalesceImages() ? whyNotCoalesced(config) : null;
+        if (config.getCoalesceImages() && notCoalesced == null) {
+            addCoalescedProgramCommands(commands, config, shadowKey, images);
+        } else {
+            if (notCoalesced != null && !images.isEmpty()) {
+                LOG.info("Not programming in a single pass, " + notCoalesced);
+                commands.add("echo \"Programming the images one by one, " + notCoalesced + "\"");
+            }
+            for (FlashImage image : images) {
+                if (config.getDeltaFlash()) {
+                    addDeltaProgramCommands(commands, config, shadowKey, image);
+                } else {
+                    commands.add(createProgramCommand(config, image.getFile(), image.getOcdPath(), image.getOffset()));
+                }
+            }
+        }
+
+        if (additionalCommand != null && !additionalCommand.isEmpty())
+            commands.add(additionalCommand);
+
+        commands.add(config.getResetType().getCommand());
+        return commands;
+    }
+
+    /**
+     * Halts the target after a reset, loads the segments of the ELF into RAM and either resumes at the entry
+     * point or leaves the target halted there for the debugger.
+     */
+    private static void addRamLoadCommands(List<String> commands, File elf, boolean run) {
+        long entry;
+        try {
+            entry = RamLoader.read(elf).getEntry();
+        } catch (IOException e) {
+            LOG.warn("Cannot load " + elf + " into RAM", e);
+            commands.add("echo \"" + PROGRAMMING_FAILED + "\"");
+            return;
+        }
+        commands.add("init");
+        commands.add("reset halt");
+        commands.add("echo \"" + FlashOutputParser.RAM_LOAD_STARTED + "\"");
+        commands.add("if {[catch {load_image " + toOcdPath(elf) + " 0x0 elf} err]} {echo \"" + PROGRAMMING_FAILED
+                     + "\"; error $err}");
+        commands.add((run ? "resume 0x" : "reg pc 0x") + Long.toHexString(entry));
+    }
+
+    static boolean isRamLoad(OpenOcdConfiguration config, @Nullable File fileToLoad) {
+        return fileToLoad != null && config.getDownloadType() == OpenOcdConfiguration.DownloadType.RAM_ONLY;
+    }
 
-        if (!StringUtil.isEmpty(config.getBootBinPath())) {
-            commandLine.addParameters("-c",
-                    config.getProgramType().toString() + " " + config.getBootBinPath() + " "
-                    + config.getBootOffset() + (config.getAppendVerify() ? " verify" : "") +
-                            (config.getAdditionalProgramParameters() != null ?
-                                    " " + config.getAdditionalProgramParameters() : ""));
-        }
-        if (!StringUtil.isEmpty(config.getPartitionBinPath())) {
-            commandLine.addParameters("-c",
-                    config.getProgramType().toString() + " " + config.getPartitionBinPath() + " "
-                    + config.getPartitionOffset() + (config.getAppendVerify() ? " verify" : "") +
-                            (config.getAdditionalProgramParameters() != null ?
-                                    " " + config.getAdditionalProgramParameters() : ""));
-        }
-
-        if (fileToLoad != null) { // Program Command
-            String command =
-                    config.getProgramType().toString() + " " + fileToLoad.getAbsolutePath()
-                            .replace(File.separatorChar, '/')
-                            .replace(".elf", ".bin");
-            if (config.getOffset() != null && !config.getOffset().isEmpty())
-                command = command + " " + config.getOffset();
-
-            if (config.getAppendVerify()) {
+    /**
+     * @return the images which are going to be programmed, without those already on the device if only updated
+     * images should be written
+     */
+    @NotNull
+    private static List<FlashImage> selectImages(OpenOcdConfiguration config, @Nullable File fileToLoad) {
+        String deviceKey = createDeviceKey(config);
+        boolean skipFlashed = config.getDownloadType() == OpenOcdConfiguration.DownloadType.UPDATED_ONLY
+                              || config.getCheckDeviceFirmware();
+        List<FlashImage> images = new ArrayList<>();
+        for (FlashImage image : FlashImage.collect(config, fileToLoad)) {
+            if (skipFlashed && FlashHistory.getInstance().isFlashed(deviceKey, image)) {
+                LOG.info("Skipping unchanged " + image);
+            } else {
+                images.add(image);
+            }
+        }
+        return images;
+    }
+
+    /**
+     * Creates a parser which expects as many bytes as the session commands are going to write.
+     */
+    @NotNull
+    public static FlashOutputParser createOutputParser(OpenOcdConfiguration config, @Nullable File fileToLoad) {
+        if (isRamLoad(config, fileToLoad)) {
+            long loadBytes = 0;
+            try {
+                loadBytes = RamLoader.read(fileToLoad).getLoadBytes();
+            } catch (IOException e) {
+                LOG.info("Cannot read " + fileToLoad, e);
+            }
+            return new FlashOutputParser(loadBytes, false);
+        }
+        String shadowKey = createShadowKey(config);
+        long expectedBytes = 0;
+        List<FlashPlanner.Segment> segments = new ArrayList<>();
+        for (FlashImage image : selectImages(config, fileToLoad)) {
+            try {
+                segments.addAll(planSegments(config, shadowKey, image));
+            } catch (IOException e) {
+                expectedBytes += image.getFile().length();
+            }
+        }
+        if (config.getCoalesceImages() && whyNotCoalesced(config) == null) {
+            segments = FlashPlanner.coalesce(segments, DeltaFlashPlanner.SECTOR_SIZE);
+        }
+        for (FlashPlanner.Segment segment : segments) {
+            expectedBytes += segment.getData().length;
+        }
+        return new FlashOutputParser(expectedBytes,
+                config.getVerifyMode() != OpenOcdConfiguration.VerifyMode.NONE);
+    }
+
+    /**
+     * Builds the program command followed by the verify command of the verify mode. {@code program_esp ... verify}
+     * already compares the on-chip hash, so a readback is always run explicitly. The {@code reset} and
+     * {@code exit} program parameters are run as commands after the verify, otherwise they would reset the target
+     * or stop OpenOCD before it.
+     */
+    @NotNull
+    private static String createProgramCommand(OpenOcdConfiguration config, File file, String path, String offset) {
+        String command = config.getProgramType().toString() + " " + path;
+        boolean hasOffset = !StringUtil.isEmpty(offset);
+        if (hasOffset) {
+            command += " " + offset;
+        }
+        String verifyCommand = null;
+        switch (config.getVerifyMode()) {
+        case HASH -> {
+            if (hasOffset) {
+                verifyCommand = createHashVerifyCommand(config, path, offset);
+            } else {
+                // an ELF has no single flash offset, program_esp hashes each of its sections itself
                 command += " verify";
             }
+        }
+        case READBACK -> verifyCommand = createReadbackVerifyCommand(config, path, offset);
+        case NONE -> {
+        }
+        }
+        if (config.getCompress() && ImageCompression.getInstance().isWorthwhile(file)) {
+            command += " compress";
+        }
+        boolean resetAfterVerify = false;
+        boolean exitAfterVerify = false;
+        String additionalParameters = StringUtil.notNullize(config.getAdditionalProgramParameters());
+        for (String parameter : StringUtil.split(additionalParameters, " ")) {
+            if (verifyCommand != null && parameter.equals("reset")) {
+                resetAfterVerify = true;
+            } else if (verifyCommand != null && parameter.equals("exit")) {
+                exitAfterVerify = true;
+            } else {
+                command += " " + parameter;
+            }
+        }
+        if (verifyCommand != null) {
+            command += "; if {[catch {" + verifyCommand + "} err]} {echo \"" + FlashOutputParser.VERIFY_FAILED_TEXT
+                       + "\"; echo \"" + PROGRAMMING_FAILED + "\"; error $err}";
+        }
+        if (resetAfterVerify) {
+            command += "; reset run";
+        }
+        if (exitAfterVerify) {
+            command += "; shutdown";
+        }
+        return command;
+    }
+
+    /**
+     * Has the flasher stub hash the written region on the target and compares it with the hash of the file, which
+     * takes a fraction of a full readback. Only a region whose hash differs is read back completely, which also
+     * covers OpenOCD versions without on-chip hashing. Raises an error if the readback differs as well.
+     */
+    @NotNull
+    private static String createHashVerifyCommand(OpenOcdConfiguration config, String path, String offset) {
+        String args = config.getFlashBank() + " " + path + " " + offset;
+        return "echo \"" + FlashOutputParser.VERIFY_STARTED + "\"; "
+               + "if {[catch {flash verify_bank_hash " + args + "}]} {"
+               + "echo \"Hash of " + path + " differs, reading it back\"; flash verify_bank " + args + "}; "
+               + "echo \"" + FlashOutputParser.VERIFIED_OK + "\"";
+    }
 
-            if (config.getAdditionalProgramParameters() != null){
-                command += " " + config.getAdditionalProgramParameters();
+    /**
+     * Reads the written flash back completely and compares it with the file. An ELF without offset is compared
+     * section by section at the addresses it was written to.
+     */
+    @NotNull
+    private static String createReadbackVerifyCommand(OpenOcdConfiguration config, String path, String offset) {
+        String compare = StringUtil.isEmpty(offset) ? "verify_image " + path
+                : "flash verify_bank " + config.getFlashBank() + " " + path + " " + offset;
+        return "echo \"" + FlashOutputParser.VERIFY_STARTED + "\"; " + compare + "; "
+               + "echo \"" + FlashOutputParser.VERIFIED_OK + "\"";
+    }
+
+    /**
+     * Programs only the sectors which differ from the shadow copy of the image last written to the device. Falls
+     * back to programming the whole image if there is no usable shadow.
+     */
+    private static void addDeltaProgramCommands(List<String> commands, OpenOcdConfiguration config,
+                                                @Nullable String shadowKey, FlashImage image) {
+        if (shadowKey != null && ShadowImageStore.load(shadowKey, image) != null) {
+            try {
+                List<String> deltaCommands = new ArrayList<>();
+                for (FlashPlanner.Segment segment : planSegments(config, shadowKey, image)) {
+                    File segmentFile = ShadowImageStore.writeSegmentFile(createDeviceKey(config), segment);
+                    deltaCommands.add(createProgramCommand(config, segmentFile, toOcdPath(segmentFile),
+                            "0x" + Long.toHexString(segment.getAddress())));
+                }
+                commands.addAll(deltaCommands);
+                return;
+            } catch (IOException e) {
+                LOG.warn("Delta flashing is not possible for " + image, e);
             }
+        }
+        commands.add(createProgramCommand(config, image.getFile(), image.getOcdPath(), image.getOffset()));
+    }
 
-            commandLine.addParameters("-c", command);
+    /**
+     * Programming in a single pass uses plain {@code flash write_image}, which neither encrypts nor compresses, so
+     * it is only used where the result is the same as with the program command.
+     *
+     * @return why the images are programmed one by one although a single pass is enabled, {@code null} if they
+     * can be coalesced
+     */
+    @Nullable
+    static String whyNotCoalesced(OpenOcdConfiguration config) {
+        if (!StringUtil.isEmptyOrSpaces(config.getAdditionalProgramParameters())) {
+            return "it does not take the additional program parameters";
+        } else if (config.getCompress()) {
+            return "it does not compress";
+        } else if (config.getProgramType() != OpenOcdConfiguration.DEF_PROGRAM_TYPE) {
+            return "it does not replace " + config.getProgramType();
         }
+        return null;
+    }
 
-        if (additionalCommand != null && !additionalCommand.isEmpty())
-            commandLine.addParameters("-c", additionalCommand);
+    /**
+     * Writes all images in one pass: the data is merged into as few regions as possible, which are erased and
+     * written one after another and verified at the end. Unlike separate {@code program_esp} calls this sets up
+     * the target and the flasher stub only once.
+     */
+    private static void addCoalescedProgramCommands(List<String> commands, OpenOcdConfiguration config,
+                                                    @Nullable String shadowKey, List<FlashImage> images) {
+        if (images.isEmpty()) {
+            return;
+        }
+        try {
+            List<FlashPlanner.Segment> segments = new ArrayList<>();
+            for (FlashImage image : images) {
+                segments.addAll(planSegments(config, shadowKey, image));
+            }
+            List<FlashPlanner.Segment> regions = FlashPlanner.coalesce(segments, DeltaFlashPlanner.SECTOR_SIZE);
+            LOG.info("Programming " + images.size() + " image(s) as " + regions.size() + " region(s) " + regions);
+            String deviceKey = createDeviceKey(config);
+            List<String> writes = new ArrayList<>();
+            List<String> verifies = new ArrayList<>();
+            for (FlashPlanner.Segment region : regions) {
+                String path = toOcdPath(ShadowImageStore.writeSegmentFile(deviceKey, region));
+                String address = "0x" + Long.toHexString(region.getAddress());
+                writes.add("flash write_image erase " + path + " " + address + " bin");
+                if (config.getVerifyMode() == OpenOcdConfiguration.VerifyMode.HASH) {
+                    verifies.add(createHashVerifyCommand(config, path, address));
+                } else {
+                    verifies.add("verify_image " + path + " " + address + " bin");
+                }
+            }
+            if (config.getVerifyMode() != OpenOcdConfiguration.VerifyMode.NONE) {
+                writes.addAll(verifies);
+            }
+            commands.add("init");
+            commands.add("reset halt");
+            commands.add("if {[catch {" + String.join("; ", writes) + "} err]} {echo \"" + PROGRAMMING_FAILED
+                         + "\"; error $err}");
+        } catch (IOException e) {
+            LOG.warn("Cannot merge images, programming them one by one", e);
+            for (FlashImage image : images) {
+                commands.add(createProgramCommand(config, image.getFile(), image.getOcdPath(), image.getOffset()));
+            }
+        }
+    }
 
-        commandLine.addParameters("-c", config.getResetType().getCommand());
+    /**
+     * @return the parts of an image that need to be written: the sectors changed since the last download when
+     * delta flashing is enabled and a shadow image exists, the whole image otherwise
+     */
+    @NotNull
+    private static List<FlashPlanner.Segment> planSegments(OpenOcdConfiguration config, @Nullable String shadowKey,
+                                                           FlashImage image) throws IOException {
+        long offset = image.getOffsetValue();
+        if (offset < 0) {
+            throw new IOException("Invalid offset of " + image);
+        }
+        byte[] content = Files.readAllBytes(image.getFile().toPath());
+        byte[] shadow = config.getDeltaFlash() && shadowKey != null ? ShadowImageStore.load(shadowKey, image) : null;
+        if (shadow == null) {
+            return List.of(new FlashPlanner.Segment(offset, content));
+        }
+        List<DeltaFlashPlanner.Range> ranges = DeltaFlashPlanner.changedRanges(shadow, content);
+        LOG.info("Delta flashing " + image + ": " + ranges.size() + " changed range(s) " + ranges);
+        List<FlashPlanner.Segment> segments = new ArrayList<>();
+        for (DeltaFlashPlanner.Range range : ranges) {
+            segments.add(new FlashPlanner.Segment(offset + range.getStart(),
+                    Arrays.copyOfRange(content, range.getStart(), range.getEnd())));
+        }
+        return segments;
+    }
 
-        commandLine.addParameters("-c", "echo \"" + FLASH_SUCCESS_TEXT + "\"");
+    @NotNull
+    private static String toOcdPath(File file) {
+        return file.getAbsolutePath().replace(File.separatorChar, '/');
+    }
 
-        if (shutdown) {
-            commandLine.addParameters("-c", "shutdown");
+    /**
+     * Identifies the device behind a configuration, used to keep track of what was flashed to it.
+     */
+    @NotNull
+    public static String createDeviceKey(OpenOcdConfiguration config) {
+        String key = Objects.toString(config.getInterfaceConfigFile(), "") + "|"
+                     + Objects.toString(config.getBoardConfigFile(), "");
+        return config.getAdapterSerial().isEmpty() ? key : key + "|" + config.getAdapterSerial();
+    }
+
+    /**
+     * Identifies the physical device for delta flashing, whose shadow images must never be applied to another
+     * board: the serial of its adapter, which for the built-in USB-JTAG of newer chips is the chip MAC.
+     *
+     * @return {@code null} if the configuration has no adapter serial, so the device cannot be told apart from
+     * others with the same board and interface
+     */
+    @Nullable
+    static String createShadowKey(OpenOcdConfiguration config) {
+        String serial = config.getAdapterSerial();
+        return serial.isEmpty() ? null : "adapter:" + serial;
+    }
+
+    /**
+     * The TCL port is only opened for servers which the plugin talks to after the launch: those kept running
+     * between debug sessions, and those with automatic ports, whose port is known to be meant for this server.
+     */
+    static boolean usesTclPort(OpenOcdConfiguration config) {
+        return config.getPersistentServer() || config.getAutoPorts();
+    }
+
+    /**
+     * Keeps flash history and shadow images in sync with the device after a download finished, whichever way the
+     * images were programmed.
+     */
+    static void downloadFinished(OpenOcdConfiguration config, @Nullable File fileToLoad, boolean success) {
+        if (config.getDownloadType() == OpenOcdConfiguration.DownloadType.RAM_ONLY) {
+            // flash was not touched
+            return;
+        }
+        String deviceKey = createDeviceKey(config);
+        String shadowKey = createShadowKey(config);
+        if (!success) {
+            FlashHistory.getInstance().forget(deviceKey);
+            if (shadowKey != null) {
+                ShadowImageStore.invalidate(shadowKey);
+            }
+        } else if (fileToLoad != null) {
+            List<FlashImage> images = FlashImage.collect(config, fileToLoad);
+            FlashHistory.getInstance().recordFlashed(deviceKey, images);
+            // also without delta flashing, a later delta download must not diff against what was replaced now
+            if (shadowKey != null) {
+                ShadowImageStore.store(shadowKey, images);
+            }
         }
-        return commandLine;
+    }
+
+    /**
+     * Identifies the OpenOCD server a configuration needs. A running server can only be reused when the adapter,
+     * board, interface, adapter speed and ports are the same. In automatic port mode any ports will do.
+     */
+    @NotNull
+    private static String createServerKey(OpenOcdConfiguration config) {
+        OpenOcdSettingsState ocdSettings = config.getProject().getService(OpenOcdSettingsState.class);
+        return String.join("|", ocdSettings.openOcdHome,
+                config.getAdapterSerial(),
+                Objects.toString(config.getInterfaceConfigFile(), ""),
+                Objects.toString(config.getBoardConfigFile(), ""),
+                String.valueOf(config.getAdapterSpeed()),
+                config.getAutoPorts() ? "auto" : String.valueOf(config.getGdbPort()),
+                config.getAutoPorts() ? "auto" : String.valueOf(config.getTelnetPort()),
+                config.getAutoPorts() ? "auto" : String.valueOf(config.getTclPort()));
     }
 
     @NotNull
@@ -155,54 +556,217 @@ public final class OpenOcdComponent {
                                                                                              + "Error");
     }
 
-    public void stopOpenOcd() {
-        if (process == null || process.isProcessTerminated() || process.isProcessTerminating())
+    public boolean isServerRunning(OpenOcdConfiguration config) {
+        Server server = servers.get(config.getAdapterSerial());
+        return server != null && server.isRunning() && createServerKey(config).equals(server.serverKey);
+    }
+
+    /**
+     * Stops the OpenOCD process of the adapter a configuration uses. Processes of other adapters keep running.
+     */
+    public void stopOpenOcd(OpenOcdConfiguration config) {
+        Server server = servers.get(config.getAdapterSerial());
+        if (server == null || !server.isRunning())
             return;
         ProgressManager.getInstance().executeNonCancelableSection(() -> {
-            process.destroyProcess();
-            process.waitFor(1000);
+            server.process.destroyProcess();
+            server.process.waitFor(1000);
         });
     }
 
-    public Future<Status> startOpenOcd(OpenOcdConfiguration config, @Nullable File fileToLoad) throws
-            ConfigurationException {
-        CompletableFuture<Status> ret = new CompletableFuture<>();
+    /**
+     * Picks the ports for a launch, which are passed along with it: the configured ones, or in automatic port
+     * mode those of the running server if it is going to be reused and free ones from the range in the settings
+     * otherwise.
+     */
+    @NotNull
+    public PortAllocator.Ports allocatePorts(OpenOcdConfiguration config) throws ConfigurationException {
+        if (!config.getAutoPorts()) {
+            return config.getPorts();
+        }
+        PortAllocator.Ports running = getServerPorts(config);
+        if (config.getPersistentServer() && running != null) {
+            return running;
+        }
+        OpenOcdSettingsState ocdSettings = config.getProject().getService(OpenOcdSettingsState.class);
+        PortAllocator.Ports ports = PortAllocator.allocate(config.getAdapterSerial(), ocdSettings.autoPortFirst,
+                ocdSettings.autoPortLast);
+        LOG.info("Using ports " + ports + " for " + config.getName());
+        return ports;
+    }
+
+    /**
+     * @return the ports of the running server of the configuration or {@code null} if it is not running
+     */
+    @Nullable
+    public PortAllocator.Ports getServerPorts(OpenOcdConfiguration config) {
+        Server server = servers.get(config.getAdapterSerial());
+        return server != null && isServerRunning(config) ? server.ports : null;
+    }
+
+    /**
+     * Fails if a port of the configuration is used by the OpenOCD process of another adapter or by another
+     * program, before OpenOCD would fail on it after initializing the target.
+     */
+    private void checkPortsFree(OpenOcdConfiguration config, PortAllocator.Ports ports) throws ConfigurationException {
+        int[] needed = usesTclPort(config)
+                ? new int[]{ports.getGdbPort(), ports.getTelnetPort(), ports.getTclPort()}
+                : new int[]{ports.getGdbPort(), ports.getTelnetPort()};
+        for (Map.Entry<String, Server> entry : servers.entrySet()) {
+            Server server = entry.getValue();
+            if (entry.getKey().equals(config.getAdapterSerial()) || !server.isRunning()) {
+                continue;
+            }
+            for (int port : needed) {
+                if (server.ports.contains(port)) {
+                    throw new ConfigurationException("Port " + port + " is used by the OpenOCD of adapter '"
+                                                     + entry.getKey() + "'. Configure different ports for "
+                                                     + "each adapter or use automatic ports.",
+                            "OpenOCD Config Error");
+                }
+            }
+        }
+        for (int port : needed) {
+            if (!PortAllocator.isFree(port)) {
+                throw new ConfigurationException("Port " + port + " is used by another program. Stop it, "
+                                                 + "configure a different port or use automatic ports.",
+                        "OpenOCD Config Error");
+            }
+        }
+    }
+
+    /**
+     * @param ports        the ports of this launch, see {@link #allocatePorts}
+     * @param outputParser follows the flash output; it is fed with every line OpenOCD prints
+     */
+    public Future<FlashReport> startOpenOcd(OpenOcdConfiguration config, PortAllocator.Ports ports,
+                                            @Nullable File fileToLoad, @NotNull FlashOutputParser outputParser)
+            throws ConfigurationException {
+        CompletableFuture<FlashReport> ret = new CompletableFuture<>();
         if (config == null) {
-            ret.obtrudeValue(Status.FLASH_ERROR);
+            ret.obtrudeValue(FlashReport.of(Status.FLASH_ERROR));
             return ret;
         }
-        GeneralCommandLine commandLine = createOcdCommandLine(config, fileToLoad, null, false);
-        if (process != null && !process.isProcessTerminated()) {
-            LOG.info("OpenOCD is already run");
-            ret.obtrudeValue(Status.FLASH_ERROR);
-            return ret;
+        if (config.getPersistentServer()) {
+            PortAllocator.Ports running = getServerPorts(config);
+            if (running != null) {
+                return reuseOpenOcd(config, running, fileToLoad, outputParser);
+            }
+            stopOpenOcd(config);
+        }
+        GeneralCommandLine commandLine;
+        try (LaunchTrace.Scope ignored = LaunchTracer.getInstance(config.getProject()).current()
+                .span("Build OpenOCD command line")) {
+            commandLine = createOcdCommandLine(config, ports, fileToLoad, null, false);
         }
-        VirtualFile virtualFile = fileToLoad != null ? VfsUtil.findFileByIoFile(fileToLoad, true) : null;
         Project project = config.getProject();
-        try {
-            process = new OSProcessHandler(commandLine) {
-                @Override
-                public boolean isSilentlyDestroyOnClose() {
-                    return true;
-                }
-            };
-            DownloadFollower downloadFollower = new DownloadFollower(virtualFile);
-            process.addProcessListener(downloadFollower);
-            RunContentExecutor openOCDConsole = new RunContentExecutor(project, process)
-                    .withTitle("OpenOCD Console")
-                    .withActivateToolWindow(true)
-                    .withFilter(new ErrorFilter(project))
-                    .withStop(process::destroyProcess,
-                            () -> !process.isProcessTerminated() && !process.isProcessTerminating());
-
-            ApplicationManager.getApplication().invokeLater(openOCDConsole::run);
-            ret.obtrudeValue(null); // Unneeded. Complete anyway.
-            return downloadFollower;
-        } catch (ExecutionException e) {
-            ExecutionErrorDialog.show(e, "OpenOCD Start Failed", project);
-            ret.obtrudeValue(Status.FLASH_ERROR);
-            return ret;
+        String adapter = config.getAdapterSerial();
+        synchronized (servers) {
+            Server running = servers.get(adapter);
+            if (running != null && running.isRunning()) {
+                LOG.info("OpenOCD is already run for adapter '" + adapter + "'");
+                ret.obtrudeValue(FlashReport.of(Status.FLASH_ERROR));
+                return ret;
+            }
+            checkPortsFree(config, ports);
+            try {
+                OSProcessHandler process = new OSProcessHandler(commandLine) {
+                    @Override
+                    public boolean isSilentlyDestroyOnClose() {
+                        return true;
+                    }
+                };
+                servers.put(adapter, new Server(process, createServerKey(config), ports));
+                ConsoleLineMatcher lineMatcher = createLineMatcher(config);
+                DownloadFollower downloadFollower = new DownloadFollower(config, fileToLoad, outputParser);
+                process.addProcessListener(downloadFollower);
+                process.addProcessListener(new OutputClassifier(lineMatcher, downloadFollower,
+                        new OutputNotifier(project)));
+                OpenOcdConsole.show(project, process,
+                        adapter.isEmpty() ? "OpenOCD Console" : "OpenOCD Console (" + adapter + ")",
+                        adapter.isEmpty() ? "openocd" : "openocd-" + adapter,
+                        new ErrorFilter(lineMatcher), false, false);
+                ret.obtrudeValue(null); // Unneeded. Complete anyway.
+                return downloadFollower;
+            } catch (ExecutionException e) {
+                ExecutionErrorDialog.show(e, "OpenOCD Start Failed", project);
+                ret.obtrudeValue(FlashReport.of(Status.FLASH_ERROR));
+                return ret;
+            }
+        }
+    }
+
+    /**
+     * Sends the program and reset commands to the already running server instead of respawning OpenOCD. GDB
+     * reattaches to the same gdb port afterwards.
+     */
+    private Future<FlashReport> reuseOpenOcd(OpenOcdConfiguration config, PortAllocator.Ports ports,
+                                             @Nullable File fileToLoad, FlashOutputParser outputParser) {
+        CompletableFuture<FlashReport> ret = new CompletableFuture<>();
+        long startNanos = System.nanoTime();
+        // The flash commands report through the log, the result of the script alone holds nothing to parse
+        String script = "capture {" + String.join("; ", createOcdSessionCommands(config, fileToLoad, null)) + "}";
+        OpenOcdTclService.getInstance(config.getProject())
+                .executeChecked(ports.getTclPort(), script, TCL_TIMEOUT_MS)
+                .whenComplete((reply, error) -> {
+                    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                    if (error != null) {
+                        LOG.warn("OpenOCD server rejected session commands", error);
+                        downloadFinished(config, fileToLoad, false);
+                        Informational.showFailedDownloadNotification(config.getProject());
+                        ret.complete(outputParser.createReport(Status.FLASH_ERROR, millis));
+                        return;
+                    }
+                    for (String line : reply.split("\n")) {
+                        outputParser.parse(line);
+                    }
+                    FlashReport report = outputParser.createReport(Status.FLASH_SUCCESS, millis);
+                    if (fileToLoad != null) {
+                        reportDownload(config, report);
+                    }
+                    downloadFinished(config, fileToLoad, true);
+                    ret.complete(report);
+                });
+        return ret;
+    }
+
+    /**
+     * Shows how long the download took and how fast the adapter wrote, next to the last times measured on the
+     * same device with the other download modes: RAM load, single pass and one command per image. A clear drop
+     * of the throughput compared to the last download to the device in the same mode is shown as warning.
+     */
+    private void reportDownload(OpenOcdConfiguration config, FlashReport report) {
+        long millis = report.getTotalMillis();
+        boolean ram = config.getDownloadType() == OpenOcdConfiguration.DownloadType.RAM_ONLY;
+        String mode = ram ? RAM_MODE
+                : config.getCoalesceImages() && whyNotCoalesced(config) == null ? SINGLE_PASS_MODE : PER_IMAGE_MODE;
+        String deviceKey = createDeviceKey(config);
+        lastDownloadMillis.put(deviceKey + "|" + mode, millis);
+        String message = String.format("Firmware Download Success in %.1f s (%s)", millis / 1000.0, mode);
+        double kibPerSecond = report.getWriteKibPerSecond();
+        if (kibPerSecond > 0) {
+            message += String.format(", %d KiB written at %.1f KiB/s", report.getWrittenBytes() / 1024,
+                    kibPerSecond);
+        }
+        for (String otherMode : DOWNLOAD_MODES) {
+            Long otherMillis = lastDownloadMillis.get(deviceKey + "|" + otherMode);
+            if (!otherMode.equals(mode) && otherMillis != null) {
+                message += String.format(", last download %s took %.1f s", otherMode, otherMillis / 1000.0);
+            }
+        }
+        LOG.info(message + ": " + report);
+        MessageType messageType = MessageType.INFO;
+        // RAM is written much faster than flash and a single pass writes merged regions, speeds of different
+        // modes are not comparable
+        Double lastKibPerSecond = lastWriteKibPerSecond.get(deviceKey + "|" + mode);
+        if (kibPerSecond > 0) {
+            lastWriteKibPerSecond.put(deviceKey + "|" + mode, kibPerSecond);
+            if (lastKibPerSecond != null && kibPerSecond < lastKibPerSecond * SLOW_DOWNLOAD_RATIO) {
+                messageType = MessageType.WARNING;
+                message += String.format(". Write speed dropped from %.1f KiB/s", lastKibPerSecond);
+            }
         }
+        Informational.showMessage(config.getProject(), messageType, message);
     }
 
     public enum Status {
@@ -226,13 +790,105 @@ public final class OpenOcdComponent {
         }
     }
 
-    private class ErrorFilter implements Filter {
+    /**
+     * Built-in console patterns plus the ones configured for the run configuration.
+     */
+    @NotNull
+    static ConsoleLineMatcher createLineMatcher(OpenOcdConfiguration config) {
+        List<ConsoleLineMatcher.Pattern> patterns = new ArrayList<>();
+        for (String failString : FAIL_STRINGS) {
+            patterns.add(ConsoleLineMatcher.Pattern.contains(failString, ConsoleLineMatcher.FAILURE));
+        }
+        for (String ignoredString : IGNORED_STRINGS) {
+            patterns.add(ConsoleLineMatcher.Pattern.contains(ignoredString, ConsoleLineMatcher.IGNORED));
+        }
+        patterns.add(ConsoleLineMatcher.Pattern.contains(FLASH_SUCCESS_TEXT, ConsoleLineMatcher.SUCCESS));
+        patterns.add(ConsoleLineMatcher.Pattern.prefix(ADAPTER_SPEED, ConsoleLineMatcher.ADAPTER_SPEED));
+        patterns.add(ConsoleLineMatcher.Pattern.prefix(ERROR_PREFIX, ConsoleLineMatcher.ERROR));
+        patterns.addAll(ConsoleLineMatcher.parsePatterns(config.getFailurePatterns(), ConsoleLineMatcher.FAILURE));
+        patterns.addAll(ConsoleLineMatcher.parsePatterns(config.getIgnorePatterns(), ConsoleLineMatcher.IGNORED));
+        patterns.addAll(ConsoleLineMatcher.parsePatterns(config.getSuccessPatterns(),
+                ConsoleLineMatcher.CUSTOM_SUCCESS));
+        return new ConsoleLineMatcher(patterns);
+    }
+
+    /**
+     * An OpenOCD process of the pool. There is one per debug adapter, each with its own ports.
+     */
+    private static final class Server {
+        private final OSProcessHandler process;
+        private final String serverKey;
+        private final PortAllocator.Ports ports;
+
+        Server(OSProcessHandler process, String serverKey, PortAllocator.Ports ports) {
+            this.process = process;
+            this.serverKey = serverKey;
+            this.ports = ports;
+        }
+
+        boolean isRunning() {
+            return !process.isProcessTerminated() && !process.isProcessTerminating();
+        }
+    }
+
+    /**
+     * Follows the output of OpenOCD with the kinds of every line, see {@link OutputClassifier}.
+     */
+    private interface ClassifiedOutputListener {
+        void lineClassified(@NotNull String line, int kinds);
+    }
+
+    /**
+     * Classifies every line OpenOCD prints once and passes the kinds on to the download follower and the notifier.
+     * The console filter classifies on its own, as it sees lines again when the console shows them anew.
+     */
+    private static final class OutputClassifier extends ProcessAdapter {
+        private final ConsoleLineMatcher lineMatcher;
+        private final List<ClassifiedOutputListener> listeners;
+
+        OutputClassifier(ConsoleLineMatcher lineMatcher, ClassifiedOutputListener... listeners) {
+            this.lineMatcher = lineMatcher;
+            this.listeners = List.of(listeners);
+        }
+
+        @Override
+        public void onTextAvailable(@NotNull ProcessEvent event, @NotNull Key outputType) {
+            String line = event.getText();
+            int kinds = lineMatcher.classify(line);
+            for (ClassifiedOutputListener listener : listeners) {
+                listener.lineClassified(line, kinds);
+            }
+        }
+    }
+
+    /**
+     * Notifies about failed and successful downloads as OpenOCD reports them. This is not done by the console
+     * filter, which sees lines again when the console shows them anew.
+     */
+    private static final class OutputNotifier implements ClassifiedOutputListener {
         private final Project project;
 
-        ErrorFilter(Project project) {
+        OutputNotifier(Project project) {
             this.project = project;
         }
 
+        @Override
+        public void lineClassified(@NotNull String line, int kinds) {
+            if (ConsoleLineMatcher.is(kinds, ConsoleLineMatcher.FAILURE)) {
+                Informational.showFailedDownloadNotification(project);
+            } else if (line.equals(FLASH_SUCCESS_TEXT)) {
+                Informational.showSuccessfulDownloadNotification(project);
+            }
+        }
+    }
+
+    private class ErrorFilter implements Filter {
+        private final ConsoleLineMatcher lineMatcher;
+
+        ErrorFilter(ConsoleLineMatcher lineMatcher) {
+            this.lineMatcher = lineMatcher;
+        }
+
         /**
          * Filters line by creating an instance of {@link Result}.
          *
@@ -244,8 +900,7 @@ public final class OpenOcdComponent {
         @Nullable
         @Override
         public Result applyFilter(@NotNull String line, int entireLength) {
-            if (containsOneOf(line, FAIL_STRINGS)) {
-                Informational.showFailedDownloadNotification(project);
+            if (ConsoleLineMatcher.is(lineMatcher.classify(line), ConsoleLineMatcher.FAILURE)) {
                 return new Result(0, line.length(), null,
                         myColorsScheme.getAttributes(ConsoleViewContentType.ERROR_OUTPUT_KEY)) {
                     @Override
@@ -253,21 +908,26 @@ public final class OpenOcdComponent {
                         return HighlighterLayer.ERROR;
                     }
                 };
-            } else if (line.equals(FLASH_SUCCESS_TEXT)) {
-                Informational.showSuccessfulDownloadNotification(project);
             }
             return null;
         }
     }
 
-    private class DownloadFollower extends CompletableFuture<Status> implements ProcessListener {
+    private class DownloadFollower extends CompletableFuture<FlashReport>
+            implements ProcessListener, ClassifiedOutputListener {
+        private final OpenOcdConfiguration config;
         @Nullable
-        private final VirtualFile vRunFile;
+        private final File fileToLoad;
+        private final FlashOutputParser outputParser;
+
+        private final long startNanos = System.nanoTime();
 
         private FlashedStatus flashedStatusListen = FlashedStatus.INITIALIZED;
 
-        DownloadFollower(@Nullable VirtualFile vRunFile) {
-            this.vRunFile = vRunFile;
+        DownloadFollower(OpenOcdConfiguration config, @Nullable File fileToLoad, FlashOutputParser outputParser) {
+            this.config = config;
+            this.fileToLoad = fileToLoad;
+            this.outputParser = outputParser;
         }
 
         @Override
@@ -279,10 +939,11 @@ public final class OpenOcdComponent {
         public void processTerminated(@NotNull ProcessEvent event) {
             try {
                 if (!isDone()) {
-                    obtrudeValue(Status.FLASH_ERROR);
+                    downloadFinished(config, fileToLoad, false);
+                    finish(Status.FLASH_ERROR);
                 }
             } catch (Exception e) {
-                obtrudeValue(Status.FLASH_ERROR);
+                obtrudeValue(FlashReport.of(Status.FLASH_ERROR));
             }
         }
 
@@ -292,40 +953,48 @@ public final class OpenOcdComponent {
         }
 
         @Override
-        public void onTextAvailable(@NotNull ProcessEvent event, @NotNull Key outputType) {
-            String text = event.getText().trim();
-            if (containsOneOf(text, FAIL_STRINGS)) {
-                obtrudeValue(Status.FLASH_ERROR);
-            } else if (vRunFile == null && text.startsWith(ADAPTER_SPEED)) {
-                obtrudeValue(Status.FLASH_SUCCESS);
-            } else if (text.contains(FLASH_SUCCESS_TEXT)) {
+        public void lineClassified(@NotNull String line, int kinds) {
+            outputParser.parse(line);
+            if (ConsoleLineMatcher.is(kinds, ConsoleLineMatcher.FAILURE)) {
+                downloadFinished(config, fileToLoad, false);
+                finish(Status.FLASH_ERROR);
+            } else if (fileToLoad == null && ConsoleLineMatcher.is(kinds, ConsoleLineMatcher.ADAPTER_SPEED)) {
+                finish(Status.FLASH_SUCCESS);
+            } else if (ConsoleLineMatcher.is(kinds, ConsoleLineMatcher.CUSTOM_SUCCESS)) {
+                downloadSucceeded();
+            } else if (ConsoleLineMatcher.is(kinds, ConsoleLineMatcher.SUCCESS)) {
                 if (flashedStatusListen == FlashedStatus.APP_OK) {
-                    if (vRunFile != null) {
-                        UPLOAD_LOAD_COUNT_KEY.set(vRunFile, vRunFile.getModificationCount());
-                    }
-                    obtrudeValue(Status.FLASH_SUCCESS);
+                    downloadSucceeded();
                 }
                 flashedStatusListen = flashedStatusListen.getNextState();
-            } else if (text.startsWith(ERROR_PREFIX) && !containsOneOf(text, IGNORED_STRINGS)) {
-                obtrudeValue(Status.FLASH_WARNING);
+            } else if (ConsoleLineMatcher.is(kinds, ConsoleLineMatcher.ERROR)
+                       && !ConsoleLineMatcher.is(kinds, ConsoleLineMatcher.IGNORED)) {
+                finish(Status.FLASH_WARNING);
             }
         }
-    }
 
-    private boolean containsOneOf(String text, String[] sampleStrings) {
-        if (text == null || text.isEmpty()) {
-            return false;
+        private void downloadSucceeded() {
+            downloadFinished(config, fileToLoad, true);
+            FlashReport report = finish(Status.FLASH_SUCCESS);
+            if (fileToLoad != null) {
+                reportDownload(config, report);
+            }
         }
-        for (String sampleString : sampleStrings) {
-            if (text.contains(sampleString)) return true;
+
+        private FlashReport finish(Status status) {
+            FlashReport report = outputParser.createReport(status,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            obtrudeValue(report);
+            return report;
         }
-        return false;
     }
 
-    public static boolean isLatestUploaded(File runFile) {
-        VirtualFile vRunFile = VfsUtil.findFileByIoFile(runFile, true);
-        Long latestDownloadModCount = UPLOAD_LOAD_COUNT_KEY.get(vRunFile);
-        return vRunFile != null && Objects.equals(latestDownloadModCount, vRunFile.getModificationCount());
+    /**
+     * @return whether the application, bootloader and partition table images with their current content were
+     * the last ones flashed to the configured device
+     */
+    public static boolean isLatestUploaded(OpenOcdConfiguration config, File runFile) {
+        return FlashHistory.getInstance().areFlashed(createDeviceKey(config), FlashImage.collect(config, runFile));
     }
 
 }
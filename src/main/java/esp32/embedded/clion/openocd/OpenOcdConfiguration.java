@@ -3,6 +3,7 @@ package esp32.embedded.clion.openocd;
 import com.intellij.execution.Executor;
 import com.intellij.execution.configurations.ConfigurationFactory;
 import com.intellij.execution.configurations.RuntimeConfigurationException;
+import com.intellij.execution.configurations.RuntimeConfigurationWarning;
 import com.intellij.execution.runners.ExecutionEnvironment;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.InvalidDataException;
@@ -25,6 +26,11 @@ public class OpenOcdConfiguration extends CMakeAppRunConfiguration implements Ci
     public static final DebuggerData DEF_DEBUGGER = new DebuggerData(CLionDebuggerKind.Bundled.GDB.INSTANCE);
     public static final int DEF_GDB_PORT = 3333;
     public static final int DEF_TELNET_PORT = 4444;
+    public static final int DEF_TCL_PORT = 6666;
+    public static final boolean DEF_AUTO_PORTS = false;
+    public static final boolean DEF_PERSISTENT_SERVER = false;
+    public static final String DEF_ADAPTER_SERIAL = "";
+    public static final int DEF_ADAPTER_SPEED = 0;
     public static final DownloadType DEF_DOWNLOAD_TYPE = DownloadType.ALWAYS;
     public static final String DEF_PROGRAM_OFFSET = "0x10000";
     public static final String DEF_BOOT_OFFSET = "0x0";
@@ -38,15 +44,29 @@ public class OpenOcdConfiguration extends CMakeAppRunConfiguration implements Ci
     public static final boolean DEF_FLUSH_REGS = true;
     public static final boolean DEF_BREAK_FUNCTION = true;
     public static final String DEF_BREAK_FUNCTION_NAME = "app_main";
+    public static final String DEF_POST_CONNECT_COMMANDS = "";
 
     public static final ProgramType DEF_PROGRAM_TYPE = ProgramType.PROGRAM_ESP;
-    public static final boolean DEF_APPEND_VERIFY = true;
+    public static final VerifyMode DEF_VERIFY_MODE = VerifyMode.HASH;
+    public static final String DEF_FLASH_BANK = "0";
+    public static final boolean DEF_BUILD_APP_IMAGE = false;
+    public static final boolean DEF_COMPRESS = false;
+    public static final boolean DEF_DELTA_FLASH = false;
+    public static final boolean DEF_CHECK_DEVICE_FIRMWARE = false;
+    public static final boolean DEF_COALESCE_IMAGES = false;
     public static final String DEF_ADD_PROG_PARAM = "";
     public static final boolean DEF_ADD_PROG_PARAM_SET = false;
+    public static final String DEF_CONSOLE_PATTERNS = "";
 
     private static final String ATTR_DEBUGGER = "gdb_debugger";
     private static final String ATTR_GDB_PORT = "gdb_port";
     private static final String ATTR_TELNET_PORT = "telnet_port";
+    private static final String ATTR_TCL_PORT = "tcl_port";
+    private static final String ATTR_AUTO_PORTS = "auto_ports";
+    private static final String ATTR_PERSISTENT_SERVER = "persistent_server";
+    private static final String ATTR_ADAPTER_SERIAL = "adapter_serial";
+    private static final String ATTR_ADAPTER_SPEED = "adapter_speed";
+    private static final String ATTR_ADAPTER_SPEED_DEVICE = "adapter_speed_device";
     private static final String ATTR_BOARD_CONFIG = "board_config";
     private static final String ATTR_INTERFACE_CONFIG = "interface_config";
     private static final String ATTR_BOOT_PATH_SET_CONFIG = "boot_path_set_cfg";
@@ -62,16 +82,33 @@ public class OpenOcdConfiguration extends CMakeAppRunConfiguration implements Ci
     public static final String ATTR_FLUSH_REGS = "flush_regs";
     public static final String ATTR_BREAK_FUNCTION = "break";
     public static final String ATTR_BREAK_FUNCTION_NAME = "break_function";
+    public static final String ATTR_POST_CONNECT_COMMANDS = "post_connect_commands";
 
     public static final String ATTR_PROGRAM_TYPE_CONFIG = "prog_type_cfg";
     public static final String ATTR_APPEND_VERIFY_CONFIG = "app_verify_cfg";
+    public static final String ATTR_VERIFY_MODE_CONFIG = "verify_mode_cfg";
+    public static final String ATTR_FLASH_BANK_CONFIG = "flash_bank_cfg";
+    public static final String ATTR_BUILD_APP_IMAGE_CONFIG = "build_app_image_cfg";
+    public static final String ATTR_COMPRESS_CONFIG = "compress_cfg";
+    public static final String ATTR_DELTA_FLASH_CONFIG = "delta_flash_cfg";
+    public static final String ATTR_CHECK_DEVICE_FIRMWARE_CONFIG = "check_device_fw_cfg";
+    public static final String ATTR_COALESCE_IMAGES_CONFIG = "coalesce_images_cfg";
     public static final String ATTR_ADD_PROG_PARAM_CONFIG = "add_prog_param_cfg";
     public static final String ATTR_ADD_PROG_PARAM_SET_CONFIG = "add_prog_param_set_cfg";
+    public static final String ATTR_SUCCESS_PATTERNS_CONFIG = "success_patterns_cfg";
+    public static final String ATTR_FAILURE_PATTERNS_CONFIG = "failure_patterns_cfg";
+    public static final String ATTR_IGNORE_PATTERNS_CONFIG = "ignore_patterns_cfg";
 
 
     private DebuggerData debuggerData = DEF_DEBUGGER;
     private int gdbPort = DEF_GDB_PORT;
     private int telnetPort = DEF_TELNET_PORT;
+    private int tclPort = DEF_TCL_PORT;
+    private boolean autoPorts = DEF_AUTO_PORTS;
+    private boolean persistentServer = DEF_PERSISTENT_SERVER;
+    private String adapterSerial = DEF_ADAPTER_SERIAL;
+    private int adapterSpeed = DEF_ADAPTER_SPEED;
+    private String adapterSpeedDevice = "";
     private String boardConfigFile;
     private String interfaceConfigFile;
     private DownloadType downloadType = DEF_DOWNLOAD_TYPE;
@@ -80,6 +117,7 @@ public class OpenOcdConfiguration extends CMakeAppRunConfiguration implements Ci
     private boolean flushRegs = DEF_FLUSH_REGS;
     private boolean initialBreak = DEF_BREAK_FUNCTION;
     private String initialBreakName = DEF_BREAK_FUNCTION_NAME;
+    private String postConnectCommands = DEF_POST_CONNECT_COMMANDS;
 
     private String bootloaderOffset = DEF_BOOT_OFFSET;
     private String bootloaderBinPath = DEF_BOOT_BIN_PATH;
@@ -89,14 +127,27 @@ public class OpenOcdConfiguration extends CMakeAppRunConfiguration implements Ci
     private boolean partitionBinPathSet = DEF_PART_BIN_PATH_SET;
 
     private ProgramType programType = DEF_PROGRAM_TYPE;
-    private boolean appendVerify = DEF_APPEND_VERIFY;
+    private VerifyMode verifyMode = DEF_VERIFY_MODE;
+    private String flashBank = DEF_FLASH_BANK;
+    private boolean buildAppImage = DEF_BUILD_APP_IMAGE;
+    private boolean compress = DEF_COMPRESS;
+    private boolean deltaFlash = DEF_DELTA_FLASH;
+    private boolean checkDeviceFirmware = DEF_CHECK_DEVICE_FIRMWARE;
+    private boolean coalesceImages = DEF_COALESCE_IMAGES;
     private String additionalProgramParameters = DEF_ADD_PROG_PARAM;
     private boolean additionalProgramParametersSet = DEF_ADD_PROG_PARAM_SET;
+    private String successPatterns = DEF_CONSOLE_PATTERNS;
+    private String failurePatterns = DEF_CONSOLE_PATTERNS;
+    private String ignorePatterns = DEF_CONSOLE_PATTERNS;
 
     public enum DownloadType {
 
         ALWAYS,
         UPDATED_ONLY,
+        /**
+         * Loads the ELF into RAM and starts it at its entry point, flash stays untouched.
+         */
+        RAM_ONLY,
         NONE;
 
         @Override
@@ -115,6 +166,21 @@ public class OpenOcdConfiguration extends CMakeAppRunConfiguration implements Ci
         }
     }
 
+    /**
+     * How written flash is checked: not at all, by comparing a hash computed on the target with the one of the
+     * file, or by reading everything back.
+     */
+    public enum VerifyMode {
+        NONE,
+        HASH,
+        READBACK;
+
+        @Override
+        public String toString() {
+            return toBeautyString(super.toString());
+        }
+    }
+
     public static String toBeautyString(String obj) {
         return StringUtil.toTitleCase(obj.toLowerCase().replace("_", " "));
     }
@@ -182,11 +248,19 @@ public class OpenOcdConfiguration extends CMakeAppRunConfiguration implements Ci
 
         gdbPort = readIntAttr(element, ATTR_GDB_PORT, DEF_GDB_PORT);
         telnetPort = readIntAttr(element, ATTR_TELNET_PORT, DEF_TELNET_PORT);
+        tclPort = readIntAttr(element, ATTR_TCL_PORT, DEF_TCL_PORT);
+        autoPorts = readBoolAttr(element, ATTR_AUTO_PORTS, DEF_AUTO_PORTS);
+        persistentServer = readBoolAttr(element, ATTR_PERSISTENT_SERVER, DEF_PERSISTENT_SERVER);
+        adapterSerial = element.getAttributeValue(ATTR_ADAPTER_SERIAL, null, DEF_ADAPTER_SERIAL);
+        adapterSpeed = readIntAttr(element, ATTR_ADAPTER_SPEED, DEF_ADAPTER_SPEED);
+        adapterSpeedDevice = element.getAttributeValue(ATTR_ADAPTER_SPEED_DEVICE, null, "");
         downloadType = readEnumAttr(element, ATTR_DOWNLOAD_TYPE, DownloadType.ALWAYS);
         resetType = readEnumAttr(element, ATTR_RESET_TYPE, DEF_RESET_TYPE);
         flushRegs = readBoolAttr(element, ATTR_FLUSH_REGS, DEF_FLUSH_REGS);
         initialBreak = readBoolAttr(element, ATTR_BREAK_FUNCTION, DEF_BREAK_FUNCTION);
         initialBreakName = element.getAttributeValue(ATTR_BREAK_FUNCTION_NAME, null, DEF_BREAK_FUNCTION_NAME);
+        postConnectCommands = element.getAttributeValue(ATTR_POST_CONNECT_COMMANDS, null,
+                DEF_POST_CONNECT_COMMANDS);
 
         offset = element.getAttributeValue(ATTR_PROGRAM_OFFSET_CONFIG, null, DEF_PROGRAM_OFFSET);
 
@@ -202,11 +276,24 @@ public class OpenOcdConfiguration extends CMakeAppRunConfiguration implements Ci
 
         String programTypeStr = element.getAttributeValue(ATTR_PROGRAM_TYPE_CONFIG);
         programType = programTypeStr != null ? ProgramType.valueOf(programTypeStr) : DEF_PROGRAM_TYPE;
-        appendVerify = readBoolAttr(element, ATTR_APPEND_VERIFY_CONFIG, DEF_APPEND_VERIFY);
+        // configurations from before the verify modes only have the append verify flag
+        VerifyMode legacyVerifyMode = readBoolAttr(element, ATTR_APPEND_VERIFY_CONFIG, true)
+                ? DEF_VERIFY_MODE : VerifyMode.NONE;
+        verifyMode = readEnumAttr(element, ATTR_VERIFY_MODE_CONFIG, legacyVerifyMode);
+        flashBank = element.getAttributeValue(ATTR_FLASH_BANK_CONFIG, null, DEF_FLASH_BANK);
+        buildAppImage = readBoolAttr(element, ATTR_BUILD_APP_IMAGE_CONFIG, DEF_BUILD_APP_IMAGE);
+        compress = readBoolAttr(element, ATTR_COMPRESS_CONFIG, DEF_COMPRESS);
+        deltaFlash = readBoolAttr(element, ATTR_DELTA_FLASH_CONFIG, DEF_DELTA_FLASH);
+        checkDeviceFirmware = readBoolAttr(element, ATTR_CHECK_DEVICE_FIRMWARE_CONFIG, DEF_CHECK_DEVICE_FIRMWARE);
+        coalesceImages = readBoolAttr(element, ATTR_COALESCE_IMAGES_CONFIG, DEF_COALESCE_IMAGES);
 
         additionalProgramParametersSet = readBoolAttr(element, ATTR_ADD_PROG_PARAM_SET_CONFIG, DEF_ADD_PROG_PARAM_SET);
         additionalProgramParameters = element.getAttributeValue(ATTR_ADD_PROG_PARAM_CONFIG, null,
                 additionalProgramParametersSet ? null : DEF_ADD_PROG_PARAM);
+
+        successPatterns = element.getAttributeValue(ATTR_SUCCESS_PATTERNS_CONFIG, null, DEF_CONSOLE_PATTERNS);
+        failurePatterns = element.getAttributeValue(ATTR_FAILURE_PATTERNS_CONFIG, null, DEF_CONSOLE_PATTERNS);
+        ignorePatterns = element.getAttributeValue(ATTR_IGNORE_PATTERNS_CONFIG, null, DEF_CONSOLE_PATTERNS);
     }
 
     private int readIntAttr(@NotNull Element element, String name, int def) {
@@ -246,6 +333,12 @@ public class OpenOcdConfiguration extends CMakeAppRunConfiguration implements Ci
 
         element.setAttribute(ATTR_GDB_PORT, String.valueOf(gdbPort));
         element.setAttribute(ATTR_TELNET_PORT, String.valueOf(telnetPort));
+        element.setAttribute(ATTR_TCL_PORT, String.valueOf(tclPort));
+        element.setAttribute(ATTR_AUTO_PORTS, String.valueOf(autoPorts));
+        element.setAttribute(ATTR_PERSISTENT_SERVER, String.valueOf(persistentServer));
+        element.setAttribute(ATTR_ADAPTER_SERIAL, Objects.requireNonNullElse(adapterSerial, ""));
+        element.setAttribute(ATTR_ADAPTER_SPEED, String.valueOf(adapterSpeed));
+        element.setAttribute(ATTR_ADAPTER_SPEED_DEVICE, Objects.requireNonNullElse(adapterSpeedDevice, ""));
         if (boardConfigFile != null) {
             element.setAttribute(ATTR_BOARD_CONFIG, boardConfigFile);
         }
@@ -257,6 +350,7 @@ public class OpenOcdConfiguration extends CMakeAppRunConfiguration implements Ci
         element.setAttribute(ATTR_FLUSH_REGS, String.valueOf(flushRegs));
         element.setAttribute(ATTR_BREAK_FUNCTION, String.valueOf(initialBreak));
         element.setAttribute(ATTR_BREAK_FUNCTION_NAME, initialBreakName);
+        element.setAttribute(ATTR_POST_CONNECT_COMMANDS, Objects.requireNonNullElse(postConnectCommands, ""));
 
         element.setAttribute(ATTR_BOOT_PATH_SET_CONFIG, String.valueOf(bootloaderBinPathSet));
         element.setAttribute(ATTR_BOOT_PATH_CONFIG, bootloaderBinPath == null ? "" : bootloaderBinPath);
@@ -269,23 +363,43 @@ public class OpenOcdConfiguration extends CMakeAppRunConfiguration implements Ci
         element.setAttribute(ATTR_PROGRAM_OFFSET_CONFIG, Objects.requireNonNullElse(offset, DEF_PROGRAM_OFFSET));
 
         element.setAttribute(ATTR_PROGRAM_TYPE_CONFIG, programType.name());
-        element.setAttribute(ATTR_APPEND_VERIFY_CONFIG, String.valueOf(appendVerify));
+        element.setAttribute(ATTR_VERIFY_MODE_CONFIG, verifyMode.name());
+        element.setAttribute(ATTR_FLASH_BANK_CONFIG, getFlashBank());
+        element.setAttribute(ATTR_BUILD_APP_IMAGE_CONFIG, String.valueOf(buildAppImage));
+        element.setAttribute(ATTR_COMPRESS_CONFIG, String.valueOf(compress));
+        element.setAttribute(ATTR_DELTA_FLASH_CONFIG, String.valueOf(deltaFlash));
+        element.setAttribute(ATTR_CHECK_DEVICE_FIRMWARE_CONFIG, String.valueOf(checkDeviceFirmware));
+        element.setAttribute(ATTR_COALESCE_IMAGES_CONFIG, String.valueOf(coalesceImages));
 
         element.setAttribute(ATTR_ADD_PROG_PARAM_SET_CONFIG, String.valueOf(additionalProgramParametersSet));
         element.setAttribute(ATTR_ADD_PROG_PARAM_CONFIG, additionalProgramParameters == null ? "" : additionalProgramParameters);
+
+        element.setAttribute(ATTR_SUCCESS_PATTERNS_CONFIG, Objects.requireNonNullElse(successPatterns, ""));
+        element.setAttribute(ATTR_FAILURE_PATTERNS_CONFIG, Objects.requireNonNullElse(failurePatterns, ""));
+        element.setAttribute(ATTR_IGNORE_PATTERNS_CONFIG, Objects.requireNonNullElse(ignorePatterns, ""));
     }
 
     @Override
     public void checkConfiguration() throws RuntimeConfigurationException {
         super.checkConfiguration();
-        checkPort(gdbPort);
-        checkPort(telnetPort);
-        if (gdbPort == telnetPort) {
-            throw new RuntimeConfigurationException("Port values should be different");
+        if (!autoPorts) {
+            checkPort(gdbPort);
+            checkPort(telnetPort);
+            if (gdbPort == telnetPort) {
+                throw new RuntimeConfigurationException("Port values should be different");
+            }
+            checkPort(tclPort);
+            if (tclPort == gdbPort || tclPort == telnetPort) {
+                throw new RuntimeConfigurationException("Port values should be different");
+            }
         }
         if (StringUtil.isEmpty(boardConfigFile)) {
             throw new RuntimeConfigurationException("Board config file is not defined");
         }
+        if (deltaFlash && getAdapterSerial().isEmpty()) {
+            throw new RuntimeConfigurationWarning("Only changed sectors are written once the adapter serial is set, "
+                                                  + "which tells the device apart from other boards");
+        }
     }
 
     private void checkPort(int port) throws RuntimeConfigurationException {
@@ -317,6 +431,74 @@ public class OpenOcdConfiguration extends CMakeAppRunConfiguration implements Ci
         this.telnetPort = telnetPort;
     }
 
+    public int getTclPort() {
+        return tclPort;
+    }
+
+    public void setTclPort(int tclPort) {
+        this.tclPort = tclPort;
+    }
+
+    public boolean getAutoPorts() {
+        return autoPorts;
+    }
+
+    public void setAutoPorts(boolean autoPorts) {
+        this.autoPorts = autoPorts;
+    }
+
+    /**
+     * @return the configured ports; in automatic port mode each launch gets its own from
+     * {@link OpenOcdComponent#allocatePorts}
+     */
+    @NotNull
+    public PortAllocator.Ports getPorts() {
+        return new PortAllocator.Ports(gdbPort, telnetPort, tclPort);
+    }
+
+    public boolean getPersistentServer() {
+        return persistentServer;
+    }
+
+    public void setPersistentServer(boolean persistentServer) {
+        this.persistentServer = persistentServer;
+    }
+
+    /**
+     * @return the serial number of the debug adapter to use, empty to use the first one found
+     */
+    @NotNull
+    public String getAdapterSerial() {
+        return Objects.requireNonNullElse(adapterSerial, "");
+    }
+
+    public void setAdapterSerial(String adapterSerial) {
+        this.adapterSerial = adapterSerial == null ? "" : adapterSerial.trim();
+    }
+
+    /**
+     * @return the adapter clock in kHz, {@code 0} to keep the one the board script sets. A speed found by
+     * {@link AdapterSpeedTuner} only applies as long as board, interface and adapter serial stay the same.
+     */
+    public int getAdapterSpeed() {
+        boolean sameDevice = adapterSpeedDevice == null || adapterSpeedDevice.isEmpty()
+                             || adapterSpeedDevice.equals(OpenOcdComponent.createDeviceKey(this));
+        return sameDevice ? adapterSpeed : DEF_ADAPTER_SPEED;
+    }
+
+    public void setAdapterSpeed(int adapterSpeed) {
+        this.adapterSpeed = adapterSpeed;
+        this.adapterSpeedDevice = "";
+    }
+
+    /**
+     * @param deviceKey the device the speed was tuned for, see {@link OpenOcdComponent#createDeviceKey}
+     */
+    public void setTunedAdapterSpeed(int adapterSpeed, @NotNull String deviceKey) {
+        this.adapterSpeed = adapterSpeed;
+        this.adapterSpeedDevice = deviceKey;
+    }
+
     public String getBoardConfigFile() {
         return boardConfigFile;
     }
@@ -382,6 +564,17 @@ public class OpenOcdConfiguration extends CMakeAppRunConfiguration implements Ci
         this.initialBreakName = initialBreakName;
     }
 
+    /**
+     * @return GDB commands run after connecting, one per line
+     */
+    public String getPostConnectCommands() {
+        return postConnectCommands;
+    }
+
+    public void setPostConnectCommands(String postConnectCommands) {
+        this.postConnectCommands = postConnectCommands;
+    }
+
     public String getBootOffset() {
         return bootloaderOffset;
     }
@@ -424,12 +617,70 @@ public class OpenOcdConfiguration extends CMakeAppRunConfiguration implements Ci
         this.programType = programType;
     }
 
-    public boolean getAppendVerify() {
-        return appendVerify;
+    public VerifyMode getVerifyMode() {
+        return verifyMode;
+    }
+
+    public void setVerifyMode(VerifyMode verifyMode) {
+        this.verifyMode = verifyMode;
+    }
+
+    /**
+     * @return the number or name of the OpenOCD flash bank the images are verified and probed in
+     */
+    @NotNull
+    public String getFlashBank() {
+        return StringUtil.isEmptyOrSpaces(flashBank) ? DEF_FLASH_BANK : flashBank.trim();
+    }
+
+    public void setFlashBank(String flashBank) {
+        this.flashBank = flashBank;
+    }
+
+    /**
+     * @return whether the application image is built from the ELF instead of taking the {@code .bin} of the build
+     */
+    public boolean getBuildAppImage() {
+        return buildAppImage;
+    }
+
+    public void setBuildAppImage(boolean buildAppImage) {
+        this.buildAppImage = buildAppImage;
+    }
+
+    /**
+     * @return whether images that shrink enough are sent compressed and inflated by the flasher stub
+     */
+    public boolean getCompress() {
+        return compress;
+    }
+
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    public boolean getDeltaFlash() {
+        return deltaFlash;
+    }
+
+    public void setDeltaFlash(boolean deltaFlash) {
+        this.deltaFlash = deltaFlash;
     }
 
-    public void setAppendVerify(boolean appendVerify) {
-        this.appendVerify = appendVerify;
+    public boolean getCheckDeviceFirmware() {
+        return checkDeviceFirmware;
+    }
+
+    public void setCheckDeviceFirmware(boolean checkDeviceFirmware) {
+        this.checkDeviceFirmware = checkDeviceFirmware;
+    }
+
+    public boolean getCoalesceImages() {
+        return coalesceImages;
+    }
+
+    public void setCoalesceImages(boolean coalesceImages) {
+        this.coalesceImages = coalesceImages;
     }
 
     public String getAdditionalProgramParameters() {
@@ -440,4 +691,28 @@ public class OpenOcdConfiguration extends CMakeAppRunConfiguration implements Ci
         this.additionalProgramParameters = additionalProgramParameters;
         this.additionalProgramParametersSet = additionalProgramParameters != null;
     }
+
+    public String getSuccessPatterns() {
+        return successPatterns;
+    }
+
+    public void setSuccessPatterns(String successPatterns) {
+        this.successPatterns = successPatterns;
+    }
+
+    public String getFailurePatterns() {
+        return failurePatterns;
+    }
+
+    public void setFailurePatterns(String failurePatterns) {
+        this.failurePatterns = failurePatterns;
+    }
+
+    public String getIgnorePatterns() {
+        return ignorePatterns;
+    }
+
+    public void setIgnorePatterns(String ignorePatterns) {
+        this.ignorePatterns = ignorePatterns;
+    }
 }
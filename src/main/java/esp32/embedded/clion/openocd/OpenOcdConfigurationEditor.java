@@ -7,6 +7,8 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ModuleRootManager;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.components.JBTextArea;
 import com.intellij.ui.components.fields.ExtendableTextField;
 import com.intellij.ui.components.fields.IntegerField;
 import com.intellij.util.ui.GridBag;
@@ -35,11 +37,17 @@ public class OpenOcdConfigurationEditor extends CMakeAppRunConfigurationSettings
     private DebuggersComboBoxWithModel debuggers;
     private IntegerField gdbPort;
     private IntegerField telnetPort;
+    private IntegerField tclPort;
+    private JCheckBox autoPorts;
+    private JCheckBox persistentServer;
+    private ExtendableTextField adapterSerial;
+    private IntegerField adapterSpeed;
     private ExtendableTextField offset;
     private JXRadioGroup<OpenOcdConfiguration.ResetType> resetGroup;
     private JCheckBox flushRegsCheck;
     private JCheckBox initialBreakpointCheck;
     private ExtendableTextField initialBreakpointName;
+    private JBTextArea postConnectCommands;
     private FileChooseInput boardConfigFile;
     private FileChooseInput interfaceConfigFile;
 
@@ -51,9 +59,18 @@ public class OpenOcdConfigurationEditor extends CMakeAppRunConfigurationSettings
     private JXRadioGroup<DownloadType> downloadGroup;
 
     private JXRadioGroup<ProgramType> programType;
-    private JCheckBox appendVerify;
+    private JXRadioGroup<OpenOcdConfiguration.VerifyMode> verifyMode;
+    private ExtendableTextField flashBank;
+    private JCheckBox buildAppImage;
+    private JCheckBox compress;
+    private JCheckBox deltaFlash;
+    private JCheckBox checkDeviceFirmware;
+    private JCheckBox coalesceImages;
 
     private ExtendableTextField additionalProgramParameters;
+    private ExtendableTextField successPatterns;
+    private ExtendableTextField failurePatterns;
+    private ExtendableTextField ignorePatterns;
 
 
     public OpenOcdConfigurationEditor(Project project,
@@ -66,6 +83,8 @@ public class OpenOcdConfigurationEditor extends CMakeAppRunConfigurationSettings
         super.applyEditorTo(cMakeAppRunConfiguration);
 
         OpenOcdConfiguration ocdConfiguration = (OpenOcdConfiguration) cMakeAppRunConfiguration;
+        // compared before board, interface or serial change, which would hide a tuned speed
+        int previousAdapterSpeed = ocdConfiguration.getAdapterSpeed();
 
         String boardConfig = boardConfigFile.getText().trim();
         ocdConfiguration.setBoardConfigFile(boardConfig.isEmpty() ? null : boardConfig);
@@ -79,18 +98,38 @@ public class OpenOcdConfigurationEditor extends CMakeAppRunConfigurationSettings
         String partPath = partitionTableFile.getPath().trim();
         ocdConfiguration.setPartitionBinPath(partPath.isEmpty() ? null : partPath);
 
-        gdbPort.validateContent();
-        telnetPort.validateContent();
+        adapterSpeed.validateContent();
+        if (!autoPorts.isSelected()) {
+            gdbPort.validateContent();
+            telnetPort.validateContent();
+            tclPort.validateContent();
+        }
 
         DebuggerData selectedDebugger = debuggers.getSelectedDebugger();
         ocdConfiguration.setDebuggerData(selectedDebugger);
 
         ocdConfiguration.setGdbPort(gdbPort.getValue());
         ocdConfiguration.setTelnetPort(telnetPort.getValue());
+        ocdConfiguration.setTclPort(tclPort.getValue());
+        ocdConfiguration.setAutoPorts(autoPorts.isSelected());
+        ocdConfiguration.setPersistentServer(persistentServer.isSelected());
+        ocdConfiguration.setAdapterSerial(adapterSerial.getText());
+        if (adapterSpeed.getValue() != previousAdapterSpeed) {
+            ocdConfiguration.setAdapterSpeed(adapterSpeed.getValue());
+        }
         ocdConfiguration.setDownloadType(downloadGroup.getSelectedValue());
         ocdConfiguration.setProgramType(programType.getSelectedValue());
-        ocdConfiguration.setAppendVerify(appendVerify.isSelected());
+        ocdConfiguration.setVerifyMode(verifyMode.getSelectedValue());
+        ocdConfiguration.setFlashBank(flashBank.getText());
+        ocdConfiguration.setBuildAppImage(buildAppImage.isSelected());
+        ocdConfiguration.setCompress(compress.isSelected());
+        ocdConfiguration.setDeltaFlash(deltaFlash.isSelected());
+        ocdConfiguration.setCheckDeviceFirmware(checkDeviceFirmware.isSelected());
+        ocdConfiguration.setCoalesceImages(coalesceImages.isSelected());
         ocdConfiguration.setAdditionalProgramParameters(additionalProgramParameters.getText());
+        ocdConfiguration.setSuccessPatterns(successPatterns.getText());
+        ocdConfiguration.setFailurePatterns(failurePatterns.getText());
+        ocdConfiguration.setIgnorePatterns(ignorePatterns.getText());
 
         ocdConfiguration.setOffset(offset.getText());
         ocdConfiguration.setBootOffset(bootloaderOffset.getText());
@@ -99,6 +138,7 @@ public class OpenOcdConfigurationEditor extends CMakeAppRunConfigurationSettings
         ocdConfiguration.setFlushRegs(flushRegsCheck.isSelected());
         ocdConfiguration.setInitialBreak(initialBreakpointCheck.isSelected());
         ocdConfiguration.setInitialBreakName(initialBreakpointName.getText());
+        ocdConfiguration.setPostConnectCommands(postConnectCommands.getText());
     }
 
     @Override
@@ -108,6 +148,9 @@ public class OpenOcdConfigurationEditor extends CMakeAppRunConfigurationSettings
         OpenOcdConfiguration ocd = (OpenOcdConfiguration) cMakeAppRunConfiguration;
 
         openocdHome = ocd.getProject().getService(OpenOcdSettingsState.class).openOcdHome;
+        if (openocdHome != null) {
+            OpenOcdScriptCatalog.getInstance().getCatalog(openocdHome);
+        }
 
         boardConfigFile.setText(ocd.getBoardConfigFile());
         interfaceConfigFile.setText(ocd.getInterfaceConfigFile());
@@ -130,14 +173,29 @@ public class OpenOcdConfigurationEditor extends CMakeAppRunConfigurationSettings
         gdbPort.setText(String.valueOf(ocd.getGdbPort()));
 
         telnetPort.setText(String.valueOf(ocd.getTelnetPort()));
+        tclPort.setText(String.valueOf(ocd.getTclPort()));
+        autoPorts.setSelected(ocd.getAutoPorts());
+        updatePortInputs();
+        persistentServer.setSelected(ocd.getPersistentServer());
+        adapterSerial.setText(ocd.getAdapterSerial());
+        adapterSpeed.setValue(ocd.getAdapterSpeed());
         downloadGroup.setSelectedValue(ocd.getDownloadType());
         programType.setSelectedValue(ocd.getProgramType());
-        appendVerify.setSelected(ocd.getAppendVerify());
+        verifyMode.setSelectedValue(ocd.getVerifyMode());
+        flashBank.setText(ocd.getFlashBank());
+        buildAppImage.setSelected(ocd.getBuildAppImage());
+        compress.setSelected(ocd.getCompress());
+        deltaFlash.setSelected(ocd.getDeltaFlash());
+        checkDeviceFirmware.setSelected(ocd.getCheckDeviceFirmware());
+        coalesceImages.setSelected(ocd.getCoalesceImages());
         if (ocd.getAdditionalProgramParameters() != null) {
             additionalProgramParameters.setText(ocd.getAdditionalProgramParameters());
         } else {
             additionalProgramParameters.setText("");
         }
+        successPatterns.setText(ocd.getSuccessPatterns());
+        failurePatterns.setText(ocd.getFailurePatterns());
+        ignorePatterns.setText(ocd.getIgnorePatterns());
 
         offset.setText(ocd.getOffset());
         bootloaderOffset.setText(ocd.getBootOffset());
@@ -146,6 +204,7 @@ public class OpenOcdConfigurationEditor extends CMakeAppRunConfigurationSettings
         flushRegsCheck.setSelected(ocd.getFlushRegs());
         initialBreakpointCheck.setSelected(ocd.getInitialBreak());
         initialBreakpointName.setText(ocd.getInitialBreakName());
+        postConnectCommands.setText(ocd.getPostConnectCommands());
     }
 
     @Override
@@ -201,27 +260,110 @@ public class OpenOcdConfigurationEditor extends CMakeAppRunConfigurationSettings
         programType = new JXRadioGroup<>(ProgramType.values());
         panel.add(programType, gridBag.next().coverLine());
 
-        appendVerify = new JCheckBox("Append verify parameter", OpenOcdConfiguration.DEF_APPEND_VERIFY);
-        panel.add(appendVerify, gridBag.nextLine().next());
+        panel.add(new JLabel("Verify:"), gridBag.nextLine().next());
+        verifyMode = new JXRadioGroup<>(OpenOcdConfiguration.VerifyMode.values());
+        verifyMode.setToolTipText("Hash compares a hash computed on the target and reads back only regions that "
+                                  + "differ. Readback reads all written flash.");
+        panel.add(verifyMode, gridBag.next().coverLine());
+
+        panel.add(new JLabel("Flash bank:"), gridBag.nextLine().next());
+        flashBank = addOffsetInput(OpenOcdConfiguration.DEF_FLASH_BANK);
+        flashBank.setToolTipText("Number or name of the OpenOCD flash bank the images are written to, used to "
+                                 + "verify them and to check the firmware on the device");
+        panel.add(flashBank, gridBag.next().coverLine());
+
+        deltaFlash = new JCheckBox("Only write changed sectors", OpenOcdConfiguration.DEF_DELTA_FLASH);
+        deltaFlash.setToolTipText("Compares images with the copy last flashed from this IDE to the device of the "
+                                  + "adapter serial. Disable it if the device is also flashed by other tools.");
+        panel.add(deltaFlash, gridBag.nextLine().next().coverLine());
+
+        buildAppImage = new JCheckBox("Build the application image from the ELF",
+                OpenOcdConfiguration.DEF_BUILD_APP_IMAGE);
+        buildAppImage.setToolTipText("Flashes exactly the ELF being debugged even if the .bin of the build is "
+                                     + "stale. Flash settings are taken from that .bin, anything the build "
+                                     + "appends to it, like a secure boot signature, is not flashed.");
+        panel.add(buildAppImage, gridBag.nextLine().next().coverLine());
+
+        compress = new JCheckBox("Compress images during transfer", OpenOcdConfiguration.DEF_COMPRESS);
+        compress.setToolTipText("Sends images which deflate to less than 90% of their size compressed, e.g. "
+                                + "mostly empty data partitions. Images are then programmed one by one.");
+        panel.add(compress, gridBag.nextLine().next().coverLine());
+
+        checkDeviceFirmware = new JCheckBox("Skip download if the device already runs this firmware",
+                OpenOcdConfiguration.DEF_CHECK_DEVICE_FIRMWARE);
+        panel.add(checkDeviceFirmware, gridBag.nextLine().next().coverLine());
+
+        coalesceImages = new JCheckBox("Program all images in a single pass", OpenOcdConfiguration.DEF_COALESCE_IMAGES);
+        coalesceImages.setToolTipText("Uses flash write_image instead of the OpenOCD command above. Images are "
+                                      + "programmed one by one with additional program parameters such as "
+                                      + "encrypt, with compression or with program_esp32.");
+        panel.add(coalesceImages, gridBag.nextLine().next().coverLine());
 
         panel.add(new JLabel("Additional program parameters:"), gridBag.nextLine().next());
         additionalProgramParameters = new ExtendableTextField(OpenOcdConfiguration.DEF_ADD_PROG_PARAM);
         panel.add(additionalProgramParameters, gridBag.next().coverLine());
 
+        panel.add(new JLabel("Console success patterns:"), gridBag.nextLine().next());
+        successPatterns = addPatternInput();
+        panel.add(successPatterns, gridBag.next().coverLine());
+
+        panel.add(new JLabel("Console failure patterns:"), gridBag.nextLine().next());
+        failurePatterns = addPatternInput();
+        panel.add(failurePatterns, gridBag.next().coverLine());
+
+        panel.add(new JLabel("Console ignored error patterns:"), gridBag.nextLine().next());
+        ignorePatterns = addPatternInput();
+        panel.add(ignorePatterns, gridBag.next().coverLine());
+
         JPanel portsPanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
 
         gdbPort = addPortInput(portsPanel, "GDB port", OpenOcdConfiguration.DEF_GDB_PORT);
         portsPanel.add(Box.createHorizontalStrut(10));
 
         telnetPort = addPortInput(portsPanel, "Telnet port", OpenOcdConfiguration.DEF_TELNET_PORT);
+        portsPanel.add(Box.createHorizontalStrut(10));
+
+        tclPort = addPortInput(portsPanel, "TCL port", OpenOcdConfiguration.DEF_TCL_PORT);
+        portsPanel.add(Box.createHorizontalStrut(10));
+
+        autoPorts = new JCheckBox("Automatic", OpenOcdConfiguration.DEF_AUTO_PORTS);
+        autoPorts.setToolTipText("Picks free ports from the range in the OpenOCD settings at every launch");
+        autoPorts.addActionListener(e -> updatePortInputs());
+        portsPanel.add(autoPorts);
 
         panel.add(portsPanel, gridBag.nextLine().next().coverLine());
 
+        persistentServer = new JCheckBox("Keep OpenOCD running between debug sessions",
+                OpenOcdConfiguration.DEF_PERSISTENT_SERVER);
+        panel.add(persistentServer, gridBag.nextLine().next().coverLine());
+
+        panel.add(new JLabel("Adapter serial:"), gridBag.nextLine().next());
+        adapterSerial = new ExtendableTextField(OpenOcdConfiguration.DEF_ADAPTER_SERIAL);
+        adapterSerial.getEmptyText().setText("First adapter found");
+        adapterSerial.setToolTipText("Selects the debug adapter when several boards are connected. Each adapter "
+                                     + "gets its own OpenOCD process, which needs its own ports.");
+        panel.add(adapterSerial, gridBag.next().coverLine());
+
+        panel.add(new JLabel("Adapter speed (kHz):"), gridBag.nextLine().next());
+        adapterSpeed = new IntegerField("Adapter speed", 0, 100_000);
+        adapterSpeed.setDefaultValue(OpenOcdConfiguration.DEF_ADAPTER_SPEED);
+        adapterSpeed.setColumns(6);
+        adapterSpeed.setToolTipText("0 keeps the speed of the board config. Run \"Tune OpenOCD Adapter Speed\" "
+                                    + "to find the fastest one that works with this board and adapter.");
+        panel.add(adapterSpeed, gridBag.next().coverLine());
+
         panel.add(new JLabel("Download Options"), gridBag.nextLine().next());
 
         panel.add(createDownloadSelector(), gridBag.nextLine().coverLine());
 
         panel.add(createGDBSettingsSelector(), gridBag.nextLine().coverLine());
+
+        panel.add(new JLabel("GDB post-connect commands:"), gridBag.nextLine().next());
+        postConnectCommands = new JBTextArea(OpenOcdConfiguration.DEF_POST_CONNECT_COMMANDS, 3, 0);
+        postConnectCommands.setToolTipText("One GDB command per line, e.g. monitor commands, breakpoints or "
+                                           + "memory setup. They run with flushregs and the initial breakpoint "
+                                           + "as one script; a running target is paused for them.");
+        panel.add(new JBScrollPane(postConnectCommands), gridBag.next().coverLine());
     }
 
     @NotNull
@@ -293,12 +435,25 @@ public class OpenOcdConfigurationEditor extends CMakeAppRunConfigurationSettings
         return field;
     }
 
+    private void updatePortInputs() {
+        boolean fixed = !autoPorts.isSelected();
+        gdbPort.setEnabled(fixed);
+        telnetPort.setEnabled(fixed);
+        tclPort.setEnabled(fixed);
+    }
+
     private ExtendableTextField addOffsetInput(String defaultValue) {
         ExtendableTextField field = new ExtendableTextField(defaultValue);
         field.setColumns(5);
         return field;
     }
 
+    private ExtendableTextField addPatternInput() {
+        ExtendableTextField field = new ExtendableTextField(OpenOcdConfiguration.DEF_CONSOLE_PATTERNS);
+        field.setToolTipText("Text fragments separated by ';'");
+        return field;
+    }
+
     private String getOpenocdHome() {
         return openocdHome;
     }
@@ -0,0 +1,419 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.execution.executors.DefaultRunExecutor;
+import com.intellij.execution.filters.Filter;
+import com.intellij.execution.filters.TextConsoleBuilderFactory;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.process.ProcessListener;
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.execution.ui.ConsoleView;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.execution.ui.RunContentDescriptor;
+import com.intellij.execution.ui.RunContentManager;
+import com.intellij.icons.AllIcons;
+import com.intellij.ide.actions.RevealFileAction;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.actionSystem.ActionManager;
+import com.intellij.openapi.actionSystem.ActionToolbar;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.DefaultActionGroup;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.ui.DocumentAdapter;
+import com.intellij.ui.SearchTextField;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.awt.BorderLayout;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import javax.swing.JPanel;
+import javax.swing.event.DocumentEvent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Console of an OpenOCD process whose memory use stays flat however long the session runs. The output goes into a
+ * fixed size ring buffer in native memory. A pooled thread takes it from there every {@link #FLUSH_INTERVAL_MS}:
+ * it appends it to a rotating log file and hands it to the console in one batch per output type, with at most one
+ * batch waiting for the EDT. Once the console shows as much as the ring holds, it is cleared and shows the newer
+ * half of the ring again; the complete output stays in the log file. A display filter works the same way: it
+ * applies to chunks, which are lines for process output, and changing it shows the newer half of the ring again.
+ * <p>
+ * The console of a process which can be held back, like the apptrace, is lossless: once the output not yet written
+ * to the log takes more than half of the ring, the thread reporting more output writes the log itself, so the
+ * process waits instead of overwriting output that is not logged yet.
+ */
+final class OpenOcdConsole implements ProcessListener, Disposable {
+
+    static final int RING_CAPACITY = 2 * 1024 * 1024;
+    private static final Logger LOG = Logger.getInstance(OpenOcdConsole.class);
+    private static final long FLUSH_INTERVAL_MS = 100;
+    private static final int MAX_BATCH_BYTES = 256 * 1024;
+    private static final int MAX_LOG_BATCH_BYTES = RING_CAPACITY / 2;
+    private static final long MAX_LOG_BYTES = 16 * 1024 * 1024;
+    private static final int LOG_FILES = 3;
+    private static final String LOG_DIR = "openocd";
+    private static final int STDOUT = 0;
+    private static final int STDERR = 1;
+    private static final int SYSTEM = 2;
+
+    private final ConsoleView console;
+    private final ConsoleRingBuffer ring = new ConsoleRingBuffer(RING_CAPACITY);
+    private final File logFile;
+    private final boolean lossless;
+    private final AtomicBoolean rendering = new AtomicBoolean();
+    private final ScheduledFuture<?> flushTask;
+    private volatile boolean terminated;
+    private volatile boolean disposed;
+    @Nullable
+    private volatile Predicate<String> displayFilter;
+    private volatile boolean refilter;
+
+    // guarded by render()
+    private long renderedPosition;
+    private long shownChars;
+
+    private final Object logLock = new Object();
+    private long loggedPosition;
+    @Nullable
+    private OutputStream log;
+    private long logBytes;
+    private boolean logClosed;
+
+    private OpenOcdConsole(@NotNull Project project, @NotNull String name, boolean lossless) {
+        console = TextConsoleBuilderFactory.getInstance().createBuilder(project).getConsole();
+        logFile = new File(PathManager.getLogPath(), LOG_DIR + "/" + name.replaceAll("[^\\w.-]", "_") + ".log");
+        this.lossless = lossless;
+        flushTask = AppExecutorUtil.getAppScheduledExecutorService().scheduleWithFixedDelay(this::flush,
+                FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Follows the output of the process and shows it in a tab of the Run tool window.
+     *
+     * @param name       used for the log file, unique per adapter
+     * @param filterable whether the console gets a field to filter the lines shown by their text
+     * @param lossless   whether the process waits for the log file when it falls behind instead of losing output
+     */
+    @NotNull
+    static OpenOcdConsole show(@NotNull Project project, @NotNull ProcessHandler process, @NotNull String title,
+                               @NotNull String name, @Nullable Filter filter, boolean filterable, boolean lossless) {
+        OpenOcdConsole openOcdConsole = new OpenOcdConsole(project, name, lossless);
+        if (filter != null) {
+            openOcdConsole.console.addMessageFilter(filter);
+        }
+        process.addProcessListener(openOcdConsole);
+        ApplicationManager.getApplication().invokeLater(() -> {
+            if (project.isDisposed()) {
+                Disposer.dispose(openOcdConsole);
+                return;
+            }
+            openOcdConsole.showContent(project, process, title, filterable);
+        });
+        return openOcdConsole;
+    }
+
+    /**
+     * @param displayFilter the chunks to show, {@code null} to show all
+     */
+    void setDisplayFilter(@Nullable Predicate<String> displayFilter) {
+        this.displayFilter = displayFilter;
+        refilter = true;
+        if (flushTask.isDone()) {
+            // the output is complete, nothing renders it any more
+            AppExecutorUtil.getAppExecutorService().execute(this::render);
+        }
+    }
+
+    private void showContent(@NotNull Project project, @NotNull ProcessHandler process, @NotNull String title,
+                             boolean filterable) {
+        DefaultActionGroup actions = new DefaultActionGroup();
+        actions.add(new StopAction(process));
+        actions.add(new ShowLogAction());
+        actions.addAll(console.createConsoleActions());
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(console.getComponent(), BorderLayout.CENTER);
+        ActionToolbar toolbar = ActionManager.getInstance().createActionToolbar("OpenOcdConsole", actions, false);
+        toolbar.setTargetComponent(panel);
+        panel.add(toolbar.getComponent(), BorderLayout.WEST);
+        if (filterable) {
+            SearchTextField filterField = new SearchTextField(false);
+            filterField.addDocumentListener(new DocumentAdapter() {
+                @Override
+                protected void textChanged(@NotNull DocumentEvent e) {
+                    String text = filterField.getText();
+                    setDisplayFilter(text.isEmpty() ? null : line -> StringUtil.containsIgnoreCase(line, text));
+                }
+            });
+            panel.add(filterField, BorderLayout.NORTH);
+        }
+
+        RunContentDescriptor descriptor = new RunContentDescriptor(console, process, panel, title);
+        descriptor.setActivateToolWindowWhenAdded(true);
+        Disposer.register(descriptor, this);
+        Disposer.register(this, console);
+        RunContentManager.getInstance(project).showRunContent(DefaultRunExecutor.getRunExecutorInstance(),
+                descriptor);
+    }
+
+    @Override
+    public void onTextAvailable(@NotNull ProcessEvent event, @NotNull Key outputType) {
+        int kind = ProcessOutputTypes.STDERR.equals(outputType) ? STDERR
+                : ProcessOutputTypes.SYSTEM.equals(outputType) ? SYSTEM : STDOUT;
+        if (lossless) {
+            catchUpLog();
+        }
+        ring.append(kind, event.getText());
+    }
+
+    /**
+     * Writes the log on the calling thread until at most half of the ring is not logged. A chunk takes at most a
+     * quarter of the ring, so appending it afterwards does not overwrite anything that is not logged.
+     */
+    private void catchUpLog() {
+        synchronized (logLock) {
+            while (!logClosed && ring.getHead() - loggedPosition > RING_CAPACITY / 2) {
+                writeLog();
+            }
+        }
+    }
+
+    @Override
+    public void processTerminated(@NotNull ProcessEvent event) {
+        // the flush task stops once everything is shown and written
+        terminated = true;
+    }
+
+    private void flush() {
+        try {
+            boolean lastFlush = terminated;
+            long head = ring.getHead();
+            boolean logged = writeLog();
+            render();
+            if (lastFlush && logged && renderedPosition == head && !rendering.get()) {
+                flushTask.cancel(false);
+                closeLog();
+            }
+        } catch (RuntimeException e) {
+            LOG.error("Cannot flush the OpenOCD console", e);
+        }
+    }
+
+    private synchronized void render() {
+        if (disposed || ring.getHead() == renderedPosition && !refilter
+            || !rendering.compareAndSet(false, true)) {
+            return;
+        }
+        Batch batch = new Batch();
+        long position = renderedPosition;
+        long lost = ring.lostSince(position);
+        if (refilter || shownChars + ring.getHead() - position > RING_CAPACITY) {
+            refilter = false;
+            batch.clear = true;
+            position = ring.findRecent(RING_CAPACITY / 2);
+            batch.add(SYSTEM, "Earlier output is in " + logFile + "\n");
+        } else if (lost > 0) {
+            batch.add(SYSTEM, "\n" + lost / 1024 + " KiB of output skipped, see " + logFile + "\n");
+        }
+        Predicate<String> filter = displayFilter;
+        renderedPosition = ring.read(position, MAX_BATCH_BYTES, (kind, text) -> {
+            if (filter == null || filter.test(text)) {
+                batch.add(kind, text);
+            }
+        });
+        shownChars = (batch.clear ? 0 : shownChars) + batch.length;
+        ApplicationManager.getApplication().invokeLater(() -> {
+            try {
+                if (!disposed) {
+                    batch.print(console);
+                }
+            } finally {
+                rendering.set(false);
+            }
+        }, ModalityState.any());
+    }
+
+    /**
+     * @return whether everything in the ring was written or cannot be written
+     */
+    private boolean writeLog() {
+        synchronized (logLock) {
+            if (log == null && !logClosed) {
+                openLog();
+            }
+            if (log == null) {
+                return true;
+            }
+            if (ring.getHead() == loggedPosition) {
+                return true;
+            }
+            StringBuilder text = new StringBuilder();
+            long lost = ring.lostSince(loggedPosition);
+            if (lost > 0) {
+                text.append("\n[").append(lost).append(" bytes of output lost]\n");
+            }
+            loggedPosition = ring.read(loggedPosition, MAX_LOG_BATCH_BYTES, (kind, chunk) -> text.append(chunk));
+            byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+            try {
+                if (logBytes + bytes.length > MAX_LOG_BYTES) {
+                    rotateLog();
+                }
+                log.write(bytes);
+                log.flush();
+                logBytes += bytes.length;
+            } catch (IOException e) {
+                LOG.warn("Cannot write " + logFile + ", the OpenOCD output is no longer logged", e);
+                closeLog();
+            }
+            return ring.getHead() == loggedPosition;
+        }
+    }
+
+    private void openLog() {
+        try {
+            Files.createDirectories(logFile.toPath().getParent());
+            log = new BufferedOutputStream(new FileOutputStream(logFile, true));
+            logBytes = logFile.length();
+            log.write(("\n=== Started " + LocalDateTime.now() + " ===\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            LOG.warn("Cannot open " + logFile + ", the OpenOCD output is not logged", e);
+            closeLog();
+        }
+    }
+
+    /**
+     * Renames {@code name.log} to {@code name.log.1} and so on, dropping the oldest file, and starts a new one.
+     */
+    private void rotateLog() throws IOException {
+        Objects.requireNonNull(log).close();
+        for (int i = LOG_FILES - 1; i >= 0; i--) {
+            File from = i == 0 ? logFile : new File(logFile.getPath() + "." + i);
+            if (from.exists()) {
+                Files.move(from.toPath(), new File(logFile.getPath() + "." + (i + 1)).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.deleteIfExists(new File(logFile.getPath() + "." + LOG_FILES).toPath());
+        log = new BufferedOutputStream(new FileOutputStream(logFile));
+        logBytes = 0;
+    }
+
+    private void closeLog() {
+        synchronized (logLock) {
+            logClosed = true;
+            if (log != null) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    LOG.info("Cannot close " + logFile, e);
+                }
+                log = null;
+            }
+        }
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        flushTask.cancel(false);
+        AppExecutorUtil.getAppExecutorService().execute(() -> {
+            writeLog();
+            closeLog();
+        });
+    }
+
+    /**
+     * Text for the console, merged into one chunk per output type while the type does not change.
+     */
+    private static final class Batch {
+        private final List<ConsoleViewContentType> types = new ArrayList<>();
+        private final List<StringBuilder> texts = new ArrayList<>();
+        private boolean clear;
+        private long length;
+
+        void add(int kind, @NotNull String text) {
+            ConsoleViewContentType type = kind == STDERR ? ConsoleViewContentType.ERROR_OUTPUT
+                    : kind == SYSTEM ? ConsoleViewContentType.SYSTEM_OUTPUT : ConsoleViewContentType.NORMAL_OUTPUT;
+            if (types.isEmpty() || types.get(types.size() - 1) != type) {
+                types.add(type);
+                texts.add(new StringBuilder());
+            }
+            texts.get(texts.size() - 1).append(text);
+            length += text.length();
+        }
+
+        void print(@NotNull ConsoleView console) {
+            if (clear) {
+                console.clear();
+            }
+            for (int i = 0; i < types.size(); i++) {
+                console.print(texts.get(i).toString(), types.get(i));
+            }
+        }
+    }
+
+    private static final class StopAction extends AnAction {
+        private final ProcessHandler process;
+
+        StopAction(@NotNull ProcessHandler process) {
+            super("Stop", "Stop OpenOCD", AllIcons.Actions.Suspend);
+            this.process = process;
+        }
+
+        @Override
+        public void update(@NotNull AnActionEvent e) {
+            e.getPresentation().setEnabled(!process.isProcessTerminated() && !process.isProcessTerminating());
+        }
+
+        @NotNull
+        @Override
+        public ActionUpdateThread getActionUpdateThread() {
+            return ActionUpdateThread.BGT;
+        }
+
+        @Override
+        public void actionPerformed(@NotNull AnActionEvent e) {
+            process.destroyProcess();
+        }
+    }
+
+    private final class ShowLogAction extends AnAction {
+        ShowLogAction() {
+            super("Show Log File", "Show the complete OpenOCD output, also of earlier sessions",
+                    AllIcons.FileTypes.Text);
+        }
+
+        @NotNull
+        @Override
+        public ActionUpdateThread getActionUpdateThread() {
+            return ActionUpdateThread.BGT;
+        }
+
+        @Override
+        public void actionPerformed(@NotNull AnActionEvent e) {
+            RevealFileAction.openFile(logFile);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.configurations.PathEnvironmentVariableUtil;
+import com.intellij.execution.process.CapturingProcessHandler;
+import com.intellij.execution.process.ProcessOutput;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.openapi.components.StoragePathMacros;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Finds the OpenOCD installations on this machine in the background: on {@code PATH}, in the ESP-IDF tools
+ * directory ({@code IDF_TOOLS_PATH}, {@code ~/.espressif} or {@code C:\Espressif}). The version and the
+ * supported targets of every installation are probed once and kept across IDE restarts until its binary
+ * changes.
+ */
+@Service(Service.Level.APP)
+@State(name = "esp32.OpenOcdInstallations", storages = @Storage(StoragePathMacros.NON_ROAMABLE_FILE))
+public final class OpenOcdInstallations implements PersistentStateComponent<OpenOcdInstallations> {
+
+    private static final Logger LOG = Logger.getInstance(OpenOcdInstallations.class);
+    private static final int VERSION_TIMEOUT_MS = 5000;
+    private static final String OPENOCD_ESP32_TOOL = "tools/openocd-esp32";
+    private static final Pattern VERSION = Pattern.compile("Open On-Chip Debugger\\s+(\\S+)");
+
+    /**
+     * Probe results by binary path.
+     */
+    public Map<String, Installation> probed = new ConcurrentHashMap<>();
+
+    private volatile CompletableFuture<List<Installation>> discovery;
+
+    public static OpenOcdInstallations getInstance() {
+        return ApplicationManager.getApplication().getService(OpenOcdInstallations.class);
+    }
+
+    @NotNull
+    @Override
+    public OpenOcdInstallations getState() {
+        return this;
+    }
+
+    @Override
+    public void loadState(@NotNull OpenOcdInstallations state) {
+        probed = new ConcurrentHashMap<>(state.probed);
+    }
+
+    /**
+     * @return the installations, those on {@code PATH} first, then the ESP-IDF ones from newest to oldest. The
+     * search runs once per IDE session, later calls get the same result.
+     */
+    @NotNull
+    public synchronized CompletableFuture<List<Installation>> discover() {
+        if (discovery == null) {
+            discovery = CompletableFuture.supplyAsync(this::findAll, AppExecutorUtil.getAppExecutorService());
+        }
+        return discovery;
+    }
+
+    /**
+     * Searches again, e.g. after a new installation was unpacked.
+     */
+    @NotNull
+    public synchronized CompletableFuture<List<Installation>> rediscover() {
+        discovery = null;
+        return discover();
+    }
+
+    @NotNull
+    private List<Installation> findAll() {
+        long startNanos = System.nanoTime();
+        List<Installation> installations = new ArrayList<>();
+        Set<String> binaries = new LinkedHashSet<>();
+        for (File home : findHomes()) {
+            Installation installation = probe(home);
+            if (installation != null) {
+                installations.add(installation);
+                binaries.add(new File(home, OpenOcdComponent.BIN_OPENOCD).getAbsolutePath());
+            }
+        }
+        probed.keySet().retainAll(binaries);
+        LOG.info("Found " + installations.size() + " OpenOCD installation(s) in "
+                 + (System.nanoTime() - startNanos) / 1_000_000 + " ms: " + installations);
+        return installations;
+    }
+
+    @NotNull
+    private static Set<File> findHomes() {
+        Set<File> homes = new LinkedHashSet<>();
+        for (File binary : findExecutablesInPath()) {
+            File bin = binary.getAbsoluteFile().getParentFile();
+            if (bin != null && bin.getParentFile() != null) {
+                homes.add(bin.getParentFile());
+            }
+        }
+        List<File> espressifHomes = new ArrayList<>();
+        for (File toolsRoot : findIdfToolsRoots()) {
+            File[] versions = new File(toolsRoot, OPENOCD_ESP32_TOOL).listFiles(File::isDirectory);
+            if (versions == null) {
+                continue;
+            }
+            for (File version : versions) {
+                File home = new File(version, "openocd-esp32");
+                espressifHomes.add(home.isDirectory() ? home : version);
+            }
+        }
+        espressifHomes.sort(Comparator.comparing((File home) -> home.getParentFile().getName()).reversed());
+        homes.addAll(espressifHomes);
+        return homes;
+    }
+
+    @NotNull
+    private static List<File> findExecutablesInPath() {
+        List<File> binaries = new ArrayList<>();
+        if (SystemInfo.isWindows) {
+            for (String ext : PathEnvironmentVariableUtil.getWindowsExecutableFileExtensions()) {
+                binaries.addAll(PathEnvironmentVariableUtil.findAllExeFilesInPath("openocd" + ext));
+            }
+        } else {
+            binaries.addAll(PathEnvironmentVariableUtil.findAllExeFilesInPath("openocd"));
+        }
+        return binaries;
+    }
+
+    @NotNull
+    private static Set<File> findIdfToolsRoots() {
+        Set<File> roots = new LinkedHashSet<>();
+        String idfToolsPath = System.getenv("IDF_TOOLS_PATH");
+        if (idfToolsPath != null && !idfToolsPath.isEmpty()) {
+            roots.add(new File(idfToolsPath));
+        }
+        roots.add(new File(System.getProperty("user.home"), ".espressif"));
+        if (SystemInfo.isWindows) {
+            roots.add(new File("C:\\Espressif"));
+        }
+        return roots;
+    }
+
+    /**
+     * @return the installation in the folder, or {@code null} if it has no OpenOCD binary and scripts
+     */
+    @Nullable
+    private Installation probe(@NotNull File home) {
+        File binary = new File(home, OpenOcdComponent.BIN_OPENOCD);
+        File scripts = OpenOcdScriptCatalog.findScriptsDir(home);
+        if (!binary.canExecute() || scripts == null) {
+            return null;
+        }
+        String key = binary.getAbsolutePath();
+        long lastModified = binary.lastModified();
+        Installation cached = probed.get(key);
+        if (cached != null && cached.binaryLastModified == lastModified) {
+            return cached;
+        }
+        Installation installation = new Installation();
+        installation.home = home.getAbsolutePath();
+        installation.binaryLastModified = lastModified;
+        installation.version = probeVersion(binary);
+        installation.targets = listTargets(scripts);
+        probed.put(key, installation);
+        return installation;
+    }
+
+    @NotNull
+    private static String probeVersion(@NotNull File binary) {
+        try {
+            ProcessOutput output = new CapturingProcessHandler(new GeneralCommandLine(binary.getAbsolutePath(),
+                    "--version")).runProcess(VERSION_TIMEOUT_MS);
+            // OpenOCD prints its version to stderr
+            Matcher matcher = VERSION.matcher(output.getStderr() + output.getStdout());
+            if (matcher.find()) {
+                return matcher.group(1);
+            }
+        } catch (ExecutionException e) {
+            LOG.info("Cannot run " + binary, e);
+        }
+        return "";
+    }
+
+    @NotNull
+    private static List<String> listTargets(@NotNull File scripts) {
+        String[] files = new File(scripts, "target").list((dir, name) -> name.endsWith(".cfg"));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        List<String> targets = new ArrayList<>();
+        for (String file : files) {
+            targets.add(file.substring(0, file.length() - ".cfg".length()));
+        }
+        targets.sort(null);
+        return targets;
+    }
+
+    /**
+     * An OpenOCD installation. Public fields for serialization.
+     */
+    public static final class Installation {
+        public String home;
+        public long binaryLastModified;
+        public String version = "";
+        public List<String> targets = new ArrayList<>();
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Installation other && Objects.equals(home, other.home)
+                   && binaryLastModified == other.binaryLastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(home, binaryLastModified);
+        }
+
+        @Override
+        public String toString() {
+            return (version.isEmpty() ? "unknown version" : version) + " in " + home;
+        }
+    }
+}
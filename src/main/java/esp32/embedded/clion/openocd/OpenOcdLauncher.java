@@ -12,12 +12,17 @@ import com.intellij.execution.ui.ExecutionConsole;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.options.ConfigurationException;
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.MessageType;
 import com.intellij.openapi.util.IconLoader;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.ThrowableComputable;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.xdebugger.XDebugProcess;
 import com.intellij.xdebugger.XDebugSession;
 import com.jetbrains.cidr.cpp.execution.CMakeAppRunConfiguration;
@@ -33,7 +38,12 @@ import com.jetbrains.cidr.execution.debugger.remote.CidrRemoteDebugParameters;
 import com.jetbrains.cidr.execution.debugger.remote.CidrRemoteGDBDebugProcess;
 import esp32.embedded.clion.openocd.OpenOcdConfiguration.DownloadType;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -47,8 +57,14 @@ import org.jetbrains.annotations.NotNull;
 
 class OpenOcdLauncher extends CidrLauncher {
 
+    private static final Logger LOG = Logger.getInstance(OpenOcdLauncher.class);
+    private static final long PROGRESS_UPDATE_MS = 100;
     private static final Key<AnAction> RESTART_KEY = Key.create(OpenOcdLauncher.class.getName() + "#restartAction");
     private final OpenOcdConfiguration openOcdConfiguration;
+    /**
+     * The ports of this launch, picked when it starts.
+     */
+    private PortAllocator.Ports ports;
 
     OpenOcdLauncher(OpenOcdConfiguration openOcdConfiguration) {
         this.openOcdConfiguration = openOcdConfiguration;
@@ -57,10 +73,13 @@ class OpenOcdLauncher extends CidrLauncher {
     @Override
     protected ProcessHandler createProcess(@NotNull CommandLineState commandLineState) throws ExecutionException {
         File runFile = findRunFile(commandLineState);
-        findOpenOcdAction(commandLineState.getEnvironment().getProject()).stopOpenOcd();
+        checkRamLoadable(runFile);
+        OpenOcdComponent openOcdComponent = findOpenOcdAction(commandLineState.getEnvironment().getProject());
+        openOcdComponent.stopOpenOcd(openOcdConfiguration);
         try {
+            ports = openOcdComponent.allocatePorts(openOcdConfiguration);
             GeneralCommandLine commandLine = OpenOcdComponent
-                    .createOcdCommandLine(openOcdConfiguration,
+                    .createOcdCommandLine(openOcdConfiguration, ports,
                             runFile, "reset", true);
             OSProcessHandler osProcessHandler = new OSProcessHandler(commandLine);
             osProcessHandler.addProcessListener(new ProcessAdapter() {
@@ -68,6 +87,7 @@ class OpenOcdLauncher extends CidrLauncher {
                 public void processTerminated(@NotNull ProcessEvent event) {
                     super.processTerminated(event);
                     Project project = commandLineState.getEnvironment().getProject();
+                    OpenOcdComponent.downloadFinished(openOcdConfiguration, runFile, event.getExitCode() == 0);
                     if (event.getExitCode() == 0) {
                         Informational.showSuccessfulDownloadNotification(project);
                     } else {
@@ -91,7 +111,7 @@ class OpenOcdLauncher extends CidrLauncher {
         CidrRemoteDebugParameters remoteDebugParameters = new CidrRemoteDebugParameters();
 
         remoteDebugParameters.setSymbolFile(findRunFile(commandLineState).getAbsolutePath());
-        remoteDebugParameters.setRemoteCommand("tcp:localhost:" + openOcdConfiguration.getGdbPort());
+        remoteDebugParameters.setRemoteCommand("tcp:localhost:" + ports.getGdbPort());
 
         CPPToolchains.Toolchain toolchain = openOcdConfiguration.getDebuggerData().getOrCreateDebuggerToolchain();
         if (ocdSettings.shippedGdb) {
@@ -105,6 +125,8 @@ class OpenOcdLauncher extends CidrLauncher {
 
         xDebugSession.stop();
 
+        LaunchTrace trace = LaunchTracer.getInstance(project).current();
+        LaunchTrace.Scope gdbStartSpan = trace.span("Start GDB");
         AtomicReference<CidrRemoteGDBDebugProcess> debugProcessRef = new AtomicReference<>();
         ApplicationManager.getApplication().invokeAndWait(() -> {
             try {
@@ -117,13 +139,16 @@ class OpenOcdLauncher extends CidrLauncher {
                 throw new RuntimeException(e);
             }
         });
+        gdbStartSpan.close();
         CidrRemoteGDBDebugProcess debugProcess = debugProcessRef.get();
 
         debugProcess.getProcessHandler().addProcessListener(new ProcessAdapter() {
             @Override
             public void processWillTerminate(@NotNull ProcessEvent event, boolean willBeDestroyed) {
                 super.processWillTerminate(event, willBeDestroyed);
-                findOpenOcdAction(project).stopOpenOcd();
+                if (!openOcdConfiguration.getPersistentServer()) {
+                    findOpenOcdAction(project).stopOpenOcd(openOcdConfiguration);
+                }
             }
         });
 
@@ -134,75 +159,150 @@ class OpenOcdLauncher extends CidrLauncher {
                     public void actionPerformed(@NotNull AnActionEvent e) {
                         XDebugSession session = debugProcess.getSession();
                         session.pause();
-                        debugProcess.postCommand(drv -> {
+                        DebuggerStateWaiter.whenSuspended(session).thenRun(() -> debugProcess.postCommand(drv -> {
                             try {
-                                ProgressManager.getInstance().runProcess(() -> {
-                                    while (drv.getState() != DebuggerDriver.TargetState.SUSPENDED) {
-                                        Thread.yield();
-                                    }
-                                }, null);
                                 drv.executeInterpreterCommand("monitor reset init");
                                 session.resume();
                             } catch (DebuggerCommandException exception) {
                                 Informational.showFailedDownloadNotification(e.getProject());
                             }
+                        })).exceptionally(error -> {
+                            LOG.info("MCU reset skipped", error);
+                            return null;
                         });
                     }
                 }
         );
 
-        new Thread(() -> {
-            while (!debugProcess.getCurrentStateMessage().equals("Connected")) {
-                try {
-                    Thread.onSpinWait();
-                } catch (Throwable ignored) {
-                }
-            }
-
+        LaunchTrace.AsyncSpan connectSpan = trace.begin("GDB symbol load and connect");
+        DebuggerStateWaiter.whenConnected(debugProcess).thenCompose(latency -> {
             // Connected. Perform initialisation
+            connectSpan.end();
+            long connectedNanos = System.nanoTime();
             XDebugSession session = debugProcess.getSession();
 
             //  Check if we need any init
-            if (openOcdConfiguration.getResetType().needsInit()) {
-                session.pause();
+            List<String> commands = createPostConnectCommands(openOcdConfiguration);
+            if (commands.isEmpty()) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            session.pause();
+            LaunchTrace.AsyncSpan initSpan = trace.begin("Debugger initialisation");
+            return DebuggerStateWaiter.whenSuspended(session).thenCompose(ignored -> {
+                CompletableFuture<Boolean> initialised = new CompletableFuture<>();
                 debugProcess.postCommand(drv -> {
                     try {
-                        ProgressManager.getInstance().runProcess(() -> {
-                            while (drv.getState() != DebuggerDriver.TargetState.SUSPENDED) {
-                                Thread.yield();
-                            }
-                        }, null);
-
-                        // Determine which commands need to be run
-                        if (openOcdConfiguration.getFlushRegs()) {
-                            drv.executeInterpreterCommand("flushregs");
-                        }
-
-                        if (openOcdConfiguration.getInitialBreak() && !openOcdConfiguration.getInitialBreakName().isEmpty()) {
-                            drv.executeInterpreterCommand("thb " + openOcdConfiguration.getInitialBreakName());
-                        }
-
-                        session.resume();
-
-                    } catch (DebuggerCommandException ignored) {
+                        runPostConnectCommands(drv, commands);
+                        initialised.complete(true);
+                    } catch (DebuggerCommandException | IOException e) {
+                        LOG.info("GDB post-connect commands failed", e);
+                        Informational.showMessage(project, MessageType.WARNING,
+                                "GDB post-connect commands failed: " + e.getMessage());
+                        initialised.complete(false);
+                    } finally {
+                        initSpan.end();
+                    }
+                });
+                return initialised.orTimeout(DebuggerStateWaiter.CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            }).thenCompose(initialised -> {
+                if (!initialised) {
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+                if (!hasInitialBreak(openOcdConfiguration)) {
+                    session.resume();
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+                CompletableFuture<Void> breakHit = DebuggerStateWaiter.whenNextSuspended(session,
+                        DebuggerStateWaiter.CONNECT_TIMEOUT_MS);
+                LaunchTrace.AsyncSpan runSpan = trace.begin("Run to " + openOcdConfiguration.getInitialBreakName());
+                session.resume();
+                return breakHit.whenComplete((ignored, error) -> {
+                    runSpan.end();
+                    if (error == null) {
+                        LOG.info(String.format("Initial breakpoint hit %d ms after GDB connected",
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectedNanos)));
                     }
                 });
+            });
+        }).exceptionally(error -> {
+            LOG.info("Debugger initialisation skipped", error);
+            return null;
+        }).whenComplete((ignored, error) -> {
+            connectSpan.end();
+            trace.finish();
+            LaunchTracer.log(trace);
+        });
+
+        return debugProcess;
+    }
+
+    /**
+     * @return the GDB commands to run after connecting: flushregs and the initial breakpoint if the reset type
+     * halts the target, and the post-connect commands of the configuration, one per line, so a monitor command
+     * may contain TCL separated by {@code ;}
+     */
+    @NotNull
+    static List<String> createPostConnectCommands(@NotNull OpenOcdConfiguration config) {
+        List<String> commands = new ArrayList<>();
+        boolean needsInit = config.getResetType().needsInit();
+        if (needsInit && config.getFlushRegs()) {
+            commands.add("flushregs");
+        }
+        for (String command : StringUtil.splitByLines(StringUtil.notNullize(config.getPostConnectCommands()))) {
+            if (!command.isBlank()) {
+                commands.add(command.trim());
             }
+        }
+        if (hasInitialBreak(config)) {
+            commands.add("thb " + config.getInitialBreakName());
+        }
+        return commands;
+    }
 
-        }).start();
+    private static boolean hasInitialBreak(@NotNull OpenOcdConfiguration config) {
+        return config.getResetType().needsInit() && config.getInitialBreak()
+               && !config.getInitialBreakName().isEmpty();
+    }
 
-        return debugProcess;
+    /**
+     * Runs the commands in a single round trip: more than one are written to a script which GDB sources. GDB stops
+     * the script at the first failing command.
+     */
+    private static void runPostConnectCommands(@NotNull DebuggerDriver driver, @NotNull List<String> commands)
+            throws DebuggerCommandException, IOException {
+        if (commands.size() == 1) {
+            driver.executeInterpreterCommand(commands.get(0));
+            return;
+        }
+        File script = FileUtil.createTempFile("openocd-post-connect", ".gdb", true);
+        try {
+            Files.write(script.toPath(), commands, StandardCharsets.UTF_8);
+            long startNanos = System.nanoTime();
+            driver.executeInterpreterCommand("source " + FileUtil.toSystemIndependentName(script.getPath()));
+            LOG.info(String.format("Ran %d post-connect commands in %d ms", commands.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+        } finally {
+            FileUtil.delete(script);
+        }
     }
 
     @NotNull
     private File findRunFile(CommandLineState commandLineState) throws ExecutionException {
-        String targetProfileName = commandLineState.getExecutionTarget().getDisplayName();
+        return findRunFile(openOcdConfiguration, commandLineState.getExecutionTarget().getDisplayName());
+    }
+
+    /**
+     * @return the executable built for the configuration and build profile
+     */
+    @NotNull
+    static File findRunFile(OpenOcdConfiguration openOcdConfiguration, String targetProfileName)
+            throws ExecutionException {
         CMakeAppRunConfiguration.BuildAndRunConfigurations runConfigurations = openOcdConfiguration
                 .getBuildAndRunConfigurations(targetProfileName);
         if (runConfigurations == null) {
             throw new ExecutionException("Target is not defined");
         }
-        File runFile = runConfigurations.getRunFile(getProject());
+        File runFile = runConfigurations.getRunFile(openOcdConfiguration.getProject());
         if (runFile == null) {
             throw new ExecutionException("Run file is not defined for " + runConfigurations);
         }
@@ -217,12 +317,38 @@ class OpenOcdLauncher extends CidrLauncher {
     @Override
     public XDebugProcess startDebugProcess(@NotNull CommandLineState commandLineState,
                                            @NotNull XDebugSession xDebugSession) throws ExecutionException {
+        LaunchTrace trace = LaunchTracer.getInstance(getProject()).startTrace(openOcdConfiguration.getName());
+        try {
+            ports = findOpenOcdAction(getProject()).allocatePorts(openOcdConfiguration);
+        } catch (ConfigurationException e) {
+            trace.finish();
+            Informational.showPluginError(getProject(), e);
+            throw new ExecutionException(e);
+        }
+        try {
+            return startTracedDebugProcess(commandLineState, xDebugSession, trace);
+        } catch (ExecutionException | RuntimeException e) {
+            trace.finish();
+            throw e;
+        }
+    }
 
+    @NotNull
+    private XDebugProcess startTracedDebugProcess(@NotNull CommandLineState commandLineState,
+                                                  @NotNull XDebugSession xDebugSession,
+                                                  @NotNull LaunchTrace trace) throws ExecutionException {
         File runFile = null;
         if (openOcdConfiguration.getDownloadType() != DownloadType.NONE) {
-            runFile = findRunFile(commandLineState);
-            if (openOcdConfiguration.getDownloadType() == DownloadType.UPDATED_ONLY &&
-                OpenOcdComponent.isLatestUploaded(runFile)) {
+            try (LaunchTrace.Scope ignored = trace.span("Find run file")) {
+                runFile = findRunFile(commandLineState);
+            }
+            if (openOcdConfiguration.getDownloadType() == DownloadType.RAM_ONLY) {
+                // RAM does not survive a reset, the application is always loaded
+                checkRamLoadable(runFile);
+            } else if (openOcdConfiguration.getCheckDeviceFirmware() && isFirmwareOnDevice(commandLineState, runFile)) {
+                runFile = null;
+            } else if (openOcdConfiguration.getDownloadType() == DownloadType.UPDATED_ONLY
+                       && isLatestUploaded(runFile)) {
                 runFile = null;
             }
         }
@@ -230,17 +356,42 @@ class OpenOcdLauncher extends CidrLauncher {
         try {
             xDebugSession.stop();
             OpenOcdComponent openOcdComponent = findOpenOcdAction(commandLineState.getEnvironment().getProject());
-            openOcdComponent.stopOpenOcd();
-            Future<OpenOcdComponent.Status> downloadResult = openOcdComponent.startOpenOcd(openOcdConfiguration,
-                    runFile);
+            if (!openOcdConfiguration.getPersistentServer()) {
+                try (LaunchTrace.Scope ignored = trace.span("Stop OpenOCD")) {
+                    openOcdComponent.stopOpenOcd(openOcdConfiguration);
+                }
+            }
+            FlashOutputParser outputParser;
+            File fileToLoad = runFile;
+            try (LaunchTrace.Scope ignored = trace.span("Plan download")) {
+                // hashes and possibly builds the images, which are then cached for the session commands
+                outputParser = ProgressManager.getInstance().runProcessWithProgressSynchronously(
+                        () -> OpenOcdComponent.createOutputParser(openOcdConfiguration, fileToLoad),
+                        "Planning Firmware Download", true, getProject());
+            }
+            AtomicReference<LaunchTrace.AsyncSpan> phaseSpan = new AtomicReference<>();
+            outputParser.setPhaseListener(phase -> {
+                LaunchTrace.AsyncSpan previous = phaseSpan.getAndSet(trace.begin("OpenOCD: " + phase));
+                if (previous != null) {
+                    previous.end();
+                }
+            });
+            Future<FlashReport> downloadResult = openOcdComponent.startOpenOcd(openOcdConfiguration, ports, runFile,
+                    outputParser);
 
             ProgressManager progressManager = ProgressManager.getInstance();
-            ThrowableComputable<OpenOcdComponent.Status, ExecutionException> process = () -> {
+            ThrowableComputable<FlashReport, ExecutionException> process = () -> {
                 try {
-                    progressManager.getProgressIndicator().setIndeterminate(true);
+                    ProgressIndicator indicator = progressManager.getProgressIndicator();
                     while (true) {
+                        double fraction = outputParser.getFraction();
+                        indicator.setIndeterminate(fraction < 0);
+                        if (fraction >= 0) {
+                            indicator.setFraction(fraction);
+                        }
+                        indicator.setText2(outputParser.getProgressText());
                         try {
-                            return downloadResult.get(500, TimeUnit.MILLISECONDS);
+                            return downloadResult.get(PROGRESS_UPDATE_MS, TimeUnit.MILLISECONDS);
                         } catch (TimeoutException ignored) {
                             ProgressManager.checkCanceled();
                         }
@@ -249,10 +400,22 @@ class OpenOcdLauncher extends CidrLauncher {
                     throw new ExecutionException(e);
                 }
             };
-            String progressTitle = runFile == null ? "Start OpenOCD" : "Firmware Download";
-            OpenOcdComponent.Status downloadStatus = progressManager.runProcessWithProgressSynchronously(
-                    process, progressTitle, true, getProject());
-            if (downloadStatus == OpenOcdComponent.Status.FLASH_ERROR) {
+            String progressTitle = runFile == null ? "Start OpenOCD"
+                    : OpenOcdComponent.isRamLoad(openOcdConfiguration, runFile) ? "Loading into RAM"
+                    : "Firmware Download";
+            FlashReport downloadReport;
+            try {
+                downloadReport = progressManager.runProcessWithProgressSynchronously(
+                        process, progressTitle, true, getProject());
+            } finally {
+                outputParser.setPhaseListener(null);
+                LaunchTrace.AsyncSpan lastPhase = phaseSpan.getAndSet(null);
+                if (lastPhase != null) {
+                    lastPhase.end();
+                }
+            }
+            LOG.info("OpenOCD started: " + downloadReport);
+            if (downloadReport.getStatus() == OpenOcdComponent.Status.FLASH_ERROR) {
                 downloadResult.cancel(true);
                 throw new ExecutionException("OpenOCD cancelled");
             }
@@ -263,6 +426,38 @@ class OpenOcdLauncher extends CidrLauncher {
         }
     }
 
+    private void checkRamLoadable(@NotNull File runFile) throws ExecutionException {
+        if (openOcdConfiguration.getDownloadType() == DownloadType.RAM_ONLY) {
+            try {
+                RamLoader.read(runFile);
+            } catch (IOException e) {
+                throw new ExecutionException(e.getMessage(), e);
+            }
+        }
+    }
+
+    private boolean isLatestUploaded(@NotNull File runFile) {
+        try (LaunchTrace.Scope ignored = LaunchTracer.getInstance(getProject()).current()
+                .span("Check flashed images")) {
+            return ProgressManager.getInstance().runProcessWithProgressSynchronously(
+                    () -> OpenOcdComponent.isLatestUploaded(openOcdConfiguration, runFile),
+                    "Checking Flashed Images", true, getProject());
+        }
+    }
+
+    private boolean isFirmwareOnDevice(@NotNull CommandLineState commandLineState, @NotNull File runFile) {
+        OpenOcdComponent openOcdComponent = findOpenOcdAction(commandLineState.getEnvironment().getProject());
+        if (!openOcdConfiguration.getPersistentServer()) {
+            openOcdComponent.stopOpenOcd(openOcdConfiguration);
+        }
+        try (LaunchTrace.Scope ignored = LaunchTracer.getInstance(getProject()).current()
+                .span("Check device firmware")) {
+            return ProgressManager.getInstance().runProcessWithProgressSynchronously(
+                    () -> FirmwareProbe.check(openOcdComponent, openOcdConfiguration, ports, runFile),
+                    "Checking Device Firmware", true, getProject());
+        }
+    }
+
     @Override
     protected void collectAdditionalActions(@NotNull CommandLineState state, @NotNull ProcessHandler processHandler,
                                             @NotNull ExecutionConsole console,
@@ -0,0 +1,418 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Index of the {@code .cfg} files in the scripts tree of an OpenOCD installation, with target chip, transport
+ * and sourced files parsed out. It is built on a pooled thread with plain file IO, which stays fast on network
+ * mounts where walking the tree through the VFS on the EDT is not, and kept current by VFS events. The VFS only
+ * reports changes of files it has loaded, so the tree is loaded into it in the background afterwards.
+ */
+@Service(Service.Level.APP)
+public final class OpenOcdScriptCatalog implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(OpenOcdScriptCatalog.class);
+    private static final String CFG_EXTENSION = ".cfg";
+    private static final int MAX_SOURCE_DEPTH = 4;
+    private static final Pattern SOURCE = Pattern.compile("^\\s*source\\s+\\[\\s*find\\s+([^]\\s]+)\\s*]",
+            Pattern.MULTILINE);
+    private static final Pattern CHIP_NAME = Pattern.compile("^\\s*set\\s+_?CHIPNAME\\s+\"?([\\w.-]+)",
+            Pattern.MULTILINE);
+    private static final Pattern TRANSPORT = Pattern.compile("^\\s*transport\\s+select\\s+(\\w+)",
+            Pattern.MULTILINE);
+    private static final Pattern ADAPTER_DRIVER = Pattern.compile("^\\s*(?:adapter\\s+driver|interface)\\s+(\\w+)",
+            Pattern.MULTILINE);
+
+    private final Map<String, Catalog> catalogs = new ConcurrentHashMap<>();
+
+    public OpenOcdScriptCatalog() {
+        ApplicationManager.getApplication().getMessageBus().connect(this)
+                .subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+                    @Override
+                    public void after(@NotNull List<? extends VFileEvent> events) {
+                        if (!catalogs.isEmpty()) {
+                            filesChanged(events);
+                        }
+                    }
+                });
+    }
+
+    public static OpenOcdScriptCatalog getInstance() {
+        return ApplicationManager.getApplication().getService(OpenOcdScriptCatalog.class);
+    }
+
+    /**
+     * @return the scripts of the OpenOCD installation, once indexed. The first call starts indexing.
+     */
+    @NotNull
+    public CompletableFuture<Catalog> getCatalog(@NotNull String openOcdHome) {
+        File scripts = findScriptsDir(new File(openOcdHome));
+        if (scripts == null) {
+            return CompletableFuture.failedFuture(new IOException("No OpenOCD scripts found in " + openOcdHome));
+        }
+        Catalog catalog = catalogs.computeIfAbsent(scripts.toPath().normalize().toString().replace('\\', '/'),
+                root -> {
+                    Catalog created = new Catalog(root);
+                    CompletableFuture.runAsync(created::build, AppExecutorUtil.getAppExecutorService());
+                    return created;
+                });
+        return catalog.ready;
+    }
+
+    /**
+     * @return the catalog if it is indexed already, without waiting
+     */
+    @Nullable
+    public Catalog getCatalogNow(@NotNull String openOcdHome) {
+        return getCatalog(openOcdHome).getNow(null);
+    }
+
+    /**
+     * Same lookup as {@link OpenOcdSettingsState#findOcdScripts}, with file IO instead of the VFS.
+     */
+    @Nullable
+    static File findScriptsDir(@NotNull File openOcdHome) {
+        for (String path : new String[]{OpenOcdComponent.SCRIPTS_PATH_LONG, OpenOcdComponent.SCRIPTS_PATH_SHORT,
+                OpenOcdComponent.SCRIPTS_PATH_MEDIUM}) {
+            File scripts = new File(openOcdHome, path);
+            if (scripts.isDirectory()) {
+                return scripts;
+            }
+        }
+        return null;
+    }
+
+    private void filesChanged(@NotNull List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+            List<String> paths = new ArrayList<>();
+            paths.add(event.getPath());
+            if (event instanceof VFileMoveEvent move) {
+                paths.add(move.getOldPath());
+            } else if (event instanceof VFilePropertyChangeEvent change && change.isRename()) {
+                paths.add(change.getOldPath());
+            } else if (event instanceof VFileCopyEvent copy) {
+                paths.add(copy.getNewParent().getPath() + "/" + copy.getNewChildName());
+            }
+            for (Catalog catalog : catalogs.values()) {
+                for (String path : paths) {
+                    if (path.startsWith(catalog.root + "/")) {
+                        catalog.ready.thenRunAsync(() -> catalog.update(path),
+                                AppExecutorUtil.getAppExecutorService());
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void dispose() {
+        for (Catalog catalog : catalogs.values()) {
+            LocalFileSystem.WatchRequest watchRequest = catalog.watchRequest;
+            if (watchRequest != null) {
+                LocalFileSystem.getInstance().removeWatchedRoot(watchRequest);
+            }
+        }
+        catalogs.clear();
+    }
+
+    /**
+     * The scripts of one OpenOCD installation.
+     */
+    public static final class Catalog {
+        private final String root;
+        private final Map<String, Script> scripts = new ConcurrentHashMap<>();
+        private final CompletableFuture<Catalog> ready = new CompletableFuture<>();
+        @Nullable
+        private volatile LocalFileSystem.WatchRequest watchRequest;
+
+        private Catalog(@NotNull String root) {
+            this.root = root;
+        }
+
+        private void build() {
+            long startNanos = System.nanoTime();
+            try {
+                watchRequest = LocalFileSystem.getInstance().addRootToWatch(root, true);
+                scan(Path.of(root));
+                LOG.info("Indexed " + scripts.size() + " OpenOCD scripts in " + root + " in "
+                         + (System.nanoTime() - startNanos) / 1_000_000 + " ms");
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Cannot index OpenOCD scripts in " + root, e);
+            }
+            ready.complete(this);
+            loadIntoVfs();
+        }
+
+        /**
+         * Loads the tree into the VFS and refreshes it, so changes from now on and since the VFS last saw it are
+         * reported as events.
+         */
+        private void loadIntoVfs() {
+            VirtualFile dir = LocalFileSystem.getInstance().refreshAndFindFileByNioFile(Path.of(root));
+            if (dir == null) {
+                return;
+            }
+            ReadAction.run(() -> VfsUtilCore.processFilesRecursively(dir, file -> true));
+            dir.refresh(true, true);
+        }
+
+        private void scan(@NotNull Path dir) throws IOException {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.filter(file -> file.getFileName().toString().endsWith(CFG_EXTENSION))
+                        .forEach(this::index);
+            }
+        }
+
+        /**
+         * Re-indexes a changed file or directory, or drops it if it is gone.
+         */
+        private void update(@NotNull String path) {
+            Path file = Path.of(path);
+            String relativePath = relativize(file);
+            if (Files.isDirectory(file)) {
+                try {
+                    scan(file);
+                } catch (IOException e) {
+                    LOG.info("Cannot index " + path, e);
+                }
+            } else if (Files.isRegularFile(file)) {
+                if (relativePath.endsWith(CFG_EXTENSION)) {
+                    index(file);
+                }
+            } else {
+                scripts.remove(relativePath);
+                scripts.keySet().removeIf(script -> script.startsWith(relativePath + "/"));
+            }
+        }
+
+        private void index(@NotNull Path file) {
+            String relativePath = relativize(file);
+            try {
+                String text = Files.readString(file, StandardCharsets.ISO_8859_1);
+                scripts.put(relativePath, Script.parse(relativePath, text));
+            } catch (IOException e) {
+                LOG.info("Cannot read " + file, e);
+                scripts.remove(relativePath);
+            }
+        }
+
+        @NotNull
+        private String relativize(@NotNull Path file) {
+            return Path.of(root).relativize(file.normalize()).toString().replace('\\', '/');
+        }
+
+        /**
+         * @param folder top level folder like {@link FileChooseInput#BOARD_FOLDER}
+         * @return the scripts in the folder and its subfolders, sorted by path
+         */
+        @NotNull
+        public List<Script> getScripts(@NotNull String folder) {
+            List<Script> result = new ArrayList<>();
+            for (Script script : scripts.values()) {
+                if (script.getPath().startsWith(folder + "/")) {
+                    result.add(script);
+                }
+            }
+            result.sort(Comparator.comparing(Script::getPath));
+            return result;
+        }
+
+        public boolean contains(@NotNull String relativePath) {
+            return scripts.containsKey(relativePath);
+        }
+
+        @Nullable
+        public Script getScript(@NotNull String relativePath) {
+            return scripts.get(relativePath);
+        }
+
+        /**
+         * @return the chip the script or one of the scripts it sources declares
+         */
+        @Nullable
+        public String findChip(@NotNull Script script) {
+            return find(script, Script::getChip, 0);
+        }
+
+        /**
+         * @return the transport the script or one of the scripts it sources selects, otherwise the adapter driver
+         */
+        @Nullable
+        public String findTransport(@NotNull Script script) {
+            String transport = find(script, Script::getTransport, 0);
+            return transport != null ? transport : find(script, Script::getAdapterDriver, 0);
+        }
+
+        @Nullable
+        private String find(@NotNull Script script, @NotNull Function<Script, String> value,
+                            int depth) {
+            String own = value.apply(script);
+            if (own != null || depth >= MAX_SOURCE_DEPTH) {
+                return own;
+            }
+            for (String source : script.getSources()) {
+                Script sourced = scripts.get(source);
+                if (sourced != null) {
+                    String found = find(sourced, value, depth + 1);
+                    if (found != null) {
+                        return found;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * One {@code .cfg} file.
+     */
+    public static final class Script {
+        private final String path;
+        @Nullable
+        private final String chip;
+        @Nullable
+        private final String transport;
+        @Nullable
+        private final String adapterDriver;
+        private final List<String> sources;
+        private final String description;
+
+        Script(@NotNull String path, @Nullable String chip, @Nullable String transport,
+               @Nullable String adapterDriver, @NotNull List<String> sources, @NotNull String description) {
+            this.path = path;
+            this.chip = chip;
+            this.transport = transport;
+            this.adapterDriver = adapterDriver;
+            this.sources = sources;
+            this.description = description;
+        }
+
+        @NotNull
+        static Script parse(@NotNull String path, @NotNull String text) {
+            List<String> sources = new ArrayList<>();
+            Matcher source = SOURCE.matcher(text);
+            while (source.find()) {
+                sources.add(source.group(1));
+            }
+            String chip = firstGroup(CHIP_NAME, text);
+            if (chip == null && path.startsWith("target/")) {
+                chip = fileName(path);
+            }
+            return new Script(path, chip, firstGroup(TRANSPORT, text), firstGroup(ADAPTER_DRIVER, text),
+                    List.copyOf(sources), firstComment(text));
+        }
+
+        @Nullable
+        private static String firstGroup(@NotNull Pattern pattern, @NotNull String text) {
+            Matcher matcher = pattern.matcher(text);
+            return matcher.find() ? matcher.group(1) : null;
+        }
+
+        @NotNull
+        private static String fileName(@NotNull String path) {
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            return name.substring(0, name.length() - CFG_EXTENSION.length());
+        }
+
+        /**
+         * @return the first comment line which is not a license tag
+         */
+        @NotNull
+        private static String firstComment(@NotNull String text) {
+            for (String line : text.split("\n", 20)) {
+                String trimmed = line.trim();
+                if (!trimmed.startsWith("#")) {
+                    continue;
+                }
+                String comment = trimmed.replaceFirst("^#+", "").trim();
+                if (!comment.isEmpty() && !comment.startsWith("SPDX-")) {
+                    return comment;
+                }
+            }
+            return "";
+        }
+
+        /**
+         * @return the path relative to the scripts folder, as OpenOCD finds it
+         */
+        @NotNull
+        public String getPath() {
+            return path;
+        }
+
+        @Nullable
+        public String getChip() {
+            return chip;
+        }
+
+        @Nullable
+        public String getTransport() {
+            return transport;
+        }
+
+        @Nullable
+        public String getAdapterDriver() {
+            return adapterDriver;
+        }
+
+        @NotNull
+        public List<String> getSources() {
+            return sources;
+        }
+
+        @NotNull
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * @return whether the path, chip, transport or description contains the text, ignoring case
+         */
+        public boolean matches(@NotNull String text) {
+            String lower = text.toLowerCase(Locale.ROOT);
+            return path.toLowerCase(Locale.ROOT).contains(lower)
+                   || Objects.toString(chip, "").toLowerCase(Locale.ROOT).contains(lower)
+                   || Objects.toString(transport, "").toLowerCase(Locale.ROOT).contains(lower)
+                   || Objects.toString(adapterDriver, "").toLowerCase(Locale.ROOT).contains(lower)
+                   || description.toLowerCase(Locale.ROOT).contains(lower);
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+}
@@ -1,16 +1,23 @@
 package esp32.embedded.clion.openocd;
 
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.options.Configurable;
 import com.intellij.openapi.options.ConfigurationException;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.ComboBox;
 import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.ui.SimpleListCellRenderer;
 import com.intellij.ui.components.JBCheckBox;
+import com.intellij.ui.components.fields.IntegerField;
 import com.intellij.uiDesigner.core.GridConstraints;
 import com.intellij.uiDesigner.core.GridLayoutManager;
 import com.intellij.uiDesigner.core.Spacer;
 import com.jetbrains.cidr.cpp.toolchains.CPPToolchains;
 import java.awt.FlowLayout;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import javax.swing.ButtonGroup;
 import javax.swing.JComponent;
@@ -52,18 +59,27 @@ public class OpenOcdSettings implements Configurable {
         return !(
                 Objects.equals(panel.openOcdHome.getText(), state.openOcdHome) &&
                 panel.shippedRadioButton.isSelected() == state.shippedGdb &&
-                panel.autoUpdateCmake.isSelected() == state.autoUpdateCmake);
+                panel.autoUpdateCmake.isSelected() == state.autoUpdateCmake &&
+                panel.autoPortFirst.getValue() == state.autoPortFirst &&
+                panel.autoPortLast.getValue() == state.autoPortLast);
     }
 
     @Override
     public void apply() throws ConfigurationException {
         panel.openOcdHome.validateContent();
+        panel.autoPortFirst.validateContent();
+        panel.autoPortLast.validateContent();
+        if (panel.autoPortLast.getValue() - panel.autoPortFirst.getValue() < 2) {
+            throw new ConfigurationException("The automatic port range needs at least 3 ports");
+        }
 
         OpenOcdSettingsState state = project.getService(OpenOcdSettingsState.class);
         if (state != null) {
             state.openOcdHome = panel.openOcdHome.getText();
             state.shippedGdb = panel.shippedRadioButton.isSelected();
             state.autoUpdateCmake = panel.autoUpdateCmake.isSelected();
+            state.autoPortFirst = panel.autoPortFirst.getValue();
+            state.autoPortLast = panel.autoPortLast.getValue();
         }
     }
 
@@ -83,6 +99,8 @@ public class OpenOcdSettings implements Configurable {
         panel.toolchainRadioButton.setSelected(!state.shippedGdb);
         panel.updateToolchainGdbName();
         panel.autoUpdateCmake.setSelected(state.autoUpdateCmake);
+        panel.autoPortFirst.setValue(state.autoPortFirst);
+        panel.autoPortLast.setValue(state.autoPortLast);
     }
 
     /**
@@ -93,19 +111,25 @@ public class OpenOcdSettings implements Configurable {
         //        private final FileChooseInput boardConfigFile;
         private final FileChooseInput openOcdHome;
         private final JBCheckBox autoUpdateCmake;
+        private IntegerField autoPortFirst;
+        private IntegerField autoPortLast;
         private JRadioButton toolchainRadioButton;
         private JRadioButton shippedRadioButton;
 
         public OpenOcdSettingsPanel() {
-            super(new GridLayoutManager(6, 3), true);
+            super(new GridLayoutManager(7, 3), true);
             ((GridLayoutManager) getLayout()).setColumnStretch(1, 10);
             openOcdHome = addValueRow(0, new FileChooseInput.OpenOcdHome("OpenOCD Home", VfsUtil.getUserHomeDir()));
 
+            addValueRow(1, "Detected", setupInstallationPicker());
+
             addValueRow(2, "Use GDB", setupGdbButtonGroup());
 
             autoUpdateCmake = addValueRow(4, "CMake Project Update", new JBCheckBox("Automatic"));
 
-            add(new Spacer(), new GridConstraints(5, 0, 1, 1, ANCHOR_CENTER, FILL_NONE,
+            addValueRow(5, "Automatic port range", setupPortRange());
+
+            add(new Spacer(), new GridConstraints(6, 0, 1, 1, ANCHOR_CENTER, FILL_NONE,
                     SIZEPOLICY_FIXED, SIZEPOLICY_WANT_GROW, null, null, null));
         }
 
@@ -125,6 +149,62 @@ public class OpenOcdSettings implements Configurable {
             return gdbPanel;
         }
 
+        /**
+         * Lists the installations found by {@link OpenOcdInstallations} once the background search finished;
+         * choosing one sets the OpenOCD home.
+         */
+        @NotNull
+        protected ComboBox<OpenOcdInstallations.Installation> setupInstallationPicker() {
+            ComboBox<OpenOcdInstallations.Installation> installations = new ComboBox<>();
+            installations.setEnabled(false);
+            installations.setRenderer(SimpleListCellRenderer.create("Searching...", installation ->
+                    (installation.version.isEmpty() ? "Unknown version" : installation.version) + " - "
+                    + installation.home + describeTargets(installation)));
+            installations.addActionListener(e -> {
+                Object selected = installations.getSelectedItem();
+                if (selected instanceof OpenOcdInstallations.Installation installation) {
+                    openOcdHome.setText(installation.home);
+                }
+            });
+            OpenOcdInstallations.getInstance().discover().thenAccept(found ->
+                    ApplicationManager.getApplication().invokeLater(() -> {
+                        String home = openOcdHome.getText();
+                        for (OpenOcdInstallations.Installation installation : found) {
+                            installations.addItem(installation);
+                        }
+                        installations.setSelectedItem(null);
+                        openOcdHome.setText(home);
+                        installations.setEnabled(!found.isEmpty());
+                    }, ModalityState.any()));
+            return installations;
+        }
+
+        @NotNull
+        private static String describeTargets(@NotNull OpenOcdInstallations.Installation installation) {
+            List<String> espTargets = new ArrayList<>();
+            for (String target : installation.targets) {
+                if (target.startsWith("esp")) {
+                    espTargets.add(target);
+                }
+            }
+            return espTargets.isEmpty() ? "" : " (" + String.join(", ", espTargets) + ")";
+        }
+
+        @NotNull
+        protected JPanel setupPortRange() {
+            autoPortFirst = new IntegerField("First automatic port", 1025, 65535);
+            autoPortFirst.setDefaultValue(OpenOcdSettingsState.DEF_AUTO_PORT_FIRST);
+            autoPortFirst.setColumns(5);
+            autoPortLast = new IntegerField("Last automatic port", 1025, 65535);
+            autoPortLast.setDefaultValue(OpenOcdSettingsState.DEF_AUTO_PORT_LAST);
+            autoPortLast.setColumns(5);
+            JPanel rangePanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+            rangePanel.add(autoPortFirst);
+            rangePanel.add(new JLabel("to"));
+            rangePanel.add(autoPortLast);
+            return rangePanel;
+        }
+
         private void updateToolchainGdbName() {
             CPPToolchains.Toolchain toolchain = CPPToolchains.getInstance().getDefaultToolchain();
             File debugger = toolchain == null ? null : toolchain.getDebugger().getGdbExecutable();
@@ -1,16 +1,13 @@
 package esp32.embedded.clion.openocd;
 
-import com.intellij.execution.configurations.PathEnvironmentVariableUtil;
 import com.intellij.openapi.components.PersistentStateComponent;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.components.State;
-import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
-import java.io.File;
+import java.util.Objects;
 import org.jdesktop.swingx.util.OS;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
 /**
  * (c) elmot on 21.10.2017.
@@ -22,11 +19,18 @@ public final class OpenOcdSettingsState implements PersistentStateComponent<Open
     public String openOcdHome;
     public boolean shippedGdb;
     public boolean autoUpdateCmake;
+    public int autoPortFirst;
+    public int autoPortLast;
+
+    public static final int DEF_AUTO_PORT_FIRST = 50000;
+    public static final int DEF_AUTO_PORT_LAST = 50999;
 
     public OpenOcdSettingsState() {
         openOcdHome = defOpenOcdLocation();
         shippedGdb = true;
         autoUpdateCmake = false;
+        autoPortFirst = DEF_AUTO_PORT_FIRST;
+        autoPortLast = DEF_AUTO_PORT_LAST;
     }
 
     public static VirtualFile findOcdScripts(VirtualFile ocdHomeVFile) {
@@ -54,21 +58,23 @@ public final class OpenOcdSettingsState implements PersistentStateComponent<Open
         openOcdHome = state.openOcdHome;
         shippedGdb = state.shippedGdb;
         autoUpdateCmake = state.autoUpdateCmake;
+        autoPortFirst = state.autoPortFirst;
+        autoPortLast = state.autoPortLast;
     }
 
+    /**
+     * Starts with the default location and switches to the first installation found in the background, unless
+     * the user picked one in the meantime.
+     */
     @Override
     public void noStateLoaded() {
-        openOcdHome = defOpenOcdLocation();
-        File openocd = findExecutableInPath("openocd");
-        if (openocd != null) {
-            File folder = openocd.getParentFile();
-            if (folder != null) {
-                folder = folder.getParentFile();
-                if (folder != null) {
-                    openOcdHome = folder.getAbsolutePath();
-                }
+        String defaultHome = defOpenOcdLocation();
+        openOcdHome = defaultHome;
+        OpenOcdInstallations.getInstance().discover().thenAccept(installations -> {
+            if (!installations.isEmpty() && Objects.equals(openOcdHome, defaultHome)) {
+                openOcdHome = installations.get(0).home;
             }
-        }
+        });
     }
 
     @NotNull
@@ -80,17 +86,4 @@ public final class OpenOcdSettingsState implements PersistentStateComponent<Open
         }
         return "C:\\";
     }
-
-    @Nullable
-    private File findExecutableInPath(String name) {
-        if (SystemInfo.isWindows) {
-            for (String ext : PathEnvironmentVariableUtil.getWindowsExecutableFileExtensions()) {
-                File file = PathEnvironmentVariableUtil.findInPath(name + ext);
-                if (file != null) return null;
-            }
-            return null;
-        } else {
-            return PathEnvironmentVariableUtil.findInPath(name);
-        }
-    }
 }
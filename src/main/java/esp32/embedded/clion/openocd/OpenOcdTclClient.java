@@ -0,0 +1,206 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Non-blocking connection to the TCL RPC server of a running OpenOCD. Every command is terminated by
+ * {@link #COMMAND_TOKEN} and OpenOCD answers with the command result terminated by the same token.
+ * <p>
+ * Commands are pipelined: they are written as soon as they are submitted and OpenOCD answers them in order, so
+ * replies are matched to the oldest pending command. A command which timed out or was cancelled stays pending
+ * until its reply arrives, because OpenOCD cannot abort it; the reply is dropped then.
+ */
+final class OpenOcdTclClient {
+
+    static final char COMMAND_TOKEN = 0x1a;
+    private static final Logger LOG = Logger.getInstance(OpenOcdTclClient.class);
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final int port;
+    private final AsynchronousSocketChannel channel;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final ByteArrayOutputStream reply = new ByteArrayOutputStream();
+    private final Queue<CompletableFuture<String>> pending = new ArrayDeque<>();
+    private final Queue<ByteBuffer> writes = new ArrayDeque<>();
+    private boolean writing;
+    private volatile boolean closed;
+
+    private OpenOcdTclClient(int port, AsynchronousSocketChannel channel) {
+        this.port = port;
+        this.channel = channel;
+    }
+
+    /**
+     * Opens a connection to OpenOCD on localhost.
+     */
+    @NotNull
+    static CompletableFuture<OpenOcdTclClient> connect(int port) {
+        CompletableFuture<OpenOcdTclClient> connected = new CompletableFuture<>();
+        AsynchronousSocketChannel channel;
+        try {
+            channel = AsynchronousSocketChannel.open();
+        } catch (IOException e) {
+            connected.completeExceptionally(e);
+            return connected;
+        }
+        channel.connect(new InetSocketAddress("localhost", port), null, new CompletionHandler<Void, Void>() {
+            @Override
+            public void completed(Void result, Void attachment) {
+                OpenOcdTclClient client = new OpenOcdTclClient(port, channel);
+                client.read();
+                connected.complete(client);
+            }
+
+            @Override
+            public void failed(Throwable error, Void attachment) {
+                closeQuietly(channel);
+                connected.completeExceptionally(error);
+            }
+        });
+        connected.orTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .exceptionally(error -> {
+                    closeQuietly(channel);
+                    return null;
+                });
+        return connected;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+
+    /**
+     * Sends a command without waiting for the replies of commands sent before.
+     *
+     * @return the command result; cancelling it or letting it time out only stops waiting for it
+     */
+    @NotNull
+    CompletableFuture<String> execute(@NotNull String command) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        ByteBuffer buffer = ByteBuffer.wrap((command + COMMAND_TOKEN).getBytes(StandardCharsets.UTF_8));
+        synchronized (this) {
+            if (!isOpen()) {
+                result.completeExceptionally(new EOFException("TCL connection to port " + port + " is closed"));
+                return result;
+            }
+            pending.add(result);
+            writes.add(buffer);
+            if (!writing) {
+                writing = true;
+                writeNext();
+            }
+        }
+        return result;
+    }
+
+    private void writeNext() {
+        ByteBuffer buffer = writes.peek();
+        channel.write(buffer, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer written, Void attachment) {
+                synchronized (OpenOcdTclClient.this) {
+                    if (!buffer.hasRemaining()) {
+                        writes.remove();
+                    }
+                    if (writes.isEmpty()) {
+                        writing = false;
+                    } else {
+                        writeNext();
+                    }
+                }
+            }
+
+            @Override
+            public void failed(Throwable error, Void attachment) {
+                fail(error);
+            }
+        });
+    }
+
+    private void read() {
+        channel.read(readBuffer, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer count, Void attachment) {
+                if (count < 0) {
+                    fail(new EOFException("OpenOCD closed the TCL connection"));
+                    return;
+                }
+                readBuffer.flip();
+                while (readBuffer.hasRemaining()) {
+                    byte b = readBuffer.get();
+                    if (b == COMMAND_TOKEN) {
+                        replied(reply.toString(StandardCharsets.UTF_8));
+                        reply.reset();
+                    } else {
+                        reply.write(b);
+                    }
+                }
+                readBuffer.clear();
+                read();
+            }
+
+            @Override
+            public void failed(Throwable error, Void attachment) {
+                fail(error);
+            }
+        });
+    }
+
+    private void replied(@NotNull String text) {
+        CompletableFuture<String> result;
+        synchronized (this) {
+            result = pending.poll();
+        }
+        if (result == null) {
+            LOG.warn("Unexpected TCL reply from OpenOCD: " + text);
+        } else if (!result.complete(text)) {
+            LOG.debug("Dropped TCL reply of an abandoned command: " + text);
+        }
+    }
+
+    private void fail(@NotNull Throwable error) {
+        CompletableFuture<?>[] abandoned;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            abandoned = pending.toArray(new CompletableFuture<?>[0]);
+            pending.clear();
+            writes.clear();
+        }
+        closeQuietly(channel);
+        for (CompletableFuture<?> result : abandoned) {
+            result.completeExceptionally(error);
+        }
+    }
+
+    void close() {
+        fail(new EOFException("TCL connection to port " + port + " was closed"));
+    }
+
+    private static void closeQuietly(@NotNull AsynchronousSocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Sends commands to OpenOCD servers started by {@link OpenOcdComponent} through their TCL RPC port. One
+ * connection per port is kept open and shared, so commands reach a running server in milliseconds and several
+ * of them can be in flight at the same time.
+ */
+@Service(Service.Level.PROJECT)
+public final class OpenOcdTclService implements Disposable {
+
+    /**
+     * OpenOCD reports a failed command only in its log, a caught error is passed on with this prefix.
+     */
+    static final String COMMAND_FAILED = "** TCL Command Failed **";
+
+    private final Map<Integer, CompletableFuture<OpenOcdTclClient>> clients = new ConcurrentHashMap<>();
+
+    public static OpenOcdTclService getInstance(@NotNull Project project) {
+        return project.getService(OpenOcdTclService.class);
+    }
+
+    /**
+     * Executes a TCL command. The returned future completes exceptionally when OpenOCD is not reachable or does
+     * not answer in time. Cancelling it stops waiting, but OpenOCD still finishes the command.
+     */
+    @NotNull
+    public CompletableFuture<String> execute(int port, @NotNull String command, long timeoutMs) {
+        return client(port)
+                .thenCompose(client -> client.execute(command))
+                .orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Executes a TCL command and reports errors raised by it as {@link TclCommandException}.
+     */
+    @NotNull
+    public CompletableFuture<String> executeChecked(int port, @NotNull String command, long timeoutMs) {
+        return execute(port, "if {[catch {" + command + "} result]} {return \"" + COMMAND_FAILED + " $result\"} "
+                             + "else {return $result}", timeoutMs)
+                .thenApply(reply -> {
+                    if (reply.startsWith(COMMAND_FAILED)) {
+                        throw new TclCommandException(command, reply.substring(COMMAND_FAILED.length()).trim());
+                    }
+                    return reply;
+                });
+    }
+
+    /**
+     * Sends all commands at once and waits for all replies.
+     */
+    @NotNull
+    public CompletableFuture<List<String>> executeAll(int port, @NotNull List<String> commands, long timeoutMs) {
+        List<CompletableFuture<String>> replies = new ArrayList<>();
+        for (String command : commands) {
+            replies.add(executeChecked(port, command, timeoutMs));
+        }
+        return CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<String> result = new ArrayList<>();
+            for (CompletableFuture<String> reply : replies) {
+                result.add(reply.join());
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Reads 32-bit words from target memory. The future fails with {@link TclCommandException} unless OpenOCD
+     * answers with exactly {@code count} numbers.
+     */
+    @NotNull
+    public CompletableFuture<long[]> readMemory(int port, long address, int count, long timeoutMs) {
+        String command = "read_memory 0x" + Long.toHexString(address) + " 32 " + count;
+        return executeChecked(port, command, timeoutMs).thenApply(reply -> parseWords(command, reply, count));
+    }
+
+    @NotNull
+    static long[] parseWords(@NotNull String command, @NotNull String reply, int count) {
+        String text = reply.trim();
+        String[] words = text.isEmpty() ? new String[0] : text.split("\\s+");
+        if (words.length != count) {
+            throw new TclCommandException(command, "expected " + count + " words, got '" + text + "'");
+        }
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            try {
+                values[i] = Long.decode(words[i]);
+            } catch (NumberFormatException e) {
+                throw new TclCommandException(command, "'" + words[i] + "' is not a number");
+            }
+            if (values[i] < 0 || values[i] > 0xFFFF_FFFFL) {
+                throw new TclCommandException(command, "'" + words[i] + "' is not a 32-bit word");
+            }
+        }
+        return values;
+    }
+
+    @NotNull
+    public CompletableFuture<String> reset(int port, @NotNull OpenOcdConfiguration.ResetType resetType,
+                                           long timeoutMs) {
+        return executeChecked(port, resetType.getCommand(), timeoutMs);
+    }
+
+    /**
+     * Closes the connection to a server, e.g. because it is shut down.
+     */
+    public void disconnect(int port) {
+        CompletableFuture<OpenOcdTclClient> client = clients.remove(port);
+        if (client != null) {
+            client.thenAccept(OpenOcdTclClient::close);
+        }
+    }
+
+    @NotNull
+    private CompletableFuture<OpenOcdTclClient> client(int port) {
+        return clients.compute(port, (key, existing) -> {
+            if (existing != null && (!existing.isDone() || isUsable(existing))) {
+                return existing;
+            }
+            return OpenOcdTclClient.connect(port);
+        });
+    }
+
+    private static boolean isUsable(@NotNull CompletableFuture<OpenOcdTclClient> client) {
+        return !client.isCompletedExceptionally() && client.join().isOpen();
+    }
+
+    @Override
+    public void dispose() {
+        for (Integer port : new ArrayList<>(clients.keySet())) {
+            disconnect(port);
+        }
+    }
+
+    /**
+     * A TCL command which OpenOCD executed with an error or whose result is not what the command returns.
+     */
+    public static final class TclCommandException extends RuntimeException {
+        public TclCommandException(@NotNull String command, @NotNull String message) {
+            super(command + ": " + message);
+        }
+    }
+}
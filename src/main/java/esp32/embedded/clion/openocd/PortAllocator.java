@@ -0,0 +1,115 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.openapi.options.ConfigurationException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Finds free gdb, telnet and TCL ports for OpenOCD processes in automatic port mode. Ports handed out stay
+ * reserved for their owner, the debug adapter, until the owner asks for new ones, so concurrent sessions of this
+ * IDE never get the same port even before OpenOCD opened it.
+ */
+final class PortAllocator {
+
+    /**
+     * OpenOCD listens on the IPv4 loopback interface unless {@code bindto} says otherwise.
+     */
+    static final String OPENOCD_ADDRESS = "127.0.0.1";
+
+    private static final Map<String, Ports> reserved = new HashMap<>();
+    private static int next = -1;
+
+    private PortAllocator() {
+    }
+
+    /**
+     * Reserves three ports from the range which nobody listens on, replacing the ports reserved for the owner
+     * before. The search continues after the last port handed out, so a port just released is not taken again
+     * right away.
+     */
+    @NotNull
+    static synchronized Ports allocate(@NotNull String owner, int first, int last) throws ConfigurationException {
+        reserved.remove(owner);
+        int size = last - first + 1;
+        int[] found = new int[3];
+        int count = 0;
+        int start = next < first || next > last ? first : next;
+        for (int i = 0; i < size && count < found.length; i++) {
+            int port = first + (start - first + i) % size;
+            if (!isReserved(port) && isFree(port)) {
+                found[count++] = port;
+            }
+        }
+        if (count < found.length) {
+            throw new ConfigurationException("There are no 3 free ports between " + first + " and " + last
+                                             + ". Widen the automatic port range in the OpenOCD settings.",
+                    "OpenOCD Config Error");
+        }
+        next = found[count - 1] + 1;
+        Ports ports = new Ports(found[0], found[1], found[2]);
+        reserved.put(owner, ports);
+        return ports;
+    }
+
+    private static boolean isReserved(int port) {
+        for (Ports ports : reserved.values()) {
+            if (ports.contains(port)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether nobody listens on the port of the address OpenOCD binds to. Address reuse is not requested,
+     * with it Windows allows to bind a port another process listens on.
+     */
+    static boolean isFree(int port) {
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.bind(new InetSocketAddress(OPENOCD_ADDRESS, port));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The ports one OpenOCD process listens on.
+     */
+    public static final class Ports {
+        private final int gdbPort;
+        private final int telnetPort;
+        private final int tclPort;
+
+        Ports(int gdbPort, int telnetPort, int tclPort) {
+            this.gdbPort = gdbPort;
+            this.telnetPort = telnetPort;
+            this.tclPort = tclPort;
+        }
+
+        public int getGdbPort() {
+            return gdbPort;
+        }
+
+        public int getTelnetPort() {
+            return telnetPort;
+        }
+
+        public int getTclPort() {
+            return tclPort;
+        }
+
+        boolean contains(int port) {
+            return port == gdbPort || port == telnetPort || port == tclPort;
+        }
+
+        @Override
+        public String toString() {
+            return "gdb " + gdbPort + ", telnet " + telnetPort + ", tcl " + tclPort;
+        }
+    }
+}
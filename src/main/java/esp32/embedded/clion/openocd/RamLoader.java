@@ -0,0 +1,131 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Reads what a RAM download needs from the ELF: the entry point and the size of the loadable segments. Only
+ * applications linked to run from RAM ({@code CONFIG_APP_BUILD_TYPE_RAM}) can be loaded like this, segments
+ * mapped from flash would stay empty. Which addresses those are depends on the chip, which is taken from the
+ * {@code .bin} the build writes next to the ELF.
+ */
+final class RamLoader {
+
+    private static final Logger LOG = Logger.getInstance(RamLoader.class);
+    private static final int ELF_MAGIC = 0x464C457F;
+    private static final int ELF_CLASS_32 = 1;
+    private static final int ELF_DATA_LSB = 1;
+    private static final int ELF_HEADER_LENGTH = 52;
+    private static final int PT_LOAD = 1;
+    private static final int MAX_PROGRAM_HEADERS = 256;
+
+    private RamLoader() {
+    }
+
+    /**
+     * @throws IOException if the ELF cannot be read or has segments in flash
+     */
+    @NotNull
+    static RamImage read(@NotNull File elf) throws IOException {
+        return read(elf, findFlashRanges(elf));
+    }
+
+    /**
+     * @param flashRanges the address ranges mapped from flash, {@code null} if they are not known
+     */
+    @NotNull
+    static RamImage read(@NotNull File elf, @Nullable long[][] flashRanges) throws IOException {
+        try (FileChannel channel = FileChannel.open(elf.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(channel, 0, ELF_HEADER_LENGTH);
+            if (header.getInt(0) != ELF_MAGIC || header.get(4) != ELF_CLASS_32 || header.get(5) != ELF_DATA_LSB) {
+                throw new IOException(elf + " is not a 32-bit little endian ELF file");
+            }
+            long entry = Integer.toUnsignedLong(header.getInt(24));
+            int programOffset = header.getInt(28);
+            int programSize = Short.toUnsignedInt(header.getShort(42));
+            int programCount = Short.toUnsignedInt(header.getShort(44));
+            if (programCount == 0 || programCount > MAX_PROGRAM_HEADERS || programSize < 32) {
+                throw new IOException(elf + " has no usable program headers");
+            }
+            ByteBuffer programs = readFully(channel, programOffset, programSize * programCount);
+            long loadBytes = 0;
+            for (int i = 0; i < programCount; i++) {
+                int program = i * programSize;
+                long address = Integer.toUnsignedLong(programs.getInt(program + 12));
+                long fileSize = Integer.toUnsignedLong(programs.getInt(program + 16));
+                if (programs.getInt(program) != PT_LOAD || fileSize == 0) {
+                    continue;
+                }
+                if (flashRanges != null && AppImageBuilder.isFlash(address, flashRanges)) {
+                    throw new IOException(String.format("%s has a segment mapped from flash at 0x%08x. Build the "
+                                                        + "application with CONFIG_APP_BUILD_TYPE_RAM to load it "
+                                                        + "into RAM", elf.getName(), address));
+                }
+                loadBytes += fileSize;
+            }
+            if (loadBytes == 0) {
+                throw new IOException(elf + " has nothing to load");
+            }
+            return new RamImage(entry, loadBytes);
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer readFully(@NotNull FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * @return the flash ranges of the chip the ELF was built for, {@code null} if the chip cannot be told
+     */
+    @Nullable
+    private static long[][] findFlashRanges(@NotNull File elf) {
+        File buildImage = FlashImage.getBuildImage(elf);
+        try {
+            int chipId = AppImageBuilder.readChipId(buildImage);
+            long[][] flashRanges = AppImageBuilder.getFlashRanges(chipId);
+            if (flashRanges == null) {
+                LOG.info("Unknown chip id " + chipId + " in " + buildImage + ", not checking for flash segments");
+            }
+            return flashRanges;
+        } catch (IOException e) {
+            LOG.info("Cannot tell the chip of " + elf + " without " + buildImage + ", not checking for flash segments",
+                    e);
+            return null;
+        }
+    }
+
+    static final class RamImage {
+        private final long entry;
+        private final long loadBytes;
+
+        RamImage(long entry, long loadBytes) {
+            this.entry = entry;
+            this.loadBytes = loadBytes;
+        }
+
+        long getEntry() {
+            return entry;
+        }
+
+        /**
+         * @return the size of the data written to RAM
+         */
+        long getLoadBytes() {
+            return loadBytes;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.UUID;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Host side copies of the images last written to each device. Delta flashing compares new images with these
+ * copies, so they are only updated after a successful download and dropped after a failed one.
+ */
+public final class ShadowImageStore {
+
+    private static final Logger LOG = Logger.getInstance(ShadowImageStore.class);
+    private static final String ROOT = "openocd-esp32";
+
+    private ShadowImageStore() {
+    }
+
+    @Nullable
+    public static byte[] load(@NotNull String deviceKey, @NotNull FlashImage image) {
+        File shadow = shadowFile(deviceKey, image);
+        if (!shadow.isFile()) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(shadow.toPath());
+        } catch (IOException e) {
+            LOG.warn("Cannot read shadow image " + shadow, e);
+            return null;
+        }
+    }
+
+    public static void store(@NotNull String deviceKey, @NotNull List<FlashImage> images) {
+        for (FlashImage image : images) {
+            File shadow = shadowFile(deviceKey, image);
+            try {
+                FileUtil.createParentDirs(shadow);
+                Files.copy(image.getFile().toPath(), shadow.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                LOG.warn("Cannot update shadow image " + shadow, e);
+                FileUtil.delete(shadow);
+            }
+        }
+    }
+
+    public static void invalidate(@NotNull String deviceKey) {
+        FileUtil.delete(deviceDir(deviceKey));
+    }
+
+    /**
+     * Writes a segment to a scratch file which can be passed to OpenOCD. Each device has its own files, so
+     * boards flashed at the same time do not overwrite each other's data.
+     */
+    @NotNull
+    public static File writeSegmentFile(@NotNull String deviceKey, @NotNull FlashPlanner.Segment segment)
+            throws IOException {
+        File file = scratchFile("segments", deviceKey, segment.getAddress());
+        Files.write(file.toPath(), segment.getData());
+        return file;
+    }
+
+    /**
+     * @return a file for data of the device at a flash address, which is reused by the next launch for that device
+     */
+    @NotNull
+    static File scratchFile(@NotNull String purpose, @NotNull String deviceKey, long address) {
+        File file = new File(PathManager.getSystemPath(),
+                ROOT + "/" + purpose + "/" + dirName(deviceKey) + "/" + Long.toHexString(address) + ".bin");
+        FileUtil.createParentDirs(file);
+        return file;
+    }
+
+    @NotNull
+    private static File shadowFile(@NotNull String deviceKey, @NotNull FlashImage image) {
+        return new File(deviceDir(deviceKey), Long.toHexString(image.getOffsetValue()) + ".bin");
+    }
+
+    @NotNull
+    private static File deviceDir(@NotNull String deviceKey) {
+        return new File(PathManager.getSystemPath(), ROOT + "/shadow/" + dirName(deviceKey));
+    }
+
+    @NotNull
+    private static String dirName(@NotNull String deviceKey) {
+        return UUID.nameUUIDFromBytes(deviceKey.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+}
@@ -0,0 +1,72 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.options.ConfigurationException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Streams the application trace of the boards of the selected run configurations from their running OpenOCD
+ * into a console per board.
+ */
+public class StartApptraceAction extends AnAction {
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        e.getPresentation().setEnabled(project != null && !findRunning(project).isEmpty());
+    }
+
+    @NotNull
+    @Override
+    public ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+        List<OpenOcdConfiguration> configs = FlashAllAction.chooseConfigurations(project, "Start Apptrace",
+                "Run configurations of the boards to trace:");
+        if (configs.isEmpty()) {
+            return;
+        }
+        new Task.Backgroundable(project, "Starting Apptrace", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                for (OpenOcdConfiguration config : configs) {
+                    indicator.setText("Starting apptrace of " + config.getName());
+                    try {
+                        ApptraceReceiver receiver = ApptraceReceiver.start(config);
+                        ApplicationManager.getApplication().invokeLater(() -> show(project, config, receiver));
+                    } catch (ConfigurationException exception) {
+                        Informational.showPluginError(project, exception);
+                    }
+                }
+            }
+        }.queue();
+    }
+
+    private static void show(@NotNull Project project, @NotNull OpenOcdConfiguration config,
+                             @NotNull ApptraceReceiver receiver) {
+        String serial = config.getAdapterSerial();
+        OpenOcdConsole.show(project, receiver, "Apptrace (" + config.getName() + ")",
+                serial.isEmpty() ? "apptrace" : "apptrace-" + serial, null, true, true);
+        receiver.startNotify();
+    }
+
+    @NotNull
+    private static List<OpenOcdConfiguration> findRunning(@NotNull Project project) {
+        OpenOcdComponent component = project.getService(OpenOcdComponent.class);
+        return FlashAllAction.findConfigurations(project).stream().filter(component::isServerRunning).toList();
+    }
+}
@@ -0,0 +1,193 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.options.ConfigurationException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.SystemInfo;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Captures a FreeRTOS SystemView trace of a board through its running OpenOCD, {@code esp sysview start
+ * tcp://...}, into a file in the IDE system folder. Only the trace of the first core is captured. The data is
+ * written through a memory mapping which grows in windows of {@link #WINDOW_SIZE}, so a capture of several GB
+ * costs no heap and no copying; on Windows, where a mapping keeps the file locked until it is collected, it is
+ * written with plain file writes.
+ */
+final class SysviewCapture {
+
+    static final String EXTENSION = "svdat";
+    private static final Logger LOG = Logger.getInstance(SysviewCapture.class);
+    private static final String CAPTURES_DIR = "openocd-esp32/sysview";
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int POLL_MS = 200;
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+    private static final int DRAIN_TIMEOUT_MS = 2_000;
+    private static final long TCL_TIMEOUT_MS = 5_000;
+
+    private SysviewCapture() {
+    }
+
+    @NotNull
+    static File getCapturesDir() {
+        return new File(PathManager.getSystemPath(), CAPTURES_DIR);
+    }
+
+    /**
+     * Captures until the indicator is cancelled or OpenOCD closes the connection.
+     *
+     * @return the capture file
+     * @throws ConfigurationException if the server is not running or does not start the trace
+     */
+    @NotNull
+    static File capture(@NotNull OpenOcdConfiguration config, @NotNull ProgressIndicator indicator)
+            throws ConfigurationException, IOException {
+        OpenOcdComponent component = config.getProject().getService(OpenOcdComponent.class);
+        PortAllocator.Ports ports = component.getServerPorts(config);
+        if (ports == null) {
+            throw new ConfigurationException("OpenOCD is not running for " + config.getName()
+                                             + ". Start a debug session first.", "OpenOCD SystemView Error");
+        }
+        if (!OpenOcdComponent.usesTclPort(config)) {
+            throw new ConfigurationException("The trace is started through the TCL port, which OpenOCD only opens "
+                                             + "if it is kept running between debug sessions or uses automatic "
+                                             + "ports. Enable one of them for " + config.getName() + ".",
+                    "OpenOCD SystemView Error");
+        }
+        File file = new File(getCapturesDir(), config.getName().replaceAll("[^\\w.-]", "_") + "-"
+                                               + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "."
+                                               + EXTENSION);
+        Files.createDirectories(file.toPath().getParent());
+        OpenOcdTclService tcl = OpenOcdTclService.getInstance(config.getProject());
+        int tclPort = ports.getTclPort();
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             CaptureWriter writer = new CaptureWriter(file)) {
+            serverSocket.setSoTimeout(CONNECT_TIMEOUT_MS);
+            try {
+                tcl.executeChecked(tclPort, "esp sysview start tcp://"
+                                            + serverSocket.getInetAddress().getHostAddress() + ":"
+                                            + serverSocket.getLocalPort(), TCL_TIMEOUT_MS).join();
+            } catch (RuntimeException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                throw new ConfigurationException("OpenOCD cannot start the SystemView trace: " + cause.getMessage(),
+                        "OpenOCD SystemView Error");
+            }
+            try (Socket socket = serverSocket.accept()) {
+                socket.setSoTimeout(POLL_MS);
+                receive(socket.getInputStream(), writer, indicator);
+                if (indicator.isCanceled()) {
+                    stop(tcl, tclPort);
+                    // take what OpenOCD still sends until it closes the connection
+                    socket.setSoTimeout(DRAIN_TIMEOUT_MS);
+                    receive(socket.getInputStream(), writer, null);
+                }
+            } catch (SocketTimeoutException e) {
+                stop(tcl, tclPort);
+                throw new IOException("OpenOCD did not connect to the SystemView port", e);
+            }
+            LOG.info("Captured " + writer.size + " bytes of SystemView trace into " + file);
+        }
+        return file;
+    }
+
+    /**
+     * @param indicator polled for cancellation, or {@code null} to read until the end or a timeout
+     */
+    private static void receive(@NotNull InputStream input, @NotNull CaptureWriter writer,
+                                @Nullable ProgressIndicator indicator) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long startNanos = System.nanoTime();
+        long startSize = writer.size;
+        while (indicator == null || !indicator.isCanceled()) {
+            int length;
+            try {
+                length = input.read(buffer);
+            } catch (SocketTimeoutException e) {
+                if (indicator == null) {
+                    return;
+                }
+                continue;
+            }
+            if (length < 0) {
+                return;
+            }
+            writer.write(buffer, length);
+            if (indicator != null) {
+                double seconds = (System.nanoTime() - startNanos) / 1e9;
+                indicator.setText2(String.format("%.1f MiB captured, %.1f KiB/s", writer.size / 1048576.0,
+                        (writer.size - startSize) / 1024.0 / seconds));
+            }
+        }
+    }
+
+    private static void stop(@NotNull OpenOcdTclService tcl, int tclPort) {
+        try {
+            tcl.execute(tclPort, "esp sysview stop", TCL_TIMEOUT_MS).join();
+        } catch (RuntimeException e) {
+            LOG.info("Cannot stop the SystemView trace", e);
+        }
+    }
+
+    /**
+     * Appends to the capture file through a mapped window, which is moved on once it is full. Closing truncates
+     * the file to the captured size.
+     */
+    private static final class CaptureWriter implements Closeable {
+        private final FileChannel channel;
+        @Nullable
+        private MappedByteBuffer window;
+        private long size;
+
+        CaptureWriter(@NotNull File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        void write(byte @NotNull [] bytes, int length) throws IOException {
+            if (SystemInfo.isWindows) {
+                ByteBuffer data = ByteBuffer.wrap(bytes, 0, length);
+                while (data.hasRemaining()) {
+                    size += channel.write(data, size);
+                }
+                return;
+            }
+            int offset = 0;
+            while (offset < length) {
+                if (window == null || !window.hasRemaining()) {
+                    window = channel.map(FileChannel.MapMode.READ_WRITE, size, WINDOW_SIZE);
+                }
+                int count = Math.min(length - offset, window.remaining());
+                window.put(bytes, offset, count);
+                offset += count;
+                size += count;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            try {
+                channel.truncate(size);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
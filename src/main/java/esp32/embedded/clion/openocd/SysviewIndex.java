@@ -0,0 +1,666 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.SystemInfo;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Time index of a SystemView capture, which lets a viewer show any part of a capture of several GB right away.
+ * <p>
+ * The capture is decoded once and the index is stored next to it ({@code .idx}): after every
+ * {@link #EVENTS_PER_BLOCK} events a record with the time, the file offset, the running task and interrupt, and the
+ * context which ran longest in the block. The index is memory mapped and binary searched, the capture is memory
+ * mapped in windows; only blocks which are wider than the shown resolution are decoded, all others are shown by
+ * their longest running context.
+ * <p>
+ * Contexts are task ids, {@link #IDLE}, {@link #SCHEDULER} or interrupts, which are encoded as
+ * {@code -(ISR_BASE + number)}. Nested interrupts are tracked while decoding, but a block starts with the innermost
+ * one only.
+ */
+final class SysviewIndex implements Closeable {
+
+    static final int SCHEDULER = -1;
+    static final int IDLE = -2;
+    private static final int ISR_BASE = 16;
+    private static final Logger LOG = Logger.getInstance(SysviewIndex.class);
+    private static final String INDEX_EXTENSION = ".idx";
+    private static final int EVENTS_PER_BLOCK = 1024;
+    private static final int RECORD_SIZE = 28;
+    private static final int TRAILER_SIZE = 7 * 8 + 2 * 4;
+    private static final int MAGIC = 0x53564958;
+    private static final int VERSION = 1;
+    private static final long MAPPED_WINDOW = 64L * 1024 * 1024;
+    private static final int READ_WINDOW = 1024 * 1024;
+    private static final int MAX_ISR_DEPTH = 16;
+
+    private static final int EVTID_NOP = 0;
+    private static final int EVTID_OVERFLOW = 1;
+    private static final int EVTID_ISR_ENTER = 2;
+    private static final int EVTID_ISR_EXIT = 3;
+    private static final int EVTID_TASK_START_EXEC = 4;
+    private static final int EVTID_TASK_STOP_EXEC = 5;
+    private static final int EVTID_TASK_INFO = 9;
+    private static final int EVTID_SYSDESC = 14;
+    private static final int EVTID_IDLE = 17;
+    private static final int EVTID_ISR_TO_SCHEDULER = 18;
+    private static final int EVTID_INIT = 24;
+    /**
+     * Events from this id on are preceded by the length of their payload.
+     */
+    private static final int FIRST_SIZED_EVENT = 24;
+    /**
+     * Parameters of the events without length: {@code v} for a variable length number, {@code s} for a string.
+     */
+    private static final String[] PARAMETERS = {
+            "", "v", "v", "", "v", "", "v", "vv", "v", "vvs", "", "", "v", "vv", "s", "v", "v", "", "", "v", "", "vvvv",
+            "vvs"};
+
+    private final File capture;
+    private final ByteBuffer records;
+    private final long recordCount;
+    private final long frequency;
+    private final long endTime;
+    private final long overflows;
+    private final Map<Integer, String> contexts;
+    private final Input input;
+
+    private SysviewIndex(@NotNull File capture, @NotNull ByteBuffer records, long recordCount, long frequency,
+                         long endTime, long overflows, @NotNull Map<Integer, String> contexts) throws IOException {
+        this.capture = capture;
+        this.records = records;
+        this.recordCount = recordCount;
+        this.frequency = frequency;
+        this.endTime = endTime;
+        this.overflows = overflows;
+        this.contexts = contexts;
+        input = new Input(capture);
+    }
+
+    /**
+     * Opens the index of a capture, building it first if there is none or the capture changed since.
+     */
+    @NotNull
+    static SysviewIndex open(@NotNull File capture, @NotNull ProgressIndicator indicator) throws IOException {
+        File indexFile = new File(capture.getPath() + INDEX_EXTENSION);
+        SysviewIndex index = indexFile.isFile() ? load(capture, indexFile) : null;
+        if (index == null) {
+            build(capture, indexFile, indicator);
+            index = load(capture, indexFile);
+            if (index == null) {
+                throw new IOException("Cannot read the new index " + indexFile);
+            }
+        }
+        return index;
+    }
+
+    @Nullable
+    private static SysviewIndex load(@NotNull File capture, @NotNull File indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < TRAILER_SIZE) {
+                return null;
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            channel.read(trailer, size - TRAILER_SIZE);
+            trailer.flip();
+            long captureLength = trailer.getLong();
+            long captureModified = trailer.getLong();
+            long recordCount = trailer.getLong();
+            long contextsOffset = trailer.getLong();
+            long frequency = trailer.getLong();
+            long endTime = trailer.getLong();
+            long overflows = trailer.getLong();
+            if (trailer.getInt() != VERSION || trailer.getInt() != MAGIC || captureLength != capture.length()
+                || captureModified != capture.lastModified()) {
+                LOG.info("Index " + indexFile + " is outdated");
+                return null;
+            }
+            // a mapping keeps the file locked on Windows until it is collected
+            ByteBuffer records;
+            if (SystemInfo.isWindows) {
+                records = ByteBuffer.allocate((int) (recordCount * RECORD_SIZE));
+                channel.read(records, 0);
+                records.flip();
+            } else {
+                records = channel.map(FileChannel.MapMode.READ_ONLY, 0, recordCount * RECORD_SIZE);
+            }
+            Map<Integer, String> contexts = new LinkedHashMap<>();
+            channel.position(contextsOffset);
+            DataInputStream names = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            int count = names.readInt();
+            for (int i = 0; i < count; i++) {
+                contexts.put(names.readInt(), names.readUTF());
+            }
+            return new SysviewIndex(capture, records, recordCount, frequency, endTime, overflows, contexts);
+        }
+    }
+
+    private static void build(@NotNull File capture, @NotNull File indexFile, @NotNull ProgressIndicator indicator)
+            throws IOException {
+        long startNanos = System.nanoTime();
+        File temp = new File(indexFile.getPath() + ".tmp");
+        long captureLength = capture.length();
+        long captureModified = capture.lastModified();
+        try (Input input = new Input(capture);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     Files.newOutputStream(temp.toPath())))) {
+            skipHeader(input);
+            Event event = new Event();
+            State state = new State();
+            Map<Integer, String> names = new HashMap<>();
+            Set<Integer> seen = new LinkedHashSet<>();
+            seen.add(state.context());
+            Map<Integer, Long> blockTimes = new HashMap<>();
+            long recordCount = 0;
+            long frequency = 0;
+            long overflows = 0;
+            long blockTime = 0;
+            long blockOffset = input.getPosition();
+            int blockTask = state.task;
+            int blockIsr = 0;
+            long contextSince = 0;
+            int events = 0;
+            while (true) {
+                long offset = input.getPosition();
+                if (events == EVENTS_PER_BLOCK) {
+                    blockTimes.merge(state.context(), state.time - contextSince, Long::sum);
+                    contextSince = state.time;
+                    writeRecord(out, blockTime, blockOffset, blockTask, blockIsr, dominant(blockTimes));
+                    recordCount++;
+                    blockTimes.clear();
+                    blockTime = state.time;
+                    blockOffset = offset;
+                    blockTask = state.task;
+                    blockIsr = state.innermostIsr();
+                    events = 0;
+                    if (recordCount % 1024 == 0) {
+                        indicator.checkCanceled();
+                        indicator.setFraction((double) offset / captureLength);
+                    }
+                }
+                int id;
+                try {
+                    id = readEvent(input, event, true);
+                } catch (EOFException e) {
+                    LOG.info("Capture " + capture + " ends within an event");
+                    break;
+                }
+                if (id < 0) {
+                    break;
+                }
+                events++;
+                int before = state.context();
+                state.time += event.delta;
+                switch (id) {
+                    case EVTID_TASK_INFO -> names.put((int) event.params[0], event.text);
+                    case EVTID_SYSDESC -> parseInterruptNames(event.text, names);
+                    case EVTID_INIT -> frequency = event.params[0];
+                    case EVTID_OVERFLOW -> overflows += event.params[0];
+                    default -> state.apply(id, event.params[0]);
+                }
+                int after = state.context();
+                if (after != before) {
+                    blockTimes.merge(before, state.time - contextSince, Long::sum);
+                    contextSince = state.time;
+                    seen.add(after);
+                }
+            }
+            blockTimes.merge(state.context(), state.time - contextSince, Long::sum);
+            writeRecord(out, blockTime, blockOffset, blockTask, blockIsr, dominant(blockTimes));
+            recordCount++;
+
+            long contextsOffset = recordCount * RECORD_SIZE;
+            List<Integer> order = new ArrayList<>(seen);
+            order.sort(Comparator.comparingInt(SysviewIndex::laneOrder));
+            out.writeInt(order.size());
+            for (int context : order) {
+                out.writeInt(context);
+                out.writeUTF(names.getOrDefault(context, defaultName(context)));
+            }
+            out.writeLong(captureLength);
+            out.writeLong(captureModified);
+            out.writeLong(recordCount);
+            out.writeLong(contextsOffset);
+            out.writeLong(frequency);
+            out.writeLong(state.time);
+            out.writeLong(overflows);
+            out.writeInt(VERSION);
+            out.writeInt(MAGIC);
+            LOG.info(String.format("Indexed %s: %d blocks, %d contexts in %d ms", capture, recordCount,
+                    order.size(), (System.nanoTime() - startNanos) / 1_000_000));
+        }
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeRecord(@NotNull DataOutputStream out, long time, long offset, int task, int isr,
+                                    int dominant) throws IOException {
+        out.writeLong(time);
+        out.writeLong(offset);
+        out.writeInt(task);
+        out.writeInt(isr);
+        out.writeInt(dominant);
+    }
+
+    private static int dominant(@NotNull Map<Integer, Long> times) {
+        int dominant = SCHEDULER;
+        long longest = -1;
+        for (Map.Entry<Integer, Long> entry : times.entrySet()) {
+            if (entry.getValue() > longest) {
+                longest = entry.getValue();
+                dominant = entry.getKey();
+            }
+        }
+        return dominant;
+    }
+
+    /**
+     * Interrupts first, then tasks, idle and the scheduler.
+     */
+    private static int laneOrder(int context) {
+        if (context <= -ISR_BASE) {
+            return Integer.MIN_VALUE - context;
+        }
+        return context == IDLE ? Integer.MAX_VALUE - 1 : context == SCHEDULER ? Integer.MAX_VALUE : 0;
+    }
+
+    /**
+     * Reads the interrupt names from the system description, e.g. {@code N=ESP32,I#5=WIFI,I#15=SysTick}.
+     */
+    private static void parseInterruptNames(@Nullable String description, @NotNull Map<Integer, String> names) {
+        if (description == null) {
+            return;
+        }
+        for (String part : description.split(",")) {
+            int separator = part.indexOf('=');
+            if (part.startsWith("I#") && separator > 2) {
+                try {
+                    names.put(isr(Integer.parseInt(part.substring(2, separator).trim())),
+                            part.substring(separator + 1).trim());
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+    }
+
+    private static int isr(long number) {
+        return (int) -(ISR_BASE + number);
+    }
+
+    @NotNull
+    private static String defaultName(int context) {
+        if (context == IDLE) {
+            return "Idle";
+        } else if (context == SCHEDULER) {
+            return "Scheduler";
+        } else if (context <= -ISR_BASE) {
+            return "ISR " + (-context - ISR_BASE);
+        }
+        return String.format("Task 0x%x", context);
+    }
+
+    /**
+     * Skips the text header OpenOCD writes before the events, lines starting with {@code ;}.
+     */
+    private static void skipHeader(@NotNull Input input) throws IOException {
+        while (true) {
+            long start = input.getPosition();
+            if (input.read() != ';') {
+                input.seek(start);
+                return;
+            }
+            int c;
+            do {
+                c = input.read();
+            } while (c >= 0 && c != '\n');
+        }
+    }
+
+    /**
+     * Reads the next event, skipping the NOP bytes used for synchronization.
+     *
+     * @return the event id or {@code -1} at the end of the capture
+     * @throws EOFException if the capture ends within an event
+     * @throws IOException  if the event is not known, after which the events cannot be told apart any more
+     */
+    private static int readEvent(@NotNull Input input, @NotNull Event event, boolean readText) throws IOException {
+        int first;
+        do {
+            first = input.read();
+            if (first < 0) {
+                return -1;
+            }
+        } while (first == EVTID_NOP);
+        int id = (int) readVarint(input, first);
+        event.params[0] = 0;
+        event.text = null;
+        if (id < FIRST_SIZED_EVENT) {
+            if (id >= PARAMETERS.length) {
+                throw new IOException("Unknown SystemView event " + id + " at " + input.getPosition());
+            }
+            String parameters = PARAMETERS[id];
+            for (int i = 0; i < parameters.length(); i++) {
+                if (parameters.charAt(i) == 'v') {
+                    event.params[i] = readVarint(input, input.read());
+                } else {
+                    event.text = readString(input, readText);
+                }
+            }
+        } else {
+            long length = readVarint(input, input.read());
+            long payload = input.getPosition();
+            if (id == EVTID_INIT) {
+                event.params[0] = readVarint(input, input.read());
+            }
+            input.seek(payload + length);
+        }
+        event.delta = readVarint(input, input.read());
+        return id;
+    }
+
+    private static long readVarint(@NotNull Input input, int first) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b = first;
+        while (true) {
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0 || shift > 56) {
+                return value;
+            }
+            shift += 7;
+            b = input.read();
+        }
+    }
+
+    @Nullable
+    private static String readString(@NotNull Input input, boolean keep) throws IOException {
+        int length = input.read();
+        if (length == 0xFF) {
+            length = input.read() | input.read() << 8;
+        }
+        if (length < 0) {
+            throw new EOFException();
+        }
+        if (!keep) {
+            input.seek(input.getPosition() + length);
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            int b = input.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            bytes[i] = (byte) b;
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    @NotNull
+    File getCapture() {
+        return capture;
+    }
+
+    /**
+     * @return the ticks per second, {@code 0} if the capture does not say
+     */
+    long getFrequency() {
+        return frequency;
+    }
+
+    /**
+     * @return the time of the last event in ticks since the first one
+     */
+    long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return how many events the target dropped because OpenOCD did not read them in time
+     */
+    long getOverflows() {
+        return overflows;
+    }
+
+    /**
+     * @return the name of every context which ran, in lane order
+     */
+    @NotNull
+    Map<Integer, String> getContexts() {
+        return contexts;
+    }
+
+    /**
+     * Passes the time every context ran between {@code from} and {@code to}, which are shown in {@code columns}
+     * pixel columns. A column in which no block is wider than the column is passed as a whole with the context
+     * which ran longest in the block at its start, found by one binary search; the blocks behind it are skipped.
+     * Wider blocks are decoded.
+     */
+    void segments(long from, long to, int columns, @NotNull SegmentConsumer consumer) throws IOException {
+        long end = Math.min(to, endTime);
+        long time = Math.max(0, from);
+        double ticksPerColumn = (double) (to - from) / Math.max(1, columns);
+        while (time < end) {
+            long block = findBlock(time);
+            long blockEnd = block + 1 < recordCount ? time(block + 1) : endTime;
+            long column = (long) ((time - from) / ticksPerColumn);
+            long columnEnd = Math.max(time + 1, from + (long) Math.ceil((column + 1) * ticksPerColumn));
+            if (blockEnd - time(block) <= columnEnd - time) {
+                consumer.accept(records.getInt(recordIndex(block) + 24), time, Math.min(columnEnd, end));
+                time = columnEnd;
+            } else {
+                decodeBlock(block, blockEnd, time, end, consumer);
+                time = blockEnd;
+            }
+        }
+    }
+
+    private void decodeBlock(long block, long blockEnd, long from, long to, @NotNull SegmentConsumer consumer)
+            throws IOException {
+        int record = recordIndex(block);
+        long endOffset = block + 1 < recordCount ? records.getLong(recordIndex(block + 1) + 8) : Long.MAX_VALUE;
+        State state = new State();
+        state.time = records.getLong(record);
+        state.task = records.getInt(record + 16);
+        int isr = records.getInt(record + 20);
+        if (isr != 0) {
+            state.isrs[state.depth++] = isr;
+        }
+        input.seek(records.getLong(record + 8));
+        Event event = new Event();
+        long since = state.time;
+        while (input.getPosition() < endOffset && state.time < to) {
+            int context = state.context();
+            int id;
+            try {
+                id = readEvent(input, event, false);
+            } catch (EOFException e) {
+                break;
+            }
+            if (id < 0) {
+                break;
+            }
+            state.time += event.delta;
+            state.apply(id, event.params[0]);
+            if (state.context() != context) {
+                if (state.time > from) {
+                    consumer.accept(context, Math.max(since, from), Math.min(state.time, to));
+                }
+                since = state.time;
+            }
+        }
+        long end = Math.min(blockEnd, to);
+        if (end > from && end > since) {
+            consumer.accept(state.context(), Math.max(since, from), end);
+        }
+    }
+
+    /**
+     * @return the last block starting at or before the time
+     */
+    private long findBlock(long time) {
+        long low = 0;
+        long high = recordCount - 1;
+        while (low < high) {
+            long middle = (low + high + 1) >>> 1;
+            if (time(middle) <= time) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private long time(long block) {
+        return records.getLong(recordIndex(block));
+    }
+
+    private static int recordIndex(long block) {
+        return (int) (block * RECORD_SIZE);
+    }
+
+    @NotNull
+    String formatTime(long ticks) {
+        if (frequency <= 0) {
+            return ticks + " ticks";
+        }
+        double seconds = (double) ticks / frequency;
+        if (seconds >= 1) {
+            return String.format("%.3f s", seconds);
+        }
+        return seconds >= 1e-3 ? String.format("%.3f ms", seconds * 1e3) : String.format("%.1f µs", seconds * 1e6);
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    interface SegmentConsumer {
+        void accept(int context, long start, long end);
+    }
+
+    private static final class Event {
+        private final long[] params = new long[4];
+        private long delta;
+        @Nullable
+        private String text;
+    }
+
+    /**
+     * The running task and the interrupts it was interrupted by.
+     */
+    private static final class State {
+        private long time;
+        private int task = SCHEDULER;
+        private final int[] isrs = new int[MAX_ISR_DEPTH];
+        private int depth;
+
+        int context() {
+            return depth > 0 ? isrs[depth - 1] : task;
+        }
+
+        int innermostIsr() {
+            return depth > 0 ? isrs[depth - 1] : 0;
+        }
+
+        void apply(int id, long parameter) {
+            switch (id) {
+                case EVTID_TASK_START_EXEC -> task = (int) parameter;
+                case EVTID_TASK_STOP_EXEC -> task = SCHEDULER;
+                case EVTID_IDLE -> task = IDLE;
+                case EVTID_ISR_ENTER -> {
+                    if (depth < MAX_ISR_DEPTH) {
+                        isrs[depth++] = isr(parameter);
+                    }
+                }
+                case EVTID_ISR_EXIT -> depth = Math.max(0, depth - 1);
+                case EVTID_ISR_TO_SCHEDULER -> {
+                    depth = Math.max(0, depth - 1);
+                    task = SCHEDULER;
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the capture through memory mapped windows, or through a buffer on Windows.
+     */
+    private static final class Input implements Closeable {
+        private final FileChannel channel;
+        private final long size;
+        @Nullable
+        private ByteBuffer window;
+        private long windowStart;
+        private long position;
+
+        Input(@NotNull File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            size = channel.size();
+        }
+
+        int read() throws IOException {
+            if (position >= size) {
+                return -1;
+            }
+            if (window == null || position < windowStart || position - windowStart >= window.limit()) {
+                windowStart = position;
+                if (SystemInfo.isWindows) {
+                    window = ByteBuffer.allocate((int) Math.min(READ_WINDOW, size - position));
+                    while (window.hasRemaining() && channel.read(window, windowStart + window.position()) >= 0) {
+                        // fill the window
+                    }
+                    window.flip();
+                } else {
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(MAPPED_WINDOW, size - position));
+                }
+            }
+            return window.get((int) (position++ - windowStart)) & 0xFF;
+        }
+
+        long getPosition() {
+            return position;
+        }
+
+        void seek(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.actionSystem.ActionManager;
+import com.intellij.openapi.actionSystem.ActionToolbar;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.DefaultActionGroup;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileChooser.FileChooser;
+import com.intellij.openapi.fileChooser.FileChooserDescriptorFactory;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.MessageType;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.openapi.wm.ToolWindowManager;
+import com.intellij.ui.ColoredListCellRenderer;
+import com.intellij.ui.JBColor;
+import com.intellij.ui.JBSplitter;
+import com.intellij.ui.SimpleTextAttributes;
+import com.intellij.ui.components.JBList;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.util.ui.JBUI;
+import com.intellij.util.ui.UIUtil;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import javax.swing.DefaultListModel;
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.ListSelectionModel;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Shows the SystemView captures as a timeline with a lane per task and interrupt. Wheel zooms around the mouse,
+ * dragging pans; only the shown part of a capture is read, through its {@link SysviewIndex}.
+ */
+public class SysviewToolWindowFactory implements ToolWindowFactory, DumbAware {
+
+    static final String ID = "OpenOCD SystemView";
+    private static final Logger LOG = Logger.getInstance(SysviewToolWindowFactory.class);
+    private static final String CAPTURE_ACTION_ID = "esp32.embedded.openocd.CaptureSysview";
+
+    @Override
+    public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
+        SysviewPanel panel = new SysviewPanel(project);
+        Content content = ContentFactory.getInstance().createContent(panel, "", false);
+        Disposer.register(content, panel::closeIndex);
+        toolWindow.getContentManager().addContent(content);
+        panel.refresh(null);
+    }
+
+    /**
+     * Opens the tool window with the capture selected.
+     */
+    static void show(@NotNull Project project, @NotNull File capture) {
+        ToolWindow toolWindow = ToolWindowManager.getInstance(project).getToolWindow(ID);
+        if (toolWindow == null) {
+            return;
+        }
+        toolWindow.activate(() -> {
+            Content content = toolWindow.getContentManager().getContent(0);
+            if (content != null && content.getComponent() instanceof SysviewPanel panel) {
+                panel.refresh(capture);
+            }
+        });
+    }
+
+    private static class SysviewPanel extends JPanel {
+        private final Project project;
+        private final DefaultListModel<File> model = new DefaultListModel<>();
+        private final JBList<File> captureList = new JBList<>(model);
+        private final TimelinePanel timeline = new TimelinePanel();
+        @Nullable
+        private SysviewIndex index;
+        @Nullable
+        private File indexing;
+
+        SysviewPanel(@NotNull Project project) {
+            super(new BorderLayout());
+            this.project = project;
+            captureList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+            captureList.setCellRenderer(new CaptureRenderer());
+            captureList.addListSelectionListener(e -> {
+                if (!e.getValueIsAdjusting()) {
+                    open(captureList.getSelectedValue());
+                }
+            });
+
+            JBSplitter splitter = new JBSplitter(false, 0.2f);
+            splitter.setFirstComponent(new JBScrollPane(captureList));
+            splitter.setSecondComponent(timeline);
+
+            DefaultActionGroup actions = new DefaultActionGroup();
+            AnAction capture = ActionManager.getInstance().getAction(CAPTURE_ACTION_ID);
+            if (capture != null) {
+                actions.add(capture);
+            }
+            actions.add(new AnAction("Open Capture...", "Show a SystemView capture from another folder",
+                    AllIcons.Actions.MenuOpen) {
+                @Override
+                public void actionPerformed(@NotNull AnActionEvent e) {
+                    VirtualFile file = FileChooser.chooseFile(FileChooserDescriptorFactory
+                            .createSingleFileDescriptor(SysviewCapture.EXTENSION), project, null);
+                    if (file != null) {
+                        refresh(new File(file.getPath()));
+                    }
+                }
+            });
+            actions.add(new AnAction("Refresh", "Look for new captures", AllIcons.Actions.Refresh) {
+                @Override
+                public void actionPerformed(@NotNull AnActionEvent e) {
+                    refresh(captureList.getSelectedValue());
+                }
+            });
+            actions.add(new AnAction("Zoom to Fit", "Show the whole capture", AllIcons.General.FitContent) {
+                @Override
+                public void actionPerformed(@NotNull AnActionEvent e) {
+                    timeline.zoomToFit();
+                }
+            });
+            ActionToolbar toolbar = ActionManager.getInstance().createActionToolbar("OpenOcdSysview", actions, false);
+            toolbar.setTargetComponent(this);
+            add(toolbar.getComponent(), BorderLayout.WEST);
+            add(splitter, BorderLayout.CENTER);
+        }
+
+        /**
+         * Lists the captures of the captures folder, newest first, and selects the given one.
+         */
+        void refresh(@Nullable File select) {
+            File[] files = SysviewCapture.getCapturesDir()
+                    .listFiles((dir, name) -> name.endsWith("." + SysviewCapture.EXTENSION));
+            List<File> captures = new ArrayList<>(files == null ? List.of() : Arrays.asList(files));
+            captures.sort(Comparator.comparingLong(File::lastModified).reversed());
+            if (select != null && !captures.contains(select)) {
+                captures.add(0, select);
+            }
+            model.clear();
+            captures.forEach(model::addElement);
+            if (select != null) {
+                captureList.setSelectedValue(select, true);
+            } else if (!model.isEmpty() && index == null) {
+                captureList.setSelectedIndex(0);
+            }
+        }
+
+        private void open(@Nullable File capture) {
+            if (capture == null || index != null && FileUtil.filesEqual(index.getCapture(), capture)
+                || FileUtil.filesEqual(indexing, capture)) {
+                return;
+            }
+            indexing = capture;
+            new Task.Backgroundable(project, "Indexing SystemView capture " + capture.getName(), true) {
+                @Nullable
+                private SysviewIndex opened;
+
+                @Override
+                public void run(@NotNull ProgressIndicator indicator) {
+                    try {
+                        opened = SysviewIndex.open(capture, indicator);
+                    } catch (IOException e) {
+                        LOG.info("Cannot index " + capture, e);
+                        Informational.showMessage(project, MessageType.ERROR,
+                                "Cannot read SystemView capture " + capture.getName() + ": " + e.getMessage());
+                    }
+                }
+
+                @Override
+                public void onFinished() {
+                    if (FileUtil.filesEqual(indexing, capture)) {
+                        indexing = null;
+                    }
+                    if (opened != null && !project.isDisposed()) {
+                        closeIndex();
+                        index = opened;
+                        timeline.setIndex(opened);
+                    } else if (opened != null) {
+                        close(opened);
+                    }
+                }
+            }.queue();
+        }
+
+        void closeIndex() {
+            timeline.setIndex(null);
+            if (index != null) {
+                SysviewIndex closed = index;
+                timeline.afterRendering(() -> close(closed));
+                index = null;
+            }
+        }
+
+        private static void close(@NotNull SysviewIndex index) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                LOG.info("Cannot close " + index.getCapture(), e);
+            }
+        }
+    }
+
+    private static class CaptureRenderer extends ColoredListCellRenderer<File> {
+        @Override
+        protected void customizeCellRenderer(@NotNull JList<? extends File> list, File capture, int index,
+                                             boolean selected, boolean hasFocus) {
+            append(capture.getName());
+            append(String.format(" %.1f MiB", capture.length() / 1048576.0), SimpleTextAttributes.GRAYED_ATTRIBUTES);
+            append(" " + new SimpleDateFormat("HH:mm:ss").format(new Date(capture.lastModified())),
+                    SimpleTextAttributes.GRAYED_ATTRIBUTES);
+        }
+    }
+
+    /**
+     * One lane per context. Every pixel column shows the context which ran longest there, so the painting costs
+     * about the same for a whole capture of several GB as for a millisecond of it. The lanes are drawn into an image
+     * on a pooled thread, which is the only one reading the capture; until the image of the current view is ready
+     * the last one is shown moved and scaled to it.
+     */
+    private static class TimelinePanel extends JComponent {
+        private static final int ROW_HEIGHT = 18;
+        private static final int LABEL_WIDTH = 160;
+        private static final Color ISR_COLOR = new JBColor(new Color(0xD05050), new Color(0xA04040));
+        private static final Color IDLE_COLOR = new JBColor(new Color(0xB0B0B0), new Color(0x606060));
+        private static final Color SCHEDULER_COLOR = new JBColor(new Color(0x8080A0), new Color(0x505070));
+        private static final Color[] TASK_COLORS = {
+                new JBColor(new Color(0x6A9FD8), new Color(0x3E6A99)),
+                new JBColor(new Color(0x70B070), new Color(0x447A44)),
+                new JBColor(new Color(0xE0A040), new Color(0xB07820)),
+                new JBColor(new Color(0xA07AD0), new Color(0x6A4C94)),
+                new JBColor(new Color(0x40B0B0), new Color(0x2A7A7A))};
+
+        private final ExecutorService renderer =
+                AppExecutorUtil.createBoundedApplicationPoolExecutor("OpenOCD SystemView Timeline", 1);
+        @Nullable
+        private SysviewIndex index;
+        private final Map<Integer, Integer> lanes = new HashMap<>();
+        private long viewStart;
+        private long viewEnd;
+        private int dragX;
+        private long dragStart;
+        @Nullable
+        private volatile String error;
+        /**
+         * The view last requested, renderings of older views which have not started yet are skipped.
+         */
+        @Nullable
+        private volatile Rendering requested;
+        @Nullable
+        private Rendering rendered;
+
+        TimelinePanel() {
+            MouseAdapter mouse = new MouseAdapter() {
+                @Override
+                public void mousePressed(MouseEvent e) {
+                    dragX = e.getX();
+                    dragStart = viewStart;
+                }
+
+                @Override
+                public void mouseDragged(MouseEvent e) {
+                    pan(dragStart - (long) ((e.getX() - dragX) * ticksPerPixel()));
+                }
+
+                @Override
+                public void mouseWheelMoved(MouseWheelEvent e) {
+                    zoom(e.getX(), Math.pow(1.25, e.getPreciseWheelRotation()));
+                }
+            };
+            addMouseListener(mouse);
+            addMouseMotionListener(mouse);
+            addMouseWheelListener(mouse);
+        }
+
+        void setIndex(@Nullable SysviewIndex index) {
+            this.index = index;
+            lanes.clear();
+            if (index != null) {
+                for (int context : index.getContexts().keySet()) {
+                    lanes.put(context, lanes.size());
+                }
+            }
+            error = null;
+            requested = null;
+            rendered = null;
+            zoomToFit();
+        }
+
+        /**
+         * Runs the task once the rendering in progress, which may still read the capture, is done.
+         */
+        void afterRendering(@NotNull Runnable task) {
+            renderer.execute(task);
+        }
+
+        void zoomToFit() {
+            viewStart = 0;
+            viewEnd = index == null ? 1 : Math.max(1, index.getEndTime());
+            repaint();
+        }
+
+        private double ticksPerPixel() {
+            return (double) (viewEnd - viewStart) / Math.max(1, getWidth() - JBUI.scale(LABEL_WIDTH));
+        }
+
+        private void pan(long start) {
+            long span = viewEnd - viewStart;
+            long end = index == null ? span : index.getEndTime();
+            viewStart = Math.max(0, Math.min(start, end - span));
+            viewEnd = viewStart + span;
+            repaint();
+        }
+
+        private void zoom(int x, double factor) {
+            if (index == null) {
+                return;
+            }
+            double ticksPerPixel = ticksPerPixel();
+            long at = viewStart + (long) ((x - JBUI.scale(LABEL_WIDTH)) * ticksPerPixel);
+            long span = Math.max(16, Math.min(Math.max(1, index.getEndTime()),
+                    (long) ((viewEnd - viewStart) * factor)));
+            long start = at - (long) ((double) (at - viewStart) / (viewEnd - viewStart) * span);
+            viewEnd = viewStart + span;
+            pan(start);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            g.setColor(UIUtil.getPanelBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+            SysviewIndex index = this.index;
+            FontMetrics metrics = g.getFontMetrics();
+            int rowHeight = JBUI.scale(ROW_HEIGHT);
+            int textOffset = (rowHeight + metrics.getAscent() - metrics.getDescent()) / 2;
+            if (index == null) {
+                g.setColor(UIUtil.getLabelDisabledForeground());
+                g.drawString("Select or capture a SystemView trace", JBUI.scale(4), textOffset);
+                return;
+            }
+            int labelWidth = JBUI.scale(LABEL_WIDTH);
+            g.setColor(UIUtil.getLabelDisabledForeground());
+            String header = index.formatTime(viewStart) + " - " + index.formatTime(viewEnd) + " of "
+                            + index.formatTime(index.getEndTime());
+            if (index.getOverflows() > 0) {
+                header += ", " + index.getOverflows() + " events lost";
+            }
+            g.drawString(header, JBUI.scale(4), textOffset);
+            g.setColor(UIUtil.getLabelForeground());
+            for (Map.Entry<Integer, String> context : index.getContexts().entrySet()) {
+                g.drawString(context.getValue(), JBUI.scale(4), (lanes.get(context.getKey()) + 1) * rowHeight
+                                                                + textOffset);
+            }
+            int width = getWidth() - labelWidth;
+            int height = lanes.size() * rowHeight;
+            if (width <= 0 || height <= 0) {
+                return;
+            }
+            Rendering view = new Rendering(index, viewStart, viewEnd, width, height);
+            Rendering shown = rendered;
+            if (shown != null && shown.index == index) {
+                double ticksPerPixel = ticksPerPixel();
+                int x = labelWidth + (int) Math.round((shown.viewStart - viewStart) / ticksPerPixel);
+                int shownWidth = (int) Math.round((shown.viewEnd - shown.viewStart) / ticksPerPixel);
+                Graphics clipped = g.create(labelWidth, rowHeight, width, height);
+                try {
+                    UIUtil.drawImage(clipped, shown.image, new Rectangle(x - labelWidth, 0, shownWidth, height),
+                            null);
+                } finally {
+                    clipped.dispose();
+                }
+            }
+            if (!view.isSameView(shown) && !view.isSameView(requested)) {
+                render(view, UIUtil.createImage(this, width, height, BufferedImage.TYPE_INT_ARGB));
+            }
+            String error = this.error;
+            if (error != null) {
+                g.setColor(JBColor.RED);
+                g.drawString(error, labelWidth, (lanes.size() + 1) * rowHeight + textOffset);
+            }
+        }
+
+        private void render(@NotNull Rendering view, @NotNull BufferedImage image) {
+            view.image = image;
+            requested = view;
+            Map<Integer, Integer> lanes = Map.copyOf(this.lanes);
+            int rowHeight = JBUI.scale(ROW_HEIGHT);
+            renderer.execute(() -> {
+                if (requested != view) {
+                    return;
+                }
+                Graphics g = image.getGraphics();
+                try {
+                    double ticksPerPixel = (double) (view.viewEnd - view.viewStart) / view.width;
+                    view.index.segments(view.viewStart, view.viewEnd, view.width, (context, start, end) -> {
+                        Integer lane = lanes.get(context);
+                        if (lane == null) {
+                            return;
+                        }
+                        int x = (int) ((start - view.viewStart) / ticksPerPixel);
+                        int width = Math.max(1, (int) ((end - start) / ticksPerPixel));
+                        g.setColor(color(context, lane));
+                        g.fillRect(x, lane * rowHeight + 2, width, rowHeight - 4);
+                    });
+                } catch (IOException e) {
+                    if (error == null) {
+                        LOG.info("Cannot read " + view.index.getCapture(), e);
+                        error = e.getMessage();
+                    }
+                } finally {
+                    g.dispose();
+                }
+                ApplicationManager.getApplication().invokeLater(() -> {
+                    // also an older view, it is closer than the one shown
+                    if (view.index == index) {
+                        rendered = view;
+                        repaint();
+                    }
+                });
+            });
+        }
+
+        @NotNull
+        private static Color color(int context, int lane) {
+            if (context == SysviewIndex.IDLE) {
+                return IDLE_COLOR;
+            } else if (context == SysviewIndex.SCHEDULER) {
+                return SCHEDULER_COLOR;
+            } else if (context < 0) {
+                return ISR_COLOR;
+            }
+            return TASK_COLORS[lane % TASK_COLORS.length];
+        }
+    }
+
+    /**
+     * A view of the timeline and, once requested, the image its lanes are drawn into.
+     */
+    private static final class Rendering {
+        private final SysviewIndex index;
+        private final long viewStart;
+        private final long viewEnd;
+        private final int width;
+        private final int height;
+        private BufferedImage image;
+
+        Rendering(@NotNull SysviewIndex index, long viewStart, long viewEnd, int width, int height) {
+            this.index = index;
+            this.viewStart = viewStart;
+            this.viewEnd = viewEnd;
+            this.width = width;
+            this.height = height;
+        }
+
+        boolean isSameView(@Nullable Rendering other) {
+            return other != null && other.index == index && other.viewStart == viewStart
+                   && other.viewEnd == viewEnd && other.width == width && other.height == height;
+        }
+    }
+}
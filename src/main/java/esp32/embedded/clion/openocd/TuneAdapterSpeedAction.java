@@ -0,0 +1,79 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.options.ConfigurationException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.MessageType;
+import java.util.ArrayList;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Tunes the adapter clock of the boards of the selected run configurations one after another and stores the
+ * result in the configurations, so every later OpenOCD start of the same board and adapter uses it.
+ */
+public class TuneAdapterSpeedAction extends AnAction {
+
+    private static final Logger LOG = Logger.getInstance(TuneAdapterSpeedAction.class);
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        e.getPresentation().setEnabled(project != null && !FlashAllAction.findConfigurations(project).isEmpty());
+    }
+
+    @NotNull
+    @Override
+    public ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+        List<OpenOcdConfiguration> configs = FlashAllAction.chooseConfigurations(project, "Tune Adapter Speed",
+                "Run configurations of the connected boards:");
+        if (configs.isEmpty()) {
+            return;
+        }
+        new Task.Backgroundable(project, "Tuning Adapter Speed", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                tuneAll(project, configs, indicator);
+            }
+        }.queue();
+    }
+
+    private static void tuneAll(@NotNull Project project, @NotNull List<OpenOcdConfiguration> configs,
+                                @NotNull ProgressIndicator indicator) {
+        indicator.setIndeterminate(false);
+        List<String> lines = new ArrayList<>();
+        boolean failed = false;
+        for (OpenOcdConfiguration config : configs) {
+            indicator.setText("Tuning " + config.getName());
+            try {
+                AdapterSpeedTuner.Result result = AdapterSpeedTuner.tune(config, indicator);
+                String deviceKey = OpenOcdComponent.createDeviceKey(config);
+                ApplicationManager.getApplication().invokeLater(
+                        () -> config.setTunedAdapterSpeed(result.getTunedSpeed(), deviceKey));
+                lines.add(config.getName() + ": " + result);
+            } catch (ExecutionException | ConfigurationException e) {
+                LOG.warn("Cannot tune the adapter speed of " + config.getName(), e);
+                lines.add(config.getName() + ": " + e.getMessage());
+                failed = true;
+            }
+        }
+        Informational.showMessage(project, failed ? MessageType.WARNING : MessageType.INFO,
+                "Adapter speed<br>" + String.join("<br>", lines));
+    }
+}
@@ -0,0 +1,64 @@
+package esp32.embedded.clion.openocd;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Builds the image of {@code app-image/app.elf} and compares it with {@code app-image/app.bin}, the image expected from
+ * {@code esptool.py --chip esp32 elf2image --flash_mode dio --flash_freq 40m --flash_size 4MB
+ * --elf-sha256-offset 0xb0}. The ELF lists its sections out of address order: the app description follows the
+ * rodata adjacent to it and two adjacent data sections are swapped, so they only merge into the segments esptool
+ * writes once sorted by address. It also has RAM segments which fill the gap before the IROM segment, a section
+ * whose length is not a multiple of 4 and sections which are not loaded. The header is taken from
+ * {@code app-image/template.bin}, a stale image of a single segment.
+ * <p>
+ * {@code app.bin} was written by a script following the layout of esptool, not by esptool itself. Building the
+ * image stays disabled by default until it is replaced with the output of the command above.
+ */
+class AppImageBuilderTest {
+
+    @TempDir
+    static Path systemDir;
+
+    @TempDir
+    Path buildDir;
+
+    @BeforeAll
+    static void useTemporarySystemDir() {
+        System.setProperty("idea.system.path", systemDir.toString());
+    }
+
+    @Test
+    void buildsTheImageOfEsptool() throws IOException {
+        File elf = copyFixture("app.elf");
+        File expected = copyFixture("app.bin");
+        File image = AppImageBuilder.build(elf, copyFixture("template.bin"));
+        assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(image.toPath()));
+        assertEquals(5, Files.readAllBytes(image.toPath())[1], "segments including the RAM gap fillers");
+    }
+
+    @Test
+    void rejectsFilesWhichAreNoElf() throws IOException {
+        File template = copyFixture("template.bin");
+        assertThrows(IOException.class, () -> AppImageBuilder.build(template, template));
+    }
+
+    private File copyFixture(String name) throws IOException {
+        File file = buildDir.resolve(name).toFile();
+        try (InputStream input = Objects.requireNonNull(getClass().getResourceAsStream("/app-image/" + name))) {
+            Files.copy(input, file.toPath());
+        }
+        return file;
+    }
+}
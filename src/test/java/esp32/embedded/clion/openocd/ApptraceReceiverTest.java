@@ -0,0 +1,104 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.execution.configurations.ConfigurationTypeUtil;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessListener;
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.openapi.util.Key;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Feeds {@link ApptraceReceiver} from a local socket in place of OpenOCD and checks that it passes on every line
+ * in order at the 1 MB/s a board can send through a JTAG adapter. OpenOCD and the target are not part of it, this
+ * measures the receiver and the listeners of its output only.
+ * <p>
+ * Excluded from {@code ./gradlew test} until it runs in CI, run it with {@code ./gradlew test -PplatformTests}.
+ */
+public class ApptraceReceiverTest extends BasePlatformTestCase {
+
+    private static final int TRACE_BYTES = 16 * 1024 * 1024;
+    private static final double REQUIRED_BYTES_PER_SECOND = 1024 * 1024;
+    private static final long TIMEOUT_MS = 60_000;
+
+    @Override
+    protected boolean runInDispatchThread() {
+        return false;
+    }
+
+    public void testPassesOnTheTraceAtOneMegabytePerSecond() throws Exception {
+        OpenOcdConfiguration config = new OpenOcdConfiguration(getProject(),
+                ConfigurationTypeUtil.findConfigurationType(OpenOcdConfigurationType.class)
+                        .getConfigurationFactories()[0], "apptrace");
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        // nothing listens on the TCL port, stopping the trace just closes the sockets
+        ApptraceReceiver receiver = new ApptraceReceiver(config, freePort(), serverSocket);
+        LineChecker lines = new LineChecker();
+        receiver.addProcessListener(lines);
+        receiver.startNotify();
+
+        long startNanos = System.nanoTime();
+        int sentBytes = 0;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+             OutputStream output = new BufferedOutputStream(socket.getOutputStream())) {
+            for (int line = 0; sentBytes < TRACE_BYTES; line++) {
+                byte[] bytes = line(line).getBytes(StandardCharsets.UTF_8);
+                output.write(bytes);
+                sentBytes += bytes.length;
+            }
+        }
+        assertTrue("The trace did not end", lines.terminated.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        double bytesPerSecond = lines.receivedBytes / seconds;
+        System.out.printf("Apptrace throughput: %.1f MB/s%n", bytesPerSecond / 1024 / 1024);
+
+        assertNull(lines.error, lines.error);
+        assertEquals(sentBytes, lines.receivedBytes);
+        assertTrue(String.format("%.0f bytes/s is below %.0f bytes/s", bytesPerSecond, REQUIRED_BYTES_PER_SECOND),
+                bytesPerSecond >= REQUIRED_BYTES_PER_SECOND);
+    }
+
+    @NotNull
+    private static String line(int number) {
+        return "I (" + number + ") trace: line " + number + " of the application trace, ünicode\n";
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static final class LineChecker implements ProcessListener {
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile long receivedBytes;
+        private volatile String error;
+        private int nextLine;
+
+        @Override
+        public void onTextAvailable(@NotNull ProcessEvent event, @NotNull Key outputType) {
+            if (!ProcessOutputTypes.STDOUT.equals(outputType)) {
+                return;
+            }
+            String expected = line(nextLine++);
+            if (error == null && !expected.equals(event.getText())) {
+                error = "Expected '" + expected + "' but got '" + event.getText() + "'";
+            }
+            receivedBytes += event.getText().getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        @Override
+        public void processTerminated(@NotNull ProcessEvent event) {
+            terminated.countDown();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package esp32.embedded.clion.openocd;
+
+import static esp32.embedded.clion.openocd.ConsoleLineMatcher.ERROR;
+import static esp32.embedded.clion.openocd.ConsoleLineMatcher.FAILURE;
+import static esp32.embedded.clion.openocd.ConsoleLineMatcher.IGNORED;
+import static esp32.embedded.clion.openocd.ConsoleLineMatcher.SUCCESS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ConsoleLineMatcherTest {
+
+    private static final List<ConsoleLineMatcher.Pattern> PATTERNS = List.of(
+            ConsoleLineMatcher.Pattern.contains("he", SUCCESS),
+            ConsoleLineMatcher.Pattern.contains("she", FAILURE),
+            ConsoleLineMatcher.Pattern.contains("hers", IGNORED),
+            ConsoleLineMatcher.Pattern.prefix("Error:", ERROR),
+            ConsoleLineMatcher.Pattern.contains("Überprüfung", IGNORED));
+
+    private static final List<String> LINES = List.of(
+            "", "   ", "ushers", "she sells", "hxhe", "Error: flash", "  Error: flash  ", "Info: Error: later",
+            "Erro", "Überprüfung fehlgeschlagen", "keine Überprüfung", "Über", "plain text");
+
+    @Test
+    void followsFailureLinksIntoOverlappingPatterns() {
+        ConsoleLineMatcher matcher = new ConsoleLineMatcher(PATTERNS, true);
+        assertEquals(SUCCESS | FAILURE | IGNORED, matcher.classify("ushers"));
+        assertEquals(SUCCESS, matcher.classify("hxhe"));
+        assertEquals(0, matcher.classify("plain text"));
+    }
+
+    @Test
+    void matchesPrefixPatternsOnlyAtTheTrimmedLineStart() {
+        ConsoleLineMatcher matcher = new ConsoleLineMatcher(PATTERNS, true);
+        assertEquals(ERROR, matcher.classify("  Error: flash  "));
+        assertEquals(0, matcher.classify("Info: Error: later"));
+        assertEquals(0, matcher.classify("Erro"));
+    }
+
+    @Test
+    void matchesCharactersOutsideAscii() {
+        ConsoleLineMatcher matcher = new ConsoleLineMatcher(PATTERNS, true);
+        assertEquals(IGNORED, matcher.classify("keine Überprüfung"));
+        assertEquals(0, matcher.classify("Über"));
+    }
+
+    @Test
+    void automatonAgreesWithScanning() {
+        ConsoleLineMatcher automaton = new ConsoleLineMatcher(PATTERNS, true);
+        ConsoleLineMatcher scanner = new ConsoleLineMatcher(PATTERNS, false);
+        for (String line : LINES) {
+            assertEquals(scanner.classify(line), automaton.classify(line), line);
+        }
+        assertEquals(0, automaton.classify(null));
+    }
+
+    @Test
+    void splitsUserDefinedPatterns() {
+        ConsoleLineMatcher matcher = new ConsoleLineMatcher(
+                ConsoleLineMatcher.parsePatterns(" wrote ; ;verified", SUCCESS), true);
+        assertEquals(SUCCESS, matcher.classify("** verified OK **"));
+        assertEquals(SUCCESS, matcher.classify("wrote 4096 bytes"));
+        assertEquals(List.of(), ConsoleLineMatcher.parsePatterns(null, SUCCESS));
+    }
+}
@@ -0,0 +1,84 @@
+package esp32.embedded.clion.openocd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ConsoleRingBufferTest {
+
+    private static final int RECORD_HEADER = 5;
+
+    @Test
+    void readsRecordsInOrder() {
+        ConsoleRingBuffer ring = new ConsoleRingBuffer(1024);
+        ring.append(1, "first\n");
+        ring.append(2, "zweite Zeile äöü\n");
+        List<String> read = new ArrayList<>();
+        long next = ring.read(0, Long.MAX_VALUE, (kind, text) -> read.add(kind + ":" + text));
+        assertEquals(List.of("1:first\n", "2:zweite Zeile äöü\n"), read);
+        assertEquals(ring.getHead(), next);
+        assertEquals(0, ring.lostSince(0));
+    }
+
+    @Test
+    void overwritesOldestRecordsAcrossTheWrap() {
+        ConsoleRingBuffer ring = new ConsoleRingBuffer(64);
+        for (int i = 0; i < 20; i++) {
+            ring.append(0, "line " + i + "\n");
+        }
+        List<String> read = new ArrayList<>();
+        ring.read(0, Long.MAX_VALUE, (kind, text) -> read.add(text));
+        assertEquals("line 19\n", read.get(read.size() - 1));
+        assertTrue(ring.lostSince(0) > 0);
+        long kept = 0;
+        for (String text : read) {
+            kept += RECORD_HEADER + text.length();
+        }
+        assertTrue(kept <= 64);
+        assertEquals(ring.getHead() - kept, ring.lostSince(0));
+        for (int i = 0; i < read.size(); i++) {
+            assertEquals("line " + (20 - read.size() + i) + "\n", read.get(i));
+        }
+    }
+
+    @Test
+    void keepsOnlyTheEndOfLargeChunks() {
+        ConsoleRingBuffer ring = new ConsoleRingBuffer(100);
+        ring.append(0, "a".repeat(50) + "end");
+        List<String> read = new ArrayList<>();
+        ring.read(0, Long.MAX_VALUE, (kind, text) -> read.add(text));
+        assertEquals(1, read.size());
+        assertEquals(100 / 4 - RECORD_HEADER, read.get(0).length());
+        assertTrue(read.get(0).endsWith("end"));
+    }
+
+    @Test
+    void readsInBatchesFromAPosition() {
+        ConsoleRingBuffer ring = new ConsoleRingBuffer(1024);
+        for (int i = 0; i < 10; i++) {
+            ring.append(0, "0123456789");
+        }
+        List<String> read = new ArrayList<>();
+        long next = ring.read(0, 30, (kind, text) -> read.add(text));
+        assertEquals(2, read.size());
+        assertEquals(2 * (RECORD_HEADER + 10), next);
+        next = ring.read(next, Long.MAX_VALUE, (kind, text) -> read.add(text));
+        assertEquals(10, read.size());
+        assertEquals(ring.getHead(), next);
+    }
+
+    @Test
+    void findsTheRecentRecords() {
+        ConsoleRingBuffer ring = new ConsoleRingBuffer(1024);
+        for (int i = 0; i < 10; i++) {
+            ring.append(0, "0123456789");
+        }
+        long recent = ring.findRecent(3 * (RECORD_HEADER + 10));
+        List<String> read = new ArrayList<>();
+        ring.read(recent, Long.MAX_VALUE, (kind, text) -> read.add(text));
+        assertEquals(3, read.size());
+    }
+}
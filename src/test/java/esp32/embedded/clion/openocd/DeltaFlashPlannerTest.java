@@ -0,0 +1,64 @@
+package esp32.embedded.clion.openocd;
+
+import static esp32.embedded.clion.openocd.DeltaFlashPlanner.SECTOR_SIZE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class DeltaFlashPlannerTest {
+
+    @Test
+    void findsNothingInIdenticalImages() {
+        byte[] image = image(4 * SECTOR_SIZE);
+        assertTrue(DeltaFlashPlanner.changedRanges(image.clone(), image).isEmpty());
+    }
+
+    @Test
+    void mergesNeighbouringChangedSectors() {
+        byte[] shadow = image(6 * SECTOR_SIZE);
+        byte[] image = shadow.clone();
+        image[SECTOR_SIZE + 10]++;
+        image[2 * SECTOR_SIZE]++;
+        image[5 * SECTOR_SIZE - 1]++;
+        List<DeltaFlashPlanner.Range> ranges = DeltaFlashPlanner.changedRanges(shadow, image);
+        assertEquals(2, ranges.size());
+        assertRange(SECTOR_SIZE, 3 * SECTOR_SIZE, ranges.get(0));
+        assertRange(4 * SECTOR_SIZE, 5 * SECTOR_SIZE, ranges.get(1));
+    }
+
+    @Test
+    void writesWhatTheShadowDoesNotCover() {
+        byte[] image = image(3 * SECTOR_SIZE);
+        byte[] shadow = new byte[SECTOR_SIZE + 100];
+        System.arraycopy(image, 0, shadow, 0, shadow.length);
+        List<DeltaFlashPlanner.Range> ranges = DeltaFlashPlanner.changedRanges(shadow, image);
+        assertEquals(1, ranges.size());
+        assertRange(SECTOR_SIZE, 3 * SECTOR_SIZE, ranges.get(0));
+    }
+
+    @Test
+    void endsTheLastRangeWithTheImage() {
+        byte[] shadow = image(2 * SECTOR_SIZE + 300);
+        byte[] image = shadow.clone();
+        image[image.length - 1]++;
+        List<DeltaFlashPlanner.Range> ranges = DeltaFlashPlanner.changedRanges(shadow, image);
+        assertEquals(1, ranges.size());
+        assertRange(2 * SECTOR_SIZE, image.length, ranges.get(0));
+        assertEquals(300, ranges.get(0).getLength());
+    }
+
+    private static void assertRange(int start, int end, DeltaFlashPlanner.Range range) {
+        assertEquals(start, range.getStart(), range::toString);
+        assertEquals(end, range.getEnd(), range::toString);
+    }
+
+    private static byte[] image(int length) {
+        byte[] image = new byte[length];
+        for (int i = 0; i < length; i++) {
+            image[i] = (byte) (i * 31 + (i >> 8));
+        }
+        return image;
+    }
+}
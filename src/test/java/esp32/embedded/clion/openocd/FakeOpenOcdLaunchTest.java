@@ -0,0 +1,155 @@
+package esp32.embedded.clion.openocd;
+
+import com.intellij.execution.configurations.ConfigurationTypeUtil;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Launches the fake OpenOCD of {@code tools/fake-openocd} with each recorded scenario and checks the download
+ * result its README lists, see "Checking status detection and launch time" there.
+ * <p>
+ * The launch latency is the time from {@link OpenOcdComponent#startOpenOcd} until the download result is known.
+ * The fake is a single-file Java program, so most of it is the start of its JVM. The scenarios themselves wait
+ * well below a second at the simulated write speed used here.
+ * <p>
+ * Excluded from {@code ./gradlew test} until it runs in CI, run it with {@code ./gradlew test -PplatformTests}.
+ */
+public class FakeOpenOcdLaunchTest extends BasePlatformTestCase {
+
+    private static final Logger LOG = Logger.getInstance(FakeOpenOcdLaunchTest.class);
+    private static final File FAKE_OPENOCD = new File("tools/fake-openocd");
+    private static final int IMAGE_SIZE = 64 * 1024;
+    private static final int KIB_PER_SECOND = 4000;
+    private static final long LAUNCH_LATENCY_LIMIT_MS = 10_000;
+    private static final long RESULT_TIMEOUT_MS = 60_000;
+
+    private File home;
+    private File elf;
+    private OpenOcdConfiguration config;
+
+    @Override
+    protected boolean shouldRunTest() {
+        // the plugin starts bin/openocd.exe on Windows, the fake only has a shell script
+        return !SystemInfo.isWindows && super.shouldRunTest();
+    }
+
+    @Override
+    protected boolean runInDispatchThread() {
+        // the download result is completed from the process output, the console is shown on the EDT meanwhile
+        return false;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        home = FileUtil.createTempDirectory("fake-openocd", null);
+        FileUtil.copyDir(FAKE_OPENOCD, home);
+        assertTrue(new File(home, OpenOcdComponent.BIN_OPENOCD).setExecutable(true));
+        VfsUtil.markDirtyAndRefresh(false, true, true, LocalFileSystem.getInstance().refreshAndFindFileByIoFile(home));
+        getProject().getService(OpenOcdSettingsState.class).openOcdHome = home.getAbsolutePath();
+
+        File build = FileUtil.createTempDirectory("fake-openocd-build", null);
+        elf = new File(build, "app.elf");
+        FileUtil.writeToFile(elf, "not an ELF, the image next to it is flashed");
+        byte[] image = new byte[IMAGE_SIZE];
+        new Random(42).nextBytes(image);
+        FileUtil.writeToFile(new File(build, "app.bin"), image);
+
+        config = new OpenOcdConfiguration(getProject(),
+                ConfigurationTypeUtil.findConfigurationType(OpenOcdConfigurationType.class)
+                        .getConfigurationFactories()[0], "fake");
+        config.setBoardConfigFile("board/fake-esp32s3.cfg");
+        config.setInterfaceConfigFile("interface/fake-usb-jtag.cfg");
+        config.setGdbPort(freePort());
+        config.setTelnetPort(freePort());
+        config.setTclPort(freePort());
+        config.setBuildAppImage(false);
+        config.setVerifyMode(OpenOcdConfiguration.VerifyMode.NONE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            if (config != null) {
+                getProject().getService(OpenOcdComponent.class).stopOpenOcd(config);
+            }
+        } catch (Throwable e) {
+            addSuppressedException(e);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    public void testEsp32DownloadsAndServesGdb() throws Exception {
+        FlashReport report = launch("esp32", "", elf);
+        assertEquals(OpenOcdComponent.Status.FLASH_SUCCESS, report.getStatus());
+        assertEquals(IMAGE_SIZE, report.getWrittenBytes());
+        assertTrue(report.getWriteKibPerSecond() > 0);
+        try (Socket ignored = new Socket(InetAddress.getLoopbackAddress(), config.getPorts().getGdbPort())) {
+            // the debugger connects
+        }
+    }
+
+    public void testEsp32ProgramFailure() throws Exception {
+        assertEquals(OpenOcdComponent.Status.FLASH_ERROR, launch("esp32", "program", elf).getStatus());
+    }
+
+    public void testEsp32InitFailure() throws Exception {
+        assertEquals(OpenOcdComponent.Status.FLASH_ERROR, launch("esp32", "init", elf).getStatus());
+    }
+
+    public void testEsp32WithoutDownloadStartsOnAdapterSpeed() throws Exception {
+        FlashReport report = launch("esp32", "", null);
+        assertEquals(OpenOcdComponent.Status.FLASH_SUCCESS, report.getStatus());
+        assertEquals(0, report.getWrittenBytes());
+    }
+
+    public void testFlakyUsbErrorsAreIgnored() throws Exception {
+        FlashReport report = launch("flaky-usb", "", elf);
+        assertEquals(OpenOcdComponent.Status.FLASH_SUCCESS, report.getStatus());
+        assertEquals(IMAGE_SIZE, report.getWrittenBytes());
+    }
+
+    public void testCommunicationFailure() throws Exception {
+        assertEquals(OpenOcdComponent.Status.FLASH_ERROR,
+                launch("communication-failure", "", elf).getStatus());
+    }
+
+    private FlashReport launch(String scenario, String fail, @Nullable File fileToLoad) throws Exception {
+        Files.writeString(new File(home, "fake-openocd.properties").toPath(),
+                "scenario=" + scenario + "\nfail=" + fail + "\nkibPerSecond=" + KIB_PER_SECOND + "\nexitDelayMs=0\n",
+                StandardCharsets.UTF_8);
+        long startNanos = System.nanoTime();
+        Future<FlashReport> result = getProject().getService(OpenOcdComponent.class).startOpenOcd(config,
+                config.getPorts(), fileToLoad, OpenOcdComponent.createOutputParser(config, fileToLoad));
+        FlashReport report = result.get(RESULT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        String name = scenario + (fail.isEmpty() ? "" : ", fail=" + fail) + (fileToLoad == null ? ", no download" : "");
+        LOG.info("Launch latency (" + name + "): " + latencyMs + " ms, " + report);
+        System.out.println("Fake OpenOCD launch latency (" + name + "): " + latencyMs + " ms");
+        assertTrue("Launch latency " + latencyMs + " ms exceeds " + LAUNCH_LATENCY_LIMIT_MS + " ms (" + name + ")",
+                latencyMs <= LAUNCH_LATENCY_LIMIT_MS);
+        return report;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package esp32.embedded.clion.openocd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class FlashOutputParserTest {
+
+    private static final List<String> PROGRAM_ESP = List.of(
+            "Info : [esp32] Target halted, PC=0x40000400, debug_reason=00000000",
+            "** Programming Started **",
+            "Info : PROF: Erased 28672 bytes in 412.5 ms",
+            "Info : PROF: Data transferred in 905.2 ms @ 30.9 KB/s",
+            "wrote 28672 bytes from file /work/build/bootloader/bootloader.bin in 1.412s (19.830 KiB/s)",
+            "** Programming Finished **",
+            "** Verify Started **",
+            "** Verified OK **",
+            "** Programming Started **",
+            "Info : PROF: Erased 3072 bytes in 50 ms",
+            "wrote 3072 bytes from file /work/build/partition_table/partition-table.bin to flash bank 0 at offset "
+            + "0x00008000 in 0.221s (13.575 KiB/s)",
+            "** Programming Finished **",
+            "** Verify Started **",
+            "Error: ** Verify Failed **");
+
+    @Test
+    void reportsEveryImage() {
+        FlashOutputParser parser = new FlashOutputParser(28672 + 3072, true);
+        PROGRAM_ESP.forEach(parser::parse);
+        FlashReport report = parser.createReport(OpenOcdComponent.Status.FLASH_SUCCESS, 2000);
+        assertEquals(2, report.getImages().size());
+        assertEquals(28672 + 3072, report.getWrittenBytes());
+
+        FlashReport.ImageResult bootloader = report.getImages().get(0);
+        assertEquals("/work/build/bootloader/bootloader.bin", bootloader.getFile());
+        assertEquals(413, bootloader.getEraseMillis());
+        assertEquals(19.83, bootloader.getKibPerSecond(), 1e-9);
+        assertEquals(Boolean.TRUE, bootloader.getVerified());
+
+        FlashReport.ImageResult partitions = report.getImages().get(1);
+        assertEquals("/work/build/partition_table/partition-table.bin", partitions.getFile());
+        assertEquals(0.221, partitions.getWriteSeconds(), 1e-9);
+        assertEquals(Boolean.FALSE, partitions.getVerified());
+    }
+
+    @Test
+    void advancesThroughThePhases() {
+        FlashOutputParser parser = new FlashOutputParser(28672, true);
+        List<String> phases = new ArrayList<>();
+        parser.setPhaseListener(phases::add);
+        assertEquals(0, parser.getFraction());
+        for (String line : PROGRAM_ESP.subList(0, 8)) {
+            parser.parse(line);
+        }
+        assertEquals(List.of("Connecting to target", "Erasing flash", "Writing flash", "Verifying flash"), phases);
+        assertEquals(1, parser.getFraction(), 1e-9);
+        assertTrue(parser.getProgressText().startsWith("Verifying flash (28 of 28 KiB, 19.8 KiB/s"),
+                parser.getProgressText());
+    }
+
+    @Test
+    void countsEraseBeforeTheWrite() {
+        FlashOutputParser parser = new FlashOutputParser(28672, false);
+        parser.parse("** Programming Started **");
+        parser.parse("Info : PROF: Erased 28672 bytes in 412.5 ms");
+        assertEquals(0.2 / 0.8, parser.getFraction(), 1e-9);
+    }
+
+    @Test
+    void reportsRamLoads() {
+        FlashOutputParser parser = new FlashOutputParser(1000, false);
+        parser.parse(FlashOutputParser.RAM_LOAD_STARTED);
+        parser.parse("downloaded 1000 bytes in 0.050s (19.531 KiB/s)");
+        FlashReport report = parser.createReport(OpenOcdComponent.Status.FLASH_SUCCESS, 100);
+        assertEquals(1, report.getImages().size());
+        FlashReport.ImageResult image = report.getImages().get(0);
+        assertEquals(FlashOutputParser.RAM_IMAGE, image.getFile());
+        assertNull(image.getVerified());
+        assertEquals(1, parser.getFraction(), 1e-9);
+    }
+
+    @Test
+    void ignoresUnrelatedOutput() {
+        FlashOutputParser parser = new FlashOutputParser(0, false);
+        parser.parse(null);
+        parser.parse("Info : Listening on port 3333 for gdb connections");
+        assertEquals(-1, parser.getFraction());
+        assertTrue(parser.createReport(OpenOcdComponent.Status.FLASH_SUCCESS, 0).getImages().isEmpty());
+    }
+}
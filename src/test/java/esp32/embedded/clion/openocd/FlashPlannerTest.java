@@ -0,0 +1,72 @@
+package esp32.embedded.clion.openocd;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class FlashPlannerTest {
+
+    private static final int SECTOR = 0x1000;
+
+    @Test
+    void keepsSegmentsInSeparateSectorsApart() {
+        List<FlashPlanner.Segment> merged = FlashPlanner.coalesce(List.of(
+                segment(0x10000, 0x100, 1),
+                segment(0x1000, 0x200, 2)), SECTOR);
+        assertEquals(2, merged.size());
+        assertEquals(0x1000, merged.get(0).getAddress());
+        assertEquals(0x10000, merged.get(1).getAddress());
+    }
+
+    @Test
+    void mergesSegmentsSharingASectorAndFillsTheGap() {
+        List<FlashPlanner.Segment> merged = FlashPlanner.coalesce(List.of(
+                segment(0x8000, 0x10, 1),
+                segment(0x8100, 0x10, 2)), SECTOR);
+        assertEquals(1, merged.size());
+        FlashPlanner.Segment segment = merged.get(0);
+        assertEquals(0x8000, segment.getAddress());
+        assertEquals(0x8110, segment.getEnd());
+        byte[] expected = new byte[0x110];
+        Arrays.fill(expected, (byte) 0xFF);
+        Arrays.fill(expected, 0, 0x10, (byte) 1);
+        Arrays.fill(expected, 0x100, 0x110, (byte) 2);
+        assertArrayEquals(expected, segment.getData());
+    }
+
+    @Test
+    void mergesSegmentsTouchingAtASectorBoundary() {
+        List<FlashPlanner.Segment> merged = FlashPlanner.coalesce(List.of(
+                segment(0x1000, 0x800, 1),
+                segment(0x2000, 0x800, 2),
+                segment(0x4000, 0x10, 3)), SECTOR);
+        assertEquals(2, merged.size());
+        assertEquals(0x1000, merged.get(0).getAddress());
+        assertEquals(0x2800, merged.get(0).getEnd());
+        assertEquals((byte) 0xFF, merged.get(0).getData()[0x800]);
+        assertEquals(0x4000, merged.get(1).getAddress());
+    }
+
+    @Test
+    void letsTheLaterSegmentWinWhereTheyOverlap() {
+        List<FlashPlanner.Segment> merged = FlashPlanner.coalesce(List.of(
+                segment(0x0, 0x400, 1),
+                segment(0x100, 0x100, 2)), SECTOR);
+        assertEquals(1, merged.size());
+        byte[] data = merged.get(0).getData();
+        assertEquals(0x400, data.length);
+        assertEquals(1, data[0xFF]);
+        assertEquals(2, data[0x100]);
+        assertEquals(2, data[0x1FF]);
+        assertEquals(1, data[0x200]);
+    }
+
+    private static FlashPlanner.Segment segment(long address, int length, int value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return new FlashPlanner.Segment(address, data);
+    }
+}
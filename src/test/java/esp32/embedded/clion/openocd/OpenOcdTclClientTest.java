@@ -0,0 +1,122 @@
+package esp32.embedded.clion.openocd;
+
+import static esp32.embedded.clion.openocd.OpenOcdTclClient.COMMAND_TOKEN;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class OpenOcdTclClientTest {
+
+    private static final long TIMEOUT_S = 10;
+
+    private ServerSocket server;
+    private Socket openOcd;
+    private OpenOcdTclClient client;
+
+    @BeforeEach
+    void connect() throws Exception {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        CompletableFuture<OpenOcdTclClient> connected = OpenOcdTclClient.connect(server.getLocalPort());
+        openOcd = server.accept();
+        client = connected.get(TIMEOUT_S, TimeUnit.SECONDS);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        client.close();
+        openOcd.close();
+        server.close();
+    }
+
+    @Test
+    void pipelinesCommandsAndMatchesRepliesInOrder() throws Exception {
+        CompletableFuture<String> first = client.execute("version");
+        CompletableFuture<String> second = client.execute("echo ä");
+        CompletableFuture<String> third = client.execute("targets");
+        assertEquals(List.of("version", "echo ä", "targets"), readCommands(3));
+
+        // the second reply is split inside its multi-byte character
+        byte[] replies = ("Open On-Chip Debugger 0.12" + COMMAND_TOKEN + "ä" + COMMAND_TOKEN + COMMAND_TOKEN)
+                .getBytes(StandardCharsets.UTF_8);
+        int split = "Open On-Chip Debugger 0.12".length() + 2;
+        send(replies, 0, split);
+        Thread.sleep(50);
+        send(replies, split, replies.length - split);
+
+        assertEquals("Open On-Chip Debugger 0.12", first.get(TIMEOUT_S, TimeUnit.SECONDS));
+        assertEquals("ä", second.get(TIMEOUT_S, TimeUnit.SECONDS));
+        assertEquals("", third.get(TIMEOUT_S, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void dropsTheReplyOfAnAbandonedCommand() throws Exception {
+        CompletableFuture<String> abandoned = client.execute("sleep 1000");
+        CompletableFuture<String> next = client.execute("halt");
+        readCommands(2);
+        abandoned.cancel(false);
+        send(("late" + COMMAND_TOKEN + "halted" + COMMAND_TOKEN).getBytes(StandardCharsets.UTF_8));
+        assertEquals("halted", next.get(TIMEOUT_S, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void failsPendingCommandsWhenOpenOcdCloses() throws Exception {
+        CompletableFuture<String> pending = client.execute("shutdown");
+        readCommands(1);
+        openOcd.close();
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> pending.get(TIMEOUT_S, TimeUnit.SECONDS));
+        assertInstanceOf(EOFException.class, error.getCause());
+        assertFalse(client.isOpen());
+        ExecutionException closed = assertThrows(ExecutionException.class,
+                () -> client.execute("version").get(TIMEOUT_S, TimeUnit.SECONDS));
+        assertInstanceOf(EOFException.class, closed.getCause());
+    }
+
+    private List<String> readCommands(int count) throws IOException {
+        InputStream input = openOcd.getInputStream();
+        List<String> commands = new ArrayList<>();
+        ByteArrayOutputStream command = new ByteArrayOutputStream();
+        while (commands.size() < count) {
+            int b = input.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            if (b == COMMAND_TOKEN) {
+                commands.add(command.toString(StandardCharsets.UTF_8));
+                command.reset();
+            } else {
+                command.write(b);
+            }
+        }
+        return commands;
+    }
+
+    private void send(byte[] data) throws IOException {
+        send(data, 0, data.length);
+    }
+
+    private void send(byte[] data, int offset, int length) throws IOException {
+        OutputStream output = openOcd.getOutputStream();
+        output.write(data, offset, length);
+        output.flush();
+    }
+}
@@ -0,0 +1,30 @@
+package esp32.embedded.clion.openocd;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class OpenOcdTclServiceTest {
+
+    private static final String READ = "read_memory 0x3fc88000 32 2";
+
+    @Test
+    void parsesTheWordsOfAMemoryRead() {
+        assertArrayEquals(new long[]{0x12345678L, 0xFFFFFFFFL},
+                OpenOcdTclService.parseWords(READ, " 0x12345678 0xffffffff\n", 2));
+    }
+
+    @Test
+    void rejectsRepliesWhichAreNoMemoryRead() {
+        assertThrows(OpenOcdTclService.TclCommandException.class, () -> OpenOcdTclService.parseWords(READ, "", 2));
+        assertThrows(OpenOcdTclService.TclCommandException.class,
+                () -> OpenOcdTclService.parseWords(READ, "0x1", 2));
+        assertThrows(OpenOcdTclService.TclCommandException.class,
+                () -> OpenOcdTclService.parseWords(READ, "0x1 0x2 0x3", 2));
+        assertThrows(OpenOcdTclService.TclCommandException.class,
+                () -> OpenOcdTclService.parseWords(READ, "Error: target not halted", 2));
+        assertThrows(OpenOcdTclService.TclCommandException.class,
+                () -> OpenOcdTclService.parseWords(READ, "0x1 0x100000000", 2));
+    }
+}
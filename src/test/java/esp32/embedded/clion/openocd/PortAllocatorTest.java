@@ -0,0 +1,73 @@
+package esp32.embedded.clion.openocd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.intellij.openapi.options.ConfigurationException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class PortAllocatorTest {
+
+    @Test
+    void reportsPortsOpenOcdCannotBind() throws Exception {
+        try (ServerSocket listener = new ServerSocket()) {
+            listener.bind(new InetSocketAddress(InetAddress.getByName(PortAllocator.OPENOCD_ADDRESS), 0));
+            int port = listener.getLocalPort();
+            assertFalse(PortAllocator.isFree(port));
+            listener.close();
+            assertTrue(PortAllocator.isFree(port));
+        }
+    }
+
+    @Test
+    void skipsBusyPortsAndThoseReservedForOthers() throws Exception {
+        int first = freeRange(48000, 8);
+        try (ServerSocket busy = new ServerSocket()) {
+            busy.bind(new InetSocketAddress(InetAddress.getByName(PortAllocator.OPENOCD_ADDRESS), first + 1));
+            PortAllocator.Ports a = PortAllocator.allocate("adapter-a", first, first + 7);
+            PortAllocator.Ports b = PortAllocator.allocate("adapter-b", first, first + 7);
+            Set<Integer> used = new HashSet<>();
+            for (PortAllocator.Ports ports : new PortAllocator.Ports[]{a, b}) {
+                for (int port : new int[]{ports.getGdbPort(), ports.getTelnetPort(), ports.getTclPort()}) {
+                    assertTrue(port >= first && port <= first + 7, ports::toString);
+                    assertTrue(port != first + 1, ports::toString);
+                    assertTrue(used.add(port), () -> a + " / " + b);
+                }
+            }
+        }
+    }
+
+    @Test
+    void replacesTheReservationOfTheSameOwner() throws Exception {
+        int first = freeRange(49000, 3);
+        PortAllocator.Ports ports = PortAllocator.allocate("adapter-c", first, first + 2);
+        assertEquals(first, Math.min(ports.getGdbPort(), Math.min(ports.getTelnetPort(), ports.getTclPort())));
+        // the owner's old ports are free again, nobody else holds any in this range
+        PortAllocator.allocate("adapter-c", first, first + 2);
+        assertThrows(ConfigurationException.class, () -> PortAllocator.allocate("adapter-d", first, first + 2));
+    }
+
+    /**
+     * @return the first of {@code size} consecutive ports which are free now; every test searches from its own
+     * start, as reservations are kept for the whole run
+     */
+    private static int freeRange(int start, int size) {
+        for (int first = start; first < start + 1000; first += size) {
+            boolean free = true;
+            for (int port = first; port < first + size && free; port++) {
+                free = PortAllocator.isFree(port);
+            }
+            if (free) {
+                return first;
+            }
+        }
+        throw new IllegalStateException("No " + size + " free ports");
+    }
+}
@@ -0,0 +1,103 @@
+package esp32.embedded.clion.openocd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RamLoaderTest {
+
+    private static final int ESP32 = 0;
+    private static final int ESP32_S2 = 2;
+    private static final int ESP32_C3 = 5;
+    private static final long ENTRY = 0x40080400L;
+
+    @TempDir
+    Path buildDir;
+
+    @Test
+    void loadsRamSegments() throws IOException {
+        RamLoader.RamImage image = RamLoader.read(elf(0x3FFB0000L, 0x40080000L), ranges(ESP32));
+        assertEquals(ENTRY, image.getEntry());
+        assertEquals(2 * 0x100, image.getLoadBytes());
+    }
+
+    @Test
+    void rejectsEsp32FlashSegments() throws IOException {
+        assertThrows(IOException.class, () -> RamLoader.read(elf(0x3FFB0000L, 0x400D0020L), ranges(ESP32)));
+        assertThrows(IOException.class, () -> RamLoader.read(elf(0x3F400020L), ranges(ESP32)));
+    }
+
+    @Test
+    void rejectsEsp32S2FlashSegments() throws IOException {
+        assertThrows(IOException.class, () -> RamLoader.read(elf(0x40090000L), ranges(ESP32_S2)));
+        assertThrows(IOException.class, () -> RamLoader.read(elf(0x3F000020L), ranges(ESP32_S2)));
+    }
+
+    @Test
+    void acceptsEsp32RamThatIsFlashOnTheEsp32S2() throws IOException {
+        assertEquals(0x100, RamLoader.read(elf(0x40090000L), ranges(ESP32)).getLoadBytes());
+    }
+
+    @Test
+    void rejectsEsp32C3FlashSegments() throws IOException {
+        assertThrows(IOException.class, () -> RamLoader.read(elf(0x42000020L), ranges(ESP32_C3)));
+        assertEquals(0x100, RamLoader.read(elf(0x40380000L), ranges(ESP32_C3)).getLoadBytes());
+    }
+
+    @Test
+    void takesTheChipFromTheImageOfTheBuild() throws IOException {
+        File elf = elf(0x40090000L);
+        writeBuildImage(elf, ESP32_S2);
+        assertThrows(IOException.class, () -> RamLoader.read(elf));
+        writeBuildImage(elf, ESP32);
+        assertEquals(0x100, RamLoader.read(elf).getLoadBytes());
+    }
+
+    @Test
+    void loadsWithoutCheckIfTheChipIsUnknown() throws IOException {
+        assertEquals(0x100, RamLoader.read(elf(0x400D0020L)).getLoadBytes());
+    }
+
+    private static long[][] ranges(int chipId) {
+        return AppImageBuilder.getFlashRanges(chipId);
+    }
+
+    /**
+     * @return an ELF with a loadable segment of 256 bytes at each address and an empty one that is skipped
+     */
+    private File elf(long... addresses) throws IOException {
+        int programCount = addresses.length + 1;
+        int dataOffset = 52 + programCount * 32;
+        ByteBuffer elf = ByteBuffer.allocate(dataOffset + addresses.length * 0x100).order(ByteOrder.LITTLE_ENDIAN);
+        elf.putInt(0, 0x464C457F).put(4, (byte) 1).put(5, (byte) 1).put(6, (byte) 1);
+        elf.putShort(16, (short) 2).putShort(18, (short) 94).putInt(20, 1).putInt(24, (int) ENTRY);
+        elf.putInt(28, 52).putShort(40, (short) 52).putShort(42, (short) 32).putShort(44, (short) programCount);
+        for (int i = 0; i < addresses.length; i++) {
+            putProgram(elf, 52 + i * 32, dataOffset + i * 0x100, addresses[i], 0x100);
+        }
+        // .bss like segment without file content
+        putProgram(elf, 52 + addresses.length * 32, dataOffset, 0x400C0000L, 0);
+        File file = buildDir.resolve("app.elf").toFile();
+        Files.write(file.toPath(), elf.array());
+        return file;
+    }
+
+    private static void putProgram(ByteBuffer elf, int offset, int dataOffset, long address, int size) {
+        elf.putInt(offset, 1).putInt(offset + 4, dataOffset).putInt(offset + 8, (int) address)
+                .putInt(offset + 12, (int) address).putInt(offset + 16, size).putInt(offset + 20, size);
+    }
+
+    private static void writeBuildImage(File elf, int chipId) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(0, (byte) 0xE9).putShort(12, (short) chipId);
+        Files.write(FlashImage.getBuildImage(elf).toPath(), header.array());
+    }
+}
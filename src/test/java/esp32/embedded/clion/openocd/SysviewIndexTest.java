@@ -0,0 +1,190 @@
+package esp32.embedded.clion.openocd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SysviewIndexTest {
+
+    private static final int TASK_MAIN = 0x3FFB1000;
+    private static final int TASK_OTHER = 0x3FFB2000;
+    private static final int WIFI = -(16 + 5);
+    private static final long FREQUENCY = 1_000_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsNamesFrequencyAndEndTime() throws IOException {
+        try (SysviewIndex index = SysviewIndex.open(write(shortCapture()), new EmptyProgressIndicator())) {
+            assertEquals(FREQUENCY, index.getFrequency());
+            assertEquals(500, index.getEndTime());
+            assertEquals(0, index.getOverflows());
+            assertEquals(List.of(WIFI, TASK_MAIN, SysviewIndex.IDLE, SysviewIndex.SCHEDULER),
+                    List.copyOf(index.getContexts().keySet()));
+            assertEquals(List.of("WIFI", "main", "Idle", "Scheduler"), List.copyOf(index.getContexts().values()));
+        }
+    }
+
+    @Test
+    void decodesEverySwitchWhenZoomedIn() throws IOException {
+        try (SysviewIndex index = SysviewIndex.open(write(shortCapture()), new EmptyProgressIndicator())) {
+            assertEquals(List.of(
+                    new Segment(TASK_MAIN, 0, 100),
+                    new Segment(WIFI, 100, 110),
+                    new Segment(TASK_MAIN, 110, 200),
+                    new Segment(SysviewIndex.SCHEDULER, 200, 250),
+                    new Segment(SysviewIndex.IDLE, 250, 500)), segments(index, 0, 500, 1000));
+            assertEquals(List.of(
+                    new Segment(WIFI, 105, 110),
+                    new Segment(TASK_MAIN, 110, 150)), segments(index, 105, 150, 100));
+        }
+    }
+
+    @Test
+    void passesOneSegmentPerColumnWhenZoomedOut() throws IOException {
+        Capture capture = new Capture();
+        int events = 100_000;
+        for (int i = 0; i < events; i++) {
+            capture.event(4, i % 2 == 0 ? TASK_MAIN : TASK_OTHER).delta(10);
+        }
+        try (SysviewIndex index = SysviewIndex.open(write(capture), new EmptyProgressIndicator())) {
+            long end = index.getEndTime();
+            assertEquals(10L * events, end);
+            int columns = 20;
+            List<Segment> segments = segments(index, 0, end, columns);
+            assertTrue(segments.size() <= columns + 1, segments.size() + " segments for " + columns + " columns");
+            assertTrue(segments.stream().allMatch(s -> s.context == TASK_MAIN || s.context == TASK_OTHER));
+        }
+    }
+
+    @Test
+    void rebuildsTheIndexOfAChangedCapture() throws IOException {
+        File file = write(shortCapture());
+        try (SysviewIndex index = SysviewIndex.open(file, new EmptyProgressIndicator())) {
+            assertEquals(500, index.getEndTime());
+        }
+        Capture longer = shortCapture();
+        longer.event(5).delta(300);
+        Files.write(file.toPath(), longer.toByteArray());
+        assertTrue(file.setLastModified(file.lastModified() + 2000));
+        try (SysviewIndex index = SysviewIndex.open(file, new EmptyProgressIndicator())) {
+            assertEquals(800, index.getEndTime());
+            assertEquals(new Segment(TASK_MAIN, 500, 800), segments(index, 500, 800, 300).get(0));
+        }
+    }
+
+    /**
+     * main runs, is interrupted by WIFI, stops, the scheduler switches to idle and main starts again at 500.
+     */
+    private static Capture shortCapture() {
+        return new Capture()
+                .header(";Version SEGGER SystemViewer V2.42\n;TargetEndian Little\n")
+                .sized(24, FREQUENCY).delta(0)
+                .event(14).text("N=ESP32,I#5=WIFI").delta(0)
+                .event(9, TASK_MAIN, 5).text("main").delta(0)
+                .event(4, TASK_MAIN).delta(0)
+                .event(2, 5).delta(100)
+                .event(3).delta(10)
+                .event(5).delta(90)
+                .event(17).delta(50)
+                .event(4, TASK_MAIN).delta(250);
+    }
+
+    /**
+     * The segments with adjacent ones of the same context joined, checking that they cover the view without gaps.
+     */
+    private static List<Segment> segments(SysviewIndex index, long from, long to, int columns) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        index.segments(from, to, columns, (context, start, end) -> {
+            assertTrue(start < end, start + " - " + end);
+            Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            assertEquals(last == null ? from : last.end, start);
+            if (last != null && last.context == context) {
+                segments.set(segments.size() - 1, new Segment(context, last.start, end));
+            } else {
+                segments.add(new Segment(context, start, end));
+            }
+        });
+        return segments;
+    }
+
+    private File write(Capture capture) throws IOException {
+        File file = dir.resolve("trace.svdat").toFile();
+        Files.write(file.toPath(), capture.toByteArray());
+        return file;
+    }
+
+    private record Segment(int context, long start, long end) {
+    }
+
+    /**
+     * Writes SystemView events: the id, the parameters and the time since the previous event, all as varints.
+     */
+    private static final class Capture {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Capture header(String text) {
+            out.writeBytes(text.getBytes(StandardCharsets.US_ASCII));
+            return this;
+        }
+
+        Capture event(int id, long... params) {
+            varint(id);
+            for (long param : params) {
+                varint(param);
+            }
+            return this;
+        }
+
+        Capture sized(int id, long... params) {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            for (long param : params) {
+                varint(payload, param);
+            }
+            varint(id);
+            varint(payload.size());
+            out.writeBytes(payload.toByteArray());
+            return this;
+        }
+
+        Capture text(String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+            out.write(bytes.length);
+            out.writeBytes(bytes);
+            return this;
+        }
+
+        Capture delta(long ticks) {
+            varint(ticks);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        private void varint(long value) {
+            varint(out, value);
+        }
+
+        private static void varint(ByteArrayOutputStream out, long value) {
+            while (value >= 0x80) {
+                out.write((int) (value & 0x7F | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+    }
+}
@@ -0,0 +1,412 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stand-in for the OpenOCD binary, to run the plugin without hardware.
+ * <p>
+ * It understands the command line the plugin builds, replays recorded OpenOCD output from a scenario file with
+ * its original timing and serves a minimal GDB remote serial protocol endpoint on the gdb port, so CLion can
+ * connect, halt, continue and reset. See README.md next to this file.
+ * <p>
+ * Run it with {@code java FakeOpenOcd.java <openocd arguments>}, the {@code bin/openocd} script does that.
+ */
+public class FakeOpenOcd {
+
+    private static final Pattern STEP = Pattern.compile("^(\\d+)\\s(.*)$");
+    private static final Pattern PROGRAM = Pattern.compile(
+            "^(program_esp32|program_esp|program)\\s+(\\S+)(?:\\s+(0x[0-9a-fA-F]+|\\d+))?");
+    private static final Pattern WRITE_IMAGE = Pattern.compile(
+            "flash write_image(?: erase)?\\s+(\\S+)(?:\\s+(0x[0-9a-fA-F]+|\\d+))?");
+    private static final Pattern ECHO = Pattern.compile("^echo\\s+\"?(.*?)\"?$");
+    private static final char TCL_TERMINATOR = 0x1a;
+
+    private final Map<String, List<String>> sections;
+    private final Properties settings;
+    private final File workDir;
+    private int gdbPort = 3333;
+    private String tclPort = "6666";
+
+    private FakeOpenOcd(Map<String, List<String>> sections, Properties settings, File workDir) {
+        this.sections = sections;
+        this.settings = settings;
+        this.workDir = workDir;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path home = Path.of(System.getProperty("fake.openocd.home", ".")).toAbsolutePath().normalize();
+        Properties settings = new Properties();
+        Path settingsFile = home.resolve("fake-openocd.properties");
+        if (Files.isRegularFile(settingsFile)) {
+            try (InputStream input = Files.newInputStream(settingsFile)) {
+                settings.load(input);
+            }
+        }
+        for (String key : List.of("scenario", "fail", "kibPerSecond", "exitDelayMs")) {
+            String value = System.getenv("FAKE_OPENOCD_" + key.toUpperCase(Locale.ROOT));
+            if (value != null) {
+                settings.setProperty(key, value);
+            }
+        }
+        String scenario = settings.getProperty("scenario", "esp32");
+        Path scenarioFile = home.resolve("scenarios").resolve(scenario + ".txt");
+        FakeOpenOcd openOcd = new FakeOpenOcd(readSections(scenarioFile), settings, new File("").getAbsoluteFile());
+        System.exit(openOcd.run(args));
+    }
+
+    /**
+     * Splits a scenario into its {@code [section]}s. Every line of a section is a delay in milliseconds
+     * followed by the text to print.
+     */
+    private static Map<String, List<String>> readSections(Path file) throws IOException {
+        Map<String, List<String>> sections = new LinkedHashMap<>();
+        List<String> current = null;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.startsWith("#") || line.isBlank()) {
+                continue;
+            }
+            if (line.startsWith("[") && line.endsWith("]")) {
+                current = new ArrayList<>();
+                sections.put(line.substring(1, line.length() - 1), current);
+            } else if (current != null) {
+                current.add(line);
+            }
+        }
+        return sections;
+    }
+
+    private int run(String[] args) throws Exception {
+        List<String> commands = new ArrayList<>();
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("-c")) {
+                commands.add(args[++i]);
+            } else if (args[i].equals("-f") || args[i].equals("-s")) {
+                i++;
+            }
+        }
+        for (String command : commands) {
+            for (String part : splitCommands(command)) {
+                if (part.startsWith("gdb_port ")) {
+                    gdbPort = Integer.parseInt(part.substring("gdb_port ".length()).trim());
+                } else if (part.startsWith("tcl_port ")) {
+                    tclPort = part.substring("tcl_port ".length()).trim();
+                }
+            }
+        }
+
+        String fail = settings.getProperty("fail", "");
+        replay("startup", Map.of());
+        if (fail.equals("init")) {
+            replay("init_failed", Map.of());
+            return 1;
+        }
+        ServerSocket gdbServer = new ServerSocket(gdbPort, 1, InetAddress.getLoopbackAddress());
+        replay("listening", Map.of("gdb_port", String.valueOf(gdbPort), "tcl_port", tclPort));
+        if (!tclPort.equals("disabled")) {
+            ServerSocket tclServer = new ServerSocket(Integer.parseInt(tclPort), 1, InetAddress.getLoopbackAddress());
+            startDaemon(() -> serveTcl(tclServer));
+        }
+
+        for (String command : commands) {
+            Integer exitCode = execute(command, fail);
+            if (exitCode != null) {
+                Thread.sleep(Long.parseLong(settings.getProperty("exitDelayMs", "0")));
+                return exitCode;
+            }
+        }
+        serveGdb(gdbServer);
+        return 0;
+    }
+
+    /**
+     * @return the exit code if OpenOCD terminates after the command, {@code null} to continue
+     */
+    private Integer execute(String command, String fail) throws InterruptedException {
+        for (String part : splitCommands(command)) {
+            Matcher matcher;
+            if ((matcher = PROGRAM.matcher(part)).find() || (matcher = WRITE_IMAGE.matcher(part)).find()) {
+                boolean programCommand = matcher.group(1).startsWith("program");
+                boolean verify = programCommand && part.matches(".*\\sverify(\\s.*)?");
+                if (!program(programCommand ? matcher.group(2) : matcher.group(1), verify, fail)) {
+                    return 1;
+                }
+            } else if ((matcher = ECHO.matcher(part)).find()) {
+                print(matcher.group(1));
+            } else if (part.equals("shutdown")) {
+                replay("shutdown", Map.of());
+                return 0;
+            } else if (part.startsWith("reset")) {
+                replay("reset", Map.of());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits {@code -c} arguments and {@code if {[catch {...}]}} blocks into single commands.
+     */
+    private static List<String> splitCommands(String command) {
+        List<String> parts = new ArrayList<>();
+        for (String part : command.replace("{", ";").replace("}", ";").replace("[", ";").split(";")) {
+            if (!part.isBlank()) {
+                parts.add(part.trim());
+            }
+        }
+        return parts;
+    }
+
+    private boolean program(String path, boolean verify, String fail) throws InterruptedException {
+        File file = new File(path);
+        if (!file.isAbsolute()) {
+            file = new File(workDir, path);
+        }
+        long bytes = file.isFile() ? file.length() : 256 * 1024;
+        double kibPerSecond = Double.parseDouble(settings.getProperty("kibPerSecond", "40"));
+        long writeMs = Math.round(bytes / 1024.0 / kibPerSecond * 1000);
+        Map<String, String> values = new HashMap<>();
+        values.put("file", path);
+        values.put("bytes", String.valueOf(bytes));
+        values.put("write_ms", String.valueOf(writeMs));
+        values.put("erase_ms", String.valueOf(writeMs / 4));
+        values.put("seconds", String.format(Locale.ROOT, "%.6f", writeMs / 1000.0));
+        values.put("kib", String.format(Locale.ROOT, "%.3f", kibPerSecond));
+        if (fail.equals("program")) {
+            replay("program_failed", values);
+            return false;
+        }
+        replay("program", values);
+        if (verify) {
+            replay("verify", values);
+        }
+        return true;
+    }
+
+    /**
+     * Prints a section with its delays. {@code ${name}} is replaced by the value of that name, a delay may be a
+     * value as well.
+     */
+    private void replay(String section, Map<String, String> values) throws InterruptedException {
+        for (String step : sections.getOrDefault(section, List.of())) {
+            String text = step;
+            for (Map.Entry<String, String> value : values.entrySet()) {
+                text = text.replace("${" + value.getKey() + "}", value.getValue());
+            }
+            Matcher matcher = STEP.matcher(text);
+            if (matcher.matches()) {
+                Thread.sleep(Long.parseLong(matcher.group(1)));
+                print(matcher.group(2));
+            } else {
+                print(text);
+            }
+        }
+    }
+
+    private static synchronized void print(String text) {
+        System.out.println(text);
+        System.out.flush();
+    }
+
+    private static void startDaemon(Runnable runnable) {
+        Thread thread = new Thread(runnable, "fake-openocd");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Answers TCL RPC commands with an empty result. Program commands are replayed on the console like OpenOCD
+     * prints them.
+     */
+    private void serveTcl(ServerSocket server) {
+        while (true) {
+            try (Socket socket = server.accept()) {
+                InputStream input = socket.getInputStream();
+                OutputStream output = socket.getOutputStream();
+                ByteArrayOutputStream command = new ByteArrayOutputStream();
+                int read;
+                while ((read = input.read()) >= 0) {
+                    if (read != TCL_TERMINATOR) {
+                        command.write(read);
+                        continue;
+                    }
+                    String text = command.toString(StandardCharsets.UTF_8);
+                    command.reset();
+                    execute(text, settings.getProperty("fail", ""));
+                    output.write(TCL_TERMINATOR);
+                    output.flush();
+                }
+            } catch (Exception e) {
+                print("Warn : TCL connection closed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serveGdb(ServerSocket server) throws IOException {
+        while (true) {
+            try (Socket socket = server.accept()) {
+                replay("gdb_attached", Map.of("gdb_port", String.valueOf(gdbPort)));
+                new GdbConnection(socket).serve();
+                replay("gdb_detached", Map.of("gdb_port", String.valueOf(gdbPort)));
+            } catch (Exception e) {
+                print("Warn : GDB connection closed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Minimal GDB remote serial protocol target: one halted thread whose registers and memory read as zero.
+     */
+    private final class GdbConnection {
+        private static final int REGISTER_BYTES = 4 * 128;
+        private final InputStream input;
+        private final OutputStream output;
+        private boolean ack = true;
+        private boolean running;
+
+        private GdbConnection(Socket socket) throws IOException {
+            this.input = socket.getInputStream();
+            this.output = socket.getOutputStream();
+        }
+
+        private void serve() throws IOException {
+            while (true) {
+                int c = input.read();
+                if (c < 0) {
+                    return;
+                }
+                if (c == 0x03) {
+                    if (running) {
+                        running = false;
+                        send("T02thread:1;");
+                    }
+                } else if (c == '$') {
+                    String packet = readPacket();
+                    if (ack) {
+                        output.write('+');
+                    }
+                    String reply = answer(packet);
+                    if (reply == null) {
+                        return;
+                    }
+                    // A continued target only answers once it stops again
+                    if (!running) {
+                        send(reply);
+                    }
+                }
+            }
+        }
+
+        private String readPacket() throws IOException {
+            StringBuilder packet = new StringBuilder();
+            int c;
+            while ((c = input.read()) >= 0 && c != '#') {
+                packet.append((char) c);
+            }
+            input.read();
+            input.read();
+            return packet.toString();
+        }
+
+        /**
+         * @return the reply, {@code null} to close the connection
+         */
+        private String answer(String packet) throws IOException {
+            if (packet.startsWith("qSupported")) {
+                return "PacketSize=4000;QStartNoAckMode+;vContSupported+";
+            } else if (packet.equals("QStartNoAckMode")) {
+                send("OK");
+                ack = false;
+                return "";
+            } else if (packet.equals("?")) {
+                return "T05thread:1;";
+            } else if (packet.equals("g")) {
+                return "0".repeat(REGISTER_BYTES * 2);
+            } else if (packet.startsWith("p")) {
+                return "00000000";
+            } else if (packet.startsWith("m")) {
+                String[] range = packet.substring(1).split(",");
+                return "00".repeat(Math.min(Integer.parseInt(range[1], 16), 0x800));
+            } else if (packet.startsWith("qRcmd,")) {
+                String command = hexDecode(packet.substring("qRcmd,".length()));
+                try {
+                    execute(command, "");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return "E01";
+                }
+                send("O" + hexEncode("\n"));
+                return "OK";
+            } else if (packet.equals("qAttached")) {
+                return "1";
+            } else if (packet.equals("qC")) {
+                return "QC1";
+            } else if (packet.equals("qfThreadInfo")) {
+                return "m1";
+            } else if (packet.equals("qsThreadInfo")) {
+                return "l";
+            } else if (packet.equals("vCont?")) {
+                return "vCont;c;C;s;S;t";
+            } else if (packet.equals("c") || packet.startsWith("vCont;c") || packet.startsWith("vCont;C")) {
+                running = true;
+                return "";
+            } else if (packet.equals("s") || packet.startsWith("vCont;s")) {
+                return "T05thread:1;";
+            } else if (packet.startsWith("vCont;t")) {
+                running = false;
+                return "T00thread:1;";
+            } else if (packet.startsWith("H") || packet.startsWith("Z") || packet.startsWith("z")
+                       || packet.startsWith("M") || packet.startsWith("P") || packet.startsWith("X")
+                       || packet.startsWith("T")) {
+                return "OK";
+            } else if (packet.startsWith("D")) {
+                send("OK");
+                return null;
+            } else if (packet.equals("k")) {
+                return null;
+            }
+            return "";
+        }
+
+        private void send(String payload) throws IOException {
+            int checksum = 0;
+            for (char c : payload.toCharArray()) {
+                checksum += c;
+            }
+            String packet = "$" + payload + "#" + String.format("%02x", checksum & 0xFF);
+            output.write(packet.getBytes(StandardCharsets.US_ASCII));
+            output.flush();
+        }
+
+        private String hexDecode(String hex) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i + 1 < hex.length(); i += 2) {
+                text.append((char) Integer.parseInt(hex.substring(i, i + 2), 16));
+            }
+            return text.toString();
+        }
+
+        private String hexEncode(String text) {
+            StringBuilder hex = new StringBuilder();
+            for (char c : text.toCharArray()) {
+                hex.append(String.format("%02x", (int) c));
+            }
+            return hex.toString();
+        }
+    }
+}